@@ -1,27 +1,48 @@
 package eu.europeana.metis.dataset.sizes.updater;
 
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
 import dev.morphia.query.Query;
-import dev.morphia.query.filters.Filters;
-import eu.europeana.corelib.solr.bean.impl.FullBeanImpl;
-import eu.europeana.metis.core.dao.PluginWithExecutionId;
-import eu.europeana.metis.core.dao.WorkflowExecutionDao;
 import eu.europeana.metis.core.dataset.Dataset;
 import eu.europeana.metis.core.mongo.MorphiaDatastoreProviderImpl;
 import eu.europeana.metis.core.workflow.WorkflowExecution;
-import eu.europeana.metis.core.workflow.plugins.AbstractExecutablePlugin;
-import eu.europeana.metis.core.workflow.plugins.AbstractMetisPlugin;
-import eu.europeana.metis.core.workflow.plugins.ExecutablePlugin;
 import eu.europeana.metis.core.workflow.plugins.ExecutablePluginType;
+import eu.europeana.metis.core.workflow.plugins.PluginStatus;
+import eu.europeana.metis.dataset.sizes.updater.RecordCounter.CountStrategy;
 import eu.europeana.metis.mongo.dao.RecordDao;
 import eu.europeana.metis.mongo.utils.MorphiaUtils;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.function.Function;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -31,22 +52,38 @@ import org.springframework.stereotype.Component;
 public class ApplicationRunner {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(ApplicationRunner.class);
-  private static final String ABOUT_FIELD = "about";
+  private static final Set<ExecutablePluginType> INDEX_PLUGIN_TYPES = EnumSet
+      .of(ExecutablePluginType.PREVIEW, ExecutablePluginType.PUBLISH);
+  private static final String ID_FIELD = "_id";
+  private static final String DATASET_ID_FIELD = "datasetId";
+  private static final String METIS_PLUGINS_FIELD = "metisPlugins";
+  private static final String PLUGIN_ID_FIELD = "id";
+  private static final String PLUGIN_TYPE_FIELD = "pluginType";
+  private static final String PLUGIN_STATUS_FIELD = "pluginStatus";
+  private static final String FINISHED_DATE_FIELD = "finishedDate";
+  private static final String TOTAL_RECORDS_FIELD = "executionProgress.totalDatabaseRecords";
+  /** The output field of the group stage: these can't contain dots. */
+  private static final String TOTAL_RECORDS_ALIAS = "totalDatabaseRecords";
+  private static final String EXECUTION_ID_FIELD = "executionId";
+  private static final String PLUGIN_IDENTIFIER = "plugin";
   @Value("${dry.run:true}")
   private boolean dryRun;
+  @Value("${dry.run.output.file:planned_updates.csv}")
+  private String dryRunOutputFile;
+  @Value("${count.strategy:AGGREGATION}")
+  private CountStrategy countStrategy;
+  @Value("${count.parallel.threads:4}")
+  private int countParallelThreads;
 
   private final RecordDao recordPreviewDao;
   private final RecordDao recordPublishDao;
   private final MorphiaDatastoreProviderImpl morphiaDatastoreProvider;
-  private final WorkflowExecutionDao workflowExecutionDao;
 
   public ApplicationRunner(RecordDao recordPreviewDao,
-      RecordDao recordPublishDao, MorphiaDatastoreProviderImpl morphiaDatastoreProvider,
-      WorkflowExecutionDao workflowExecutionDao) {
+      RecordDao recordPublishDao, MorphiaDatastoreProviderImpl morphiaDatastoreProvider) {
     this.recordPreviewDao = recordPreviewDao;
     this.recordPublishDao = recordPublishDao;
     this.morphiaDatastoreProvider = morphiaDatastoreProvider;
-    this.workflowExecutionDao = workflowExecutionDao;
   }
 
   public void run() {
@@ -63,51 +100,119 @@ public class ApplicationRunner {
     } else {
       LOGGER.info("Dry run is DISABLED! Updates WILL be performed in the database");
     }
-    int counter = 0;
+
+    // Find the latest preview/publish plugins of all datasets and plan the updates.
+    LOGGER.info("Collecting the latest preview/publish plugins");
+    final Map<String, Map<ExecutablePluginType, LatestPlugin>> latestPlugins = getLatestPlugins(
+        getWorkflowExecutionCollection(), totalRecordsPerDatasetId.keySet());
+    final List<PlannedUpdate> plannedUpdates = new ArrayList<>();
     for (Entry<String, RecordTotals> entry : totalRecordsPerDatasetId.entrySet()) {
-      if (entry.getValue().getPreviewTotal() != 0) {
-        updateRecordTotalsForIndexPlugin(entry.getKey(), entry.getValue().getPreviewTotal(), ExecutablePluginType.PREVIEW);
-      }
-      if (entry.getValue().getPublishTotal() != 0) {
-        updateRecordTotalsForIndexPlugin(entry.getKey(), entry.getValue().getPublishTotal(), ExecutablePluginType.PUBLISH);
-      }
-      counter++;
-      if (counter % 100 == 0) {
-        LOGGER.info("Processed: {}", counter);
-      }
+      final Map<ExecutablePluginType, LatestPlugin> pluginsForDataset = latestPlugins
+          .getOrDefault(entry.getKey(), Collections.emptyMap());
+      planUpdate(entry.getKey(), entry.getValue().getPreviewTotal(),
+          pluginsForDataset.get(ExecutablePluginType.PREVIEW)).ifPresent(plannedUpdates::add);
+      planUpdate(entry.getKey(), entry.getValue().getPublishTotal(),
+          pluginsForDataset.get(ExecutablePluginType.PUBLISH)).ifPresent(plannedUpdates::add);
+    }
+    LOGGER.info("Planned {} updates for {} datasets", plannedUpdates.size(),
+        totalRecordsPerDatasetId.size());
+
+    // Perform the updates (or write them to a file).
+    if (dryRun) {
+      writeDryRunOutput(plannedUpdates);
+    } else if (!plannedUpdates.isEmpty()) {
+      final List<UpdateOneModel<Document>> updates = plannedUpdates.stream()
+          .map(ApplicationRunner::createUpdate).collect(Collectors.toList());
+      final BulkWriteResult result = getWorkflowExecutionCollection()
+          .bulkWrite(updates, new BulkWriteOptions().ordered(false));
+      LOGGER.info("Updated {} plugins", result.getModifiedCount());
     }
   }
 
-  private void updateRecordTotalsForIndexPlugin(String datasetId, Long recordsTotal, ExecutablePluginType pluginType) {
-    final PluginWithExecutionId<ExecutablePlugin> latestSuccessfulExecutablePlugin = workflowExecutionDao.getLatestSuccessfulExecutablePlugin(
-        datasetId, EnumSet.of(pluginType), false);
-    final WorkflowExecution workflowExecution = workflowExecutionDao.getByExternalTaskId(
-        Long.parseLong(latestSuccessfulExecutablePlugin.getPlugin().getExternalTaskId()));
-    final Optional<AbstractMetisPlugin> metisPluginWithType = workflowExecution
-        .getMetisPluginWithType(latestSuccessfulExecutablePlugin.getPlugin().getPluginType());
-    metisPluginWithType.ifPresent(
-        abstractMetisPlugin -> {
-          AbstractExecutablePlugin<?> executablePlugin = ((AbstractExecutablePlugin<?>) abstractMetisPlugin);
-          LOGGER.info("Before update - datasetId: {}, workflowExecution: {}, totalRecords: {}", datasetId,
-              workflowExecution.getId(), executablePlugin.getExecutionProgress().getTotalDatabaseRecords());
-          executablePlugin.getExecutionProgress().setTotalDatabaseRecords(recordsTotal.intValue());
-          LOGGER.info("After update - datasetId: {}, workflowExecution: {}, totalRecords: {}", datasetId,
-              workflowExecution.getId(), executablePlugin.getExecutionProgress().getTotalDatabaseRecords());
-        });
-    if (!dryRun) {
-      workflowExecutionDao.update(workflowExecution);
+  private Optional<PlannedUpdate> planUpdate(String datasetId, Long recordsTotal,
+      LatestPlugin latestPlugin) {
+    if (recordsTotal == 0) {
+      return Optional.empty();
+    }
+    if (latestPlugin == null) {
+      LOGGER.warn("No successful plugin found - datasetId: {}, totalRecords: {}", datasetId,
+          recordsTotal);
+      return Optional.empty();
     }
+    LOGGER.info("Planned update - datasetId: {}, workflowExecution: {}, totalRecords: {} -> {}",
+        datasetId, latestPlugin.executionId, latestPlugin.totalRecords, recordsTotal);
+    return Optional.of(new PlannedUpdate(datasetId, latestPlugin, recordsTotal.intValue()));
   }
 
-  private Query<FullBeanImpl> createPrefixDatasetIdMongoQuery(String datasetId, RecordDao recordPreviewDao) {
-    final Pattern pattern = Pattern.compile("^" + Pattern.quote(getRecordIdPrefix(datasetId)));
-    final Query<FullBeanImpl> query = recordPreviewDao.getDatastore().find(FullBeanImpl.class);
-    query.filter(Filters.regex(ABOUT_FIELD).pattern(pattern));
-    return query;
+  /**
+   * Finds, with one aggregation, the latest successful preview and publish plugins of the given
+   * datasets.
+   */
+  static Map<String, Map<ExecutablePluginType, LatestPlugin>> getLatestPlugins(
+      MongoCollection<Document> workflowExecutionCollection, Collection<String> datasetIds) {
+    final List<String> pluginTypes = INDEX_PLUGIN_TYPES.stream()
+        .map(type -> type.toPluginType().name()).collect(Collectors.toList());
+    final String pluginField = "$" + METIS_PLUGINS_FIELD + ".";
+    final List<Bson> pipeline = List.of(
+        Aggregates.match(Filters.and(Filters.in(DATASET_ID_FIELD, datasetIds),
+            Filters.in(METIS_PLUGINS_FIELD + "." + PLUGIN_TYPE_FIELD, pluginTypes))),
+        Aggregates.unwind("$" + METIS_PLUGINS_FIELD),
+        Aggregates.match(Filters.and(
+            Filters.in(METIS_PLUGINS_FIELD + "." + PLUGIN_TYPE_FIELD, pluginTypes),
+            Filters.eq(METIS_PLUGINS_FIELD + "." + PLUGIN_STATUS_FIELD,
+                PluginStatus.FINISHED.name()))),
+        Aggregates.sort(Sorts.descending(METIS_PLUGINS_FIELD + "." + FINISHED_DATE_FIELD)),
+        Aggregates.group(new Document(DATASET_ID_FIELD, "$" + DATASET_ID_FIELD)
+                .append(PLUGIN_TYPE_FIELD, pluginField + PLUGIN_TYPE_FIELD),
+            Accumulators.first(EXECUTION_ID_FIELD, "$" + ID_FIELD),
+            Accumulators.first(PLUGIN_ID_FIELD, pluginField + PLUGIN_ID_FIELD),
+            Accumulators.first(TOTAL_RECORDS_ALIAS, pluginField + TOTAL_RECORDS_FIELD)));
+    final Map<String, Map<ExecutablePluginType, LatestPlugin>> result = new HashMap<>();
+    workflowExecutionCollection.aggregate(pipeline).allowDiskUse(true).forEach(document -> {
+      final Document group = document.get(ID_FIELD, Document.class);
+      final ExecutablePluginType pluginType = ExecutablePluginType
+          .valueOf(group.getString(PLUGIN_TYPE_FIELD));
+      final Number totalRecords = document.get(TOTAL_RECORDS_ALIAS, Number.class);
+      result.computeIfAbsent(group.getString(DATASET_ID_FIELD),
+          key -> new EnumMap<>(ExecutablePluginType.class)).put(pluginType,
+          new LatestPlugin(pluginType, document.getObjectId(EXECUTION_ID_FIELD),
+              document.getString(PLUGIN_ID_FIELD),
+              totalRecords == null ? null : totalRecords.intValue()));
+    });
+    return result;
   }
 
-  private static String getRecordIdPrefix(String datasetId) {
-    return "/" + datasetId + "/";
+  private static UpdateOneModel<Document> createUpdate(PlannedUpdate plannedUpdate) {
+    return new UpdateOneModel<>(Filters.eq(ID_FIELD, plannedUpdate.latestPlugin.executionId),
+        Updates.set(METIS_PLUGINS_FIELD + ".$[" + PLUGIN_IDENTIFIER + "]." + TOTAL_RECORDS_FIELD,
+            plannedUpdate.newTotalRecords),
+        new UpdateOptions().arrayFilters(List.of(Filters
+            .eq(PLUGIN_IDENTIFIER + "." + PLUGIN_ID_FIELD, plannedUpdate.latestPlugin.pluginId))));
+  }
+
+  private void writeDryRunOutput(List<PlannedUpdate> plannedUpdates) {
+    final Path path = Paths.get(dryRunOutputFile);
+    try (final BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+      writer.write("datasetId,pluginType,workflowExecutionId,pluginId,oldTotalRecords,"
+          + "newTotalRecords");
+      writer.newLine();
+      for (PlannedUpdate plannedUpdate : plannedUpdates) {
+        writer.write(String.join(",", plannedUpdate.datasetId,
+            plannedUpdate.latestPlugin.pluginType.name(),
+            plannedUpdate.latestPlugin.executionId.toString(), plannedUpdate.latestPlugin.pluginId,
+            Objects.toString(plannedUpdate.latestPlugin.totalRecords, ""),
+            Integer.toString(plannedUpdate.newTotalRecords)));
+        writer.newLine();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not write the planned updates to " + path, e);
+    }
+    LOGGER.info("Planned updates written to {}", path);
+  }
+
+  private MongoCollection<Document> getWorkflowExecutionCollection() {
+    return morphiaDatastoreProvider.getDatastore().getMapper()
+        .getCollection(WorkflowExecution.class).withDocumentClass(Document.class);
   }
 
   public List<String> getAllDatasetIds() {
@@ -119,9 +224,54 @@ public class ApplicationRunner {
 
   public Map<String, RecordTotals> getTotalRecordsPerDatasetId(List<String> datasetIds) {
     LOGGER.info("Collecting all total records preview/publish per dataset id");
-    return datasetIds.stream().collect(Collectors.toMap(Function.identity(),
-        datasetId -> new RecordTotals(createPrefixDatasetIdMongoQuery(datasetId, recordPreviewDao).count(),
-            createPrefixDatasetIdMongoQuery(datasetId, recordPublishDao).count())));
+    final Map<String, Long> previewTotals = new RecordCounter("preview", recordPreviewDao,
+        countParallelThreads).count(datasetIds, countStrategy);
+    final Map<String, Long> publishTotals = new RecordCounter("publish", recordPublishDao,
+        countParallelThreads).count(datasetIds, countStrategy);
+    return datasetIds.stream().distinct().collect(Collectors.toMap(Function.identity(),
+        datasetId -> new RecordTotals(previewTotals.get(datasetId),
+            publishTotals.get(datasetId))));
+  }
+
+  static class LatestPlugin {
+
+    private final ExecutablePluginType pluginType;
+    private final ObjectId executionId;
+    private final String pluginId;
+    private final Integer totalRecords;
+
+    LatestPlugin(ExecutablePluginType pluginType, ObjectId executionId, String pluginId,
+        Integer totalRecords) {
+      this.pluginType = pluginType;
+      this.executionId = executionId;
+      this.pluginId = pluginId;
+      this.totalRecords = totalRecords;
+    }
+
+    ObjectId getExecutionId() {
+      return executionId;
+    }
+
+    String getPluginId() {
+      return pluginId;
+    }
+
+    Integer getTotalRecords() {
+      return totalRecords;
+    }
+  }
+
+  private static class PlannedUpdate {
+
+    private final String datasetId;
+    private final LatestPlugin latestPlugin;
+    private final int newTotalRecords;
+
+    PlannedUpdate(String datasetId, LatestPlugin latestPlugin, int newTotalRecords) {
+      this.datasetId = datasetId;
+      this.latestPlugin = latestPlugin;
+      this.newTotalRecords = newTotalRecords;
+    }
   }
 
   private static class RecordTotals {
@@ -0,0 +1,183 @@
+package eu.europeana.metis.dataset.sizes.updater;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Projections;
+import dev.morphia.query.Query;
+import dev.morphia.query.filters.Filters;
+import eu.europeana.corelib.solr.bean.impl.FullBeanImpl;
+import eu.europeana.metis.mongo.dao.RecordDao;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Counts the records per dataset in one records database.
+ * <p>The records can be counted with one aggregation that groups the records by the dataset ID in
+ * their about (one scan of the collection), or with one count per dataset, executed in parallel on
+ * a bounded thread pool. The time each strategy takes is logged, so that the fastest strategy can
+ * be chosen for each environment.</p>
+ */
+class RecordCounter {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(RecordCounter.class);
+  private static final String ABOUT_FIELD = "about";
+  private static final String DATASET_ID_FIELD = "datasetId";
+  private static final String COUNT_FIELD = "count";
+
+  /**
+   * The strategy with which to count the records.
+   */
+  enum CountStrategy {
+
+    /** One aggregation, falling back to parallel counts if the aggregation fails. */
+    AGGREGATION,
+
+    /** One count per dataset, in parallel. */
+    PARALLEL,
+
+    /** Both strategies, to compare their duration. The result of the aggregation is used. */
+    COMPARE
+  }
+
+  private final String name;
+  private final RecordDao recordDao;
+  private final int parallelThreads;
+
+  /**
+   * Constructor.
+   *
+   * @param name The name of the database (for logging).
+   * @param recordDao The DAO of the records database.
+   * @param parallelThreads The number of threads to use for the parallel counts.
+   */
+  RecordCounter(String name, RecordDao recordDao, int parallelThreads) {
+    this.name = name;
+    this.recordDao = recordDao;
+    this.parallelThreads = Math.max(1, parallelThreads);
+  }
+
+  /**
+   * Counts the records of the given datasets.
+   *
+   * @param datasetIds The dataset IDs.
+   * @param countStrategy The strategy to use.
+   * @return The number of records per dataset ID. Contains all given datasets.
+   */
+  Map<String, Long> count(List<String> datasetIds, CountStrategy countStrategy) {
+    switch (countStrategy) {
+      case PARALLEL:
+        return countInParallel(datasetIds);
+      case COMPARE:
+        final Map<String, Long> aggregationResult = countWithAggregation(datasetIds);
+        final Map<String, Long> parallelResult = countInParallel(datasetIds);
+        final long differences = datasetIds.stream()
+            .filter(id -> !Objects.equals(aggregationResult.get(id), parallelResult.get(id)))
+            .count();
+        if (differences > 0) {
+          LOGGER.warn("{}: the strategies counted differently for {} datasets.", name,
+              differences);
+        }
+        return aggregationResult;
+      case AGGREGATION:
+      default:
+        try {
+          return countWithAggregation(datasetIds);
+        } catch (RuntimeException e) {
+          LOGGER.warn("{}: counting with aggregation failed, falling back to parallel counts.",
+              name, e);
+          return countInParallel(datasetIds);
+        }
+    }
+  }
+
+  private Map<String, Long> countWithAggregation(List<String> datasetIds) {
+    final long start = System.nanoTime();
+
+    // The about is of the form /datasetId/localId: the second element when splitting on '/'.
+    final MongoCollection<Document> collection = recordDao.getDatastore().getMapper()
+        .getCollection(FullBeanImpl.class).withDocumentClass(Document.class);
+    final Document datasetIdExpression = new Document("$arrayElemAt",
+        List.of(new Document("$split", List.of("$" + ABOUT_FIELD, "/")), 1));
+    final Map<String, Long> countsInDatabase = new HashMap<>();
+    collection.aggregate(List.of(
+        Aggregates.project(Projections.fields(Projections.excludeId(),
+            Projections.computed(DATASET_ID_FIELD, datasetIdExpression))),
+        Aggregates.group("$" + DATASET_ID_FIELD, Accumulators.sum(COUNT_FIELD, 1L))
+    )).allowDiskUse(true).forEach(document -> {
+      final Object datasetId = document.get("_id");
+      if (datasetId != null) {
+        countsInDatabase.put(datasetId.toString(), document.get(COUNT_FIELD, Number.class)
+            .longValue());
+      }
+    });
+
+    // Keep only the requested datasets.
+    final Map<String, Long> result = datasetIds.stream().collect(Collectors.toMap(id -> id,
+        id -> countsInDatabase.getOrDefault(id, 0L), (first, second) -> first,
+        LinkedHashMap::new));
+    logDuration(CountStrategy.AGGREGATION, start, result);
+    return result;
+  }
+
+  private Map<String, Long> countInParallel(List<String> datasetIds) {
+    final long start = System.nanoTime();
+    final ExecutorService executor = Executors.newFixedThreadPool(parallelThreads);
+    final Map<String, Long> result = new LinkedHashMap<>();
+    try {
+      final Map<String, Future<Long>> futures = new LinkedHashMap<>();
+      for (String datasetId : datasetIds) {
+        futures.computeIfAbsent(datasetId,
+            id -> executor.submit(() -> createPrefixDatasetIdMongoQuery(id).count()));
+      }
+      for (Map.Entry<String, Future<Long>> future : futures.entrySet()) {
+        result.put(future.getKey(), getResult(future.getValue()));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    logDuration(CountStrategy.PARALLEL, start, result);
+    return result;
+  }
+
+  private static long getResult(Future<Long> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while counting records.", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Could not count records.", e.getCause());
+    }
+  }
+
+  private void logDuration(CountStrategy countStrategy, long start, Map<String, Long> result) {
+    LOGGER.info("{}: counted {} records in {} datasets with strategy {} in {} ms.", name,
+        result.values().stream().mapToLong(Long::longValue).sum(), result.size(), countStrategy,
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+  }
+
+  private Query<FullBeanImpl> createPrefixDatasetIdMongoQuery(String datasetId) {
+    final Pattern pattern = Pattern.compile("^" + Pattern.quote(getRecordIdPrefix(datasetId)));
+    final Query<FullBeanImpl> query = recordDao.getDatastore().find(FullBeanImpl.class);
+    query.filter(Filters.regex(ABOUT_FIELD).pattern(pattern));
+    return query;
+  }
+
+  private static String getRecordIdPrefix(String datasetId) {
+    return "/" + datasetId + "/";
+  }
+}
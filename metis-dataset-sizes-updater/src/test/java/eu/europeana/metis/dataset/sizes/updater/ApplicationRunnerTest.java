@@ -0,0 +1,105 @@
+package eu.europeana.metis.dataset.sizes.updater;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import eu.europeana.metis.core.workflow.plugins.ExecutablePluginType;
+import eu.europeana.metis.dataset.sizes.updater.ApplicationRunner.LatestPlugin;
+import eu.europeana.metis.mongo.embedded.EmbeddedLocalhostMongo;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs the aggregation that finds the latest preview and publish plugins on an embedded Mongo.
+ */
+class ApplicationRunnerTest {
+
+  private static EmbeddedLocalhostMongo embeddedMongo;
+
+  private MongoClient mongoClient;
+  private MongoCollection<Document> collection;
+
+  @BeforeAll
+  static void startMongo() {
+    embeddedMongo = new EmbeddedLocalhostMongo();
+    embeddedMongo.start();
+  }
+
+  @AfterAll
+  static void stopMongo() {
+    embeddedMongo.stop();
+  }
+
+  @BeforeEach
+  void setUp() {
+    mongoClient = MongoClients.create(String.format("mongodb://%s:%s",
+        embeddedMongo.getMongoHost(), embeddedMongo.getMongoPort()));
+    collection = mongoClient.getDatabase("metis-core").getCollection("WorkflowExecution");
+    collection.drop();
+  }
+
+  @AfterEach
+  void tearDown() {
+    mongoClient.close();
+  }
+
+  @Test
+  void getLatestPluginsFindsTheLatestFinishedPluginsWithTheirTotals() {
+    final ObjectId olderExecution = insertExecution("1",
+        createPlugin("preview-old", "PREVIEW", "FINISHED", 1, 10),
+        createPlugin("publish-old", "PUBLISH", "FINISHED", 2, 11));
+    final ObjectId newerExecution = insertExecution("1",
+        createPlugin("preview-new", "PREVIEW", "FINISHED", 3, 20),
+        createPlugin("publish-failed", "PUBLISH", "FAILED", 4, 21));
+    final ObjectId otherExecution = insertExecution("2",
+        createPlugin("preview-other", "PREVIEW", "FINISHED", 5, null));
+    insertExecution("3", createPlugin("preview-ignored", "PREVIEW", "FINISHED", 6, 30));
+
+    final Map<String, Map<ExecutablePluginType, LatestPlugin>> result = ApplicationRunner
+        .getLatestPlugins(collection, List.of("1", "2"));
+
+    assertEquals(2, result.size());
+    final LatestPlugin preview = result.get("1").get(ExecutablePluginType.PREVIEW);
+    assertEquals(newerExecution, preview.getExecutionId());
+    assertEquals("preview-new", preview.getPluginId());
+    assertEquals(Integer.valueOf(20), preview.getTotalRecords());
+    final LatestPlugin publish = result.get("1").get(ExecutablePluginType.PUBLISH);
+    assertEquals(olderExecution, publish.getExecutionId());
+    assertEquals("publish-old", publish.getPluginId());
+    assertEquals(Integer.valueOf(11), publish.getTotalRecords());
+    final LatestPlugin otherPreview = result.get("2").get(ExecutablePluginType.PREVIEW);
+    assertEquals(otherExecution, otherPreview.getExecutionId());
+    assertNull(otherPreview.getTotalRecords());
+    assertFalse(result.get("2").containsKey(ExecutablePluginType.PUBLISH));
+  }
+
+  private ObjectId insertExecution(String datasetId, Document... plugins) {
+    final ObjectId id = new ObjectId();
+    collection.insertOne(new Document("_id", id).append("datasetId", datasetId)
+        .append("metisPlugins", new ArrayList<>(List.of(plugins))));
+    return id;
+  }
+
+  private static Document createPlugin(String id, String pluginType, String pluginStatus,
+      long finishedDate, Integer totalRecords) {
+    final Document plugin = new Document("id", id).append("pluginType", pluginType)
+        .append("pluginStatus", pluginStatus).append("finishedDate", new Date(finishedDate));
+    if (totalRecords != null) {
+      plugin.append("executionProgress", new Document("totalDatabaseRecords", totalRecords));
+    }
+    return plugin;
+  }
+}
@@ -0,0 +1,273 @@
+package eu.europeana.metis_tools.inc_harvest.data;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Computes the presence of records in preview and publish without holding all record IDs in
+ * memory.
+ * <p>The record IDs of each source are read into a buffer of a configurable size. When the buffer
+ * is full, it is sorted and spilled to a run file on disk. The presence is then computed in one
+ * k-way merge over all runs of both sources. So at most one buffer per source is held in memory.
+ * The records are reported in (natural) order of their ID.</p>
+ */
+public class ExternalSortRecordMerger {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ExternalSortRecordMerger.class);
+
+  private final Path tempFolder;
+  private final int bufferSize;
+
+  /**
+   * Constructor.
+   *
+   * @param tempFolder The folder in which to create the run files.
+   * @param bufferSize The maximum number of record IDs to hold in memory (per source).
+   */
+  public ExternalSortRecordMerger(Path tempFolder, int bufferSize) {
+    this.tempFolder = tempFolder;
+    this.bufferSize = Math.max(1, bufferSize);
+  }
+
+  /**
+   * Sorts the given record IDs, spilling them to disk if needed.
+   *
+   * @param recordIds The record IDs. The stream is consumed (but not closed) by this method.
+   * @return The sorted record IDs. Needs to be closed to remove the run files.
+   * @throws IOException In case the run files could not be written.
+   */
+  public SortedRecordIds sort(Stream<String> recordIds) throws IOException {
+    final SortedRecordIds result = new SortedRecordIds();
+    try {
+      List<String> buffer = new ArrayList<>();
+      final Iterator<String> iterator = recordIds.iterator();
+      while (iterator.hasNext()) {
+        buffer.add(iterator.next());
+        if (buffer.size() >= bufferSize) {
+          result.runFiles.add(spill(buffer));
+          buffer = new ArrayList<>();
+        }
+      }
+      if (result.runFiles.isEmpty() || buffer.isEmpty()) {
+        Collections.sort(buffer);
+        result.buffer = buffer;
+      } else {
+        result.runFiles.add(spill(buffer));
+      }
+    } catch (IOException | RuntimeException e) {
+      result.close();
+      throw e;
+    }
+    if (!result.runFiles.isEmpty()) {
+      LOGGER.info("... ... Record IDs spilled to {} run files.", result.runFiles.size());
+    }
+    return result;
+  }
+
+  private Path spill(List<String> buffer) throws IOException {
+    Collections.sort(buffer);
+    final Path runFile = Files.createTempFile(tempFolder, "record-ids-", ".run");
+    try (final BufferedWriter writer = Files.newBufferedWriter(runFile, StandardCharsets.UTF_8)) {
+      for (String recordId : buffer) {
+        writer.write(recordId);
+        writer.newLine();
+      }
+    }
+    return runFile;
+  }
+
+  /**
+   * Merges the sorted record IDs of preview and publish and reports the presence of each record.
+   * Records are reported once, in (natural) order of their ID.
+   *
+   * @param previewIds The sorted record IDs in preview.
+   * @param publishIds The sorted record IDs in publish.
+   * @param consumer The consumer that receives each record ID with its presence.
+   * @throws IOException In case the run files could not be read.
+   */
+  public static void merge(SortedRecordIds previewIds, SortedRecordIds publishIds,
+          BiConsumer<String, RecordPresence> consumer) throws IOException {
+    try (RecordIdIterator previewIterator = previewIds.iterator();
+            RecordIdIterator publishIterator = publishIds.iterator()) {
+      String previewId = nextDistinct(previewIterator, null);
+      String publishId = nextDistinct(publishIterator, null);
+      while (previewId != null || publishId != null) {
+        final int comparison;
+        if (previewId == null) {
+          comparison = 1;
+        } else if (publishId == null) {
+          comparison = -1;
+        } else {
+          comparison = previewId.compareTo(publishId);
+        }
+        if (comparison < 0) {
+          consumer.accept(previewId, RecordPresence.PREVIEW);
+          previewId = nextDistinct(previewIterator, previewId);
+        } else if (comparison > 0) {
+          consumer.accept(publishId, RecordPresence.PUBLISH);
+          publishId = nextDistinct(publishIterator, publishId);
+        } else {
+          consumer.accept(previewId, RecordPresence.BOTH);
+          previewId = nextDistinct(previewIterator, previewId);
+          publishId = nextDistinct(publishIterator, publishId);
+        }
+      }
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  private static String nextDistinct(Iterator<String> iterator, String previous) {
+    while (iterator.hasNext()) {
+      final String next = iterator.next();
+      if (!next.equals(previous)) {
+        return next;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Sorted record IDs: either a sorted buffer in memory, or a number of sorted run files.
+   */
+  public static final class SortedRecordIds implements Closeable {
+
+    private final List<Path> runFiles = new ArrayList<>();
+    private List<String> buffer = Collections.emptyList();
+
+    private SortedRecordIds() {
+    }
+
+    private RecordIdIterator iterator() throws IOException {
+      if (runFiles.isEmpty()) {
+        final Iterator<String> bufferIterator = buffer.iterator();
+        return new RecordIdIterator() {
+          @Override
+          public boolean hasNext() {
+            return bufferIterator.hasNext();
+          }
+
+          @Override
+          public String next() {
+            return bufferIterator.next();
+          }
+
+          @Override
+          public void close() {
+            // Nothing to close.
+          }
+        };
+      }
+      return new RunMergingIterator(runFiles);
+    }
+
+    @Override
+    public void close() throws IOException {
+      for (Path runFile : runFiles) {
+        Files.deleteIfExists(runFile);
+      }
+      runFiles.clear();
+      buffer = Collections.emptyList();
+    }
+  }
+
+  /**
+   * An iterator over sorted record IDs that needs to be closed to release the run files.
+   */
+  private interface RecordIdIterator extends Iterator<String>, Closeable {
+  }
+
+  /**
+   * Merges the run files (each sorted) into one sorted iteration. Closing it closes the readers.
+   */
+  private static final class RunMergingIterator implements RecordIdIterator {
+
+    private final List<BufferedReader> readers = new ArrayList<>();
+    private final PriorityQueue<RunReader> queue = new PriorityQueue<>(
+            Comparator.comparing(RunReader::getCurrent));
+
+    RunMergingIterator(List<Path> runFiles) throws IOException {
+      try {
+        for (Path runFile : runFiles) {
+          final BufferedReader reader = Files.newBufferedReader(runFile, StandardCharsets.UTF_8);
+          readers.add(reader);
+          final RunReader runReader = new RunReader(reader);
+          if (runReader.getCurrent() != null) {
+            queue.add(runReader);
+          }
+        }
+      } catch (IOException | RuntimeException e) {
+        close();
+        throw e;
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return !queue.isEmpty();
+    }
+
+    @Override
+    public String next() {
+      final RunReader runReader = queue.poll();
+      if (runReader == null) {
+        throw new NoSuchElementException();
+      }
+      final String result = runReader.getCurrent();
+      if (runReader.advance() != null) {
+        queue.add(runReader);
+      }
+      return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+      for (BufferedReader reader : readers) {
+        reader.close();
+      }
+      readers.clear();
+      queue.clear();
+    }
+  }
+
+  private static final class RunReader {
+
+    private final BufferedReader reader;
+    private String current;
+
+    RunReader(BufferedReader reader) {
+      this.reader = reader;
+      advance();
+    }
+
+    String getCurrent() {
+      return current;
+    }
+
+    String advance() {
+      try {
+        current = reader.readLine();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      return current;
+    }
+  }
+}
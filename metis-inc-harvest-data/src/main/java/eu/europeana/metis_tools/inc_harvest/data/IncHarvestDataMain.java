@@ -1,7 +1,6 @@
 package eu.europeana.metis_tools.inc_harvest.data;
 
 import com.opencsv.CSVWriter;
-import eu.europeana.metis.core.dao.DataEvolutionUtils;
 import eu.europeana.metis.core.dao.PluginWithExecutionId;
 import eu.europeana.metis.core.dao.WorkflowExecutionDao;
 import eu.europeana.metis.core.mongo.MorphiaDatastoreProviderImpl;
@@ -11,19 +10,31 @@ import eu.europeana.metis.core.workflow.plugins.MetisPlugin;
 import eu.europeana.metis.mongo.connection.MongoClientProvider;
 import eu.europeana.metis.utils.CustomTruststoreAppender;
 import eu.europeana.metis.utils.CustomTruststoreAppender.TrustStoreConfigurationException;
+import eu.europeana.metis_tools.inc_harvest.data.ExternalSortRecordMerger.SortedRecordIds;
+import eu.europeana.metis_tools.inc_harvest.data.PropertiesHolder.RecordMergeEngine;
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,8 +48,6 @@ public class IncHarvestDataMain {
 
   private static final String OUTPUT_FILE = "/home/zmon/Desktop/output.csv";
 
-  private enum RecordPresence{PREVIEW, PUBLISH, BOTH}
-
   private final PropertiesHolder propertiesHolder = new PropertiesHolder();
 
   private final Map<String, DatasetState> datasets = new HashMap<>();
@@ -78,17 +87,39 @@ public class IncHarvestDataMain {
             mongoClientProvider.createMongoClient(), propertiesHolder.getMongoCoreDb());
     final WorkflowExecutionDao workflowExecutionDao = new WorkflowExecutionDao(
             morphiaDatastoreProvider);
+    final LineageResolver lineageResolver = new LineageResolver(workflowExecutionDao);
     final AtomicInteger counter = new AtomicInteger(0);
-    datasets.forEach((id, state) -> {
-      if (counter.incrementAndGet() % 50 == 0) {
-        LOGGER.info("... {} of {} datasets processed.", counter, datasets.size());
+    final ExecutorService executor = Executors
+            .newFixedThreadPool(propertiesHolder.getLineageThreads());
+    try {
+      final List<Future<?>> futures = new ArrayList<>(datasets.size());
+      datasets.forEach((id, state) -> futures.add(executor.submit(() -> {
+        readDataset(id, state, workflowExecutionDao, lineageResolver);
+        if (counter.incrementAndGet() % 50 == 0) {
+          LOGGER.info("... {} of {} datasets processed.", counter, datasets.size());
+        }
+      })));
+      for (Future<?> future : futures) {
+        future.get();
       }
-      readDataset(id, state, workflowExecutionDao);
-    });
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while retrieving history.", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Could not retrieve history.", e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+
+    // Report on the lineage resolution.
+    LOGGER.info("Lineage resolved: {} cache hits, {} cache misses (predecessor lookups), "
+                    + "cache hit rate {}%.", lineageResolver.getCacheHits(),
+            lineageResolver.getCacheMisses(),
+            String.format("%.1f", lineageResolver.getCacheHitRate() * 100));
   }
 
   private void readDataset(String datasetId, DatasetState datasetState,
-          WorkflowExecutionDao workflowExecutionDao) {
+          WorkflowExecutionDao workflowExecutionDao, LineageResolver lineageResolver) {
 
     // Get the latest harvest
     final PluginWithExecutionId<ExecutablePlugin> latestHarvest = workflowExecutionDao
@@ -103,8 +134,8 @@ public class IncHarvestDataMain {
                     EnumSet.of(ExecutablePluginType.PREVIEW), false);
     if (latestPreview != null) {
       datasetState.setPreviewPlugin(latestPreview.getPlugin());
-      final ExecutablePlugin previewHarvest = new DataEvolutionUtils(workflowExecutionDao)
-              .getRootAncestor(latestPreview).getPlugin();
+      final ExecutablePlugin previewHarvest = lineageResolver
+              .getRootAncestor(latestPreview, datasetId).getPlugin();
       if (HARVEST_PLUGIN_TYPES
               .contains(previewHarvest.getPluginMetadata().getExecutablePluginType())) {
         datasetState.setPreviewHarvestPlugin(previewHarvest);
@@ -117,8 +148,8 @@ public class IncHarvestDataMain {
                     EnumSet.of(ExecutablePluginType.PUBLISH), false);
     if (latestPublish != null) {
       datasetState.setPublishPlugin(latestPublish.getPlugin());
-      final ExecutablePlugin publishHarvest = new DataEvolutionUtils(workflowExecutionDao)
-              .getRootAncestor(latestPublish).getPlugin();
+      final ExecutablePlugin publishHarvest = lineageResolver
+              .getRootAncestor(latestPublish, datasetId).getPlugin();
       if (HARVEST_PLUGIN_TYPES
               .contains(publishHarvest.getPluginMetadata().getExecutablePluginType())) {
         datasetState.setPublishedHarvestPlugin(publishHarvest);
@@ -150,25 +181,88 @@ public class IncHarvestDataMain {
       });
 
       // Write the records for each dataset
-      final AtomicInteger counter = new AtomicInteger(0);
-      datasets.forEach((datasetId, datasetState) -> {
-        LOGGER.info("Processing dataset {}: ({} of {}).", datasetId, counter.incrementAndGet(),
+      int counter = 0;
+      for (Map.Entry<String, DatasetState> dataset : datasets.entrySet()) {
+        counter++;
+        LOGGER.info("Processing dataset {}: ({} of {}).", dataset.getKey(), counter,
                 datasets.size());
-        final Map<String, RecordPresence> records = getRecordIds(datasetId, mongoPreviewRecordDao,
-                mongoPublishRecordDao);
-        writeRecords(datasetId, datasetState, records, writer);
-      });
+        processDataset(dataset.getKey(), dataset.getValue(), mongoPreviewRecordDao,
+                mongoPublishRecordDao, writer);
+      }
+    }
+  }
+
+  private void processDataset(String datasetId, DatasetState datasetState,
+          MongoRecordDao mongoPreviewRecordDao, MongoRecordDao mongoPublishRecordDao,
+          CSVWriter writer) throws IOException {
+
+    // Get the required information. If the dataset is not even harvested, we are done.
+    final String latestHarvestTime = getStartedDate(datasetState.getHarvestPlugin());
+    if (latestHarvestTime == null) {
+      return;
+    }
+    final String previewHarvestTime = getStartedDate(datasetState.getPreviewHarvestPlugin());
+    final String publishHarvestTime = getStartedDate(datasetState.getPublishedHarvestPlugin());
+
+    // Go by all the records.
+    final AtomicInteger counter = new AtomicInteger(0);
+    final BiConsumer<String, RecordPresence> recordWriter = (recordId, presence) -> {
+      if (counter.incrementAndGet() % 100000 == 0) {
+        LOGGER.info("... ... {} records written.", counter.get());
+      }
+      writeRecord(datasetId, recordId, presence, latestHarvestTime, previewHarvestTime,
+              publishHarvestTime, writer);
+    };
+    if (propertiesHolder.getRecordMergeEngine() == RecordMergeEngine.EXTERNAL_SORT) {
+      mergeRecordIds(datasetId, mongoPreviewRecordDao, mongoPublishRecordDao, recordWriter);
+    } else {
+      final Map<String, RecordPresence> records = getRecordIds(datasetId, mongoPreviewRecordDao,
+              mongoPublishRecordDao);
+      LOGGER.info("... Writing records to the output.");
+      records.forEach(recordWriter);
+    }
+  }
+
+  private void mergeRecordIds(String datasetId, MongoRecordDao mongoPreviewRecordDao,
+          MongoRecordDao mongoPublishRecordDao, BiConsumer<String, RecordPresence> recordWriter)
+          throws IOException {
+    final ExternalSortRecordMerger merger = new ExternalSortRecordMerger(
+            propertiesHolder.getRecordMergeTempFolder(),
+            propertiesHolder.getRecordMergeBufferSize());
+    LOGGER.info("... Reading records from preview.");
+    try (final SortedRecordIds previewIds = merger
+            .sort(mongoPreviewRecordDao.getAllRecordIds(datasetId))) {
+      LOGGER.info("... Reading records from publish.");
+      try (final SortedRecordIds publishIds = merger
+              .sort(mongoPublishRecordDao.getAllRecordIds(datasetId))) {
+        LOGGER.info("... Merging and writing records to the output.");
+        ExternalSortRecordMerger.merge(previewIds, publishIds, recordWriter);
+      }
     }
   }
 
   private Map<String, RecordPresence> getRecordIds(String datasetId,
           MongoRecordDao mongoPreviewRecordDao, MongoRecordDao mongoPublishRecordDao) {
+    return mergeInMemory(() -> mongoPreviewRecordDao.getAllRecordIds(datasetId),
+            () -> mongoPublishRecordDao.getAllRecordIds(datasetId));
+  }
 
-    // Find the records from preview
-    final Map<String, RecordPresence> result = new HashMap<>();
+  /**
+   * Merges the record IDs from preview and publish in memory. The streams are requested one after
+   * the other, each only when the previous one is fully read.
+   *
+   * @param previewIds supplies the record IDs in preview.
+   * @param publishIds supplies the record IDs in publish.
+   * @return The records with their presence, sorted by record ID (matching the external sort).
+   */
+  static Map<String, RecordPresence> mergeInMemory(Supplier<Stream<String>> previewIds,
+          Supplier<Stream<String>> publishIds) {
+
+    // Find the records from preview. Note: sorted, so that the output matches the external sort.
+    final Map<String, RecordPresence> result = new TreeMap<>();
     LOGGER.info("... Reading records from preview.");
     final AtomicInteger previewCounter = new AtomicInteger(0);
-    mongoPreviewRecordDao.getAllRecordIds(datasetId).forEach(recordId -> {
+    previewIds.get().forEach(recordId -> {
       if (previewCounter.incrementAndGet() % 10000 == 0) {
         LOGGER.info("... ... {} records found.", previewCounter.get());
       }
@@ -178,7 +272,7 @@ public class IncHarvestDataMain {
     // Find the reocrds from publish
     LOGGER.info("... Reading records from publish.");
     final AtomicInteger publishCounter = new AtomicInteger(0);
-    mongoPublishRecordDao.getAllRecordIds(datasetId).forEach(recordId -> {
+    publishIds.get().forEach(recordId -> {
       if (publishCounter.incrementAndGet() % 10000 == 0) {
         LOGGER.info("... ... {} records found.", publishCounter.get());
       }
@@ -189,47 +283,29 @@ public class IncHarvestDataMain {
     return result;
   }
 
-  private void writeRecords(String datasetId, DatasetState datasetState,
-          Map<String, RecordPresence> records, CSVWriter writer) {
+  private static void writeRecord(String datasetId, String recordId, RecordPresence presence,
+          String latestHarvestTime, String previewHarvestTime, String publishHarvestTime,
+          CSVWriter writer) {
 
-    // Get the required information. If the dataset is not even harvested, we are done.
-    final String latestHarvestTime = getStartedDate(datasetState.getHarvestPlugin());
-    if (latestHarvestTime == null) {
+    // Do some checks first
+    final boolean preview = presence == RecordPresence.PREVIEW || presence == RecordPresence.BOTH;
+    final boolean publish = presence == RecordPresence.PUBLISH || presence == RecordPresence.BOTH;
+    if (preview && previewHarvestTime == null) {
+      LOGGER.warn("Record {} is in preview but no preview harvest is known.", recordId);
+      return;
+    }
+    if (publish && publishHarvestTime == null) {
+      LOGGER.warn("Record {} is in publish but no published harvest is known.", recordId);
       return;
     }
-    final String previewHarvestTime = getStartedDate(datasetState.getPreviewHarvestPlugin());
-    final String publishHarvestTime = getStartedDate(datasetState.getPublishedHarvestPlugin());
-
-    // Go by all the records.
-    LOGGER.info("... Writing records to the output.");
-    final AtomicInteger counter = new AtomicInteger(0);
-    records.forEach((recordId, presence) -> {
-
-      // Counter
-      if (counter.incrementAndGet() % 100000 == 0) {
-        LOGGER.info("... ... {} records written.", counter.get());
-      }
-
-      // Do some checks first
-      final boolean preview = presence == RecordPresence.PREVIEW || presence == RecordPresence.BOTH;
-      final boolean publish = presence == RecordPresence.PUBLISH || presence == RecordPresence.BOTH;
-      if (preview && previewHarvestTime == null) {
-        LOGGER.warn("Record {} is in preview but no preview harvest is known.", recordId);
-        return;
-      }
-      if (publish && publishHarvestTime == null) {
-        LOGGER.warn("Record {} is in publish but no published harvest is known.", recordId);
-        return;
-      }
 
-      // Add the record.
-      writer.writeNext(new String[]{
-              datasetId,
-              recordId,
-              latestHarvestTime,
-              preview ? previewHarvestTime : null,
-              publish ? publishHarvestTime : null
-      });
+    // Add the record.
+    writer.writeNext(new String[]{
+            datasetId,
+            recordId,
+            latestHarvestTime,
+            preview ? previewHarvestTime : null,
+            publish ? publishHarvestTime : null
     });
   }
 
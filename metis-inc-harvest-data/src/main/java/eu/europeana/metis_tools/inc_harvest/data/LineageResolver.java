@@ -0,0 +1,93 @@
+package eu.europeana.metis_tools.inc_harvest.data;
+
+import eu.europeana.metis.core.dao.DataEvolutionUtils;
+import eu.europeana.metis.core.dao.PluginWithExecutionId;
+import eu.europeana.metis.core.dao.WorkflowExecutionDao;
+import eu.europeana.metis.core.workflow.plugins.ExecutablePlugin;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Resolves the root ancestor of plugins (like {@link DataEvolutionUtils#getRootAncestor}),
+ * remembering the root ancestor of every (execution, plugin) pair that is visited on the way. So
+ * history that is shared by several plugins is queried only once. This class is thread-safe:
+ * when two threads need the same pair, one of them queries it and the other waits for the result.
+ */
+public class LineageResolver {
+
+  private final DataEvolutionUtils dataEvolutionUtils;
+  private final Map<String, CompletableFuture<PluginWithExecutionId<ExecutablePlugin>>>
+          rootAncestors = new ConcurrentHashMap<>();
+
+  private final LongAdder cacheHits = new LongAdder();
+  private final LongAdder cacheMisses = new LongAdder();
+
+  public LineageResolver(WorkflowExecutionDao workflowExecutionDao) {
+    this.dataEvolutionUtils = new DataEvolutionUtils(workflowExecutionDao);
+  }
+
+  /**
+   * Finds the root ancestor of the given plugin: the first plugin in its lineage.
+   *
+   * @param plugin The plugin.
+   * @param datasetId The ID of the dataset to which the plugin belongs.
+   * @return The root ancestor. This is the plugin itself if it has no predecessor.
+   */
+  public PluginWithExecutionId<ExecutablePlugin> getRootAncestor(
+          PluginWithExecutionId<ExecutablePlugin> plugin, String datasetId) {
+
+    // Check whether the pair is resolved (or being resolved) already.
+    final String key = plugin.getExecutionId() + "/" + plugin.getPlugin().getId();
+    final CompletableFuture<PluginWithExecutionId<ExecutablePlugin>> newFuture =
+            new CompletableFuture<>();
+    final CompletableFuture<PluginWithExecutionId<ExecutablePlugin>> existingFuture =
+            rootAncestors.putIfAbsent(key, newFuture);
+    if (existingFuture != null) {
+      cacheHits.increment();
+      try {
+        return existingFuture.join();
+      } catch (CompletionException e) {
+        throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+      }
+    }
+
+    // Resolve the pair: find the predecessor and (recursively) its root ancestor.
+    cacheMisses.increment();
+    try {
+      final PluginWithExecutionId<ExecutablePlugin> predecessor = dataEvolutionUtils
+              .getPreviousExecutionAndPlugin(plugin.getPlugin(), datasetId);
+      final PluginWithExecutionId<ExecutablePlugin> result =
+              predecessor == null ? plugin : getRootAncestor(predecessor, datasetId);
+      newFuture.complete(result);
+      return result;
+    } catch (RuntimeException e) {
+      rootAncestors.remove(key, newFuture);
+      newFuture.completeExceptionally(e);
+      throw e;
+    }
+  }
+
+  public long getCacheHits() {
+    return cacheHits.sum();
+  }
+
+  /**
+   * @return The number of lookups that were not answered from the cache. Each of these looked up
+   * the predecessor of a plugin in the database (which may take more than one query).
+   */
+  public long getCacheMisses() {
+    return cacheMisses.sum();
+  }
+
+  /**
+   * @return The fraction of lookups that were answered from the cache (between 0 and 1).
+   */
+  public double getCacheHitRate() {
+    final long hits = getCacheHits();
+    final long total = hits + getCacheMisses();
+    return total == 0 ? 0 : (double) hits / total;
+  }
+}
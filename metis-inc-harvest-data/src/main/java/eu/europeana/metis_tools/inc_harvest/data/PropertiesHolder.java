@@ -4,8 +4,10 @@ import eu.europeana.metis.mongo.connection.MongoProperties;
 import eu.europeana.metis.mongo.connection.MongoProperties.ReadPreferenceValue;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.Properties;
+import org.apache.commons.lang3.StringUtils;
 
 /**
  * Contains all properties that are required for execution.
@@ -52,6 +54,26 @@ public class PropertiesHolder {
   private final String publishMongoDb;
   private final String publishMongoApplicationName;
 
+  // Lineage resolution
+  private final int lineageThreads;
+
+  // Record merge
+  private final RecordMergeEngine recordMergeEngine;
+  private final int recordMergeBufferSize;
+  private final Path recordMergeTempFolder;
+
+  /**
+   * The engine with which the presence of the records in preview and publish is computed.
+   */
+  public enum RecordMergeEngine {
+
+    /** All record IDs of a dataset are held in memory. */
+    IN_MEMORY,
+
+    /** The record IDs are sorted on disk when needed (see {@link ExternalSortRecordMerger}). */
+    EXTERNAL_SORT
+  }
+
   public PropertiesHolder() {
 
     // Load properties file.
@@ -105,6 +127,18 @@ public class PropertiesHolder {
             .parseBoolean(properties.getProperty("mongo.publish.enableSSL"));
     publishMongoDb = properties.getProperty("mongo.publish.db");
     publishMongoApplicationName = properties.getProperty("mongo.publish.application.name");
+
+    // Lineage resolution
+    lineageThreads = Integer.parseInt(properties.getProperty("lineage.threads", "4"));
+
+    // Record merge
+    recordMergeEngine = RecordMergeEngine
+            .valueOf(properties.getProperty("record.merge.engine", "EXTERNAL_SORT"));
+    recordMergeBufferSize = Integer
+            .parseInt(properties.getProperty("record.merge.buffer.size", "1000000"));
+    final String tempFolder = properties.getProperty("record.merge.temp.folder");
+    recordMergeTempFolder = Path.of(StringUtils.isBlank(tempFolder)
+            ? System.getProperty("java.io.tmpdir") : tempFolder);
   }
 
   public String getTruststorePath() {
@@ -153,4 +187,20 @@ public class PropertiesHolder {
   public String getPublishMongoDb() {
     return publishMongoDb;
   }
+
+  public int getLineageThreads() {
+    return lineageThreads;
+  }
+
+  public RecordMergeEngine getRecordMergeEngine() {
+    return recordMergeEngine;
+  }
+
+  public int getRecordMergeBufferSize() {
+    return recordMergeBufferSize;
+  }
+
+  public Path getRecordMergeTempFolder() {
+    return recordMergeTempFolder;
+  }
 }
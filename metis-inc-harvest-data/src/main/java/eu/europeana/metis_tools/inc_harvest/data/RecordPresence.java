@@ -0,0 +1,8 @@
+package eu.europeana.metis_tools.inc_harvest.data;
+
+/**
+ * The environments in which a record is present.
+ */
+public enum RecordPresence {
+  PREVIEW, PUBLISH, BOTH
+}
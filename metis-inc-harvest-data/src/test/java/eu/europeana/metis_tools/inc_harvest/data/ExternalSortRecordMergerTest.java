@@ -0,0 +1,118 @@
+package eu.europeana.metis_tools.inc_harvest.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import eu.europeana.metis_tools.inc_harvest.data.ExternalSortRecordMerger.SortedRecordIds;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ExternalSortRecordMergerTest {
+
+  /** Small enough that both sources are spilled to several run files. */
+  private static final int BUFFER_SIZE = 3;
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void mergeWithSpillsMatchesTheInMemoryMerge() throws IOException {
+    final Random random = new Random(1);
+    final List<String> previewIds = createRecordIds(random, 40);
+    final List<String> publishIds = createRecordIds(random, 25);
+
+    // The source may contain duplicates: these are reported once.
+    previewIds.add(previewIds.get(0));
+    publishIds.add(publishIds.get(0));
+
+    assertEquals(mergeInMemory(previewIds, publishIds), mergeExternally(previewIds, publishIds));
+  }
+
+  @Test
+  void mergeWithoutSpillsMatchesTheInMemoryMerge() throws IOException {
+    final List<String> previewIds = List.of("/1/b", "/1/a");
+    final List<String> publishIds = List.of("/1/c", "/1/b");
+    assertEquals(mergeInMemory(previewIds, publishIds), mergeExternally(previewIds, publishIds));
+  }
+
+  @Test
+  void mergeWithOneEmptySourceMatchesTheInMemoryMerge() throws IOException {
+    final List<String> previewIds = createRecordIds(new Random(2), 10);
+    final List<String> publishIds = List.of();
+    assertEquals(mergeInMemory(previewIds, publishIds), mergeExternally(previewIds, publishIds));
+    assertEquals(mergeInMemory(publishIds, previewIds), mergeExternally(publishIds, previewIds));
+  }
+
+  @Test
+  void runFilesAreRemovedWhenTheMergeFails() throws IOException {
+    final Random random = new Random(3);
+    final ExternalSortRecordMerger merger = new ExternalSortRecordMerger(tempDir, BUFFER_SIZE);
+    final IllegalStateException failure = new IllegalStateException("Consumer failure");
+    try (SortedRecordIds sortedPreviewIds = merger.sort(createRecordIds(random, 20).stream());
+        SortedRecordIds sortedPublishIds = merger.sort(createRecordIds(random, 20).stream())) {
+      assertTrue(countRunFiles() > 2);
+      assertSame(failure, assertThrows(IllegalStateException.class,
+          () -> ExternalSortRecordMerger.merge(sortedPreviewIds, sortedPublishIds,
+              (recordId, presence) -> {
+                throw failure;
+              })));
+    }
+    assertEquals(0, countRunFiles());
+  }
+
+  private List<Map.Entry<String, RecordPresence>> mergeExternally(List<String> previewIds,
+      List<String> publishIds) throws IOException {
+    final ExternalSortRecordMerger merger = new ExternalSortRecordMerger(tempDir, BUFFER_SIZE);
+    final Map<String, RecordPresence> result = new LinkedHashMap<>();
+    try (SortedRecordIds sortedPreviewIds = merger.sort(previewIds.stream());
+        SortedRecordIds sortedPublishIds = merger.sort(publishIds.stream())) {
+      ExternalSortRecordMerger.merge(sortedPreviewIds, sortedPublishIds, (recordId, presence) ->
+          assertNull(result.put(recordId, presence), "Reported twice: " + recordId));
+    }
+    assertEquals(0, countRunFiles());
+    return new ArrayList<>(result.entrySet());
+  }
+
+  /**
+   * The in-memory merge of {@link IncHarvestDataMain}. The entries are returned as a list so that
+   * the order is compared too.
+   */
+  private static List<Map.Entry<String, RecordPresence>> mergeInMemory(List<String> previewIds,
+      List<String> publishIds) {
+    return new ArrayList<>(
+        IncHarvestDataMain.mergeInMemory(previewIds::stream, publishIds::stream).entrySet());
+  }
+
+  /**
+   * Creates record IDs in random order, drawn from a small range so that preview and publish
+   * overlap.
+   */
+  private static List<String> createRecordIds(Random random, int count) {
+    final List<String> result = new ArrayList<>(count);
+    while (result.size() < count) {
+      final String recordId = "/1/record" + random.nextInt(60);
+      if (!result.contains(recordId)) {
+        result.add(recordId);
+      }
+    }
+    return result;
+  }
+
+  private long countRunFiles() throws IOException {
+    try (Stream<Path> files = Files.list(tempDir)) {
+      return files.count();
+    }
+  }
+}
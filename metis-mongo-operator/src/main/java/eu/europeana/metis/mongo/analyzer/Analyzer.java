@@ -1,15 +1,23 @@
 package eu.europeana.metis.mongo.analyzer;
 
 import com.mongodb.DBRef;
-import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoIterable;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
 import com.mongodb.lang.Nullable;
 import dev.morphia.Datastore;
 import eu.europeana.corelib.mongo.server.impl.EdmMongoServerImpl;
 import eu.europeana.metis.mongo.analyzer.model.AboutState;
+import eu.europeana.metis.mongo.analyzer.model.AnalysisEngine;
 import eu.europeana.metis.mongo.analyzer.model.DatasetAnalysis;
 import eu.europeana.metis.mongo.analyzer.model.DatasetIdMetadata;
+import eu.europeana.metis.mongo.analyzer.utilities.AnalysisReportSink;
+import eu.europeana.metis.mongo.analyzer.utilities.AnalysisReportSink.PartSink;
 import eu.europeana.metis.mongo.analyzer.utilities.RecordListFields;
 import eu.europeana.metis.mongo.analyzer.utilities.ReportGenerator;
 import java.util.ArrayList;
@@ -22,20 +30,35 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import org.apache.commons.lang.StringUtils;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Analyzer to analyse a record or a whole database.
+ * <p>When analysing a whole database with more than one parallel thread, each collection is split
+ * in {@code _id} ranges that are analysed in parallel and merged at the end.</p>
+ * <p>The {@link AnalysisEngine} defines whether all documents are checked for duplicates on the
+ * client, or whether the check is performed by the server in an aggregation.</p>
  */
 public class Analyzer implements Operator {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(Analyzer.class);
   private static final String ABOUT_FIELD = "about";
+  private static final String ID_FIELD = "_id";
+  private static final int SHARDS_PER_THREAD = 4;
   private static final String RECORD_ABOUT_PREFIX = "";
   private static final String AGGREGATION_ABOUT_PREFIX = "/aggregation/provider";
   private static final String EUROPEANA_AGGREGATION_ABOUT_PREFIX = "/aggregation/europeana";
@@ -43,14 +66,18 @@ public class Analyzer implements Operator {
   private final Datastore datastore;
   private final long counterCheckpoint;
   private final String recordAboutToCheck;
+  private final int parallelThreads;
+  private final AnalysisEngine analysisEngine;
 
   public Analyzer(MongoClient mongoClient, String databaseName, @Nullable String recordAboutToCheck,
-      long counterCheckpoint) {
+      long counterCheckpoint, int parallelThreads, AnalysisEngine analysisEngine) {
     final EdmMongoServerImpl edmMongoServer = new EdmMongoServerImpl(mongoClient, databaseName,
         false);
     this.datastore = edmMongoServer.getDatastore();
     this.counterCheckpoint = counterCheckpoint;
     this.recordAboutToCheck = recordAboutToCheck;
+    this.parallelThreads = parallelThreads;
+    this.analysisEngine = analysisEngine;
   }
 
   public void operate() {
@@ -66,19 +93,97 @@ public class Analyzer implements Operator {
 
   private void computeDuplicatesCounters(String collection, String aboutPrefix,
       List<String> fieldListsToCheck) {
-    final Map<String, DatasetAnalysis> datasetIdAndDatasetAnalysis = new HashMap<>();
-    //Create find query
-    final FindIterable<Document> findIterable = Optional.ofNullable(recordAboutToCheck)
-        .filter(StringUtils::isNotBlank)
-        .map(about -> new Document(ABOUT_FIELD, aboutPrefix + about))
-        .map(datastore.getDatabase().getCollection(collection)::find)
-        .orElseGet(datastore.getDatabase().getCollection(collection)::find);
-
-    long counter = 0;
-    List<String> missingPrefixAbouts = new ArrayList<>();
-    List<String> unparsableAbouts = new ArrayList<>();
-    try (MongoCursor<Document> cursor = findIterable.cursor()) {
-      LOGGER.info("Analysing collection {}", collection);
+    try (AnalysisReportSink reportSink = new ReportGenerator()
+        .createAnalysisReportSink(collection)) {
+      final CollectionAnalysis collectionAnalysis = analyzeCollection(collection, aboutPrefix,
+          fieldListsToCheck, reportSink);
+      reportSink.writeAnalysisReport(collectionAnalysis.datasetIdAndDatasetAnalysis,
+          collectionAnalysis.missingPrefixAbouts, collectionAnalysis.unparsableAbouts);
+    }
+  }
+
+  /**
+   * Analyses the collection. The abouts that are found are written to the report sink as they are
+   * found, the returned analysis only contains counters.
+   */
+  CollectionAnalysis analyzeCollection(String collection, String aboutPrefix,
+      List<String> fieldListsToCheck, AnalysisReportSink reportSink) {
+    final MongoCollection<Document> mongoCollection = datastore.getDatabase()
+        .getCollection(collection);
+    final CollectionAnalysis collectionAnalysis;
+    LOGGER.info("Analysing collection {} with engine {}", collection, analysisEngine);
+    if (StringUtils.isBlank(recordAboutToCheck) && parallelThreads > 1) {
+      collectionAnalysis = analyzeShardsInParallel(mongoCollection, aboutPrefix,
+          fieldListsToCheck, reportSink);
+    } else {
+      collectionAnalysis = new CollectionAnalysis();
+      analyzeDocuments(createQuery(mongoCollection, getAboutFilter(aboutPrefix), aboutPrefix,
+          fieldListsToCheck), collection, aboutPrefix, fieldListsToCheck, collectionAnalysis,
+          reportSink.createPartSink(), new AtomicLong());
+    }
+    LOGGER.info("Analysed {} records from collection {}", collectionAnalysis.counter, collection);
+    return collectionAnalysis;
+  }
+
+  /**
+   * Measures the size of all documents that the current engine would receive from the server
+   * for the collection.
+   */
+  long measureResponseBytes(String collection, String aboutPrefix,
+      List<String> fieldListsToCheck) {
+    final MongoCollection<RawBsonDocument> mongoCollection = datastore.getDatabase()
+        .getCollection(collection, RawBsonDocument.class);
+    long bytes = 0;
+    try (MongoCursor<RawBsonDocument> cursor = createQuery(mongoCollection,
+        getAboutFilter(aboutPrefix), aboutPrefix, fieldListsToCheck).cursor()) {
+      while (cursor.hasNext()) {
+        bytes += cursor.next().getByteBuffer().remaining();
+      }
+    }
+    return bytes;
+  }
+
+  private Bson getAboutFilter(String aboutPrefix) {
+    return Optional.ofNullable(recordAboutToCheck).filter(StringUtils::isNotBlank)
+        .map(about -> Filters.eq(ABOUT_FIELD, aboutPrefix + about))
+        .map(Bson.class::cast).orElseGet(Document::new);
+  }
+
+  /**
+   * Creates the query of the configured engine.
+   * <p>The {@link AnalysisEngine#CLIENT} engine returns all documents. The {@link
+   * AnalysisEngine#AGGREGATION} engine only returns the documents that have duplicates in one of
+   * the lists, by comparing the {@code $size} of each list with the {@code $size} of its {@code
+   * $setUnion}, or whose about would not be parsed as correct by {@link
+   * #getDatasetIdMetadata(String, String)}. Both engines therefore produce the same analysis.</p>
+   */
+  private <T> MongoIterable<T> createQuery(MongoCollection<T> mongoCollection, Bson filter,
+      String aboutPrefix, List<String> fieldListsToCheck) {
+    final Bson projection = getProjection(fieldListsToCheck);
+    if (analysisEngine == AnalysisEngine.CLIENT) {
+      return mongoCollection.find(filter).projection(projection);
+    }
+    final List<Document> listsWithDuplicates = fieldListsToCheck.stream().map(field -> {
+      final Document list = new Document("$ifNull", Arrays.asList("$" + field,
+          Collections.emptyList()));
+      return new Document("$ne", Arrays.asList(new Document("$size", list),
+          new Document("$size", new Document("$setUnion",
+              Arrays.asList(list, Collections.emptyList())))));
+    }).collect(Collectors.toList());
+    //Same condition as the parsing of the dataset id, abouts not matching it are also returned
+    final Pattern correctAbout = Pattern.compile("^" + Pattern.quote(aboutPrefix) + ".+/",
+        Pattern.DOTALL);
+    final Bson offendingDocuments = Filters
+        .or(Filters.not(Filters.regex(ABOUT_FIELD, correctAbout)),
+            Filters.expr(new Document("$or", listsWithDuplicates)));
+    return mongoCollection.aggregate(Arrays.asList(Aggregates.match(filter),
+        Aggregates.match(offendingDocuments), Aggregates.project(projection)));
+  }
+
+  private void analyzeDocuments(MongoIterable<Document> documents, String collection,
+      String aboutPrefix, List<String> fieldListsToCheck, CollectionAnalysis collectionAnalysis,
+      PartSink partSink, AtomicLong totalCounter) {
+    try (MongoCursor<Document> cursor = documents.cursor()) {
       while (cursor.hasNext()) {
         final Document document = cursor.next();
 
@@ -86,28 +191,113 @@ public class Analyzer implements Operator {
         final DatasetIdMetadata datasetIdMetadata;
         datasetIdMetadata = getDatasetIdMetadata(aboutPrefix, about);
         if (datasetIdMetadata.getAboutState() == AboutState.UNPARSABLE) {
-          unparsableAbouts.add(about);
+          collectionAnalysis.unparsableAbouts++;
+          partSink.writeUnparsableAbout(about);
         } else if (datasetIdMetadata.getAboutState() == AboutState.MISSING_PREFIX) {
-          missingPrefixAbouts.add(about);
+          collectionAnalysis.missingPrefixAbouts++;
+          partSink.writeMissingPrefixAbout(about);
         } else {
-          analyzeDocument(fieldListsToCheck, datasetIdAndDatasetAnalysis, document,
-              datasetIdMetadata.getDatasetId());
+          analyzeDocument(fieldListsToCheck, collectionAnalysis.datasetIdAndDatasetAnalysis,
+              document, datasetIdMetadata.getDatasetId(), partSink);
         }
-        counter++;
+        collectionAnalysis.counter++;
+        final long counter = totalCounter.incrementAndGet();
         if (counter % counterCheckpoint == 0 && LOGGER.isInfoEnabled()) {
           LOGGER.info("Analysed {} records from collection {}", counter, collection);
         }
       }
     }
-    LOGGER.info("Analysed {} records from collection {}", counter, collection);
-    new ReportGenerator()
-        .createAnalysisReport(datasetIdAndDatasetAnalysis, missingPrefixAbouts, unparsableAbouts,
-            collection);
+  }
+
+  /**
+   * Splits the collection in {@code _id} ranges and analyses the ranges in parallel. Each range
+   * is analysed in its own {@link CollectionAnalysis} and the results are merged in the order of
+   * the ranges. The abouts of each range are written to their own part of the report sink, so
+   * that the about files are in the order of the ranges as well.
+   */
+  private CollectionAnalysis analyzeShardsInParallel(MongoCollection<Document> mongoCollection,
+      String aboutPrefix, List<String> fieldListsToCheck, AnalysisReportSink reportSink) {
+    final String collection = mongoCollection.getNamespace().getCollectionName();
+    final List<Bson> shardFilters = computeShardFilters(mongoCollection,
+        parallelThreads * SHARDS_PER_THREAD);
+    LOGGER.info("Analysing collection {} in {} shards with {} threads", collection,
+        shardFilters.size(), parallelThreads);
+    final AtomicLong totalCounter = new AtomicLong();
+    final ExecutorService threadPool = Executors.newFixedThreadPool(parallelThreads);
+    try {
+      final List<Future<CollectionAnalysis>> futures = new ArrayList<>(shardFilters.size());
+      for (Bson shardFilter : shardFilters) {
+        //The part sinks are created in the order of the ranges, which is the order of the output
+        final PartSink partSink = reportSink.createPartSink();
+        futures.add(threadPool.submit(() -> {
+          final CollectionAnalysis shardAnalysis = new CollectionAnalysis();
+          analyzeDocuments(createQuery(mongoCollection, shardFilter, aboutPrefix,
+              fieldListsToCheck), collection, aboutPrefix, fieldListsToCheck, shardAnalysis,
+              partSink, totalCounter);
+          return shardAnalysis;
+        }));
+      }
+      final CollectionAnalysis collectionAnalysis = new CollectionAnalysis();
+      for (Future<CollectionAnalysis> future : futures) {
+        collectionAnalysis.merge(future.get());
+      }
+      return collectionAnalysis;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while analysing collection " + collection, e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Analysis failed for collection " + collection, e);
+    } finally {
+      threadPool.shutdownNow();
+    }
+  }
+
+  /**
+   * Computes {@code _id} range filters that together cover the whole collection. The ranges are
+   * computed by splitting the time span between the lowest and highest {@link ObjectId} evenly,
+   * so that only two queries are needed. The first and last ranges are open ended.
+   */
+  private static List<Bson> computeShardFilters(MongoCollection<Document> mongoCollection,
+      int numberOfShards) {
+    final Document first = mongoCollection.find().projection(Projections.include(ID_FIELD))
+        .sort(Sorts.ascending(ID_FIELD)).first();
+    final Document last = mongoCollection.find().projection(Projections.include(ID_FIELD))
+        .sort(Sorts.descending(ID_FIELD)).first();
+    if (first == null || last == null || !(first.get(ID_FIELD) instanceof ObjectId)
+        || !(last.get(ID_FIELD) instanceof ObjectId)) {
+      return Collections.singletonList(new Document());
+    }
+    final long firstSeconds = first.getObjectId(ID_FIELD).getTimestamp();
+    final long lastSeconds = last.getObjectId(ID_FIELD).getTimestamp();
+    final int shards = (int) Math.max(1, Math.min(numberOfShards, lastSeconds - firstSeconds));
+    final List<ObjectId> boundaries = new ArrayList<>(shards - 1);
+    for (int i = 1; i < shards; i++) {
+      final long seconds = firstSeconds + (lastSeconds - firstSeconds) * i / shards;
+      boundaries.add(new ObjectId(String.format("%08x%016x", seconds, 0)));
+    }
+    final List<Bson> shardFilters = new ArrayList<>(shards);
+    for (int i = 0; i < shards; i++) {
+      final List<Bson> bounds = new ArrayList<>(2);
+      if (i > 0) {
+        bounds.add(Filters.gte(ID_FIELD, boundaries.get(i - 1)));
+      }
+      if (i < shards - 1) {
+        bounds.add(Filters.lt(ID_FIELD, boundaries.get(i)));
+      }
+      shardFilters.add(bounds.isEmpty() ? new Document() : Filters.and(bounds));
+    }
+    return shardFilters;
+  }
+
+  private static Bson getProjection(List<String> fieldListsToCheck) {
+    final List<String> fields = new ArrayList<>(fieldListsToCheck);
+    fields.add(ABOUT_FIELD);
+    return Projections.include(fields);
   }
 
   private void analyzeDocument(List<String> fieldListsToCheck,
       Map<String, DatasetAnalysis> datasetIdAndDatasetAnalysis, Document document,
-      String datasetId) {
+      String datasetId, PartSink partSink) {
     final List<List<DBRef>> lists = fieldListsToCheck.stream().map(document::get)
         .filter(Objects::nonNull).map(o -> (List<DBRef>) o).collect(Collectors.toList());
 
@@ -123,7 +313,8 @@ public class Analyzer implements Operator {
     });
     if (containsDuplicates.get()) {
       final DatasetAnalysis datasetAnalysis = datasetIdAndDatasetAnalysis.get(datasetId);
-      datasetAnalysis.getRecordAboutsWithDuplicates().add((String) document.get(ABOUT_FIELD));
+      datasetAnalysis.incrementRecordsWithDuplicates();
+      partSink.writeRecordWithDuplicates(datasetId, (String) document.get(ABOUT_FIELD));
     }
   }
 
@@ -167,4 +358,33 @@ public class Analyzer implements Operator {
     return datasetAnalysis;
   }
 
+  /**
+   * The analysis results of a collection, or of a part of a collection.
+   */
+  static class CollectionAnalysis {
+
+    private final Map<String, DatasetAnalysis> datasetIdAndDatasetAnalysis = new HashMap<>();
+    private long missingPrefixAbouts;
+    private long unparsableAbouts;
+    private long counter;
+
+    private void merge(CollectionAnalysis other) {
+      other.datasetIdAndDatasetAnalysis.forEach((datasetId, datasetAnalysis) ->
+          datasetIdAndDatasetAnalysis.merge(datasetId, datasetAnalysis, DatasetAnalysis::merge));
+      missingPrefixAbouts += other.missingPrefixAbouts;
+      unparsableAbouts += other.unparsableAbouts;
+      counter += other.counter;
+    }
+
+    long getCounter() {
+      return counter;
+    }
+
+    long getRecordsWithDuplicates() {
+      return datasetIdAndDatasetAnalysis.values().stream()
+          .mapToLong(DatasetAnalysis::getRecordsWithDuplicates)
+          .sum();
+    }
+  }
+
 }
@@ -0,0 +1,148 @@
+package eu.europeana.metis.mongo.analyzer;
+
+import com.mongodb.DBRef;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import eu.europeana.metis.mongo.analyzer.Analyzer.CollectionAnalysis;
+import eu.europeana.metis.mongo.analyzer.model.AnalysisEngine;
+import eu.europeana.metis.mongo.analyzer.utilities.AnalysisReportSink;
+import eu.europeana.metis.mongo.analyzer.utilities.RecordListFields;
+import eu.europeana.metis.mongo.analyzer.utilities.ReportGenerator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.apache.commons.lang3.StringUtils;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares the {@link AnalysisEngine}s of the {@link Analyzer} on a generated fixture collection.
+ * <p>The fixture collection is created in a throwaway database, with one in every {@value
+ * #DUPLICATES_EVERY} documents containing a duplicate reference, and dropped at the end. For each
+ * engine the wall time of the analysis and the size of the documents received from the server are
+ * reported.</p>
+ * <p>The throwaway database must be passed explicitly on the command line with {@value
+ * #BENCHMARK_DATABASE_ARGUMENT}. The benchmark refuses to run if it is missing, if it is the
+ * configured database or if it contains any collection, so that it never writes to or drops
+ * collections in a live database.</p>
+ */
+public class AnalyzerBenchmark implements Operator {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(AnalyzerBenchmark.class);
+  static final String BENCHMARK_DATABASE_ARGUMENT = "--benchmark.database=";
+  private static final String FIXTURE_COLLECTION = "analyzerBenchmarkFixture";
+  private static final int DUPLICATES_EVERY = 100;
+  private static final int DATASETS = 50;
+  private static final int INSERT_BATCH_SIZE = 1000;
+
+  private final MongoClient mongoClient;
+  private final String databaseName;
+  private final long counterCheckpoint;
+  private final int fixtureSize;
+
+  /**
+   * Constructor.
+   *
+   * @param mongoClient the mongo client
+   * @param configuredDatabaseName the database of the configuration, that is never used
+   * @param benchmarkDatabaseName the throwaway database that was passed on the command line
+   * @param counterCheckpoint the log counter checkpoint
+   * @param fixtureSize the number of documents of the fixture collection
+   */
+  public AnalyzerBenchmark(MongoClient mongoClient, String configuredDatabaseName,
+      String benchmarkDatabaseName, long counterCheckpoint, int fixtureSize) {
+    if (StringUtils.isBlank(benchmarkDatabaseName)) {
+      throw new IllegalArgumentException(String.format(
+          "Refusing to run the benchmark without a throwaway database passed with %s<name>",
+          BENCHMARK_DATABASE_ARGUMENT));
+    }
+    if (benchmarkDatabaseName.equals(configuredDatabaseName)) {
+      throw new IllegalArgumentException(String.format(
+          "Refusing to run the benchmark in the configured database %s", configuredDatabaseName));
+    }
+    this.mongoClient = mongoClient;
+    this.databaseName = benchmarkDatabaseName;
+    this.counterCheckpoint = counterCheckpoint;
+    this.fixtureSize = fixtureSize;
+  }
+
+  /**
+   * Extracts the throwaway database from the command line arguments.
+   *
+   * @param args the command line arguments
+   * @return the database name, or null if it was not passed
+   */
+  static String getBenchmarkDatabaseName(String[] args) {
+    return Arrays.stream(args).filter(arg -> arg.startsWith(BENCHMARK_DATABASE_ARGUMENT))
+        .map(arg -> arg.substring(BENCHMARK_DATABASE_ARGUMENT.length())).findFirst()
+        .orElse(null);
+  }
+
+  @Override
+  public void operate() {
+    final MongoDatabase database = mongoClient.getDatabase(databaseName);
+    final String existingCollection = database.listCollectionNames().first();
+    if (existingCollection != null) {
+      throw new IllegalStateException(String.format(
+          "Refusing to run the benchmark in database %s, that is not empty (contains %s)",
+          databaseName, existingCollection));
+    }
+    final MongoCollection<Document> fixtureCollection = database
+        .getCollection(FIXTURE_COLLECTION);
+    final List<String> fieldListsToCheck = Arrays.stream(RecordListFields.values())
+        .map(RecordListFields::getFieldName).collect(Collectors.toList());
+    try {
+      generateFixture(fixtureCollection);
+      for (AnalysisEngine analysisEngine : AnalysisEngine.values()) {
+        final Analyzer analyzer = new Analyzer(mongoClient, databaseName, null, counterCheckpoint,
+            1, analysisEngine);
+        final long start = System.nanoTime();
+        final CollectionAnalysis collectionAnalysis;
+        try (AnalysisReportSink reportSink = new ReportGenerator()
+            .createAnalysisReportSink(FIXTURE_COLLECTION + "_" + analysisEngine)) {
+          collectionAnalysis = analyzer
+              .analyzeCollection(FIXTURE_COLLECTION, "", fieldListsToCheck, reportSink);
+        }
+        final long wallTimeMillis = (System.nanoTime() - start) / 1_000_000;
+        final long responseBytes = analyzer
+            .measureResponseBytes(FIXTURE_COLLECTION, "", fieldListsToCheck);
+        LOGGER.info(
+            "Engine {}: wall time {} ms, response bytes {}, documents received {}, records with duplicates {}",
+            analysisEngine, wallTimeMillis, responseBytes, collectionAnalysis.getCounter(),
+            collectionAnalysis.getRecordsWithDuplicates());
+      }
+    } finally {
+      fixtureCollection.drop();
+    }
+  }
+
+  private void generateFixture(MongoCollection<Document> fixtureCollection) {
+    LOGGER.info("Generating fixture collection {} with {} documents", FIXTURE_COLLECTION,
+        fixtureSize);
+    final List<Document> batch = new ArrayList<>(INSERT_BATCH_SIZE);
+    for (int i = 0; i < fixtureSize; i++) {
+      final Document document = new Document("about", String.format("/%s/%s", i % DATASETS, i));
+      for (RecordListFields recordListField : RecordListFields.values()) {
+        final List<DBRef> references = new ArrayList<>();
+        references.add(new DBRef(recordListField.getFieldName(), new ObjectId()));
+        references.add(new DBRef(recordListField.getFieldName(), new ObjectId()));
+        if (recordListField == RecordListFields.PROXIES && i % DUPLICATES_EVERY == 0) {
+          references.add(references.get(0));
+        }
+        document.append(recordListField.getFieldName(), references);
+      }
+      batch.add(document);
+      if (batch.size() == INSERT_BATCH_SIZE) {
+        fixtureCollection.insertMany(batch);
+        batch.clear();
+      }
+    }
+    if (!batch.isEmpty()) {
+      fixtureCollection.insertMany(batch);
+    }
+  }
+}
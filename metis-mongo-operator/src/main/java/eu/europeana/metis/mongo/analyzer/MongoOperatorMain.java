@@ -17,6 +17,8 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
  *   <li>Analyse a specific record or the whole database</li>
  *   <li>Check if a specific record or a list of records can be read using morphia and {@link EdmMongoServerImpl}</li>
  *   <li>Reconstruct affected fields from a specific record or a list of records</li>
+ *   <li>Benchmark the analysis engines on a generated fixture collection, in a throwaway database
+ *   passed on the command line</li>
  * </ul>
  * </p>
  *
@@ -43,26 +45,38 @@ public class MongoOperatorMain {
 
     try (ApplicationInitializer applicationInitializer = new ApplicationInitializer(
         configurationPropertiesHolder)) {
-      chooseOperator(applicationInitializer).operate();
+      chooseOperator(applicationInitializer, args).operate();
     }
     LOGGER.info("Finished database script with mode: {}", configurationPropertiesHolder.getMode());
   }
 
-  private static Operator chooseOperator(ApplicationInitializer applicationInitializer) {
+  private static Operator chooseOperator(ApplicationInitializer applicationInitializer,
+      String[] args) {
     final Operator operator;
     switch (configurationPropertiesHolder.getMode()) {
       case ANALYSE:
         operator = new Analyzer(applicationInitializer.getMongoClient(),
             applicationInitializer.getMongoDatabase(),
             configurationPropertiesHolder.getRecordAboutToCheck(),
-            configurationPropertiesHolder.getLogCounterCheckpoint());
+            configurationPropertiesHolder.getLogCounterCheckpoint(),
+            configurationPropertiesHolder.getParallelThreads(),
+            configurationPropertiesHolder.getAnalysisEngine());
+        break;
+      case BENCHMARK_ANALYSIS:
+        operator = new AnalyzerBenchmark(applicationInitializer.getMongoClient(),
+            applicationInitializer.getMongoDatabase(),
+            AnalyzerBenchmark.getBenchmarkDatabaseName(args),
+            configurationPropertiesHolder.getLogCounterCheckpoint(),
+            configurationPropertiesHolder.getBenchmarkFixtureSize());
         break;
       case RECONSTRUCT:
         operator = new Reconstructor(applicationInitializer.getMongoClient(),
             applicationInitializer.getMongoDatabase(),
             configurationPropertiesHolder.getRecordAboutToCheck(),
             configurationPropertiesHolder.getLogCounterCheckpoint(),
-            configurationPropertiesHolder.getFilePathWithCorruptedRecords());
+            configurationPropertiesHolder.getFilePathWithCorruptedRecords(),
+            configurationPropertiesHolder.getParallelThreads(),
+            configurationPropertiesHolder.getChunkSize());
         break;
       case CHECK:
       default:
@@ -70,7 +84,8 @@ public class MongoOperatorMain {
             applicationInitializer.getMongoDatabase(),
             configurationPropertiesHolder.getLogCounterCheckpoint(),
             configurationPropertiesHolder.getRecordAboutToCheck(),
-            configurationPropertiesHolder.getFilePathWithCorruptedRecords());
+            configurationPropertiesHolder.getFilePathWithCorruptedRecords(),
+            configurationPropertiesHolder.getParallelThreads());
         break;
     }
     return operator;
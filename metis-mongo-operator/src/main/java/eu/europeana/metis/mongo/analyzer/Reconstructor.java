@@ -3,19 +3,31 @@ package eu.europeana.metis.mongo.analyzer;
 import static eu.europeana.metis.mongo.analyzer.utilities.RecordIdsHelper.getRecordIds;
 
 import com.mongodb.DBRef;
-import com.mongodb.client.FindIterable;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteResult;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOneModel;
 import com.mongodb.lang.Nullable;
 import dev.morphia.Datastore;
 import eu.europeana.corelib.mongo.server.impl.EdmMongoServerImpl;
 import eu.europeana.metis.mongo.analyzer.utilities.RecordListFields;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import org.bson.Document;
 import org.slf4j.Logger;
@@ -23,30 +35,39 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Recostruct a specific record or a list of records provided.
+ * <p>The abouts are processed in chunks on a fixed thread pool. Each chunk is read with a single
+ * {@code $in} query and the changed documents are written back with one unordered bulk write.</p>
  */
 public class Reconstructor implements Operator {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(Reconstructor.class);
   private static final String ABOUT_FIELD = "about";
+  private static final String ID_FIELD = "_id";
 
   private final Datastore datastore;
   private final long counterCheckpoint;
   private final String recordAboutToCheck;
   private final Path pathWithCorruptedRecords;
+  private final int parallelThreads;
+  private final int chunkSize;
 
   public Reconstructor(MongoClient mongoClient, String databaseName,
       @Nullable String recordAboutToCheck, final long counterCheckpoint,
-      String filePathWithCorruptedRecords) {
+      String filePathWithCorruptedRecords, int parallelThreads, int chunkSize) {
     final EdmMongoServerImpl edmMongoServer = new EdmMongoServerImpl(mongoClient, databaseName,
         false);
     this.datastore = edmMongoServer.getDatastore();
     this.counterCheckpoint = counterCheckpoint;
     this.recordAboutToCheck = recordAboutToCheck;
     this.pathWithCorruptedRecords = Paths.get(filePathWithCorruptedRecords);
+    this.parallelThreads = parallelThreads;
+    this.chunkSize = chunkSize;
   }
 
   public void operate() {
-    List<String> recordAbouts = getRecordIds(recordAboutToCheck, pathWithCorruptedRecords);
+    //Duplicate abouts in the input would be counted more than once and could end up in two chunks
+    final List<String> recordAbouts = new ArrayList<>(
+        new LinkedHashSet<>(getRecordIds(recordAboutToCheck, pathWithCorruptedRecords)));
     final List<String> fieldListsToCheck = Arrays.stream(RecordListFields.values())
         .map(RecordListFields::getFieldName).collect(Collectors.toList());
     reconstructRecords(datastore, "record", recordAbouts, fieldListsToCheck);
@@ -54,45 +75,125 @@ public class Reconstructor implements Operator {
 
   private void reconstructRecords(Datastore datastore, String collection, List<String> recordAbouts,
       List<String> fieldListsToCheck) {
-    final List<Document> aboutsQueries = recordAbouts.stream()
-        .map(about -> new Document(ABOUT_FIELD, about)).collect(Collectors.toList());
-    int counter = 0;
-    for (Document aboutQuery : aboutsQueries) {
-      final MongoCollection<Document> mongoCollection = datastore.getDatabase()
-          .getCollection(collection);
-      final FindIterable<Document> findIterable = mongoCollection.find(aboutQuery);
-      reconstructDocuments(fieldListsToCheck, mongoCollection, findIterable);
-
-      counter++;
-      if (counter % counterCheckpoint == 0 && LOGGER.isInfoEnabled()) {
-        LOGGER.info("Reconstructed {} records from collection {}", counter, collection);
+    final MongoCollection<Document> mongoCollection = datastore.getDatabase()
+        .getCollection(collection);
+    final AtomicLong counter = new AtomicLong();
+    final ExecutorService threadPool = Executors.newFixedThreadPool(parallelThreads);
+    final List<Future<ChunkResult>> futures = new ArrayList<>();
+    for (int i = 0; i < recordAbouts.size(); i += chunkSize) {
+      final List<String> chunk = recordAbouts.subList(i, Math.min(i + chunkSize,
+          recordAbouts.size()));
+      final int chunkIndex = futures.size();
+      futures.add(threadPool.submit(
+          () -> reconstructChunk(mongoCollection, chunkIndex, chunk, fieldListsToCheck, counter)));
+    }
+    final ChunkResult total = new ChunkResult();
+    try {
+      for (Future<ChunkResult> future : futures) {
+        total.add(future.get());
       }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while reconstructing records", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Reconstruction of records failed", e);
+    } finally {
+      threadPool.shutdownNow();
     }
-    LOGGER.info("Reconstructed {} records from collection {}", counter, collection);
+    LOGGER.info("Reconstructed {} records from collection {}", counter.get(), collection);
+    LOGGER.info("Total over {} chunks - {}", futures.size(), total);
   }
 
-  private void reconstructDocuments(List<String> fieldListsToCheck,
-      MongoCollection<Document> mongoCollection, FindIterable<Document> findIterable) {
-    try (MongoCursor<Document> cursor = findIterable.cursor()) {
+  /**
+   * Reconstructs a chunk of abouts, by reading all its documents with one {@code $in} query and
+   * writing back the changed ones with one unordered bulk write.
+   */
+  private ChunkResult reconstructChunk(MongoCollection<Document> mongoCollection, int chunkIndex,
+      List<String> chunk, List<String> fieldListsToCheck, AtomicLong counter) {
+    final ChunkResult chunkResult = new ChunkResult();
+    final List<ReplaceOneModel<Document>> replacements = new ArrayList<>();
+    final Set<String> foundAbouts = new HashSet<>();
+    try (MongoCursor<Document> cursor = mongoCollection.find(Filters.in(ABOUT_FIELD, chunk))
+        .cursor()) {
       while (cursor.hasNext()) {
         final Document document = cursor.next();
-
-        for (String fieldList : fieldListsToCheck) {
-          Optional.ofNullable(document.get(fieldList)).map(o -> (List<DBRef>) o)
-              .map(this::removeDuplicatesFromList)
-              .ifPresent(dbRefsList -> document.put(fieldList, dbRefsList));
+        chunkResult.found++;
+        foundAbouts.add(document.getString(ABOUT_FIELD));
+        if (reconstructDocument(fieldListsToCheck, document)) {
+          replacements.add(new ReplaceOneModel<>(
+              new Document(ID_FIELD, document.getObjectId(ID_FIELD)), document));
         }
-        updateDocumentInDb(document, mongoCollection);
       }
     }
+    chunkResult.notFound = (int) chunk.stream().filter(about -> !foundAbouts.contains(about))
+        .count();
+    if (!replacements.isEmpty()) {
+      try {
+        final BulkWriteResult bulkWriteResult = mongoCollection
+            .bulkWrite(replacements, new BulkWriteOptions().ordered(false));
+        chunkResult.succeeded = bulkWriteResult.getModifiedCount();
+      } catch (MongoBulkWriteException e) {
+        chunkResult.succeeded = e.getWriteResult().getModifiedCount();
+        chunkResult.failed = e.getWriteErrors().size();
+        LOGGER.warn("Chunk {} had {} failed replacements", chunkIndex, chunkResult.failed, e);
+      }
+    }
+    LOGGER.info("Chunk {} - {}", chunkIndex, chunkResult);
+    final long previousCounter = counter.getAndAdd(chunk.size());
+    if ((previousCounter + chunk.size()) / counterCheckpoint > previousCounter / counterCheckpoint
+        && LOGGER.isInfoEnabled()) {
+      LOGGER.info("Reconstructed {} records from collection {}", previousCounter + chunk.size(),
+          mongoCollection.getNamespace().getCollectionName());
+    }
+    return chunkResult;
   }
 
-  private void updateDocumentInDb(Document document, MongoCollection<Document> mongoCollection) {
-    mongoCollection.replaceOne(new Document("_id", document.getObjectId("_id")), document);
+  /**
+   * Removes the duplicates from the lists of the document.
+   *
+   * @return whether the document changed
+   */
+  private boolean reconstructDocument(List<String> fieldListsToCheck, Document document) {
+    boolean changed = false;
+    for (String fieldList : fieldListsToCheck) {
+      final List<DBRef> dbRefsList = (List<DBRef>) document.get(fieldList);
+      if (dbRefsList != null) {
+        final List<DBRef> distinctDbRefsList = removeDuplicatesFromList(dbRefsList);
+        if (distinctDbRefsList.size() != dbRefsList.size()) {
+          document.put(fieldList, distinctDbRefsList);
+          changed = true;
+        }
+      }
+    }
+    return changed;
   }
 
   private List<DBRef> removeDuplicatesFromList(List<DBRef> list) {
     return list.stream().distinct().collect(Collectors.toList());
   }
 
+  /**
+   * The counts of the reconstruction of one chunk, or of all chunks.
+   */
+  private static class ChunkResult {
+
+    private int found;
+    private int notFound;
+    private int succeeded;
+    private int failed;
+
+    private void add(ChunkResult other) {
+      found += other.found;
+      notFound += other.notFound;
+      succeeded += other.succeeded;
+      failed += other.failed;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("found: %s, not found: %s, replaced: %s, failed: %s", found, notFound,
+          succeeded, failed);
+    }
+  }
+
 }
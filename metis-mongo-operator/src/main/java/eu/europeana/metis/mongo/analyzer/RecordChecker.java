@@ -1,64 +1,182 @@
 package eu.europeana.metis.mongo.analyzer;
 
-import static eu.europeana.metis.mongo.analyzer.utilities.RecordIdsHelper.getRecordIds;
+import static eu.europeana.metis.mongo.analyzer.utilities.RecordIdsHelper.streamRecordIds;
 
 import com.mongodb.client.MongoClient;
 import com.mongodb.lang.Nullable;
 import eu.europeana.corelib.mongo.server.impl.EdmMongoServerImpl;
 import eu.europeana.corelib.web.exception.EuropeanaException;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.List;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Checks whether a specific record or a list of records are readable by using morphia and {@link
  * EdmMongoServerImpl}
+ * <p>The record ids are streamed from the file and checked with a configurable number of
+ * concurrent reads. At most two reads per thread are queued, so that memory stays flat regardless
+ * of the size of the file. The abouts of the records that cannot be read are written to a file as
+ * soon as they are checked. A check that fails with an unexpected exception fails the run.</p>
  */
 public class RecordChecker implements Operator {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(RecordChecker.class);
+  private static final int QUEUED_CHECKS_PER_THREAD = 2;
 
-  private final EdmMongoServerImpl edmMongoServer;
+  private final RecordReader recordReader;
   private final long counterCheckpoint;
   private final String recordAboutToCheck;
   private final Path pathWithCorruptedRecords;
+  private final int parallelThreads;
+  private final Path unreadableRecordsPath;
+
+  private final AtomicLong counter = new AtomicLong();
+  private final AtomicLong counterFailures = new AtomicLong();
 
   public RecordChecker(MongoClient mongoClient, String databaseName, long counterCheckpoint,
-      @Nullable String recordAboutToCheck, String filePathWithCorruptedRecords) {
-    this.edmMongoServer = new EdmMongoServerImpl(mongoClient, databaseName, false);
+      @Nullable String recordAboutToCheck, String filePathWithCorruptedRecords,
+      int parallelThreads) {
+    this(createRecordReader(new EdmMongoServerImpl(mongoClient, databaseName, false)),
+        counterCheckpoint, recordAboutToCheck, filePathWithCorruptedRecords, parallelThreads,
+        Paths.get(String.format("unreadableRecords-%s.txt",
+            new SimpleDateFormat("yyyy-MM-dd-HHmmss").format(new Date()))));
+  }
+
+  RecordChecker(RecordReader recordReader, long counterCheckpoint,
+      @Nullable String recordAboutToCheck, String filePathWithCorruptedRecords,
+      int parallelThreads, Path unreadableRecordsPath) {
+    this.recordReader = recordReader;
     this.counterCheckpoint = counterCheckpoint;
     this.pathWithCorruptedRecords = Paths.get(filePathWithCorruptedRecords);
     this.recordAboutToCheck = recordAboutToCheck;
+    this.parallelThreads = parallelThreads;
+    this.unreadableRecordsPath = unreadableRecordsPath;
   }
 
-  public void operate() {
-    List<String> recordAbouts = getRecordIds(recordAboutToCheck, pathWithCorruptedRecords);
-    checkReadOfCorruptedRecord(edmMongoServer, recordAbouts);
-  }
-
-  private void checkReadOfCorruptedRecord(EdmMongoServerImpl edmMongoServer,
-      List<String> recordAbouts) {
-    int counterFailures = 0;
-    int counter = 0;
-    for (String about : recordAbouts) {
+  private static RecordReader createRecordReader(EdmMongoServerImpl edmMongoServer) {
+    return about -> {
       try {
         edmMongoServer.getFullBean(about);
+        return true;
       } catch (EuropeanaException e) {
-        LOGGER.debug("Cannot read record with about {}", about);
-        counterFailures++;
+        return false;
       }
+    };
+  }
 
-      counter++;
-      if (counter % counterCheckpoint == 0 && LOGGER.isInfoEnabled()) {
-        LOGGER.info("Reconstructed {} records from collection {}", counter, "record");
-        LOGGER.info("Unsuccessful read(s): {}", counterFailures);
+  public void operate() {
+    try (Stream<String> recordAbouts = streamRecordIds(recordAboutToCheck,
+        pathWithCorruptedRecords); BufferedWriter unreadableRecordsWriter = Files
+        .newBufferedWriter(unreadableRecordsPath, StandardCharsets.UTF_8)) {
+      if (parallelThreads > 1) {
+        checkReadOfCorruptedRecordsInParallel(recordAbouts.iterator(), unreadableRecordsWriter);
+      } else {
+        recordAbouts.forEach(about -> checkReadOfCorruptedRecord(about, unreadableRecordsWriter));
       }
+    } catch (IOException e) {
+      throw new UncheckedIOException(
+          String.format("Failed to write file %s", unreadableRecordsPath), e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while checking records", e);
     }
-    LOGGER.info("Checked {} records from collection {}", counter, "record");
+    LOGGER.info("Checked {} records from collection {}", counter.get(), "record");
     LOGGER.info("Successful read(s): {}, Unsuccessful read(s): {}",
-        recordAbouts.size() - counterFailures, counterFailures);
+        counter.get() - counterFailures.get(), counterFailures.get());
+    LOGGER.info("Unsuccessful read(s) written to {}", unreadableRecordsPath);
+  }
+
+  private void checkReadOfCorruptedRecordsInParallel(Iterator<String> recordAbouts,
+      Writer unreadableRecordsWriter) throws InterruptedException {
+    final ExecutorService threadPool = Executors.newFixedThreadPool(parallelThreads);
+    final CompletionService<Void> completionService = new ExecutorCompletionService<>(threadPool);
+    final int maxQueuedChecks = parallelThreads * QUEUED_CHECKS_PER_THREAD;
+    int queuedChecks = 0;
+    try {
+      while (recordAbouts.hasNext()) {
+        final String about = recordAbouts.next();
+        if (queuedChecks == maxQueuedChecks) {
+          //Wait for a check to finish, failing the run if it threw an exception
+          getCheckResult(completionService.take());
+          queuedChecks--;
+        }
+        completionService.submit(() -> {
+          checkReadOfCorruptedRecord(about, unreadableRecordsWriter);
+          return null;
+        });
+        queuedChecks++;
+      }
+      for (; queuedChecks > 0; queuedChecks--) {
+        getCheckResult(completionService.take());
+      }
+    } finally {
+      threadPool.shutdownNow();
+    }
+  }
+
+  private static void getCheckResult(Future<Void> check) throws InterruptedException {
+    try {
+      check.get();
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Checking a record failed", e.getCause());
+    }
+  }
+
+  private void checkReadOfCorruptedRecord(String about, Writer unreadableRecordsWriter) {
+    if (!recordReader.isReadable(about)) {
+      LOGGER.debug("Cannot read record with about {}", about);
+      counterFailures.incrementAndGet();
+      writeUnreadableRecord(about, unreadableRecordsWriter);
+    }
+
+    final long currentCounter = counter.incrementAndGet();
+    if (currentCounter % counterCheckpoint == 0 && LOGGER.isInfoEnabled()) {
+      LOGGER.info("Checked {} records from collection {}", currentCounter, "record");
+      LOGGER.info("Unsuccessful read(s): {}", counterFailures.get());
+    }
   }
 
+  private static void writeUnreadableRecord(String about, Writer unreadableRecordsWriter) {
+    synchronized (unreadableRecordsWriter) {
+      try {
+        unreadableRecordsWriter.write(about);
+        unreadableRecordsWriter.write(System.lineSeparator());
+        unreadableRecordsWriter.flush();
+      } catch (IOException e) {
+        throw new UncheckedIOException(
+            String.format("Could not write unreadable record %s", about), e);
+      }
+    }
+  }
+
+  /**
+   * Reads a record.
+   */
+  @FunctionalInterface
+  interface RecordReader {
+
+    /**
+     * @param about the about of the record
+     * @return whether the record could be read
+     */
+    boolean isReadable(String about);
+  }
 }
@@ -0,0 +1,13 @@
+package eu.europeana.metis.mongo.analyzer.model;
+
+/**
+ * The engine that the analyzer uses to detect duplicates.
+ * <ul>
+ *   <li>CLIENT: all documents are read and checked on the client</li>
+ *   <li>AGGREGATION: the check is performed in a server side aggregation and only the offending
+ *   documents are read</li>
+ * </ul>
+ */
+public enum AnalysisEngine {
+  CLIENT, AGGREGATION
+}
@@ -1,15 +1,13 @@
 package eu.europeana.metis.mongo.analyzer.model;
 
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
 public class DatasetAnalysis {
 
   private String datasetId;
-  private List<String> recordAboutsWithDuplicates = new ArrayList<>();
+  private int recordsWithDuplicates;
   private Map<Integer, Integer> duplicatesAndQuantity = new HashMap<>();
 
   public DatasetAnalysis(String datasetId) {
@@ -41,12 +39,29 @@ public class DatasetAnalysis {
     this.datasetId = datasetId;
   }
 
-  public List<String> getRecordAboutsWithDuplicates() {
-    return recordAboutsWithDuplicates;
+  public int getRecordsWithDuplicates() {
+    return recordsWithDuplicates;
   }
 
-  public void setRecordAboutsWithDuplicates(List<String> recordAboutsWithDuplicates) {
-    this.recordAboutsWithDuplicates = recordAboutsWithDuplicates;
+  public void setRecordsWithDuplicates(int recordsWithDuplicates) {
+    this.recordsWithDuplicates = recordsWithDuplicates;
+  }
+
+  public void incrementRecordsWithDuplicates() {
+    recordsWithDuplicates++;
+  }
+
+  /**
+   * Merge the results of another analysis of the same dataset into this one.
+   *
+   * @param other the other analysis
+   * @return this analysis
+   */
+  public DatasetAnalysis merge(DatasetAnalysis other) {
+    recordsWithDuplicates += other.getRecordsWithDuplicates();
+    other.getDuplicatesAndQuantity().forEach(
+        (duplicates, quantity) -> duplicatesAndQuantity.merge(duplicates, quantity, Integer::sum));
+    return this;
   }
 
   public Map<Integer, Integer> getDuplicatesAndQuantity() {
@@ -1,5 +1,5 @@
 package eu.europeana.metis.mongo.analyzer.model;
 
 public enum Mode {
-  ANALYSE, RECONSTRUCT, CHECK
+  ANALYSE, RECONSTRUCT, CHECK, BENCHMARK_ANALYSIS
 }
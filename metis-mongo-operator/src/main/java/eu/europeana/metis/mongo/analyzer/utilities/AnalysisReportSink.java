@@ -0,0 +1,240 @@
+package eu.europeana.metis.mongo.analyzer.utilities;
+
+import eu.europeana.metis.mongo.analyzer.model.DatasetAnalysis;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writer based sink of the analysis report of one collection.
+ * <p>The abouts are not kept in memory until the end of the analysis. Every part of the
+ * collection that is analysed (see {@link #createPartSink()}) buffers a limited number of abouts
+ * and spills them to temporary files, one per dataset and per about file. When the analysis report
+ * is written, the about files are assembled from the temporary files in the original order: the
+ * records with duplicates per dataset, in the order of the datasets in the report, and then in
+ * the order of the parts and of the analysis within each part. The analysis report and the about
+ * files are written one dataset section at a time, flushing on every section boundary.</p>
+ * <p>The files have the same format as the ones of {@link ReportGenerator#writeToFile(Path,
+ * String)}: an about file is only created if it has at least one line and every file ends with an
+ * empty line.</p>
+ */
+public class AnalysisReportSink implements Closeable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(AnalysisReportSink.class);
+  //@formatter:off
+  private static final String SEPARATOR_LINE = String.format("==============================================================%n");
+  //@formatter:on
+  private static final int MAX_BUFFERED_ABOUTS_PER_PART = 10_000;
+  private static final String MISSING_PREFIX_KEY = "missingPrefix";
+  private static final String UNPARSABLE_KEY = "unparsable";
+  private static final String DATASET_KEY_PREFIX = "dataset:";
+
+  private final String collection;
+  private final Path analysisFilePath;
+  private final Path recordsWithDuplicatesFilePath;
+  private final Path missingPrefixAboutFilePath;
+  private final Path unparsableAboutFilePath;
+  private final Path spillDirectory;
+  private final List<PartSink> partSinks = new ArrayList<>();
+  private final Map<Path, Writer> openWriters = new LinkedHashMap<>();
+
+  AnalysisReportSink(String collection, Path analysisFilePath, Path recordsWithDuplicatesFilePath,
+      Path missingPrefixAboutFilePath, Path unparsableAboutFilePath) throws IOException {
+    this.collection = collection;
+    this.analysisFilePath = analysisFilePath;
+    this.recordsWithDuplicatesFilePath = recordsWithDuplicatesFilePath;
+    this.missingPrefixAboutFilePath = missingPrefixAboutFilePath;
+    this.unparsableAboutFilePath = unparsableAboutFilePath;
+    this.spillDirectory = Files
+        .createTempDirectory(analysisFilePath.toAbsolutePath().getParent(), collection + "-");
+  }
+
+  /**
+   * Creates the sink of the next part of the collection. The parts are written to the about files
+   * in the order in which their sinks are created. A part sink should only be used by one thread
+   * at a time.
+   *
+   * @return the part sink
+   */
+  public synchronized PartSink createPartSink() {
+    final PartSink partSink = new PartSink(partSinks.size());
+    partSinks.add(partSink);
+    return partSink;
+  }
+
+  /**
+   * Write the analysis report of the collection, followed by the about files. All parts should
+   * have been analysed.
+   *
+   * @param datasetsWithDuplicates the analyses of the datasets with duplicates
+   * @param missingPrefixAbouts the number of abouts with missing prefix
+   * @param unparsableAbouts the number of unparsable abouts
+   */
+  public synchronized void writeAnalysisReport(
+      final Map<String, DatasetAnalysis> datasetsWithDuplicates, long missingPrefixAbouts,
+      long unparsableAbouts) {
+    final AtomicInteger totalDuplicates = new AtomicInteger();
+    final AtomicInteger totalRecordsWithDuplicates = new AtomicInteger();
+    datasetsWithDuplicates.values().forEach(datasetAnalysis -> {
+      datasetAnalysis.getDuplicatesAndQuantity()
+          .forEach((countersKey, countersValue) -> totalDuplicates.addAndGet(countersValue));
+      totalRecordsWithDuplicates.addAndGet(datasetAnalysis.getRecordsWithDuplicates());
+    });
+
+    //Create Report
+    //@formatter:off
+    final StringBuilder header = new StringBuilder();
+    header.append(String.format("Analysis of collection %s%n", collection));
+    header.append(SEPARATOR_LINE);
+    header.append(String.format("Missing prefix on about values total: %s%n", missingPrefixAbouts));
+    header.append(String.format("Unparsable about values total: %s%n", unparsableAbouts));
+    header.append(String.format("Records with duplicates total: %s%n", totalRecordsWithDuplicates.get()));
+    header.append(String.format("Duplicate counters total: %s%n", totalDuplicates.get()));
+    header.append(String.format("Duplicate counters per dataset:%n"));
+    writeSection(header);
+    //Per dataset duplicates report
+    datasetsWithDuplicates.forEach((key, value) -> {
+      final StringBuilder datasetSection = new StringBuilder();
+      datasetSection.append(String.format("DatasetId -> %s:%n", key));
+      value.getDuplicatesAndQuantity().forEach((countersKey, countersValue) -> datasetSection
+          .append(String.format("References of duplicates %s - Quantity %s%n", countersKey, countersValue)));
+      writeSection(datasetSection);
+    });
+    writeSection(new StringBuilder(SEPARATOR_LINE));
+    //@formatter:on
+
+    //Assemble the about files from the parts
+    partSinks.forEach(PartSink::spill);
+    datasetsWithDuplicates.keySet().forEach(datasetId -> copyParts(recordsWithDuplicatesFilePath,
+        DATASET_KEY_PREFIX + datasetId));
+    copyParts(missingPrefixAboutFilePath, MISSING_PREFIX_KEY);
+    copyParts(unparsableAboutFilePath, UNPARSABLE_KEY);
+  }
+
+  private void writeSection(CharSequence section) {
+    try {
+      getWriter(analysisFilePath).append(section).flush();
+    } catch (IOException e) {
+      LOGGER.warn("Exception occurred while writing report to file", e);
+    }
+  }
+
+  private void copyParts(Path path, String key) {
+    try {
+      Writer writer = null;
+      for (PartSink partSink : partSinks) {
+        final Path spillFile = partSink.spillFiles.get(key);
+        if (spillFile != null) {
+          writer = writer == null ? getWriter(path) : writer;
+          try (BufferedReader reader = Files.newBufferedReader(spillFile, StandardCharsets.UTF_8)) {
+            reader.transferTo(writer);
+          }
+        }
+      }
+      if (writer != null) {
+        writer.flush();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(String.format("Could not write report file %s", path), e);
+    }
+  }
+
+  private Writer getWriter(Path path) throws IOException {
+    Writer writer = openWriters.get(path);
+    if (writer == null) {
+      writer = new BufferedWriter(new FileWriter(path.toFile(), true));
+      openWriters.put(path, writer);
+    }
+    return writer;
+  }
+
+  /**
+   * Ends every written file with an empty line, closes it and removes the temporary files.
+   */
+  @Override
+  public synchronized void close() {
+    for (Writer writer : openWriters.values()) {
+      try (writer) {
+        writer.append(System.lineSeparator());
+      } catch (IOException e) {
+        LOGGER.warn("Exception occurred while writing report to file", e);
+      }
+    }
+    openWriters.clear();
+    try (Stream<Path> spillFiles = Files.walk(spillDirectory)) {
+      spillFiles.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    } catch (IOException e) {
+      LOGGER.warn("Could not remove temporary directory {}", spillDirectory, e);
+    }
+  }
+
+  /**
+   * The sink of the abouts of one part of the collection. The abouts are buffered and spilled to
+   * one temporary file per dataset and per about file when the buffer is full.
+   */
+  public final class PartSink {
+
+    private final int partIndex;
+    private final Map<String, List<String>> bufferedAbouts = new LinkedHashMap<>();
+    private final Map<String, Path> spillFiles = new HashMap<>();
+    private int bufferedAboutCount;
+
+    private PartSink(int partIndex) {
+      this.partIndex = partIndex;
+    }
+
+    public void writeRecordWithDuplicates(String datasetId, String about) {
+      buffer(DATASET_KEY_PREFIX + datasetId, about);
+    }
+
+    public void writeMissingPrefixAbout(String about) {
+      buffer(MISSING_PREFIX_KEY, about);
+    }
+
+    public void writeUnparsableAbout(String about) {
+      buffer(UNPARSABLE_KEY, about);
+    }
+
+    private void buffer(String key, String about) {
+      bufferedAbouts.computeIfAbsent(key, k -> new ArrayList<>()).add(about);
+      bufferedAboutCount++;
+      if (bufferedAboutCount >= MAX_BUFFERED_ABOUTS_PER_PART) {
+        spill();
+      }
+    }
+
+    private void spill() {
+      for (Map.Entry<String, List<String>> entry : bufferedAbouts.entrySet()) {
+        final Path spillFile = spillFiles.computeIfAbsent(entry.getKey(), key -> spillDirectory
+            .resolve(String.format("part%d-%d", partIndex, spillFiles.size())));
+        try {
+          Files.write(spillFile, entry.getValue(), StandardCharsets.UTF_8,
+              StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+          throw new UncheckedIOException(
+              String.format("Could not write temporary file %s", spillFile), e);
+        }
+      }
+      bufferedAbouts.clear();
+      bufferedAboutCount = 0;
+    }
+  }
+}
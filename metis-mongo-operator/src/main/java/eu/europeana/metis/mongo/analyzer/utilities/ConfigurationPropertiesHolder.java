@@ -1,6 +1,7 @@
 package eu.europeana.metis.mongo.analyzer.utilities;
 
 import eu.europeana.metis.mongo.MongoProperties;
+import eu.europeana.metis.mongo.analyzer.model.AnalysisEngine;
 import eu.europeana.metis.mongo.analyzer.model.Mode;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
@@ -48,6 +49,14 @@ public class ConfigurationPropertiesHolder {
   private String mongoDb;
   @Value("${log.counter.checkpoint}")
   private long logCounterCheckpoint;
+  @Value("${parallel.threads:1}")
+  private int parallelThreads;
+  @Value("${chunk.size:500}")
+  private int chunkSize;
+  @Value("${analysis.engine:CLIENT}")
+  private AnalysisEngine analysisEngine;
+  @Value("${benchmark.fixture.size:100000}")
+  private int benchmarkFixtureSize;
 
   @Value("${mode}")
   private Mode mode;
@@ -125,6 +134,22 @@ public class ConfigurationPropertiesHolder {
     return logCounterCheckpoint;
   }
 
+  public int getParallelThreads() {
+    return parallelThreads;
+  }
+
+  public int getChunkSize() {
+    return chunkSize;
+  }
+
+  public AnalysisEngine getAnalysisEngine() {
+    return analysisEngine;
+  }
+
+  public int getBenchmarkFixtureSize() {
+    return benchmarkFixtureSize;
+  }
+
   public Mode getMode() {
     return mode;
   }
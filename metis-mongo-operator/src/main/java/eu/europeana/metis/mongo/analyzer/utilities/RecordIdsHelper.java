@@ -1,9 +1,18 @@
 package eu.europeana.metis.mongo.analyzer.utilities;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
 import org.apache.commons.lang.StringUtils;
 
 public class RecordIdsHelper {
@@ -13,18 +22,47 @@ public class RecordIdsHelper {
 
   public static List<String> getRecordIds(String recordAboutToCheck,
       Path pathWithCorruptedRecords) {
-    final List<String> recordAbouts;
-    if (StringUtils.isBlank(recordAboutToCheck)) {
-      //Read all corrupted record abouts
-      try {
-        recordAbouts = Files.readAllLines(pathWithCorruptedRecords);
-      } catch (IOException e) {
-        throw new RuntimeException(
-            String.format("Failed to read file %s", pathWithCorruptedRecords), e);
-      }
-    } else {
-      recordAbouts = List.of(recordAboutToCheck);
+    try (Stream<String> recordAbouts = streamRecordIds(recordAboutToCheck,
+        pathWithCorruptedRecords)) {
+      return recordAbouts.collect(Collectors.toList());
     }
-    return recordAbouts;
+  }
+
+  /**
+   * Lazily reads the record ids, one per line, from the file, that can be gzipped. The returned
+   * stream should be closed to close the file.
+   *
+   * @param recordAboutToCheck if not blank, the only record id returned
+   * @param pathWithCorruptedRecords the file with the record ids
+   * @return the record ids
+   */
+  public static Stream<String> streamRecordIds(String recordAboutToCheck,
+      Path pathWithCorruptedRecords) {
+    if (StringUtils.isNotBlank(recordAboutToCheck)) {
+      return Stream.of(recordAboutToCheck);
+    }
+    //Read all corrupted record abouts
+    try {
+      final BufferedReader reader = new BufferedReader(new InputStreamReader(
+          openPossiblyGzipped(pathWithCorruptedRecords), StandardCharsets.UTF_8));
+      return reader.lines().onClose(() -> {
+        try {
+          reader.close();
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    } catch (IOException e) {
+      throw new RuntimeException(
+          String.format("Failed to read file %s", pathWithCorruptedRecords), e);
+    }
+  }
+
+  private static InputStream openPossiblyGzipped(Path path) throws IOException {
+    final InputStream inputStream = new BufferedInputStream(Files.newInputStream(path));
+    inputStream.mark(2);
+    final int magic = inputStream.read() & 0xff | ((inputStream.read() << 8) & 0xff00);
+    inputStream.reset();
+    return magic == GZIPInputStream.GZIP_MAGIC ? new GZIPInputStream(inputStream) : inputStream;
   }
 }
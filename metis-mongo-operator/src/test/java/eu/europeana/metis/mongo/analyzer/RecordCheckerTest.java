@@ -0,0 +1,74 @@
+package eu.europeana.metis.mongo.analyzer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import eu.europeana.metis.mongo.analyzer.RecordChecker.RecordReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RecordCheckerTest {
+
+  private static final int RECORDS = 1000;
+  private static final int PARALLEL_THREADS = 4;
+  private static final RecordReader READER = about -> about.hashCode() % 7 != 0;
+
+  @TempDir
+  Path tempDir;
+
+  private Path recordsFile;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    recordsFile = tempDir.resolve("records.txt");
+    Files.write(recordsFile, IntStream.range(0, RECORDS).mapToObj(i -> "/dataset/record" + i)
+        .collect(Collectors.toList()), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  void parallelCheckFindsTheSameUnreadableRecordsAsSerialCheck() throws IOException {
+    final List<String> serial = check(READER, 1, "serial.txt");
+    final List<String> parallel = check(READER, PARALLEL_THREADS, "parallel.txt");
+    assertFalse(serial.isEmpty());
+    assertEquals(serial, parallel);
+  }
+
+  @Test
+  void parallelCheckFailsWhenACheckThrows() {
+    final RecordReader failingReader = about -> {
+      if (about.equals("/dataset/record500")) {
+        throw new IllegalArgumentException("Failure for " + about);
+      }
+      return READER.isReadable(about);
+    };
+    final IllegalStateException exception = assertThrows(IllegalStateException.class,
+        () -> check(failingReader, PARALLEL_THREADS, "parallel.txt"));
+    assertEquals(IllegalArgumentException.class, exception.getCause().getClass());
+  }
+
+  @Test
+  void serialCheckFailsWhenACheckThrows() {
+    final RecordReader failingReader = about -> {
+      throw new IllegalArgumentException("Failure for " + about);
+    };
+    assertThrows(IllegalArgumentException.class, () -> check(failingReader, 1, "serial.txt"));
+  }
+
+  private List<String> check(RecordReader recordReader, int parallelThreads, String outputFile)
+      throws IOException {
+    final Path unreadableRecordsPath = tempDir.resolve(outputFile);
+    new RecordChecker(recordReader, RECORDS, null, recordsFile.toString(), parallelThreads,
+        unreadableRecordsPath).operate();
+    return Files.readAllLines(unreadableRecordsPath, StandardCharsets.UTF_8).stream().sorted()
+        .collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,91 @@
+package eu.europeana.metis.mongo.analyzer.utilities;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import eu.europeana.metis.mongo.analyzer.model.DatasetAnalysis;
+import eu.europeana.metis.mongo.analyzer.utilities.AnalysisReportSink.PartSink;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class AnalysisReportSinkTest {
+
+  private static final int DATASETS = 5;
+  private static final int ABOUTS_PER_PART = 25_000;
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void aboutFilesAreInTheOriginalOrderRegardlessOfTheWriteOrder() throws IOException {
+    final Path analysisFile = tempDir.resolve("analysis.txt");
+    final Path duplicatesFile = tempDir.resolve("duplicates.txt");
+    final Path missingPrefixFile = tempDir.resolve("missingPrefix.txt");
+    final Path unparsableFile = tempDir.resolve("unparsable.txt");
+    final Map<String, DatasetAnalysis> datasets = new HashMap<>();
+    final Map<String, List<String>> expectedDuplicatesPerDataset = new HashMap<>();
+    final StringBuilder expectedUnparsable = new StringBuilder();
+
+    try (AnalysisReportSink sink = new AnalysisReportSink("record", analysisFile, duplicatesFile,
+        missingPrefixFile, unparsableFile)) {
+      final PartSink firstPart = sink.createPartSink();
+      final PartSink secondPart = sink.createPartSink();
+      final List<String> firstPartUnparsable = new ArrayList<>();
+      final List<String> secondPartUnparsable = new ArrayList<>();
+
+      //Interleave the parts, as parallel analyses would, with enough abouts to spill
+      for (int i = 0; i < ABOUTS_PER_PART; i++) {
+        for (int part = 0; part < 2; part++) {
+          final PartSink partSink = part == 0 ? firstPart : secondPart;
+          final String datasetId = Integer.toString(i % DATASETS);
+          final String about = String.format("/%s/part%d-record%d", datasetId, part, i);
+          if (i % 10 == 0) {
+            partSink.writeUnparsableAbout(about);
+            (part == 0 ? firstPartUnparsable : secondPartUnparsable).add(about);
+          } else {
+            partSink.writeRecordWithDuplicates(datasetId, about);
+            datasets.computeIfAbsent(datasetId, DatasetAnalysis::new)
+                .incrementRecordsWithDuplicates();
+          }
+        }
+      }
+      for (int part = 0; part < 2; part++) {
+        for (int i = 0; i < ABOUTS_PER_PART; i++) {
+          if (i % 10 != 0) {
+            final String datasetId = Integer.toString(i % DATASETS);
+            expectedDuplicatesPerDataset.computeIfAbsent(datasetId, key -> new ArrayList<>())
+                .add(String.format("/%s/part%d-record%d", datasetId, part, i));
+          }
+        }
+      }
+      firstPartUnparsable.forEach(about -> expectedUnparsable.append(String.format("%s%n", about)));
+      secondPartUnparsable
+          .forEach(about -> expectedUnparsable.append(String.format("%s%n", about)));
+
+      sink.writeAnalysisReport(datasets, 0, firstPartUnparsable.size()
+          + secondPartUnparsable.size());
+    }
+
+    //Same format as the report that was built in memory: per dataset, then a trailing line
+    final StringBuilder expectedDuplicates = new StringBuilder();
+    datasets.keySet().forEach(datasetId -> expectedDuplicatesPerDataset.get(datasetId)
+        .forEach(about -> expectedDuplicates.append(String.format("%s%n", about))));
+    expectedDuplicates.append(System.lineSeparator());
+    expectedUnparsable.append(System.lineSeparator());
+    assertEquals(expectedDuplicates.toString(), Files.readString(duplicatesFile));
+    assertEquals(expectedUnparsable.toString(), Files.readString(unparsableFile));
+    assertFalse(Files.exists(missingPrefixFile));
+    //Only the report files remain, the temporary files are removed
+    try (Stream<Path> files = Files.list(tempDir)) {
+      assertEquals(3, files.count());
+    }
+  }
+}
@@ -0,0 +1,142 @@
+package eu.europeana.metis_tools.oaipmh.harvest;
+
+/**
+ * An approximate identifier store that uses a fixed amount of memory, regardless of the number of
+ * identifiers. Every identifier is hashed to a 64-bit value, which is used for two estimates:
+ * <ul>
+ * <li>The number of unique identifiers is estimated with a HyperLogLog sketch of 2^precision
+ * registers (of one byte each). The relative standard error of this estimate is
+ * 1.04/sqrt(2^precision): e.g. 0.81% for precision 14 (16 KB) and 0.41% for precision 16 (64
+ * KB).</li>
+ * <li>The number of duplicates is counted with a Bloom filter: an identifier that the filter
+ * (probably) contains already is counted as duplicate. Duplicates are never missed, but a new
+ * identifier may be counted as duplicate (a false positive). The filter is sized for the given
+ * expected number of unique identifiers and false positive probability p, so that while that
+ * number is not exceeded, the duplicate count overestimates by at most about p times the number
+ * of unique identifiers (e.g. 1,000 for 10 million identifiers and p = 0.0001). The filter needs
+ * about -ln(p)/ln(2)^2 bits per expected identifier: e.g. about 23 MB for 10 million identifiers
+ * and p = 0.0001. Beyond the expected number the false positive rate grows quickly.</li>
+ * </ul>
+ * Collisions of the 64-bit hash are negligible for the numbers of identifiers that we deal with.
+ */
+public class ApproximateIdentifierStore implements IdentifierStore {
+
+  private final byte[] registers;
+  private final int precision;
+  private final long[] bloomBits;
+  private final long bloomBitCount;
+  private final int bloomHashCount;
+  private long duplicateIdentifiers;
+
+  /**
+   * Constructor.
+   *
+   * @param precision The precision of the HyperLogLog sketch (between 4 and 18).
+   * @param expectedIdentifiers The expected number of unique identifiers.
+   * @param falsePositiveProbability The false positive probability of the Bloom filter at the
+   * expected number of unique identifiers.
+   */
+  public ApproximateIdentifierStore(int precision, long expectedIdentifiers,
+          double falsePositiveProbability) {
+    if (precision < 4 || precision > 18) {
+      throw new IllegalArgumentException("Precision should be between 4 and 18.");
+    }
+    this.precision = precision;
+    this.registers = new byte[1 << precision];
+    final double bitsPerIdentifier = -Math.log(falsePositiveProbability) / (Math.log(2)
+            * Math.log(2));
+    final long wordCount = Math.max(1, (long) Math.ceil(
+            Math.max(1, expectedIdentifiers) * bitsPerIdentifier / Long.SIZE));
+    if (wordCount > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("The Bloom filter would be too large.");
+    }
+    this.bloomBits = new long[(int) wordCount];
+    this.bloomBitCount = wordCount * Long.SIZE;
+    this.bloomHashCount = Math.max(1, (int) Math.round(bitsPerIdentifier * Math.log(2)));
+  }
+
+  @Override
+  public void add(String identifier) {
+    final long hash = hash(identifier);
+
+    // Update the HyperLogLog sketch: the register is chosen by the first bits, the rank is the
+    // position of the first 1-bit in the remaining bits.
+    final int register = (int) (hash >>> (Long.SIZE - precision));
+    final long remainder = hash << precision;
+    final int rank = remainder == 0 ? (Long.SIZE - precision + 1)
+            : (Long.numberOfLeadingZeros(remainder) + 1);
+    if (registers[register] < rank) {
+      registers[register] = (byte) rank;
+    }
+
+    // Update the Bloom filter (double hashing with the two halves of the hash).
+    final long hash1 = hash & 0xffffffffL;
+    final long hash2 = (hash >>> 32) | 1;
+    boolean present = true;
+    for (int i = 0; i < bloomHashCount; i++) {
+      final long bit = Math.floorMod(hash1 + i * hash2 * 0x9E3779B97F4A7C15L, bloomBitCount);
+      final int word = (int) (bit >>> 6);
+      final long mask = 1L << (bit & 63);
+      if ((bloomBits[word] & mask) == 0) {
+        present = false;
+        bloomBits[word] |= mask;
+      }
+    }
+    if (present) {
+      duplicateIdentifiers++;
+    }
+  }
+
+  @Override
+  public Counts count() {
+    final int registerCount = registers.length;
+    double sum = 0;
+    int zeroRegisters = 0;
+    for (byte rank : registers) {
+      sum += 1.0 / (1L << rank);
+      if (rank == 0) {
+        zeroRegisters++;
+      }
+    }
+    double estimate = alpha(registerCount) * registerCount * registerCount / sum;
+    if (estimate <= 2.5 * registerCount && zeroRegisters > 0) {
+      // Small range correction: linear counting.
+      estimate = registerCount * Math.log((double) registerCount / zeroRegisters);
+    }
+    return new Counts(Math.round(estimate), duplicateIdentifiers, false);
+  }
+
+  @Override
+  public void close() {
+    // Nothing to do.
+  }
+
+  private static double alpha(int registerCount) {
+    // The bias correction constant: the formula only holds from 128 registers.
+    switch (registerCount) {
+      case 16:
+        return 0.673;
+      case 32:
+        return 0.697;
+      case 64:
+        return 0.709;
+      default:
+        return 0.7213 / (1 + 1.079 / registerCount);
+    }
+  }
+
+  private static long hash(String identifier) {
+    // FNV-1a over the characters, followed by the MurmurHash3 finalizer to spread the bits.
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < identifier.length(); i++) {
+      hash ^= identifier.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+}
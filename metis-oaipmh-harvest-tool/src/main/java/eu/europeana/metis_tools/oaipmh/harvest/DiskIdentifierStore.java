@@ -0,0 +1,158 @@
+package eu.europeana.metis_tools.oaipmh.harvest;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An exact identifier store that keeps the identifiers on disk. The identifiers are collected in
+ * a buffer of bounded size. When the buffer is full, it is sorted and spilled to a temporary file
+ * (without the duplicates within the buffer, which are counted right away). When counting, the
+ * spill files are merged (in one pass, reading one line per file at a time) and the duplicates
+ * across files are counted. The memory use is therefore bounded by the buffer size, and the disk
+ * use is at most the size of the (unique) identifiers per spill file.
+ */
+public class DiskIdentifierStore implements IdentifierStore {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(DiskIdentifierStore.class);
+
+  private final Path tempFolder;
+  private final int bufferSize;
+  private final List<String> buffer;
+  private final List<Path> spillFiles = new ArrayList<>();
+  private long duplicateIdentifiers;
+
+  /**
+   * Constructor.
+   *
+   * @param tempFolder The folder in which to create the spill files. Can be null (for the default
+   * temporary folder).
+   * @param bufferSize The maximum number of identifiers kept in memory. Must be positive.
+   */
+  public DiskIdentifierStore(Path tempFolder, int bufferSize) {
+    if (bufferSize <= 0) {
+      throw new IllegalArgumentException("Buffer size should be positive.");
+    }
+    this.tempFolder = tempFolder;
+    this.bufferSize = bufferSize;
+    this.buffer = new ArrayList<>(bufferSize);
+  }
+
+  @Override
+  public void add(String identifier) throws IOException {
+    buffer.add(identifier);
+    if (buffer.size() >= bufferSize) {
+      spill();
+    }
+  }
+
+  private void spill() throws IOException {
+    Collections.sort(buffer);
+    final Path spillFile = tempFolder == null ? Files.createTempFile("identifiers", ".txt")
+            : Files.createTempFile(tempFolder, "identifiers", ".txt");
+    spillFiles.add(spillFile);
+    try (final BufferedWriter writer = Files.newBufferedWriter(spillFile,
+            StandardCharsets.UTF_8)) {
+      String previous = null;
+      for (String identifier : buffer) {
+        if (identifier.equals(previous)) {
+          duplicateIdentifiers++;
+        } else {
+          writer.write(identifier);
+          writer.newLine();
+          previous = identifier;
+        }
+      }
+    }
+    buffer.clear();
+  }
+
+  @Override
+  public Counts count() throws IOException {
+
+    // If nothing was spilled, we can count the buffer directly.
+    if (spillFiles.isEmpty()) {
+      Collections.sort(buffer);
+      long uniqueIdentifiers = 0;
+      String previous = null;
+      for (String identifier : buffer) {
+        if (identifier.equals(previous)) {
+          duplicateIdentifiers++;
+        } else {
+          uniqueIdentifiers++;
+          previous = identifier;
+        }
+      }
+      return new Counts(uniqueIdentifiers, duplicateIdentifiers, true);
+    }
+
+    // Otherwise, spill the rest and merge the files.
+    if (!buffer.isEmpty()) {
+      spill();
+    }
+    LOGGER.info("Merging {} spill files.", spillFiles.size());
+    final List<BufferedReader> readers = new ArrayList<>(spillFiles.size());
+    try {
+      final PriorityQueue<MergeEntry> queue = new PriorityQueue<>(spillFiles.size(),
+              Comparator.comparing(entry -> entry.identifier));
+      for (Path spillFile : spillFiles) {
+        final BufferedReader reader = Files.newBufferedReader(spillFile, StandardCharsets.UTF_8);
+        readers.add(reader);
+        final String first = reader.readLine();
+        if (first != null) {
+          queue.add(new MergeEntry(first, reader));
+        }
+      }
+      long uniqueIdentifiers = 0;
+      String previous = null;
+      while (!queue.isEmpty()) {
+        final MergeEntry entry = queue.poll();
+        if (entry.identifier.equals(previous)) {
+          duplicateIdentifiers++;
+        } else {
+          uniqueIdentifiers++;
+          previous = entry.identifier;
+        }
+        final String next = entry.reader.readLine();
+        if (next != null) {
+          queue.add(new MergeEntry(next, entry.reader));
+        }
+      }
+      return new Counts(uniqueIdentifiers, duplicateIdentifiers, true);
+    } finally {
+      for (BufferedReader reader : readers) {
+        reader.close();
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    buffer.clear();
+    for (Path spillFile : spillFiles) {
+      Files.deleteIfExists(spillFile);
+    }
+    spillFiles.clear();
+  }
+
+  private static final class MergeEntry {
+
+    private final String identifier;
+    private final BufferedReader reader;
+
+    MergeEntry(String identifier, BufferedReader reader) {
+      this.identifier = identifier;
+      this.reader = reader;
+    }
+  }
+}
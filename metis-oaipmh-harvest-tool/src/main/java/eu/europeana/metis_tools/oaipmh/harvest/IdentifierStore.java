@@ -0,0 +1,86 @@
+package eu.europeana.metis_tools.oaipmh.harvest;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A store for identifiers that counts the unique and duplicate identifiers that are added to it.
+ * Implementations are not thread-safe.
+ */
+public interface IdentifierStore extends Closeable {
+
+  /**
+   * Adds an identifier.
+   *
+   * @param identifier The identifier. Is not null and does not contain line breaks.
+   * @throws IOException In case the identifier could not be stored.
+   */
+  void add(String identifier) throws IOException;
+
+  /**
+   * Counts the identifiers that were added. This method is to be called once, after all
+   * identifiers are added.
+   *
+   * @return The counts.
+   * @throws IOException In case the stored identifiers could not be read.
+   */
+  Counts count() throws IOException;
+
+  /**
+   * The available implementations.
+   */
+  enum Mode {
+
+    /** Exact, keeps all identifiers in memory: see {@link InMemoryIdentifierStore}. */
+    IN_MEMORY,
+
+    /** Exact, keeps the identifiers on disk: see {@link DiskIdentifierStore}. */
+    DISK,
+
+    /** Approximate, uses a bounded amount of memory: see {@link ApproximateIdentifierStore}. */
+    APPROXIMATE
+  }
+
+  /**
+   * The result of counting identifiers.
+   */
+  final class Counts {
+
+    private final long uniqueIdentifiers;
+    private final long duplicateIdentifiers;
+    private final boolean exact;
+
+    Counts(long uniqueIdentifiers, long duplicateIdentifiers, boolean exact) {
+      this.uniqueIdentifiers = uniqueIdentifiers;
+      this.duplicateIdentifiers = duplicateIdentifiers;
+      this.exact = exact;
+    }
+
+    /**
+     * @return The number of distinct identifiers.
+     */
+    public long getUniqueIdentifiers() {
+      return uniqueIdentifiers;
+    }
+
+    /**
+     * @return The number of times that an identifier was added that was already added before.
+     */
+    public long getDuplicateIdentifiers() {
+      return duplicateIdentifiers;
+    }
+
+    /**
+     * @return Whether the counts are exact (as opposed to estimates).
+     */
+    public boolean isExact() {
+      return exact;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s%d unique, %s%d duplicates", exact ? "" : "~", uniqueIdentifiers,
+              exact ? "" : "~", duplicateIdentifiers);
+    }
+  }
+}
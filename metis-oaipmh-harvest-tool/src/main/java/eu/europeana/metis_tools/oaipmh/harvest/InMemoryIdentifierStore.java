@@ -0,0 +1,31 @@
+package eu.europeana.metis_tools.oaipmh.harvest;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * An exact identifier store that keeps all identifiers in memory. This is the fastest store, but
+ * it needs memory proportional to the number of unique identifiers.
+ */
+public class InMemoryIdentifierStore implements IdentifierStore {
+
+  private final Set<String> identifiers = new HashSet<>();
+  private long duplicateIdentifiers;
+
+  @Override
+  public void add(String identifier) {
+    if (!identifiers.add(identifier)) {
+      duplicateIdentifiers++;
+    }
+  }
+
+  @Override
+  public Counts count() {
+    return new Counts(identifiers.size(), duplicateIdentifiers, true);
+  }
+
+  @Override
+  public void close() {
+    identifiers.clear();
+  }
+}
@@ -0,0 +1,44 @@
+package eu.europeana.metis_tools.oaipmh.harvest;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Harvests all records of an OAI-PMH endpoint to disk, split in slices by set and/or date range
+ * that are harvested concurrently. See {@link PartitionedHarvester} for the output. If the harvest
+ * is interrupted, running it again (with the same input) continues where it left off.
+ */
+public class OaiPmhPartitionedHarvestMain {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(OaiPmhPartitionedHarvestMain.class);
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+
+    // DEFINE THE INPUT HERE
+    final OaiPmhService service = new OaiPmhService(
+            "https://flow-api.repox.io/oai-pmh/", null, "edm");
+    final List<String> setSpecs = Arrays.asList("d138");
+    final LocalDate from = LocalDate.of(2015, 1, 1);
+    final LocalDate until = LocalDate.of(2020, 12, 31);
+    final int daysPerSlice = 365;
+    final int maxConcurrentSlices = 4;
+    final Path outputFolder = Path.of("/home/jochen/Desktop/harvest");
+
+    // Harvest
+    final List<PartitionedHarvester.Slice> slices = PartitionedHarvester
+            .createSlices(setSpecs, from, until, daysPerSlice);
+    LOGGER.info("Harvesting {} slices, at most {} at the same time.", slices.size(),
+            maxConcurrentSlices);
+    final long records = new PartitionedHarvester(service, outputFolder, maxConcurrentSlices)
+            .harvest(slices);
+
+    // Report
+    LOGGER.info("Harvested {} unique records to {}.", records, outputFolder);
+    LOGGER.info("HTTP client: {}", service.getHttpClient().getStatistics());
+  }
+}
@@ -0,0 +1,50 @@
+package eu.europeana.metis_tools.oaipmh.harvest;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A record in an OAI-PMH response, as read by {@link OaiPmhResponseReader}.
+ */
+public class OaiPmhRecord {
+
+  private final String identifier;
+  private final String datestamp;
+  private final boolean deleted;
+  private final List<String> setSpecs;
+  private final byte[] metadata;
+
+  OaiPmhRecord(String identifier, String datestamp, boolean deleted, List<String> setSpecs,
+          byte[] metadata) {
+    this.identifier = identifier;
+    this.datestamp = datestamp;
+    this.deleted = deleted;
+    this.setSpecs = Collections.unmodifiableList(setSpecs);
+    this.metadata = metadata;
+  }
+
+  public String getIdentifier() {
+    return identifier;
+  }
+
+  public String getDatestamp() {
+    return datestamp;
+  }
+
+  public boolean isDeleted() {
+    return deleted;
+  }
+
+  public List<String> getSetSpecs() {
+    return setSpecs;
+  }
+
+  /**
+   * @return The metadata payload (the content of the metadata element) as UTF-8 encoded XML, with
+   * the bytes exactly as they are in the response. Is null if the record has no metadata (e.g.
+   * when it is deleted).
+   */
+  public byte[] getMetadata() {
+    return metadata;
+  }
+}
@@ -0,0 +1,49 @@
+package eu.europeana.metis_tools.oaipmh.harvest;
+
+/**
+ * The outcome of reading an OAI-PMH response with {@link OaiPmhResponseReader}: everything except
+ * the records (which are passed on while reading).
+ */
+public class OaiPmhResponse {
+
+  private final int recordCount;
+  private final String resumptionToken;
+  private final String cursor;
+  private final String completeListSize;
+  private final String errorCode;
+
+  OaiPmhResponse(int recordCount, String resumptionToken, String cursor, String completeListSize,
+          String errorCode) {
+    this.recordCount = recordCount;
+    this.resumptionToken = resumptionToken;
+    this.cursor = cursor;
+    this.completeListSize = completeListSize;
+    this.errorCode = errorCode;
+  }
+
+  public int getRecordCount() {
+    return recordCount;
+  }
+
+  /**
+   * @return The resumption token, or null if this is the last (or only) response of the list.
+   */
+  public String getResumptionToken() {
+    return resumptionToken;
+  }
+
+  public String getCursor() {
+    return cursor;
+  }
+
+  public String getCompleteListSize() {
+    return completeListSize;
+  }
+
+  /**
+   * @return The OAI-PMH error code (e.g. 'noRecordsMatch'), or null if there is no error.
+   */
+  public String getErrorCode() {
+    return errorCode;
+  }
+}
@@ -0,0 +1,372 @@
+package eu.europeana.metis_tools.oaipmh.harvest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.util.StreamReaderDelegate;
+
+/**
+ * Reads OAI-PMH responses (ListRecords, GetRecord, ListIdentifiers) in one forward pass with StAX,
+ * without building a document tree. For each record the header (identifier, datestamp, status and
+ * set specs) is extracted and the raw bytes of the metadata payload are copied from the response
+ * (so the payload is byte-identical to the one in the response). The resumption token is extracted
+ * from the end of the response.
+ * <p>Note that namespaces that are declared outside the payload (e.g. on the OAI-PMH root element)
+ * are not declared again in the copy of the payload.</p>
+ * <p>Instances are not thread-safe: use one per thread.</p>
+ */
+public class OaiPmhResponseReader {
+
+  static final String OAI_PMH_NAME_SPACE = "http://www.openarchives.org/OAI/2.0/";
+
+  private final XMLInputFactory inputFactory;
+
+  public OaiPmhResponseReader() {
+    inputFactory = XMLInputFactory.newInstance();
+    inputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+    inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+  }
+
+  /**
+   * Reads an OAI-PMH response.
+   *
+   * @param input The response. Is not closed by this method.
+   * @param recordConsumer The consumer that receives the records in order. Can be null, in which
+   * case the records are skipped (but still counted).
+   * @return The response (without the records).
+   * @throws IOException In case the response could not be received.
+   * @throws XMLStreamException In case the response could not be read.
+   */
+  public OaiPmhResponse read(InputStream input, Consumer<OaiPmhRecord> recordConsumer)
+          throws IOException, XMLStreamException {
+    return read(input.readAllBytes(), recordConsumer);
+  }
+
+  /**
+   * Reads an OAI-PMH response. The response should be UTF-8 encoded (as OAI-PMH requires).
+   *
+   * @param response The response.
+   * @param recordConsumer The consumer that receives the records in order. Can be null, in which
+   * case the records are skipped (but still counted).
+   * @return The response (without the records).
+   * @throws XMLStreamException In case the response could not be read.
+   */
+  public OaiPmhResponse read(byte[] response, Consumer<OaiPmhRecord> recordConsumer)
+          throws XMLStreamException {
+    final CountingStreamReader reader = new CountingStreamReader(
+            inputFactory.createXMLStreamReader(new ByteArrayInputStream(response)));
+    try {
+      final String encoding = reader.getEncoding();
+      if (encoding != null && !StandardCharsets.UTF_8.name().equalsIgnoreCase(encoding)) {
+        throw new XMLStreamException("Response is not UTF-8 encoded but " + encoding + ".");
+      }
+      final RawContentLocator contentLocator = new RawContentLocator(response);
+      int recordCount = 0;
+      String resumptionToken = null;
+      String cursor = null;
+      String completeListSize = null;
+      String errorCode = null;
+      while (reader.hasNext()) {
+        if (reader.next() != XMLStreamConstants.START_ELEMENT || !OAI_PMH_NAME_SPACE
+                .equals(reader.getNamespaceURI())) {
+          continue;
+        }
+        switch (reader.getLocalName()) {
+          case "record":
+          case "header":
+            // In ListIdentifiers responses the header is not wrapped in a record.
+            recordCount++;
+            final OaiPmhRecord record = readRecord(reader, reader.getLocalName(),
+                    recordConsumer == null ? null : contentLocator);
+            if (recordConsumer != null) {
+              recordConsumer.accept(record);
+            }
+            break;
+          case "resumptionToken":
+            cursor = reader.getAttributeValue(null, "cursor");
+            completeListSize = reader.getAttributeValue(null, "completeListSize");
+            final String token = reader.getElementText().trim();
+            resumptionToken = token.isEmpty() ? null : token;
+            break;
+          case "error":
+            errorCode = reader.getAttributeValue(null, "code");
+            break;
+          default:
+            break;
+        }
+      }
+      return new OaiPmhResponse(recordCount, resumptionToken, cursor, completeListSize,
+              errorCode);
+    } finally {
+      reader.close();
+    }
+  }
+
+  private static OaiPmhRecord readRecord(CountingStreamReader reader, String recordElement,
+          RawContentLocator contentLocator) throws XMLStreamException {
+    String identifier = null;
+    String datestamp = null;
+    boolean deleted = false;
+    final List<String> setSpecs = new ArrayList<>();
+    byte[] metadata = null;
+    if ("header".equals(recordElement)) {
+      deleted = "deleted".equals(reader.getAttributeValue(null, "status"));
+    }
+    while (true) {
+      final int event = reader.next();
+      if (event == XMLStreamConstants.END_ELEMENT && isOaiPmhElement(reader, recordElement)) {
+        break;
+      }
+      if (event != XMLStreamConstants.START_ELEMENT || !OAI_PMH_NAME_SPACE
+              .equals(reader.getNamespaceURI())) {
+        continue;
+      }
+      switch (reader.getLocalName()) {
+        case "header":
+          deleted = "deleted".equals(reader.getAttributeValue(null, "status"));
+          break;
+        case "identifier":
+          identifier = reader.getElementText().trim();
+          break;
+        case "datestamp":
+          datestamp = reader.getElementText().trim();
+          break;
+        case "setSpec":
+          setSpecs.add(reader.getElementText().trim());
+          break;
+        case "metadata":
+          if (contentLocator != null) {
+            metadata = contentLocator.copyContent(reader.getStartElementCount());
+          }
+          skipElement(reader);
+          break;
+        case "about":
+          skipElement(reader);
+          break;
+        default:
+          break;
+      }
+    }
+    return new OaiPmhRecord(identifier, datestamp, deleted, setSpecs, metadata);
+  }
+
+  /**
+   * Finds the value of an attribute of the first element with the given name in an XML document.
+   *
+   * @param xml The XML document (e.g. the metadata of a record).
+   * @param elementNamespace The namespace of the element.
+   * @param elementName The local name of the element.
+   * @param attributeNamespace The namespace of the attribute.
+   * @param attributeName The local name of the attribute.
+   * @return The attribute value, or null if no such element or attribute was found.
+   * @throws XMLStreamException In case the document could not be read.
+   */
+  public String findAttribute(byte[] xml, String elementNamespace, String elementName,
+          String attributeNamespace, String attributeName) throws XMLStreamException {
+    final XMLStreamReader reader = inputFactory
+            .createXMLStreamReader(new ByteArrayInputStream(xml));
+    try {
+      while (reader.hasNext()) {
+        if (reader.next() == XMLStreamConstants.START_ELEMENT && elementName
+                .equals(reader.getLocalName()) && elementNamespace
+                .equals(reader.getNamespaceURI())) {
+          return reader.getAttributeValue(attributeNamespace, attributeName);
+        }
+      }
+      return null;
+    } finally {
+      reader.close();
+    }
+  }
+
+  private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+    int depth = 0;
+    while (true) {
+      final int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        depth++;
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        if (depth == 0) {
+          return;
+        }
+        depth--;
+      }
+    }
+  }
+
+  private static boolean isOaiPmhElement(XMLStreamReader reader, String localName) {
+    return localName.equals(reader.getLocalName()) && OAI_PMH_NAME_SPACE
+            .equals(reader.getNamespaceURI());
+  }
+
+  /**
+   * A stream reader that counts the start elements that it has passed.
+   */
+  private static final class CountingStreamReader extends StreamReaderDelegate {
+
+    private int startElementCount;
+
+    CountingStreamReader(XMLStreamReader reader) {
+      super(reader);
+    }
+
+    @Override
+    public int next() throws XMLStreamException {
+      final int event = super.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        startElementCount++;
+      }
+      return event;
+    }
+
+    int getStartElementCount() {
+      return startElementCount;
+    }
+  }
+
+  /**
+   * Scans the raw bytes of a response for the tags, in one forward pass alongside the stream
+   * reader. It only distinguishes markup from content (it relies on the stream reader for checking
+   * that the response is well-formed), so it can locate the content of an element given the
+   * ordinal number of its start tag. This works on the bytes because all markup delimiters are
+   * ASCII characters, which in UTF-8 never occur inside multi-byte characters.
+   */
+  private static final class RawContentLocator {
+
+    private enum TagType {START, EMPTY, END, OTHER}
+
+    private final byte[] bytes;
+    private int position;
+    private int startTagCount;
+    private int tagStart;
+
+    RawContentLocator(byte[] bytes) {
+      this.bytes = bytes;
+    }
+
+    /**
+     * Copies the content of the element with the given start tag. Tags before it are skipped.
+     *
+     * @param startTagOrdinal The (1-based) ordinal number of the start tag in the response.
+     * @return A copy of the raw bytes between the start tag and the end tag of the element.
+     * @throws XMLStreamException In case the element could not be found.
+     */
+    byte[] copyContent(int startTagOrdinal) throws XMLStreamException {
+      TagType tagType = TagType.OTHER;
+      while (startTagCount < startTagOrdinal) {
+        tagType = nextTag();
+      }
+      if (startTagCount != startTagOrdinal) {
+        throw new XMLStreamException("Could not locate element " + startTagOrdinal + ".");
+      }
+      if (tagType == TagType.EMPTY) {
+        return new byte[0];
+      }
+      final int contentStart = position;
+      int depth = 0;
+      while (true) {
+        tagType = nextTag();
+        if (tagType == TagType.START) {
+          depth++;
+        } else if (tagType == TagType.END) {
+          if (depth == 0) {
+            return Arrays.copyOfRange(bytes, contentStart, tagStart);
+          }
+          depth--;
+        }
+      }
+    }
+
+    private TagType nextTag() throws XMLStreamException {
+      tagStart = indexOf("<", position);
+      final TagType result;
+      if (startsWith("<!--", tagStart)) {
+        position = indexOf("-->", tagStart) + 3;
+        result = TagType.OTHER;
+      } else if (startsWith("<![CDATA[", tagStart)) {
+        position = indexOf("]]>", tagStart) + 3;
+        result = TagType.OTHER;
+      } else if (startsWith("<?", tagStart)) {
+        position = indexOf("?>", tagStart) + 2;
+        result = TagType.OTHER;
+      } else if (startsWith("<!", tagStart)) {
+        position = skipDoctype(tagStart);
+        result = TagType.OTHER;
+      } else if (startsWith("</", tagStart)) {
+        position = indexOf(">", tagStart) + 1;
+        result = TagType.END;
+      } else {
+        position = skipStartTag(tagStart);
+        startTagCount++;
+        result = bytes[position - 2] == '/' ? TagType.EMPTY : TagType.START;
+      }
+      return result;
+    }
+
+    private int skipStartTag(int start) throws XMLStreamException {
+      byte quote = 0;
+      for (int index = start + 1; index < bytes.length; index++) {
+        final byte current = bytes[index];
+        if (quote != 0) {
+          quote = current == quote ? 0 : quote;
+        } else if (current == '"' || current == '\'') {
+          quote = current;
+        } else if (current == '>') {
+          return index + 1;
+        }
+      }
+      throw new XMLStreamException("Unexpected end of the response.");
+    }
+
+    private int skipDoctype(int start) throws XMLStreamException {
+      byte quote = 0;
+      int bracketDepth = 0;
+      for (int index = start + 2; index < bytes.length; index++) {
+        final byte current = bytes[index];
+        if (quote != 0) {
+          quote = current == quote ? 0 : quote;
+        } else if (current == '"' || current == '\'') {
+          quote = current;
+        } else if (current == '[') {
+          bracketDepth++;
+        } else if (current == ']') {
+          bracketDepth--;
+        } else if (current == '>' && bracketDepth == 0) {
+          return index + 1;
+        }
+      }
+      throw new XMLStreamException("Unexpected end of the response.");
+    }
+
+    private int indexOf(String value, int from) throws XMLStreamException {
+      for (int index = from; index <= bytes.length - value.length(); index++) {
+        if (startsWith(value, index)) {
+          return index;
+        }
+      }
+      throw new XMLStreamException("Unexpected end of the response.");
+    }
+
+    private boolean startsWith(String value, int index) {
+      if (index + value.length() > bytes.length) {
+        return false;
+      }
+      for (int i = 0; i < value.length(); i++) {
+        if (bytes[index + i] != value.charAt(i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
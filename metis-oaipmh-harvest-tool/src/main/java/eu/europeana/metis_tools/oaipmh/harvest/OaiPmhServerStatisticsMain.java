@@ -1,13 +1,12 @@
 package eu.europeana.metis_tools.oaipmh.harvest;
 
-import eu.europeana.metis.harvesting.HarvesterException;
-import eu.europeana.metis.harvesting.HarvesterFactory;
-import eu.europeana.metis.harvesting.ReportingIteration.IterationResult;
-import eu.europeana.metis.harvesting.oaipmh.OaiHarvest;
-import eu.europeana.metis.harvesting.oaipmh.OaiHarvester;
-import java.util.HashSet;
-import java.util.Set;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
+import javax.xml.stream.XMLStreamException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -15,42 +14,74 @@ public class OaiPmhServerStatisticsMain {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(OaiPmhServerStatisticsMain.class);
 
-  public static void main(String[] args) throws HarvesterException {
+  /** NOTE: set before running: how to keep track of the identifiers. */
+  private static final IdentifierStore.Mode IDENTIFIER_STORE_MODE = IdentifierStore.Mode.DISK;
+
+  /** NOTE: set before running: the settings for the {@link DiskIdentifierStore}. */
+  private static final Path DISK_STORE_TEMP_FOLDER = null;
+  private static final int DISK_STORE_BUFFER_SIZE = 1_000_000;
+
+  /** NOTE: set before running: the settings for the {@link ApproximateIdentifierStore}. */
+  private static final int APPROXIMATE_STORE_PRECISION = 14;
+  private static final long APPROXIMATE_STORE_EXPECTED_IDENTIFIERS = 50_000_000;
+  private static final double APPROXIMATE_STORE_FALSE_POSITIVE_PROBABILITY = 0.0001;
+
+  public static void main(String[] args)
+      throws IOException, URISyntaxException, XMLStreamException {
 
     // DEFINE THE INPUT HERE
     final OaiPmhService service = new OaiPmhService(
         "https://flow-api.repox.io/oai-pmh/", "d138", "edm");
 
     // Define outcome variables
-    final Set<String> oaiIds = new HashSet<>();
-    final AtomicInteger uniqueRecordsFound = new AtomicInteger();
     final AtomicInteger deletedRecordsFound = new AtomicInteger();
-    final AtomicInteger duplicateRecordsFound = new AtomicInteger();
     final AtomicInteger totalRecordsFound = new AtomicInteger();
+    final IdentifierStore.Counts counts;
 
     // Pass by all records
-    final OaiHarvester harvester = HarvesterFactory.createOaiHarvester();
-    harvester.harvestRecordHeaders(new OaiHarvest(service.getOaiPmhEndpoint(),
-        service.getOaiPmhMetadataFormat(), service.getOaiPmhSetSpec())).forEach(header -> {
-      if (header.isDeleted()) {
-        deletedRecordsFound.incrementAndGet();
-      } else if (oaiIds.add(header.getOaiIdentifier())) {
-        uniqueRecordsFound.incrementAndGet();
-      } else {
-        duplicateRecordsFound.incrementAndGet();
-      }
-      final int total = totalRecordsFound.incrementAndGet();
-      if (total % 1000 == 0) {
-        LOGGER.info("Processed {} records.", total);
-      }
-      return IterationResult.CONTINUE;
-    });
+    try (final IdentifierStore oaiIds = createIdentifierStore(IDENTIFIER_STORE_MODE)) {
+      final OaiPmhResponseReader responseReader = new OaiPmhResponseReader();
+      String resumptionToken = null;
+      do {
+        final List<OaiPmhRecord> headers = new ArrayList<>();
+        resumptionToken = service.listIdentifiers(resumptionToken, responseReader, headers::add)
+                .getResumptionToken();
+        for (OaiPmhRecord header : headers) {
+          if (header.isDeleted()) {
+            deletedRecordsFound.incrementAndGet();
+          } else {
+            oaiIds.add(header.getIdentifier());
+          }
+          final int total = totalRecordsFound.incrementAndGet();
+          if (total % 1000 == 0) {
+            LOGGER.info("Processed {} records.", total);
+          }
+        }
+      } while (resumptionToken != null);
+      counts = oaiIds.count();
+    }
 
     // Report statistics
-    LOGGER.info("Statistics: ");
-    LOGGER.info("  Unique record IDs found: {}", uniqueRecordsFound.get());
+    LOGGER.info("Statistics ({}): ", counts.isExact() ? "exact" : "estimated");
+    LOGGER.info("  Unique record IDs found: {}", counts.getUniqueIdentifiers());
     LOGGER.info("  Deleted records found: {}", deletedRecordsFound.get());
-    LOGGER.info("  Duplicate record IDs found: {}", duplicateRecordsFound.get());
+    LOGGER.info("  Duplicate record IDs found: {}", counts.getDuplicateIdentifiers());
     LOGGER.info("TOTAL: {}", totalRecordsFound.get());
+    LOGGER.info("HTTP client: {}", service.getHttpClient().getStatistics());
+  }
+
+  static IdentifierStore createIdentifierStore(IdentifierStore.Mode mode) {
+    switch (mode) {
+      case IN_MEMORY:
+        return new InMemoryIdentifierStore();
+      case DISK:
+        return new DiskIdentifierStore(DISK_STORE_TEMP_FOLDER, DISK_STORE_BUFFER_SIZE);
+      case APPROXIMATE:
+        return new ApproximateIdentifierStore(APPROXIMATE_STORE_PRECISION,
+                APPROXIMATE_STORE_EXPECTED_IDENTIFIERS,
+                APPROXIMATE_STORE_FALSE_POSITIVE_PROBABILITY);
+      default:
+        throw new IllegalArgumentException("Unknown mode: " + mode);
+    }
   }
 }
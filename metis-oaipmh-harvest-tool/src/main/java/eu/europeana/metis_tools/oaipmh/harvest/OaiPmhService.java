@@ -1,15 +1,40 @@
 package eu.europeana.metis_tools.oaipmh.harvest;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import javax.xml.stream.XMLStreamException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 class OaiPmhService {
 
+  private static final Logger LOGGER = LoggerFactory.getLogger(OaiPmhService.class);
+
+  private static final String ACCEPT = "application/rdf+xml";
+
   private final String oaiPmhEndpoint;
   private final String oaiPmhSetSpec;
   private final String oaiPmhMetadataFormat;
+  private final SharedHttpClient httpClient;
 
   public OaiPmhService(String oaiPmhEndpoint, String oaiPmhSetSpec, String oaiPmhMetadataFormat) {
+    this(oaiPmhEndpoint, oaiPmhSetSpec, oaiPmhMetadataFormat, SharedHttpClient.getDefault());
+  }
+
+  public OaiPmhService(String oaiPmhEndpoint, String oaiPmhSetSpec, String oaiPmhMetadataFormat,
+          SharedHttpClient httpClient) {
     this.oaiPmhEndpoint = oaiPmhEndpoint;
     this.oaiPmhSetSpec = oaiPmhSetSpec;
     this.oaiPmhMetadataFormat = oaiPmhMetadataFormat;
+    this.httpClient = httpClient;
   }
 
   public String getOaiPmhEndpoint() {
@@ -23,4 +48,121 @@ class OaiPmhService {
   public String getOaiPmhMetadataFormat() {
     return oaiPmhMetadataFormat;
   }
+
+  public SharedHttpClient getHttpClient() {
+    return httpClient;
+  }
+
+  /**
+   * Requests (the next page of) the records.
+   *
+   * @param resumptionToken The resumption token. Is null for the first page.
+   * @param responseReader The reader for the response.
+   * @param recordConsumer The consumer for the records.
+   * @return The response.
+   * @throws URISyntaxException In case the endpoint is not a valid URI.
+   * @throws IOException In case the request failed.
+   * @throws XMLStreamException In case the response could not be read.
+   */
+  public OaiPmhResponse listRecords(String resumptionToken, OaiPmhResponseReader responseReader,
+          Consumer<OaiPmhRecord> recordConsumer)
+          throws URISyntaxException, IOException, XMLStreamException {
+    return list("ListRecords", oaiPmhSetSpec, null, null, resumptionToken, responseReader,
+            recordConsumer);
+  }
+
+  /**
+   * Requests (the next page of) the records in a given set and/or date range.
+   *
+   * @param setSpec The set. Can be null (for all sets).
+   * @param from The start of the date range (inclusive). Can be null.
+   * @param until The end of the date range (inclusive). Can be null.
+   * @param resumptionToken The resumption token. Is null for the first page. If it is not null,
+   * the set and date range are ignored.
+   * @param responseReader The reader for the response.
+   * @param recordConsumer The consumer for the records.
+   * @return The response.
+   * @throws URISyntaxException In case the endpoint is not a valid URI.
+   * @throws IOException In case the request failed.
+   * @throws XMLStreamException In case the response could not be read.
+   */
+  public OaiPmhResponse listRecords(String setSpec, String from, String until,
+          String resumptionToken, OaiPmhResponseReader responseReader,
+          Consumer<OaiPmhRecord> recordConsumer)
+          throws URISyntaxException, IOException, XMLStreamException {
+    return list("ListRecords", setSpec, from, until, resumptionToken, responseReader,
+            recordConsumer);
+  }
+
+  /**
+   * Requests (the next page of) the records in a given set and/or date range, without reading the
+   * response. This allows the response to be read later (or on another thread).
+   *
+   * @param setSpec The set. Can be null (for all sets).
+   * @param from The start of the date range (inclusive). Can be null.
+   * @param until The end of the date range (inclusive). Can be null.
+   * @param resumptionToken The resumption token. Is null for the first page. If it is not null,
+   * the set and date range are ignored.
+   * @return The (decompressed) response body.
+   * @throws URISyntaxException In case the endpoint is not a valid URI.
+   * @throws IOException In case the request failed.
+   */
+  public byte[] fetchListRecords(String setSpec, String from, String until,
+          String resumptionToken) throws URISyntaxException, IOException {
+    final URI uri = createListUri("ListRecords", setSpec, from, until, resumptionToken);
+    LOGGER.info("Calling URL: {}", uri);
+    return httpClient.get(uri, ACCEPT, InputStream::readAllBytes);
+  }
+
+  /**
+   * Requests (the next page of) the record headers. The records that are passed to the consumer
+   * have no metadata.
+   *
+   * @param resumptionToken The resumption token. Is null for the first page.
+   * @param responseReader The reader for the response.
+   * @param recordConsumer The consumer for the records.
+   * @return The response.
+   * @throws URISyntaxException In case the endpoint is not a valid URI.
+   * @throws IOException In case the request failed.
+   * @throws XMLStreamException In case the response could not be read.
+   */
+  public OaiPmhResponse listIdentifiers(String resumptionToken,
+          OaiPmhResponseReader responseReader, Consumer<OaiPmhRecord> recordConsumer)
+          throws URISyntaxException, IOException, XMLStreamException {
+    return list("ListIdentifiers", oaiPmhSetSpec, null, null, resumptionToken, responseReader,
+            recordConsumer);
+  }
+
+  private OaiPmhResponse list(String verb, String setSpec, String from, String until,
+          String resumptionToken, OaiPmhResponseReader responseReader,
+          Consumer<OaiPmhRecord> recordConsumer)
+          throws URISyntaxException, IOException, XMLStreamException {
+    final URI uri = createListUri(verb, setSpec, from, until, resumptionToken);
+    LOGGER.info("Calling URL: {}", uri);
+    return httpClient.get(uri, ACCEPT, body -> responseReader.read(body, recordConsumer));
+  }
+
+  URI createListUri(String verb, String setSpec, String from, String until,
+          String resumptionToken) throws URISyntaxException {
+    final Map<String, String> urlParameters = new HashMap<>();
+    urlParameters.put("verb", verb);
+    if (resumptionToken == null) {
+      if (setSpec != null) {
+        urlParameters.put("set", setSpec);
+      }
+      if (from != null) {
+        urlParameters.put("from", from);
+      }
+      if (until != null) {
+        urlParameters.put("until", until);
+      }
+      urlParameters.put("metadataPrefix", oaiPmhMetadataFormat);
+    } else {
+      urlParameters.put("resumptionToken", resumptionToken);
+    }
+    final String query = urlParameters.entrySet().stream().map(entry ->
+            entry.getKey() + "=" + URLEncoder.encode(entry.getValue(), StandardCharsets.UTF_8)
+    ).collect(Collectors.joining("&", "?", ""));
+    return new URI(oaiPmhEndpoint + query);
+  }
 }
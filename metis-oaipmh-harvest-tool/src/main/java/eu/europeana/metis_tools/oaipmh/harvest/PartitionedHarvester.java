@@ -0,0 +1,355 @@
+package eu.europeana.metis_tools.oaipmh.harvest;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.xml.stream.XMLStreamException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Harvests the records of an OAI-PMH endpoint in slices. A slice is a set and/or a date range
+ * (from/until). Within a slice the pages are harvested sequentially (as the resumption tokens
+ * require), but the slices are harvested concurrently, with at most a given number of slices at
+ * the same time (so that the endpoint is not overloaded).
+ * <p>The output folder has the following layout:</p>
+ * <ul>
+ * <li><code>slices/&lt;slice id&gt;/</code>: the record files of a slice, an index file
+ * (identifier, datestamp, deleted flag and file per line) and a checkpoint file.</li>
+ * <li><code>records.tsv</code>: the de-duplicated index of all slices, sorted by identifier.</li>
+ * </ul>
+ * <p>After every page the checkpoint of the slice is updated with the resumption token of the
+ * next page (or a marker if the slice is done). When the harvest is run again with the same
+ * slices, finished slices are skipped and the other slices continue from their checkpoint. Note
+ * that resumption tokens may expire: in that case the checkpoint file of the slice needs to be
+ * removed so that the slice is harvested from the start.</p>
+ * <p>Slices may overlap (e.g. a record can be in multiple sets). At the end the records are
+ * de-duplicated by identifier: the occurrence with the latest datestamp is kept.</p>
+ */
+public class PartitionedHarvester {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(PartitionedHarvester.class);
+
+  private static final String SLICES_FOLDER = "slices";
+  private static final String INDEX_FILE = "index.tsv";
+  private static final String CHECKPOINT_FILE = "checkpoint.txt";
+  private static final String RECORDS_FILE = "records.tsv";
+  private static final String DONE_MARKER = "DONE";
+  private static final String NO_RECORDS_MATCH = "noRecordsMatch";
+  private static final String SEPARATOR = "\t";
+  private static final int PAGE_QUEUE_CAPACITY = 2;
+
+  private final OaiPmhService service;
+  private final Path outputFolder;
+  private final int maxConcurrentSlices;
+
+  /**
+   * Constructor.
+   *
+   * @param service The service for the endpoint. The set of the service is ignored.
+   * @param outputFolder The output folder.
+   * @param maxConcurrentSlices The maximum number of slices that are harvested at the same time.
+   * This should not exceed the number of connections per host of the HTTP client.
+   */
+  public PartitionedHarvester(OaiPmhService service, Path outputFolder,
+          int maxConcurrentSlices) {
+    this.service = service;
+    this.outputFolder = outputFolder;
+    this.maxConcurrentSlices = maxConcurrentSlices;
+  }
+
+  /**
+   * Creates the slices for the combination of the given sets and date range. If no sets are given,
+   * the slices are not restricted to a set. If no date range is given, the slices are not
+   * restricted to a date range.
+   *
+   * @param setSpecs The sets. Can be empty.
+   * @param from The start of the date range (inclusive). Can be null.
+   * @param until The end of the date range (inclusive). Can be null.
+   * @param daysPerSlice The number of days in a date range slice. Only used if both from and until
+   * are given.
+   * @return The slices.
+   * @throws IllegalArgumentException In case both from and until are given, but the number of days
+   * per slice is not positive.
+   */
+  public static List<Slice> createSlices(List<String> setSpecs, LocalDate from, LocalDate until,
+          int daysPerSlice) {
+    final List<String> sets = setSpecs.isEmpty() ? Collections.singletonList(null) : setSpecs;
+    final List<LocalDate[]> dateRanges = new ArrayList<>();
+    if (from != null && until != null) {
+      if (daysPerSlice <= 0) {
+        throw new IllegalArgumentException(
+                "The number of days per slice must be positive, but is " + daysPerSlice + ".");
+      }
+      for (LocalDate start = from; !start.isAfter(until); start = start.plusDays(daysPerSlice)) {
+        final LocalDate end = start.plusDays(daysPerSlice - 1L);
+        dateRanges.add(new LocalDate[]{start, end.isAfter(until) ? until : end});
+      }
+    } else {
+      dateRanges.add(new LocalDate[]{from, until});
+    }
+    final List<Slice> result = new ArrayList<>(sets.size() * dateRanges.size());
+    for (String set : sets) {
+      for (LocalDate[] dateRange : dateRanges) {
+        result.add(new Slice(result.size(), set, dateRange[0], dateRange[1]));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Harvests the slices and de-duplicates the result.
+   *
+   * @param slices The slices to harvest.
+   * @return The number of (unique) records in the result.
+   * @throws IOException In case the result could not be written.
+   * @throws InterruptedException In case the harvest was interrupted.
+   * @throws IllegalStateException In case one or more slices failed. The slices that did not fail
+   * are completed and can be skipped when the harvest is run again.
+   */
+  public long harvest(List<Slice> slices) throws IOException, InterruptedException {
+
+    // Harvest the slices concurrently.
+    final AtomicLong totalRecords = new AtomicLong();
+    final ExecutorService executor = Executors.newFixedThreadPool(maxConcurrentSlices);
+    final List<Future<Long>> futures = new ArrayList<>(slices.size());
+    try {
+      for (Slice slice : slices) {
+        futures.add(executor.submit(() -> harvestSlice(slice, totalRecords)));
+      }
+      int failedSlices = 0;
+      for (int i = 0; i < slices.size(); i++) {
+        try {
+          LOGGER.info("Slice {} finished with {} records.", slices.get(i), futures.get(i).get());
+        } catch (ExecutionException e) {
+          LOGGER.warn("Slice {} failed.", slices.get(i), e.getCause());
+          failedSlices++;
+        }
+      }
+      if (failedSlices > 0) {
+        throw new IllegalStateException(failedSlices + " of " + slices.size()
+                + " slices failed: run the harvest again to continue.");
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    // De-duplicate the result.
+    return deduplicate(slices);
+  }
+
+  private long harvestSlice(Slice slice, AtomicLong totalRecords)
+          throws IOException, XMLStreamException, InterruptedException {
+
+    // Check where to start.
+    final Path sliceFolder = getSliceFolder(slice);
+    Files.createDirectories(sliceFolder);
+    final Path checkpointFile = sliceFolder.resolve(CHECKPOINT_FILE);
+    String resumptionToken = null;
+    if (Files.exists(checkpointFile)) {
+      final String checkpoint = Files.readString(checkpointFile, StandardCharsets.UTF_8).trim();
+      if (DONE_MARKER.equals(checkpoint)) {
+        LOGGER.info("Slice {} was already harvested.", slice);
+        return 0;
+      }
+      resumptionToken = checkpoint.isEmpty() ? null : checkpoint;
+      LOGGER.info("Slice {} continues from its checkpoint.", slice);
+    }
+
+    // Harvest the pages: first write the records, then update the checkpoint. The next page is
+    // fetched while the records of the current page are written.
+    final AtomicLong sliceRecords = new AtomicLong();
+    final Path indexFile = sliceFolder.resolve(INDEX_FILE);
+    final boolean endsWithPartialLine = endsWithPartialLine(indexFile);
+    try (final BufferedWriter index = Files.newBufferedWriter(indexFile,
+            StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+
+      // If a previous run was interrupted while writing a line, end that line (it is skipped
+      // during the de-duplication) so that it does not corrupt the next line.
+      if (endsWithPartialLine) {
+        index.newLine();
+      }
+      new PipelinedHarvester(service, PAGE_QUEUE_CAPACITY).harvest(slice.getSetSpec(),
+              slice.getFrom(), slice.getUntil(), resumptionToken, (records, response) -> {
+                if (response.getErrorCode() != null && !NO_RECORDS_MATCH
+                        .equals(response.getErrorCode())) {
+                  throw new IOException(
+                          "Slice " + slice + " received error " + response.getErrorCode());
+                }
+                for (OaiPmhRecord record : records) {
+                  writeRecord(sliceFolder, record, index);
+                }
+                index.flush();
+                writeCheckpoint(checkpointFile, response.getResumptionToken() == null ? DONE_MARKER
+                        : response.getResumptionToken());
+                final long total = totalRecords.addAndGet(records.size());
+                LOGGER.info("Slice {}: {} records harvested ({} in total).", slice,
+                        sliceRecords.addAndGet(records.size()), total);
+                return true;
+              });
+    }
+    return sliceRecords.get();
+  }
+
+  private static void writeRecord(Path sliceFolder, OaiPmhRecord record, BufferedWriter index)
+          throws IOException {
+    final String fileName;
+    if (record.isDeleted() || record.getMetadata() == null) {
+      fileName = "";
+    } else {
+      fileName = createFileName(record.getIdentifier());
+      Files.write(sliceFolder.resolve(fileName), record.getMetadata());
+    }
+    index.write(record.getIdentifier() + SEPARATOR + record.getDatestamp() + SEPARATOR
+            + record.isDeleted() + SEPARATOR + fileName);
+    index.newLine();
+  }
+
+  private static boolean endsWithPartialLine(Path file) throws IOException {
+    if (!Files.exists(file) || Files.size(file) == 0) {
+      return false;
+    }
+    try (final RandomAccessFile randomAccessFile = new RandomAccessFile(file.toFile(), "r")) {
+      randomAccessFile.seek(randomAccessFile.length() - 1);
+      return randomAccessFile.read() != '\n';
+    }
+  }
+
+  private static void writeCheckpoint(Path checkpointFile, String checkpoint)
+          throws IOException {
+    final Path temporaryFile = checkpointFile.resolveSibling(CHECKPOINT_FILE + ".tmp");
+    Files.writeString(temporaryFile, checkpoint, StandardCharsets.UTF_8);
+    Files.move(temporaryFile, checkpointFile, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private long deduplicate(List<Slice> slices) throws IOException {
+
+    // Find the occurrence with the latest datestamp for each identifier.
+    final Map<String, String[]> latestEntries = new TreeMap<>();
+    long totalEntries = 0;
+    long malformedEntries = 0;
+    for (Slice slice : slices) {
+      final Path sliceFolder = getSliceFolder(slice);
+      final Path indexFile = sliceFolder.resolve(INDEX_FILE);
+      if (!Files.exists(indexFile)) {
+        continue;
+      }
+      try (final BufferedReader reader = Files.newBufferedReader(indexFile,
+              StandardCharsets.UTF_8)) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          final String[] entry = line.split(SEPARATOR, -1);
+          if (entry.length != 4 || entry[0].isEmpty()) {
+            // E.g. a line that was partially written when a previous run was interrupted.
+            LOGGER.warn("Skipping malformed line in the index of slice {}: {}", slice, line);
+            malformedEntries++;
+            continue;
+          }
+          if (!entry[3].isEmpty()) {
+            entry[3] = outputFolder.relativize(sliceFolder.resolve(entry[3])).toString();
+          }
+          latestEntries.merge(entry[0], entry,
+                  (existing, candidate) -> existing[1].compareTo(candidate[1]) < 0 ? candidate
+                          : existing);
+          totalEntries++;
+        }
+      }
+    }
+
+    // Write the result.
+    try (final BufferedWriter writer = Files.newBufferedWriter(outputFolder.resolve(RECORDS_FILE),
+            StandardCharsets.UTF_8)) {
+      for (String[] entry : latestEntries.values()) {
+        writer.write(String.join(SEPARATOR, entry));
+        writer.newLine();
+      }
+    }
+    LOGGER.info("De-duplicated {} harvested records to {} unique records ({} malformed lines "
+            + "skipped).", totalEntries, latestEntries.size(), malformedEntries);
+    return latestEntries.size();
+  }
+
+  private Path getSliceFolder(Slice slice) {
+    return outputFolder.resolve(SLICES_FOLDER).resolve(slice.getId());
+  }
+
+  private static String createFileName(String identifier) {
+    try {
+      final byte[] hash = MessageDigest.getInstance("SHA-256")
+              .digest(identifier.getBytes(StandardCharsets.UTF_8));
+      final StringBuilder result = new StringBuilder(hash.length * 2 + 4);
+      for (byte value : hash) {
+        result.append(String.format("%02x", value));
+      }
+      return result.append(".xml").toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * A slice of the harvest: a set and/or a date range.
+   */
+  public static final class Slice {
+
+    private final String id;
+    private final String setSpec;
+    private final String from;
+    private final String until;
+
+    private Slice(int index, String setSpec, LocalDate from, LocalDate until) {
+      this.setSpec = setSpec;
+      this.from = from == null ? null : from.toString();
+      this.until = until == null ? null : until.toString();
+      final String description = (setSpec == null ? "all" : setSpec) + "_"
+              + (this.from == null ? "" : this.from) + "_" + (this.until == null ? ""
+              : this.until);
+      this.id = String.format("%04d_%s", index, description.replaceAll("[^A-Za-z0-9.-]", "_"));
+    }
+
+    /**
+     * @return The ID of the slice, which is used as folder name. It is stable as long as the
+     * slices are created with the same parameters.
+     */
+    public String getId() {
+      return id;
+    }
+
+    public String getSetSpec() {
+      return setSpec;
+    }
+
+    public String getFrom() {
+      return from;
+    }
+
+    public String getUntil() {
+      return until;
+    }
+
+    @Override
+    public String toString() {
+      return id;
+    }
+  }
+}
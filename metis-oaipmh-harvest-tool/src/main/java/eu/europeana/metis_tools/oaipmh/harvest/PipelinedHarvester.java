@@ -0,0 +1,237 @@
+package eu.europeana.metis_tools.oaipmh.harvest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.xml.stream.XMLStreamException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Harvests the pages of a ListRecords request in two stages that run at the same time:
+ * <ol>
+ * <li>The fetch stage (on a separate thread) downloads a page, reads only the resumption token
+ * from it (skipping the record payloads) and immediately requests the next page.</li>
+ * <li>The processing stage (on the calling thread) reads the records from the downloaded pages and
+ * passes them to a {@link PageHandler} (which may for instance write them to disk).</li>
+ * </ol>
+ * The stages are connected by a bounded queue: if the processing stage falls behind, the fetch
+ * stage waits, so that at most the given number of pages is kept in memory. For each stage the
+ * throughput (in records per second of time spent in the stage) is reported.
+ */
+public class PipelinedHarvester {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(PipelinedHarvester.class);
+
+  private static final Page END_OF_HARVEST = new Page(null, null, null);
+
+  private final OaiPmhService service;
+  private final int queueCapacity;
+
+  /**
+   * Handles the records of a page.
+   */
+  @FunctionalInterface
+  public interface PageHandler {
+
+    /**
+     * Handles a page.
+     *
+     * @param records The records in the page.
+     * @param response The response, containing (among other things) the resumption token for the
+     * next page, or null if this is the last page.
+     * @return Whether the harvest should continue.
+     * @throws IOException In case the page could not be handled.
+     * @throws XMLStreamException In case the page could not be handled.
+     */
+    boolean handle(List<OaiPmhRecord> records, OaiPmhResponse response)
+            throws IOException, XMLStreamException;
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param service The service for the endpoint.
+   * @param queueCapacity The maximum number of pages that are downloaded but not yet processed.
+   */
+  public PipelinedHarvester(OaiPmhService service, int queueCapacity) {
+    this.service = service;
+    this.queueCapacity = queueCapacity;
+  }
+
+  /**
+   * Harvests the pages of a ListRecords request until there are no more pages, or until the
+   * handler asks to stop.
+   *
+   * @param setSpec The set. Can be null (for all sets).
+   * @param from The start of the date range (inclusive). Can be null.
+   * @param until The end of the date range (inclusive). Can be null.
+   * @param resumptionToken The resumption token to start from. Can be null (to start from the
+   * first page).
+   * @param pageHandler The handler for the pages, which is called on the calling thread.
+   * @return The statistics of the harvest.
+   * @throws IOException In case a page could not be fetched or handled.
+   * @throws XMLStreamException In case a page could not be read or handled.
+   * @throws InterruptedException In case the harvest was interrupted.
+   */
+  public Statistics harvest(String setSpec, String from, String until, String resumptionToken,
+          PageHandler pageHandler)
+          throws IOException, XMLStreamException, InterruptedException {
+
+    final BlockingQueue<Page> queue = new ArrayBlockingQueue<>(queueCapacity);
+    final AtomicBoolean stopped = new AtomicBoolean(false);
+    final Statistics statistics = new Statistics();
+    final long start = System.nanoTime();
+
+    // Start the fetch stage.
+    final ExecutorService fetchExecutor = Executors.newSingleThreadExecutor();
+    fetchExecutor.submit(() -> {
+      try {
+        fetch(setSpec, from, until, resumptionToken, queue, stopped, statistics);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return null;
+    });
+
+    // Run the processing stage.
+    final OaiPmhResponseReader responseReader = new OaiPmhResponseReader();
+    try {
+      while (true) {
+        final long waitStart = System.nanoTime();
+        final Page page = queue.take();
+        statistics.processingWaitNanos.addAndGet(System.nanoTime() - waitStart);
+        if (page == END_OF_HARVEST) {
+          break;
+        }
+        if (page.failure != null) {
+          throw new IOException("Fetching a page failed.", page.failure);
+        }
+        final long processStart = System.nanoTime();
+        final List<OaiPmhRecord> records = new ArrayList<>();
+        responseReader.read(page.body, records::add);
+        final boolean proceed = pageHandler.handle(records, page.response);
+        statistics.processingNanos.addAndGet(System.nanoTime() - processStart);
+        statistics.processedRecords.addAndGet(records.size());
+        if (!proceed) {
+          break;
+        }
+      }
+    } finally {
+      stopped.set(true);
+      // Note: a request that is in progress is not interrupted, but its result is discarded.
+      fetchExecutor.shutdownNow();
+      statistics.wallNanos = System.nanoTime() - start;
+    }
+    LOGGER.info("Harvest: {}", statistics);
+    return statistics;
+  }
+
+  private void fetch(String setSpec, String from, String until, String startToken,
+          BlockingQueue<Page> queue, AtomicBoolean stopped, Statistics statistics)
+          throws InterruptedException {
+    final OaiPmhResponseReader responseReader = new OaiPmhResponseReader();
+    String resumptionToken = startToken;
+    try {
+      do {
+        final long fetchStart = System.nanoTime();
+        final byte[] body = service.fetchListRecords(setSpec, from, until, resumptionToken);
+        final OaiPmhResponse response = responseReader.read(body, null);
+        statistics.fetchNanos.addAndGet(System.nanoTime() - fetchStart);
+        statistics.fetchedRecords.addAndGet(response.getRecordCount());
+        statistics.fetchedBytes.addAndGet(body.length);
+        final long waitStart = System.nanoTime();
+        queue.put(new Page(body, response, null));
+        statistics.fetchWaitNanos.addAndGet(System.nanoTime() - waitStart);
+        resumptionToken = response.getResumptionToken();
+      } while (resumptionToken != null && !stopped.get());
+      queue.put(END_OF_HARVEST);
+    } catch (InterruptedException e) {
+      throw e;
+    } catch (Throwable e) {
+      // Also errors: the processing stage waits for a page until it receives this failure.
+      queue.put(new Page(null, null, e));
+    }
+  }
+
+  private static final class Page {
+
+    private final byte[] body;
+    private final OaiPmhResponse response;
+    private final Throwable failure;
+
+    Page(byte[] body, OaiPmhResponse response, Throwable failure) {
+      this.body = body;
+      this.response = response;
+      this.failure = failure;
+    }
+  }
+
+  /**
+   * The statistics of a harvest: the number of records and the time spent in each stage. The time
+   * that a stage spends waiting for the other stage is counted separately.
+   */
+  public static final class Statistics {
+
+    private final AtomicLong fetchedRecords = new AtomicLong();
+    private final AtomicLong fetchedBytes = new AtomicLong();
+    private final AtomicLong fetchNanos = new AtomicLong();
+    private final AtomicLong fetchWaitNanos = new AtomicLong();
+    private final AtomicLong processedRecords = new AtomicLong();
+    private final AtomicLong processingNanos = new AtomicLong();
+    private final AtomicLong processingWaitNanos = new AtomicLong();
+    private volatile long wallNanos;
+
+    public long getFetchedRecords() {
+      return fetchedRecords.get();
+    }
+
+    public long getProcessedRecords() {
+      return processedRecords.get();
+    }
+
+    /**
+     * @return The throughput of the fetch stage: the records per second spent fetching.
+     */
+    public double getFetchRecordsPerSecond() {
+      return perSecond(fetchedRecords.get(), fetchNanos.get());
+    }
+
+    /**
+     * @return The throughput of the processing stage: the records per second spent processing.
+     */
+    public double getProcessingRecordsPerSecond() {
+      return perSecond(processedRecords.get(), processingNanos.get());
+    }
+
+    /**
+     * @return The overall throughput: the processed records per second of wall time.
+     */
+    public double getOverallRecordsPerSecond() {
+      return perSecond(processedRecords.get(), wallNanos);
+    }
+
+    private static double perSecond(long records, long nanos) {
+      return nanos == 0 ? 0 : records * (double) TimeUnit.SECONDS.toNanos(1) / nanos;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("fetch stage: %d records (%d bytes) at %.1f records/s, waited %d ms; "
+                      + "processing stage: %d records at %.1f records/s, waited %d ms; "
+                      + "overall: %.1f records/s in %d ms", fetchedRecords.get(),
+              fetchedBytes.get(), getFetchRecordsPerSecond(),
+              TimeUnit.NANOSECONDS.toMillis(fetchWaitNanos.get()), processedRecords.get(),
+              getProcessingRecordsPerSecond(),
+              TimeUnit.NANOSECONDS.toMillis(processingWaitNanos.get()),
+              getOverallRecordsPerSecond(), TimeUnit.NANOSECONDS.toMillis(wallNanos));
+    }
+  }
+}
@@ -0,0 +1,275 @@
+package eu.europeana.metis_tools.oaipmh.harvest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An HTTP client that is meant to be shared by all requests of a run, so that connections (and TLS
+ * sessions) are kept alive and reused. The connections are pooled in a pool of bounded size. The
+ * client asks for compressed responses (gzip or deflate) and decompresses them transparently.
+ * Every request has a timeout (for obtaining a connection, and for waiting for data) that can be
+ * overridden per request. The requests, the connections that are opened and the connections that
+ * are reused (i.e. leased from the pool while still open) are counted, so that the reuse of
+ * connections can be reported.
+ * <p>This class is thread-safe.</p>
+ */
+public class SharedHttpClient implements Closeable {
+
+  private static final int DEFAULT_MAX_CONNECTIONS = 20;
+  private static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 10;
+  private static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 30_000;
+  private static final int DEFAULT_REQUEST_TIMEOUT_MILLIS = 300_000;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SharedHttpClient.class);
+
+  private static SharedHttpClient defaultInstance;
+
+  private final CountingConnectionManager connectionManager;
+  private final CloseableHttpClient httpClient;
+  private final RequestConfig defaultRequestConfig;
+  private final AtomicLong requestCount = new AtomicLong();
+
+  /**
+   * Reads the body of a response.
+   *
+   * @param <T> The type of the result.
+   * @param <E> The type of the exception that may be thrown when reading.
+   */
+  @FunctionalInterface
+  public interface BodyReader<T, E extends Exception> {
+
+    T read(InputStream body) throws IOException, E;
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param maxConnections The maximum number of connections in the pool.
+   * @param maxConnectionsPerRoute The maximum number of connections to one host.
+   * @param connectTimeoutMillis The timeout for establishing a connection.
+   * @param requestTimeoutMillis The default timeout for obtaining a connection from the pool and
+   * for waiting for data.
+   */
+  public SharedHttpClient(int maxConnections, int maxConnectionsPerRoute,
+          int connectTimeoutMillis, int requestTimeoutMillis) {
+    connectionManager = new CountingConnectionManager(
+            RegistryBuilder.<ConnectionSocketFactory>create()
+                    .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                    .register("https", SSLConnectionSocketFactory.getSystemSocketFactory())
+                    .build());
+    connectionManager.setMaxTotal(maxConnections);
+    connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+    defaultRequestConfig = RequestConfig.custom().setConnectTimeout(connectTimeoutMillis)
+            .setConnectionRequestTimeout(requestTimeoutMillis)
+            .setSocketTimeout(requestTimeoutMillis).build();
+    // Note: content compression (gzip and deflate) is enabled by default.
+    httpClient = HttpClients.custom().setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(defaultRequestConfig).build();
+  }
+
+  /**
+   * @return The client that is shared by the tools in this module, with default settings. It is
+   * created on first use, and closed when the JVM shuts down.
+   */
+  public static synchronized SharedHttpClient getDefault() {
+    if (defaultInstance == null) {
+      final SharedHttpClient client = new SharedHttpClient(DEFAULT_MAX_CONNECTIONS,
+              DEFAULT_MAX_CONNECTIONS_PER_ROUTE, DEFAULT_CONNECT_TIMEOUT_MILLIS,
+              DEFAULT_REQUEST_TIMEOUT_MILLIS);
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        try {
+          client.close();
+        } catch (IOException e) {
+          LOGGER.warn("Could not close the shared HTTP client.", e);
+        }
+      }, "shared-http-client-shutdown"));
+      defaultInstance = client;
+    }
+    return defaultInstance;
+  }
+
+  /**
+   * Sends a GET request with the default request timeout.
+   *
+   * @param uri The URI.
+   * @param accept The value of the Accept header.
+   * @param bodyReader The reader for the (decompressed) response body.
+   * @param <T> The type of the result.
+   * @param <E> The type of the exception that the body reader may throw.
+   * @return The result of the body reader.
+   * @throws IOException In case of a connection problem or a non-successful response.
+   * @throws E In case the body reader throws it.
+   */
+  public <T, E extends Exception> T get(URI uri, String accept, BodyReader<T, E> bodyReader)
+          throws IOException, E {
+    return get(uri, accept, defaultRequestConfig.getSocketTimeout(), bodyReader);
+  }
+
+  /**
+   * Sends a GET request.
+   *
+   * @param uri The URI.
+   * @param accept The value of the Accept header.
+   * @param requestTimeoutMillis The timeout for obtaining a connection and for waiting for data.
+   * @param bodyReader The reader for the (decompressed) response body.
+   * @param <T> The type of the result.
+   * @param <E> The type of the exception that the body reader may throw.
+   * @return The result of the body reader.
+   * @throws IOException In case of a connection problem or a non-successful response.
+   * @throws E In case the body reader throws it.
+   */
+  public <T, E extends Exception> T get(URI uri, String accept, int requestTimeoutMillis,
+          BodyReader<T, E> bodyReader) throws IOException, E {
+    final HttpGet request = new HttpGet(uri);
+    request.setHeader(HttpHeaders.ACCEPT, accept);
+    request.setConfig(RequestConfig.copy(defaultRequestConfig)
+            .setConnectionRequestTimeout(requestTimeoutMillis)
+            .setSocketTimeout(requestTimeoutMillis).build());
+    requestCount.incrementAndGet();
+    try (final CloseableHttpResponse response = httpClient.execute(request)) {
+      final HttpEntity entity = response.getEntity();
+      final int statusCode = response.getStatusLine().getStatusCode();
+      if (statusCode < 200 || statusCode >= 300 || entity == null) {
+        // Consume the entity, so that the connection can be reused.
+        EntityUtils.consume(entity);
+        throw new IOException("Request to " + uri + " failed: " + response.getStatusLine());
+      }
+      try (final InputStream body = entity.getContent()) {
+        return bodyReader.read(body);
+      }
+    }
+  }
+
+  /**
+   * @return The statistics of this client.
+   */
+  public Statistics getStatistics() {
+    return new Statistics(requestCount.get(), connectionManager.openedConnectionCount.get(),
+            connectionManager.reusedConnectionCount.get(), connectionManager.getTotalStats());
+  }
+
+  @Override
+  public void close() throws IOException {
+    httpClient.close();
+  }
+
+  /**
+   * A pooling connection manager that counts the connections that are opened, and the connections
+   * that are leased from the pool while they are still open (i.e. reused).
+   */
+  private static final class CountingConnectionManager extends PoolingHttpClientConnectionManager {
+
+    private final AtomicLong openedConnectionCount = new AtomicLong();
+    private final AtomicLong reusedConnectionCount = new AtomicLong();
+
+    CountingConnectionManager(Registry<ConnectionSocketFactory> socketFactoryRegistry) {
+      super(socketFactoryRegistry);
+    }
+
+    @Override
+    public ConnectionRequest requestConnection(HttpRoute route, Object state) {
+      final ConnectionRequest request = super.requestConnection(route, state);
+      return new ConnectionRequest() {
+        @Override
+        public HttpClientConnection get(long timeout, TimeUnit timeUnit)
+                throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+          final HttpClientConnection connection = request.get(timeout, timeUnit);
+          // The pool has already discarded expired connections and closed stale ones.
+          if (connection.isOpen()) {
+            reusedConnectionCount.incrementAndGet();
+          }
+          return connection;
+        }
+
+        @Override
+        public boolean cancel() {
+          return request.cancel();
+        }
+      };
+    }
+
+    @Override
+    public void connect(HttpClientConnection managedConn, HttpRoute route, int connectTimeout,
+            HttpContext context) throws IOException {
+      openedConnectionCount.incrementAndGet();
+      super.connect(managedConn, route, connectTimeout, context);
+    }
+  }
+
+  /**
+   * The statistics of a client: the connection reuse and the current state of the pool.
+   */
+  public static final class Statistics {
+
+    private final long requests;
+    private final long openedConnections;
+    private final long reusedConnections;
+    private final PoolStats poolStats;
+
+    private Statistics(long requests, long openedConnections, long reusedConnections,
+            PoolStats poolStats) {
+      this.requests = requests;
+      this.openedConnections = openedConnections;
+      this.reusedConnections = reusedConnections;
+      this.poolStats = poolStats;
+    }
+
+    public long getRequests() {
+      return requests;
+    }
+
+    /**
+     * @return The number of connections that were opened (including connections that were opened
+     * again after they were closed).
+     */
+    public long getOpenedConnections() {
+      return openedConnections;
+    }
+
+    /**
+     * @return The number of times that a connection was taken from the pool while it was still
+     * open, so that it did not need to be opened again. Note that a request may take more than
+     * one connection from the pool (e.g. when it is retried or redirected).
+     */
+    public long getReusedConnections() {
+      return reusedConnections;
+    }
+
+    public PoolStats getPoolStats() {
+      return poolStats;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d requests, %d opened connections, %d reused connections, pool: %s",
+              requests, openedConnections, reusedConnections, poolStats);
+    }
+  }
+}
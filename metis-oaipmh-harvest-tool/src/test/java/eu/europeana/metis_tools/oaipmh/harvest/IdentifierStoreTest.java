@@ -0,0 +1,112 @@
+package eu.europeana.metis_tools.oaipmh.harvest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Compares the {@link DiskIdentifierStore} and the {@link ApproximateIdentifierStore} with the
+ * exact result of the {@link InMemoryIdentifierStore}, on generated identifiers with duplicates.
+ */
+class IdentifierStoreTest {
+
+  private static final int IDENTIFIERS_TO_ADD = 20_000;
+  private static final int DISTINCT_IDENTIFIER_RANGE = 15_000;
+  private static final double FALSE_POSITIVE_PROBABILITY = 0.01;
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void diskStoreWithSpillFilesMatchesInMemoryStore() throws IOException {
+    final IdentifierStore.Counts exact = addIdentifiers(new InMemoryIdentifierStore());
+    final IdentifierStore.Counts disk;
+    try (DiskIdentifierStore store = new DiskIdentifierStore(tempDir, 1_000)) {
+      disk = addIdentifiers(store, false);
+      assertTrue(countSpillFiles() > 1);
+    }
+    assertEquals(0, countSpillFiles());
+    assertTrue(disk.isExact());
+    assertEquals(exact.getUniqueIdentifiers(), disk.getUniqueIdentifiers());
+    assertEquals(exact.getDuplicateIdentifiers(), disk.getDuplicateIdentifiers());
+  }
+
+  @Test
+  void diskStoreWithoutSpillFilesMatchesInMemoryStore() throws IOException {
+    final IdentifierStore.Counts exact = addIdentifiers(new InMemoryIdentifierStore());
+    final IdentifierStore.Counts disk;
+    try (DiskIdentifierStore store = new DiskIdentifierStore(tempDir, IDENTIFIERS_TO_ADD + 1)) {
+      disk = addIdentifiers(store, false);
+      assertEquals(0, countSpillFiles());
+    }
+    assertEquals(exact.getUniqueIdentifiers(), disk.getUniqueIdentifiers());
+    assertEquals(exact.getDuplicateIdentifiers(), disk.getDuplicateIdentifiers());
+  }
+
+  @Test
+  void approximateStoreIsWithinBounds() throws IOException {
+    final IdentifierStore.Counts exact = addIdentifiers(new InMemoryIdentifierStore());
+    for (int precision : new int[]{4, 5, 6, 7, 14}) {
+      final IdentifierStore.Counts approximate = addIdentifiers(new ApproximateIdentifierStore(
+          precision, exact.getUniqueIdentifiers(), FALSE_POSITIVE_PROBABILITY));
+      assertFalse(approximate.isExact());
+
+      // The unique count is within three standard errors.
+      final double uniqueError = Math.abs(approximate.getUniqueIdentifiers()
+          - exact.getUniqueIdentifiers()) / (double) exact.getUniqueIdentifiers();
+      assertTrue(uniqueError <= 3 * 1.04 / Math.sqrt(1 << precision),
+          "Precision " + precision + ": unique count is off by " + uniqueError + ".");
+
+      // The duplicate count is never too low, and not too high by more than twice the bound.
+      final long duplicateError = approximate.getDuplicateIdentifiers()
+          - exact.getDuplicateIdentifiers();
+      assertTrue(duplicateError >= 0);
+      assertTrue(duplicateError <= 2 * FALSE_POSITIVE_PROBABILITY * exact.getUniqueIdentifiers(),
+          "Duplicate count is off by " + duplicateError + ".");
+    }
+  }
+
+  @Test
+  void invalidArgumentsAreRejected() {
+    assertThrows(IllegalArgumentException.class, () -> new DiskIdentifierStore(tempDir, 0));
+    assertThrows(IllegalArgumentException.class, () -> new DiskIdentifierStore(tempDir, -1));
+    assertThrows(IllegalArgumentException.class,
+        () -> new ApproximateIdentifierStore(3, 1_000, FALSE_POSITIVE_PROBABILITY));
+    assertThrows(IllegalArgumentException.class,
+        () -> new ApproximateIdentifierStore(19, 1_000, FALSE_POSITIVE_PROBABILITY));
+  }
+
+  private static IdentifierStore.Counts addIdentifiers(IdentifierStore store) throws IOException {
+    return addIdentifiers(store, true);
+  }
+
+  private static IdentifierStore.Counts addIdentifiers(IdentifierStore store, boolean close)
+      throws IOException {
+    final Random random = new Random(42);
+    try {
+      for (int i = 0; i < IDENTIFIERS_TO_ADD; i++) {
+        store.add("oai:example.org:record/" + random.nextInt(DISTINCT_IDENTIFIER_RANGE));
+      }
+      return store.count();
+    } finally {
+      if (close) {
+        store.close();
+      }
+    }
+  }
+
+  private long countSpillFiles() throws IOException {
+    try (Stream<Path> files = Files.list(tempDir)) {
+      return files.count();
+    }
+  }
+}
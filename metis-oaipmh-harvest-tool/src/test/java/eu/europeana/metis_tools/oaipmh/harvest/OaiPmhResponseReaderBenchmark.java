@@ -0,0 +1,184 @@
+package eu.europeana.metis_tools.oaipmh.harvest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * JMH benchmark that compares the reading of OAI-PMH responses with the {@link
+ * OaiPmhResponseReader} (StAX) to the previous approach of building a DOM tree and evaluating an
+ * XPath expression per record. Both approaches resolve the rdf:about of the ProvidedCHO of every
+ * record. Run the main method (from the test classpath) to run the benchmark with the GC profiler,
+ * which also reports the bytes allocated per operation.
+ * <p>The responses are read from the folder in system property {@value #SAMPLE_FOLDER_PROPERTY}
+ * (all files ending in .xml) if it is set, and generated otherwise.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OaiPmhResponseReaderBenchmark {
+
+  /** The system property with the folder with recorded ListRecords responses. */
+  public static final String SAMPLE_FOLDER_PROPERTY = "oaipmh.benchmark.samples";
+
+  private static final int GENERATED_RESPONSES = 10;
+  private static final int RECORDS_PER_GENERATED_RESPONSE = 200;
+
+  private List<byte[]> responses;
+  private DocumentBuilder builder;
+  private XPathExpression rdfAboutXpath;
+  private OaiPmhResponseReader responseReader;
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(OaiPmhResponseReaderBenchmark.class.getName())
+            .addProfiler(GCProfiler.class).build()).run();
+  }
+
+  @Setup
+  public void setUp() throws IOException, ParserConfigurationException, XPathExpressionException {
+    final String sampleFolder = System.getProperty(SAMPLE_FOLDER_PROPERTY);
+    responses = sampleFolder == null ? generateResponses(GENERATED_RESPONSES,
+            RECORDS_PER_GENERATED_RESPONSE) : readResponses(Path.of(sampleFolder));
+    builder = createDocumentBuilder();
+    rdfAboutXpath = createRdfAboutXpath();
+    responseReader = new OaiPmhResponseReader();
+  }
+
+  @Benchmark
+  public List<String> domXpath() throws IOException, SAXException, XPathExpressionException {
+    final List<String> result = new ArrayList<>();
+    for (byte[] response : responses) {
+      result.addAll(readWithDom(response, builder, rdfAboutXpath));
+    }
+    return result;
+  }
+
+  @Benchmark
+  public List<String> stax() throws XMLStreamException {
+    final List<String> result = new ArrayList<>();
+    for (byte[] response : responses) {
+      result.addAll(readWithStax(response, responseReader));
+    }
+    return result;
+  }
+
+  static DocumentBuilder createDocumentBuilder() throws ParserConfigurationException {
+    final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    factory.setNamespaceAware(true);
+    return factory.newDocumentBuilder();
+  }
+
+  static XPathExpression createRdfAboutXpath() throws XPathExpressionException {
+    return XPathFactory.newInstance().newXPath().compile(
+            ".//*[local-name()='ProvidedCHO' and namespace-uri()='"
+                    + OaiPmhRecordHarvestMain.EDM_NAME_SPACE + "']/@*[local-name()='about' and "
+                    + "namespace-uri()='" + OaiPmhRecordHarvestMain.RDF_NAME_SPACE + "']");
+  }
+
+  static List<String> readWithDom(byte[] response, DocumentBuilder builder,
+          XPathExpression rdfAboutXpath)
+          throws IOException, SAXException, XPathExpressionException {
+    final Document document = builder.parse(new ByteArrayInputStream(response));
+    final NodeList recordList = document.getDocumentElement()
+            .getElementsByTagNameNS(OaiPmhResponseReader.OAI_PMH_NAME_SPACE, "record");
+    final List<String> result = new ArrayList<>(recordList.getLength());
+    for (int recordIndex = 0; recordIndex < recordList.getLength(); recordIndex++) {
+      result.add(rdfAboutXpath.evaluate((Element) recordList.item(recordIndex)));
+    }
+    return result;
+  }
+
+  static List<String> readWithStax(byte[] response, OaiPmhResponseReader responseReader)
+          throws XMLStreamException {
+    final List<OaiPmhRecord> records = new ArrayList<>();
+    responseReader.read(response, records::add);
+    final List<String> result = new ArrayList<>(records.size());
+    for (OaiPmhRecord record : records) {
+      final String about = record.getMetadata() == null ? null : OaiPmhRecordHarvestMain
+              .findProvidedChoAbout(record.getMetadata(), responseReader);
+      result.add(about == null ? "" : about);
+    }
+    return result;
+  }
+
+  private static List<byte[]> readResponses(Path folder) throws IOException {
+    try (final Stream<Path> files = Files.list(folder)) {
+      final List<Path> sampleFiles = files.filter(file -> file.toString().endsWith(".xml"))
+              .sorted().collect(Collectors.toList());
+      final List<byte[]> result = new ArrayList<>(sampleFiles.size());
+      for (Path sampleFile : sampleFiles) {
+        result.add(Files.readAllBytes(sampleFile));
+      }
+      return result;
+    }
+  }
+
+  static List<byte[]> generateResponses(int responseCount, int recordsPerResponse) {
+    final List<byte[]> result = new ArrayList<>(responseCount);
+    for (int responseIndex = 0; responseIndex < responseCount; responseIndex++) {
+      final StringBuilder response = new StringBuilder();
+      response.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>")
+              .append("<OAI-PMH xmlns=\"").append(OaiPmhResponseReader.OAI_PMH_NAME_SPACE)
+              .append("\"><responseDate>2020-01-01T00:00:00Z</responseDate>")
+              .append("<request verb=\"ListRecords\">http://localhost/oai</request>")
+              .append("<ListRecords>");
+      for (int recordIndex = 0; recordIndex < recordsPerResponse; recordIndex++) {
+        final String id = responseIndex + "_" + recordIndex;
+        response.append("<record><header><identifier>oai:localhost:").append(id)
+                .append("</identifier><datestamp>2020-01-01</datestamp>")
+                .append("<setSpec>benchmark</setSpec></header><metadata>")
+                .append("<rdf:RDF xmlns:rdf=\"").append(OaiPmhRecordHarvestMain.RDF_NAME_SPACE)
+                .append("\" xmlns:edm=\"").append(OaiPmhRecordHarvestMain.EDM_NAME_SPACE)
+                .append("\" xmlns:dc=\"http://purl.org/dc/elements/1.1/\">")
+                .append("<edm:ProvidedCHO rdf:about=\"http://localhost/item/").append(id)
+                .append("\"/><edm:ProvidedCHO rdf:about=\"http://localhost/other/").append(id)
+                .append("\"/>");
+        for (int field = 0; field < 20; field++) {
+          response.append("<dc:description>Description ").append(field).append(" of record ")
+                  .append(id).append(" &amp; some more text.</dc:description>");
+        }
+        response.append("</rdf:RDF></metadata></record>");
+      }
+      response.append("<resumptionToken cursor=\"").append(responseIndex)
+              .append("\">token").append(responseIndex).append("</resumptionToken>")
+              .append("</ListRecords></OAI-PMH>");
+      result.add(response.toString().getBytes(StandardCharsets.UTF_8));
+    }
+    return result;
+  }
+}
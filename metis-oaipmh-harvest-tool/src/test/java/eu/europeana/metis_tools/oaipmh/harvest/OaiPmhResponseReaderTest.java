@@ -0,0 +1,139 @@
+package eu.europeana.metis_tools.oaipmh.harvest;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.xpath.XPathExpression;
+import org.junit.jupiter.api.Test;
+
+class OaiPmhResponseReaderTest {
+
+  /** A payload with the constructs that a re-serialization would not preserve. */
+  private static final String PAYLOAD = "\r\n  <rdf:RDF xmlns:rdf=\""
+      + OaiPmhRecordHarvestMain.RDF_NAME_SPACE + "\" xmlns:edm='"
+      + OaiPmhRecordHarvestMain.EDM_NAME_SPACE + "'>\r\n"
+      + "    <!-- A comment with <metadata> in it. -->\r\n"
+      + "    <edm:ProvidedCHO rdf:about=\"http://localhost/item/1?a=1&amp;b=&quot;&gt;\" />\r\n"
+      + "    <edm:Text>T\u00EBxt &#233; &lt;b&gt; <![CDATA[<metadata></metadata>]]></edm:Text>\r\n"
+      + "    <?processing instruction?>\r\n"
+      + "    <metadata><metadata/></metadata >\r\n"
+      + "  </rdf:RDF>\r\n";
+
+  @Test
+  void readListRecordsWithRawPayloads() throws XMLStreamException {
+    final String response = "\uFEFF<?xml version=\"1.0\" encoding=\"UTF-8\"?>\r\n"
+        + "<OAI-PMH xmlns=\"" + OaiPmhResponseReader.OAI_PMH_NAME_SPACE + "\">"
+        + "<responseDate>2020-01-01T00:00:00Z</responseDate>"
+        + "<request verb=\"ListRecords\">http://localhost/oai</request><ListRecords>"
+        + "<record><header><identifier> oai:localhost:1 </identifier>"
+        + "<datestamp>2020-01-01</datestamp><setSpec>a</setSpec><setSpec>b</setSpec></header>"
+        + "<metadata>" + PAYLOAD + "</metadata><about><metadata/></about></record>"
+        + "<record><header status=\"deleted\"><identifier>oai:localhost:2</identifier>"
+        + "<datestamp>2020-01-02</datestamp></header></record>"
+        + "<record><header><identifier>oai:localhost:3</identifier>"
+        + "<datestamp>2020-01-03</datestamp></header><metadata/></record>"
+        + "<resumptionToken cursor=\"0\" completeListSize=\"30\">token1</resumptionToken>"
+        + "</ListRecords></OAI-PMH>";
+    final List<OaiPmhRecord> records = new ArrayList<>();
+    final OaiPmhResponse result = new OaiPmhResponseReader()
+        .read(response.getBytes(StandardCharsets.UTF_8), records::add);
+
+    assertEquals(3, result.getRecordCount());
+    assertEquals("token1", result.getResumptionToken());
+    assertEquals("0", result.getCursor());
+    assertEquals("30", result.getCompleteListSize());
+    assertNull(result.getErrorCode());
+    assertEquals(3, records.size());
+
+    assertEquals("oai:localhost:1", records.get(0).getIdentifier());
+    assertEquals("2020-01-01", records.get(0).getDatestamp());
+    assertEquals(List.of("a", "b"), records.get(0).getSetSpecs());
+    assertFalse(records.get(0).isDeleted());
+    assertArrayEquals(PAYLOAD.getBytes(StandardCharsets.UTF_8), records.get(0).getMetadata());
+
+    assertEquals("oai:localhost:2", records.get(1).getIdentifier());
+    assertTrue(records.get(1).isDeleted());
+    assertNull(records.get(1).getMetadata());
+
+    assertEquals("oai:localhost:3", records.get(2).getIdentifier());
+    assertArrayEquals(new byte[0], records.get(2).getMetadata());
+  }
+
+  @Test
+  void readPrefixedGetRecordWithRawPayload() throws XMLStreamException {
+    final String response = "<oai:OAI-PMH xmlns:oai=\"" + OaiPmhResponseReader.OAI_PMH_NAME_SPACE
+        + "\"><oai:GetRecord><oai:record><oai:header><oai:identifier>oai:localhost:1"
+        + "</oai:identifier><oai:datestamp>2020-01-01</oai:datestamp></oai:header>"
+        + "<oai:metadata\r\n  >" + PAYLOAD + "</oai:metadata\r\n  ></oai:record></oai:GetRecord>"
+        + "</oai:OAI-PMH>";
+    final List<OaiPmhRecord> records = new ArrayList<>();
+    final OaiPmhResponse result = new OaiPmhResponseReader()
+        .read(response.getBytes(StandardCharsets.UTF_8), records::add);
+
+    assertEquals(1, result.getRecordCount());
+    assertNull(result.getResumptionToken());
+    assertArrayEquals(PAYLOAD.getBytes(StandardCharsets.UTF_8), records.get(0).getMetadata());
+    assertEquals("http://localhost/item/1?a=1&b=\">", OaiPmhRecordHarvestMain
+        .findProvidedChoAbout(records.get(0).getMetadata(), new OaiPmhResponseReader()));
+  }
+
+  @Test
+  void readListIdentifiersAndErrors() throws XMLStreamException {
+    final String response = "<OAI-PMH xmlns=\"" + OaiPmhResponseReader.OAI_PMH_NAME_SPACE
+        + "\"><ListIdentifiers><header><identifier>oai:localhost:1</identifier></header>"
+        + "<header status=\"deleted\"><identifier>oai:localhost:2</identifier></header>"
+        + "<resumptionToken completeListSize=\"2\" cursor=\"0\"/></ListIdentifiers></OAI-PMH>";
+    final List<OaiPmhRecord> records = new ArrayList<>();
+    final OaiPmhResponseReader reader = new OaiPmhResponseReader();
+    final OaiPmhResponse result = reader.read(response.getBytes(StandardCharsets.UTF_8),
+        records::add);
+    assertEquals(2, result.getRecordCount());
+    assertNull(result.getResumptionToken());
+    assertEquals("oai:localhost:1", records.get(0).getIdentifier());
+    assertFalse(records.get(0).isDeleted());
+    assertTrue(records.get(1).isDeleted());
+
+    // Without a consumer the records are still counted.
+    assertEquals(2, reader.read(response.getBytes(StandardCharsets.UTF_8), null)
+        .getRecordCount());
+
+    final String error = "<OAI-PMH xmlns=\"" + OaiPmhResponseReader.OAI_PMH_NAME_SPACE
+        + "\"><error code=\"noRecordsMatch\">No records.</error></OAI-PMH>";
+    final OaiPmhResponse errorResult = reader.read(error.getBytes(StandardCharsets.UTF_8),
+        records::add);
+    assertEquals("noRecordsMatch", errorResult.getErrorCode());
+    assertEquals(0, errorResult.getRecordCount());
+  }
+
+  @Test
+  void readRejectsResponsesThatAreNotUtf8() {
+    final String response = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><OAI-PMH xmlns=\""
+        + OaiPmhResponseReader.OAI_PMH_NAME_SPACE + "\"/>";
+    assertThrows(XMLStreamException.class, () -> new OaiPmhResponseReader()
+        .read(response.getBytes(StandardCharsets.ISO_8859_1), record -> {
+        }));
+  }
+
+  @Test
+  void staxResolvesTheSameAboutsAsDomXpath() throws Exception {
+    final DocumentBuilder builder = OaiPmhResponseReaderBenchmark.createDocumentBuilder();
+    final XPathExpression rdfAboutXpath = OaiPmhResponseReaderBenchmark.createRdfAboutXpath();
+    final OaiPmhResponseReader responseReader = new OaiPmhResponseReader();
+    for (byte[] response : OaiPmhResponseReaderBenchmark.generateResponses(2, 10)) {
+      final List<String> expected = OaiPmhResponseReaderBenchmark
+          .readWithDom(response, builder, rdfAboutXpath);
+      assertEquals(10, expected.size());
+      assertEquals(expected,
+          OaiPmhResponseReaderBenchmark.readWithStax(response, responseReader));
+    }
+  }
+}
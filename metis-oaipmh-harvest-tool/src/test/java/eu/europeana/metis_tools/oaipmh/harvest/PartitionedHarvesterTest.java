@@ -0,0 +1,259 @@
+package eu.europeana.metis_tools.oaipmh.harvest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import eu.europeana.metis_tools.oaipmh.harvest.PartitionedHarvester.Slice;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests the {@link PartitionedHarvester} against a local stub of an OAI-PMH endpoint.
+ */
+class PartitionedHarvesterTest {
+
+  private static final int PAGE_SIZE = 2;
+  private static final LocalDate FROM = LocalDate.of(2020, 1, 1);
+  private static final LocalDate UNTIL = LocalDate.of(2020, 2, 29);
+  private static final int DAYS_PER_SLICE = 30;
+
+  /** The records per set: identifier, datestamp and deleted flag. */
+  private static final Map<String, List<String[]>> RECORDS_BY_SET = Map.of(
+      "a", List.of(
+          new String[]{"r1", "2020-01-01", "false"},
+          new String[]{"r2", "2020-01-02", "false"},
+          new String[]{"r3", "2020-01-03", "false"},
+          new String[]{"r4", "2020-01-04", "true"},
+          new String[]{"r5", "2020-01-05", "false"},
+          new String[]{"r6", "2020-02-06", "false"}),
+      "b", List.of(
+          new String[]{"r1", "2020-02-01", "false"},
+          new String[]{"r3", "2020-01-03", "false"},
+          new String[]{"r7", "2020-02-07", "false"}));
+
+  @TempDir
+  Path outputFolder;
+
+  private HttpServer server;
+  private ExecutorService serverExecutor;
+  private SharedHttpClient httpClient;
+  private OaiPmhService service;
+
+  private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+  private final Set<String> failingResumptionTokens = ConcurrentHashMap.newKeySet();
+
+  @BeforeEach
+  void startServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/oai", this::respond);
+    serverExecutor = Executors.newFixedThreadPool(4);
+    server.setExecutor(serverExecutor);
+    server.start();
+    httpClient = new SharedHttpClient(4, 4, 5_000, 10_000);
+    service = new OaiPmhService("http://localhost:" + server.getAddress().getPort() + "/oai",
+        null, "edm", httpClient);
+  }
+
+  @AfterEach
+  void stopServer() throws IOException {
+    httpClient.close();
+    server.stop(0);
+    serverExecutor.shutdownNow();
+  }
+
+  @Test
+  void createSlicesCombinesSetsAndDateRanges() {
+    final List<Slice> slices = PartitionedHarvester.createSlices(List.of("a", "b"), FROM, UNTIL,
+        DAYS_PER_SLICE);
+    assertEquals(List.of("0000_a_2020-01-01_2020-01-30", "0001_a_2020-01-31_2020-02-29",
+        "0002_b_2020-01-01_2020-01-30", "0003_b_2020-01-31_2020-02-29"),
+        slices.stream().map(Slice::getId).collect(Collectors.toList()));
+    assertEquals("2020-02-29", slices.get(1).getUntil());
+
+    final List<Slice> unrestricted = PartitionedHarvester.createSlices(List.of(), null, null, 0);
+    assertEquals(1, unrestricted.size());
+    assertNull(unrestricted.get(0).getSetSpec());
+    assertNull(unrestricted.get(0).getFrom());
+  }
+
+  @Test
+  void createSlicesRejectsNonPositiveDaysPerSlice() {
+    assertThrows(IllegalArgumentException.class,
+        () -> PartitionedHarvester.createSlices(List.of("a"), FROM, UNTIL, 0));
+    assertThrows(IllegalArgumentException.class,
+        () -> PartitionedHarvester.createSlices(List.of("a"), FROM, UNTIL, -1));
+  }
+
+  @Test
+  void harvestDeduplicatesOverlappingSlices() throws IOException, InterruptedException {
+    assertEquals(7, createHarvester().harvest(createSlices()));
+    assertExpectedResult();
+  }
+
+  @Test
+  void harvestContinuesFromTheCheckpointsAfterAFailure()
+      throws IOException, InterruptedException {
+
+    // The first run fails on the second page of the first slice.
+    final String failingToken = createResumptionToken("a", "2020-01-01", "2020-01-30", PAGE_SIZE);
+    failingResumptionTokens.add(failingToken);
+    final List<Slice> slices = createSlices();
+    assertThrows(IllegalStateException.class, () -> createHarvester().harvest(slices));
+    final Path failedSliceFolder = outputFolder.resolve("slices").resolve(slices.get(0).getId());
+    assertEquals(failingToken, Files.readString(failedSliceFolder.resolve("checkpoint.txt")));
+
+    // Simulate a line that was partially written when the run was interrupted.
+    Files.writeString(failedSliceFolder.resolve("index.tsv"), "r2\t2020-01",
+        StandardOpenOption.APPEND);
+
+    // The second run only continues the failed slice.
+    failingResumptionTokens.clear();
+    requests.clear();
+    assertEquals(7, createHarvester().harvest(slices));
+    assertEquals(List.of("resumptionToken=" + failingToken, "resumptionToken="
+        + createResumptionToken("a", "2020-01-01", "2020-01-30", 2 * PAGE_SIZE)), requests);
+    assertExpectedResult();
+  }
+
+  @Test
+  void harvestSkipsMalformedIndexLines() throws IOException, InterruptedException {
+    final List<Slice> slices = createSlices();
+    createHarvester().harvest(slices);
+    final Path indexFile = outputFolder.resolve("slices").resolve(slices.get(2).getId())
+        .resolve("index.tsv");
+    Files.writeString(indexFile, "malformed\n\tno identifier\t\t\nr9\t2020-01-09\n",
+        StandardOpenOption.APPEND);
+
+    // All slices are done: the second run only de-duplicates again.
+    requests.clear();
+    assertEquals(7, createHarvester().harvest(slices));
+    assertTrue(requests.isEmpty());
+    assertExpectedResult();
+  }
+
+  private PartitionedHarvester createHarvester() {
+    return new PartitionedHarvester(service, outputFolder, 2);
+  }
+
+  private static List<Slice> createSlices() {
+    return PartitionedHarvester.createSlices(List.of("a", "b"), FROM, UNTIL, DAYS_PER_SLICE);
+  }
+
+  private void assertExpectedResult() throws IOException {
+    final List<String[]> entries = Files.readAllLines(outputFolder.resolve("records.tsv"))
+        .stream().map(line -> line.split("\t", -1)).collect(Collectors.toList());
+    assertEquals(List.of("r1", "r2", "r3", "r4", "r5", "r6", "r7"),
+        entries.stream().map(entry -> entry[0]).collect(Collectors.toList()));
+
+    // The occurrence with the latest datestamp is kept: r1 from set b.
+    assertEquals("2020-02-01", entries.get(0)[1]);
+    assertEquals(createPayload("b", "r1"),
+        Files.readString(outputFolder.resolve(entries.get(0)[3])));
+    assertEquals(createPayload("a", "r2"),
+        Files.readString(outputFolder.resolve(entries.get(1)[3])));
+
+    // Deleted records have no file.
+    assertEquals("true", entries.get(3)[2]);
+    assertEquals("", entries.get(3)[3]);
+  }
+
+  private void respond(HttpExchange exchange) throws IOException {
+    final String query = exchange.getRequestURI().getRawQuery();
+    final Map<String, String> parameters = new HashMap<>();
+    for (String parameter : query.split("&")) {
+      final String[] keyValue = parameter.split("=", 2);
+      parameters.put(keyValue[0], URLDecoder.decode(keyValue[1], StandardCharsets.UTF_8));
+    }
+    final String resumptionToken = parameters.get("resumptionToken");
+    if (resumptionToken == null) {
+      requests.add(String.format("set=%s&from=%s&until=%s", parameters.get("set"),
+          parameters.get("from"), parameters.get("until")));
+    } else {
+      requests.add("resumptionToken=" + resumptionToken);
+    }
+    if (resumptionToken != null && failingResumptionTokens.contains(resumptionToken)) {
+      exchange.sendResponseHeaders(500, -1);
+      exchange.close();
+      return;
+    }
+
+    // Find the records of the page.
+    final String[] request = resumptionToken == null ? new String[]{parameters.get("set"),
+        parameters.get("from"), parameters.get("until"), "0"} : resumptionToken.split("\\|");
+    final List<String[]> records = RECORDS_BY_SET.get(request[0]).stream()
+        .filter(record -> record[1].compareTo(request[1]) >= 0
+            && record[1].compareTo(request[2]) <= 0).collect(Collectors.toList());
+    final int offset = Integer.parseInt(request[3]);
+    final List<String[]> page = records.subList(offset,
+        Math.min(records.size(), offset + PAGE_SIZE));
+
+    // Write the response.
+    final StringBuilder response = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>")
+        .append("<OAI-PMH xmlns=\"").append(OaiPmhResponseReader.OAI_PMH_NAME_SPACE).append("\">");
+    if (records.isEmpty()) {
+      response.append("<error code=\"noRecordsMatch\">No records.</error>");
+    } else {
+      response.append("<ListRecords>");
+      for (String[] record : page) {
+        response.append("<record><header").append("true".equals(record[2])
+            ? " status=\"deleted\"" : "").append("><identifier>").append(record[0])
+            .append("</identifier><datestamp>").append(record[1]).append("</datestamp><setSpec>")
+            .append(request[0]).append("</setSpec></header>");
+        if (!"true".equals(record[2])) {
+          response.append("<metadata>").append(createPayload(request[0], record[0]))
+              .append("</metadata>");
+        }
+        response.append("</record>");
+      }
+      final int nextOffset = offset + PAGE_SIZE;
+      response.append("<resumptionToken cursor=\"").append(offset)
+          .append("\" completeListSize=\"").append(records.size()).append("\">")
+          .append(nextOffset < records.size() ? createResumptionToken(request[0], request[1],
+              request[2], nextOffset) : "").append("</resumptionToken></ListRecords>");
+    }
+    final byte[] body = response.append("</OAI-PMH>").toString()
+        .getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "text/xml");
+    exchange.sendResponseHeaders(200, body.length);
+    try (OutputStream responseBody = exchange.getResponseBody()) {
+      responseBody.write(body);
+    }
+  }
+
+  private static String createResumptionToken(String set, String from, String until,
+      int offset) {
+    return String.join("|", Arrays.asList(set, from, until, Integer.toString(offset)));
+  }
+
+  private static String createPayload(String set, String identifier) {
+    return "<record xmlns=\"http://localhost/record\" set=\"" + set + "\">" + identifier
+        + "</record>";
+  }
+}
@@ -0,0 +1,113 @@
+package eu.europeana.metis_tools.oaipmh.harvest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the {@link PipelinedHarvester} with a service that returns generated pages.
+ */
+class PipelinedHarvesterTest {
+
+  private static final Duration TIMEOUT = Duration.ofSeconds(10);
+  private static final int PAGES = 5;
+  private static final int RECORDS_PER_PAGE = 3;
+
+  @Test
+  void harvestProcessesAllPagesInOrder() {
+    final StubService service = new StubService(-1, null);
+    final List<String> identifiers = new ArrayList<>();
+    final PipelinedHarvester.Statistics statistics = assertTimeoutPreemptively(TIMEOUT,
+        () -> new PipelinedHarvester(service, 2).harvest(null, null, null, null,
+            (records, response) -> {
+              records.stream().map(OaiPmhRecord::getIdentifier).forEach(identifiers::add);
+              return true;
+            }));
+    assertEquals(PAGES * RECORDS_PER_PAGE, identifiers.size());
+    assertEquals("record0_0", identifiers.get(0));
+    assertEquals("record" + (PAGES - 1) + "_" + (RECORDS_PER_PAGE - 1),
+        identifiers.get(identifiers.size() - 1));
+    assertEquals(PAGES * RECORDS_PER_PAGE, statistics.getFetchedRecords());
+    assertEquals(PAGES * RECORDS_PER_PAGE, statistics.getProcessedRecords());
+  }
+
+  @Test
+  void harvestStopsWhenTheHandlerAsksTo() {
+    final StubService service = new StubService(-1, null);
+    final AtomicInteger handledPages = new AtomicInteger();
+    assertTimeoutPreemptively(TIMEOUT, () -> new PipelinedHarvester(service, 1).harvest(null,
+        null, null, null, (records, response) -> handledPages.incrementAndGet() < 2));
+    assertEquals(2, handledPages.get());
+  }
+
+  @Test
+  void harvestFailsWhenFetchingThrowsAnException() {
+    final IOException failure = new IOException("Simulated failure.");
+    assertFailurePropagates(failure);
+  }
+
+  @Test
+  void harvestFailsWhenFetchingThrowsAnError() {
+    final Error failure = new AssertionError("Simulated error.");
+    assertFailurePropagates(failure);
+  }
+
+  private static void assertFailurePropagates(Throwable failure) {
+    final StubService service = new StubService(2, failure);
+    final List<Integer> handledPages = new ArrayList<>();
+    final IOException exception = assertTimeoutPreemptively(TIMEOUT,
+        () -> assertThrows(IOException.class, () -> new PipelinedHarvester(service, 2)
+            .harvest(null, null, null, null, (records, response) -> {
+              handledPages.add(records.size());
+              return true;
+            })));
+    assertSame(failure, exception.getCause());
+    assertEquals(List.of(RECORDS_PER_PAGE, RECORDS_PER_PAGE), handledPages);
+  }
+
+  /**
+   * A service that returns generated pages, and that can fail when fetching a given page.
+   */
+  private static final class StubService extends OaiPmhService {
+
+    private final int failingPage;
+    private final Throwable failure;
+
+    StubService(int failingPage, Throwable failure) {
+      super("http://localhost/oai", null, "edm", null);
+      this.failingPage = failingPage;
+      this.failure = failure;
+    }
+
+    @Override
+    public byte[] fetchListRecords(String setSpec, String from, String until,
+        String resumptionToken) throws IOException {
+      final int page = resumptionToken == null ? 0 : Integer.parseInt(resumptionToken);
+      if (page == failingPage) {
+        if (failure instanceof IOException) {
+          throw (IOException) failure;
+        }
+        throw (Error) failure;
+      }
+      final String records = IntStream.range(0, RECORDS_PER_PAGE)
+          .mapToObj(index -> "<record><header><identifier>record" + page + "_" + index
+              + "</identifier><datestamp>2020-01-01</datestamp></header></record>")
+          .collect(Collectors.joining());
+      final String token = page + 1 < PAGES ? Integer.toString(page + 1) : "";
+      return ("<OAI-PMH xmlns=\"" + OaiPmhResponseReader.OAI_PMH_NAME_SPACE + "\"><ListRecords>"
+          + records + "<resumptionToken>" + token + "</resumptionToken></ListRecords></OAI-PMH>")
+          .getBytes(StandardCharsets.UTF_8);
+    }
+  }
+}
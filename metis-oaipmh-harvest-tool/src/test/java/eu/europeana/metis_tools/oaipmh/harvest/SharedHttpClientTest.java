@@ -0,0 +1,176 @@
+package eu.europeana.metis_tools.oaipmh.harvest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the {@link SharedHttpClient} against a local embedded HTTP server. The server counts the
+ * connections (as distinct client addresses) and compresses its responses when asked.
+ */
+class SharedHttpClientTest {
+
+  private static final int POOL_SIZE = 4;
+  private static final int REQUESTS = 100;
+  private static final int THREADS = 8;
+
+  private final Set<String> connections = ConcurrentHashMap.newKeySet();
+  private final AtomicInteger compressedResponses = new AtomicInteger();
+  private volatile boolean closeConnections;
+
+  private HttpServer server;
+  private ExecutorService serverExecutor;
+  private ExecutorService clientExecutor;
+  private String base;
+
+  @BeforeEach
+  void startServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/", this::respond);
+    serverExecutor = Executors.newFixedThreadPool(THREADS);
+    server.setExecutor(serverExecutor);
+    server.start();
+    clientExecutor = Executors.newFixedThreadPool(THREADS);
+    base = "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort()
+        + "/";
+  }
+
+  @AfterEach
+  void stopServer() {
+    clientExecutor.shutdownNow();
+    server.stop(0);
+    serverExecutor.shutdownNow();
+  }
+
+  @Test
+  void getReusesPooledConnectionsAndDecompressesResponses() throws Exception {
+    try (SharedHttpClient client = new SharedHttpClient(POOL_SIZE, POOL_SIZE, 5_000, 10_000)) {
+
+      // Send requests sequentially and then concurrently.
+      for (int i = 0; i < REQUESTS; i++) {
+        assertEquals("sequential" + i, get(client, "sequential" + i));
+      }
+      final List<Future<String>> futures = new ArrayList<>();
+      for (int i = 0; i < REQUESTS; i++) {
+        final String path = "concurrent" + i;
+        futures.add(clientExecutor.submit(() -> get(client, path)));
+      }
+      for (int i = 0; i < REQUESTS; i++) {
+        assertEquals("concurrent" + i, futures.get(i).get());
+      }
+
+      // Check the connections.
+      final SharedHttpClient.Statistics statistics = client.getStatistics();
+      assertEquals(2 * REQUESTS, statistics.getRequests());
+      assertEquals(2 * REQUESTS, compressedResponses.get());
+      assertEquals(connections.size(), statistics.getOpenedConnections());
+      assertTrue(connections.size() <= POOL_SIZE);
+      assertEquals(2 * REQUESTS - connections.size(), statistics.getReusedConnections());
+      assertEquals(0, statistics.getPoolStats().getLeased());
+    }
+  }
+
+  @Test
+  void getDoesNotCountClosedConnectionsAsReused() throws IOException {
+    closeConnections = true;
+    try (SharedHttpClient client = new SharedHttpClient(POOL_SIZE, POOL_SIZE, 5_000, 10_000)) {
+      for (int i = 0; i < REQUESTS; i++) {
+        assertEquals("closed" + i, get(client, "closed" + i));
+      }
+      final SharedHttpClient.Statistics statistics = client.getStatistics();
+      assertEquals(REQUESTS, statistics.getRequests());
+      assertEquals(REQUESTS, statistics.getOpenedConnections());
+      assertEquals(REQUESTS, connections.size());
+      assertEquals(0, statistics.getReusedConnections());
+    }
+  }
+
+  @Test
+  void getCountsTheReuseOfEachConnectionTakenFromThePool() throws IOException {
+    try (SharedHttpClient client = new SharedHttpClient(POOL_SIZE, POOL_SIZE, 5_000, 10_000)) {
+
+      // One request, but two connections taken from the pool: the second is reused.
+      assertEquals("ok", get(client, "redirect"));
+      final SharedHttpClient.Statistics statistics = client.getStatistics();
+      assertEquals(1, statistics.getRequests());
+      assertEquals(1, statistics.getOpenedConnections());
+      assertEquals(1, statistics.getReusedConnections());
+    }
+  }
+
+  @Test
+  void getReleasesTheConnectionAfterAFailedResponse() throws IOException {
+    try (SharedHttpClient client = new SharedHttpClient(1, 1, 5_000, 10_000)) {
+      assertThrows(IOException.class, () -> get(client, "fail"));
+      assertEquals("ok", get(client, "ok"));
+      final SharedHttpClient.Statistics statistics = client.getStatistics();
+      assertEquals(1, statistics.getOpenedConnections());
+      assertEquals(1, statistics.getReusedConnections());
+    }
+  }
+
+  private String get(SharedHttpClient client, String path) throws IOException {
+    return client.get(URI.create(base + path), "text/plain",
+        input -> new String(input.readAllBytes(), StandardCharsets.UTF_8));
+  }
+
+  private void respond(HttpExchange exchange) throws IOException {
+    connections.add(exchange.getRemoteAddress().toString());
+    try (InputStream requestBody = exchange.getRequestBody()) {
+      requestBody.readAllBytes();
+    }
+    final String path = exchange.getRequestURI().getPath().substring(1);
+    byte[] body = path.getBytes(StandardCharsets.UTF_8);
+    final boolean compress = Optional
+        .ofNullable(exchange.getRequestHeaders().getFirst("Accept-Encoding"))
+        .filter(value -> value.contains("gzip")).isPresent();
+    if (compress) {
+      final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+      try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+        gzip.write(body);
+      }
+      body = compressed.toByteArray();
+      exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+      compressedResponses.incrementAndGet();
+    }
+    if (closeConnections) {
+      exchange.getResponseHeaders().set("Connection", "close");
+    }
+    exchange.getResponseHeaders().set("Content-Type", "text/plain");
+    final int status;
+    if ("redirect".equals(path)) {
+      exchange.getResponseHeaders().set("Location", "/ok");
+      status = 302;
+    } else {
+      status = "fail".equals(path) ? 500 : 200;
+    }
+    exchange.sendResponseHeaders(status, body.length);
+    try (OutputStream responseBody = exchange.getResponseBody()) {
+      responseBody.write(body);
+    }
+  }
+}
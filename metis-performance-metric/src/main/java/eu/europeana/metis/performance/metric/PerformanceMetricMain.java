@@ -32,7 +32,8 @@ public class PerformanceMetricMain {
 
         final MongoMetisCoreDao mongoMetisCoreDao = new MongoMetisCoreDao(propertiesHolder);
         MetricNumberOfRecordPerOperations metric1 = new MetricNumberOfRecordPerOperations(mongoMetisCoreDao);
-        MetricNumberOfDatasetsPublished metric2 = new MetricNumberOfDatasetsPublished(mongoMetisCoreDao);
+        MetricNumberOfDatasetsPublished metric2 = new MetricNumberOfDatasetsPublished(mongoMetisCoreDao,
+                propertiesHolder.evolutionThreadCount);
 
         //Prepare input values
         final String startDateAsString = "2023-01-01 00:00:00";
@@ -32,6 +32,9 @@ public class PropertiesHolder {
     public final String metisCoreMongoDb;
     public final int metisCoreConnectionPoolSize;
 
+    //Metrics
+    public final int evolutionThreadCount;
+
     public final Properties properties = new Properties();
 
     public PropertiesHolder(String configurationFileName) {
@@ -74,5 +77,8 @@ public class PropertiesHolder {
         metisCoreMongoDb = properties.getProperty("mongo.metis.core.db");
         metisCoreConnectionPoolSize = NumberUtils.toInt(properties.getProperty("mongo.metis.core.connection.pool.size"), 50);
 
+        //Metrics
+        evolutionThreadCount = Math.max(1, NumberUtils.toInt(properties.getProperty("metric.evolution.threads"), 4));
+
     }
 }
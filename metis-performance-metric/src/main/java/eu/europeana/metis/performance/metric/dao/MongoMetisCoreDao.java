@@ -25,6 +25,7 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
@@ -36,7 +37,7 @@ public class MongoMetisCoreDao {
     private final MongoInitializer metisCoreMongoInitializer;
     private final PropertiesHolder propertiesHolder;
     private final WorkflowExecutionDao workflowExecutionDao;
-    private final DataEvolutionUtils dataEvolutionUtils;
+    private final VersionEvolutionResolver versionEvolutionResolver;
 
     public MongoMetisCoreDao(PropertiesHolder propertiesHolder)
             throws CustomTruststoreAppender.TrustStoreConfigurationException {
@@ -45,7 +46,21 @@ public class MongoMetisCoreDao {
         final MorphiaDatastoreProviderImpl morphiaDatastoreProvider = new MorphiaDatastoreProviderImpl(
                 metisCoreMongoInitializer.getMongoClient(), propertiesHolder.metisCoreMongoDb);
         workflowExecutionDao = new WorkflowExecutionDao(morphiaDatastoreProvider);
-        dataEvolutionUtils = new DataEvolutionUtils(workflowExecutionDao);
+        versionEvolutionResolver = new VersionEvolutionResolver(new DataEvolutionUtils(workflowExecutionDao),
+                workflowExecutionDao);
+    }
+
+    /**
+     * Creates a dao on top of an existing workflow execution dao, without a connection of its own.
+     *
+     * @param workflowExecutionDao The workflow execution dao
+     */
+    public MongoMetisCoreDao(WorkflowExecutionDao workflowExecutionDao) {
+        this.propertiesHolder = null;
+        this.metisCoreMongoInitializer = null;
+        this.workflowExecutionDao = workflowExecutionDao;
+        this.versionEvolutionResolver = new VersionEvolutionResolver(new DataEvolutionUtils(workflowExecutionDao),
+                workflowExecutionDao);
     }
 
     public WorkflowExecutionDao.ResultList<WorkflowExecutionDao.ExecutionDatasetPair> getAllSuccessfulPublishWorkflows
@@ -66,37 +81,104 @@ public class MongoMetisCoreDao {
     private WorkflowExecutionDao.ResultList<WorkflowExecutionDao.ExecutionDatasetPair> getAllWorkflows(
             Date startDate, Date endDate, Set<String> datasetIds, Set<PluginStatus> pluginStatuses, Set<PluginType> pluginTypes) {
         final List<WorkflowExecutionDao.ExecutionDatasetPair> pairsList = new ArrayList<>();
-        //Make start date two weeks earlier, so we can include more reports based on end date
-        final LocalDateTime startLocalDateTime = LocalDateTime.ofInstant(startDate.toInstant(), ZoneId.systemDefault())
-                .minusWeeks(2L);
-        int nextPage = 0;
-        WorkflowExecutionDao.ResultList<WorkflowExecutionDao.ExecutionDatasetPair> resultList = workflowExecutionDao
-                .getWorkflowExecutionsOverview(datasetIds, pluginStatuses, pluginTypes,
-                        Date.from(startLocalDateTime.atZone(ZoneId.systemDefault()).toInstant()), endDate, nextPage, 1000);
-
-        while (CollectionUtils.isNotEmpty(resultList.getResults())) {
-            final List<WorkflowExecutionDao.ExecutionDatasetPair> filteredResult = resultList.getResults()
+        forEachPage(getQueryStartDate(startDate), endDate, datasetIds, pluginStatuses, pluginTypes, page -> {
+            final List<WorkflowExecutionDao.ExecutionDatasetPair> filteredResult = page
                     .stream()
                     .filter(pair -> isWithinInterval(pair.getExecution(), startDate, endDate))
                     .collect(Collectors.toList());
             pairsList.addAll(filteredResult);
+        });
+
+        return new WorkflowExecutionDao.ResultList<>(pairsList, true);
+    }
+
+    /**
+     * Passes all workflows that were created within the given date interval to the consumer, one page at a time, so
+     * that they don't need to be kept in memory. Note that the consumer may receive the same workflow more than once.
+     *
+     * @param createdFromDate The start of the date interval (inclusive)
+     * @param createdToDate   The end of the date interval (exclusive)
+     * @param consumer        The consumer of the workflows
+     */
+    public void forEachWorkflowCreatedWithinDateInterval(Date createdFromDate, Date createdToDate,
+                                                         Consumer<WorkflowExecution> consumer) {
+        forEachPage(createdFromDate, createdToDate, null, null, null,
+                page -> page.forEach(pair -> consumer.accept(pair.getExecution())));
+    }
+
+    private void forEachPage(Date createdFromDate, Date createdToDate, Set<String> datasetIds,
+                             Set<PluginStatus> pluginStatuses, Set<PluginType> pluginTypes,
+                             Consumer<List<WorkflowExecutionDao.ExecutionDatasetPair>> pageConsumer) {
+        int nextPage = 0;
+        WorkflowExecutionDao.ResultList<WorkflowExecutionDao.ExecutionDatasetPair> resultList = workflowExecutionDao
+                .getWorkflowExecutionsOverview(datasetIds, pluginStatuses, pluginTypes, createdFromDate, createdToDate,
+                        nextPage, 1000);
+
+        while (CollectionUtils.isNotEmpty(resultList.getResults())) {
+            pageConsumer.accept(resultList.getResults());
             nextPage++;
             resultList = workflowExecutionDao
-                    .getWorkflowExecutionsOverview(datasetIds, pluginStatuses, pluginTypes,
-                            Date.from(startLocalDateTime.atZone(ZoneId.systemDefault()).toInstant()), endDate, nextPage, 1000);
+                    .getWorkflowExecutionsOverview(datasetIds, pluginStatuses, pluginTypes, createdFromDate,
+                            createdToDate, nextPage, 1000);
         }
+    }
 
-        return new WorkflowExecutionDao.ResultList<>(pairsList, true);
+    /**
+     * Determines the start date for querying the workflows that are reported within a date interval: two weeks
+     * before the start of the interval, so we can include more reports based on end date
+     *
+     * @param startDate The start date of the interval
+     * @return The start date for the query
+     */
+    public Date getQueryStartDate(Date startDate) {
+        final LocalDateTime startLocalDateTime = LocalDateTime.ofInstant(startDate.toInstant(), ZoneId.systemDefault())
+                .minusWeeks(2L);
+        return Date.from(startLocalDateTime.atZone(ZoneId.systemDefault()).toInstant());
+    }
+
+    /**
+     * Checks whether a workflow would be returned by {@link #forEachWorkflowCreatedWithinDateInterval(Date, Date,
+     * Consumer)} for the given date interval. This is the condition of the overview query of
+     * {@link WorkflowExecutionDao#getWorkflowExecutionsOverview(Set, Set, Set, Date, Date, int, int)}, which filters
+     * on the created date: from the start date (inclusive) to the end date (exclusive).
+     *
+     * @param workflow        The workflow
+     * @param createdFromDate The start of the date interval (inclusive)
+     * @param createdToDate   The end of the date interval (exclusive)
+     * @return Whether the workflow was created within the date interval
+     */
+    public static boolean isCreatedWithinDateInterval(WorkflowExecution workflow, Date createdFromDate,
+                                                      Date createdToDate) {
+        final long createdTime = workflow.getCreatedDate().getTime();
+        return createdTime >= createdFromDate.getTime() && createdTime < createdToDate.getTime();
+    }
+
+    /**
+     * Determines the date on which a workflow is reported: the finished date if it finished, the updated date
+     * otherwise
+     *
+     * @param workflow The workflow
+     * @return The date on which the workflow is reported
+     */
+    public static Date getReportDate(WorkflowExecution workflow) {
+        if (workflow.getWorkflowStatus().equals(WorkflowStatus.FINISHED)) {
+            return workflow.getFinishedDate();
+        }
+        return workflow.getUpdatedDate();
     }
 
     public List<Pair<ExecutablePlugin, WorkflowExecution>> getEvolution(ExecutablePlugin targetPlugin,
         WorkflowExecution targetPluginExecution) {
-        final List<Pair<ExecutablePlugin, WorkflowExecution>> result = dataEvolutionUtils
+        final List<Pair<ExecutablePlugin, WorkflowExecution>> result = versionEvolutionResolver
             .compileVersionEvolution(targetPlugin, targetPluginExecution);
         result.add(new ImmutablePair<>(targetPlugin, targetPluginExecution));
         return result;
     }
 
+    public VersionEvolutionResolver getVersionEvolutionResolver() {
+        return versionEvolutionResolver;
+    }
+
     private MongoInitializer prepareMetisCoreConfiguration()
             throws CustomTruststoreAppender.TrustStoreConfigurationException {
         if (StringUtils.isNotEmpty(propertiesHolder.truststorePath) && StringUtils
@@ -114,17 +196,14 @@ public class MongoMetisCoreDao {
     }
 
     private boolean isWithinInterval(WorkflowExecution workflowToCheck, Date startDate, Date endDate) {
-        Date dateToCheck;
-        if (workflowToCheck.getWorkflowStatus().equals(WorkflowStatus.FINISHED)) {
-            dateToCheck = workflowToCheck.getFinishedDate();
-        } else {
-            dateToCheck = workflowToCheck.getUpdatedDate();
-        }
+        final Date dateToCheck = getReportDate(workflowToCheck);
         return dateToCheck.getTime() >= startDate.getTime() && dateToCheck.getTime() <= endDate.getTime();
     }
 
     public void close() {
-        metisCoreMongoInitializer.close();
+        if (metisCoreMongoInitializer != null) {
+            metisCoreMongoInitializer.close();
+        }
     }
 
 }
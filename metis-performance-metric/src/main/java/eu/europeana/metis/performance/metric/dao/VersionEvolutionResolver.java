@@ -0,0 +1,129 @@
+package eu.europeana.metis.performance.metric.dao;
+
+import eu.europeana.metis.core.dao.DataEvolutionUtils;
+import eu.europeana.metis.core.dao.PluginWithExecutionId;
+import eu.europeana.metis.core.dao.WorkflowExecutionDao;
+import eu.europeana.metis.core.workflow.WorkflowExecution;
+import eu.europeana.metis.core.workflow.plugins.ExecutablePlugin;
+import eu.europeana.metis.core.workflow.plugins.MetisPlugin;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compiles the version evolution of plugins (like {@link DataEvolutionUtils#compileVersionEvolution(MetisPlugin,
+ * WorkflowExecution)}), remembering the evolution of every (execution id, plugin type) pair that is visited on the
+ * way. Successive publish actions of a dataset share most of their history, of which every predecessor and every
+ * execution is therefore fetched only once.
+ * This class is thread-safe: when two threads need the same pair, one of them fetches it and the other waits for the
+ * result.
+ */
+public class VersionEvolutionResolver {
+
+    private final DataEvolutionUtils dataEvolutionUtils;
+    private final WorkflowExecutionDao workflowExecutionDao;
+    private final Map<String, CompletableFuture<List<Pair<ExecutablePlugin, WorkflowExecution>>>> evolutions =
+            new ConcurrentHashMap<>();
+
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder lookupsPerformed = new LongAdder();
+    private final LongAdder lookupsSaved = new LongAdder();
+
+    public VersionEvolutionResolver(DataEvolutionUtils dataEvolutionUtils, WorkflowExecutionDao workflowExecutionDao) {
+        this.dataEvolutionUtils = dataEvolutionUtils;
+        this.workflowExecutionDao = workflowExecutionDao;
+    }
+
+    /**
+     * Compiles the version evolution of the given plugin: its predecessors, starting with the earliest.
+     *
+     * @param targetPlugin          The plugin
+     * @param targetPluginExecution The execution that contains the plugin
+     * @return The evolution (not including the plugin itself). The list can be modified by the caller.
+     */
+    public List<Pair<ExecutablePlugin, WorkflowExecution>> compileVersionEvolution(ExecutablePlugin targetPlugin,
+                                                                                 WorkflowExecution targetPluginExecution) {
+        final String datasetId = targetPluginExecution.getDatasetId();
+        lookupsPerformed.increment();
+        final PluginWithExecutionId<ExecutablePlugin> predecessor = dataEvolutionUtils
+                .getPreviousExecutionAndPlugin(targetPlugin, datasetId);
+        return predecessor == null ? new ArrayList<>() : new ArrayList<>(getEvolution(predecessor, datasetId));
+    }
+
+    /**
+     * Compiles the version evolution up to and including the given step. The step is identified by its execution id
+     * and plugin type before anything is fetched, so that a step that was visited before costs no lookups at all.
+     */
+    private List<Pair<ExecutablePlugin, WorkflowExecution>> getEvolution(
+            PluginWithExecutionId<ExecutablePlugin> step, String datasetId) {
+
+        //Check whether the step is compiled (or being compiled) already
+        final String key = step.getExecutionId() + "/" + step.getPlugin().getPluginType();
+        final CompletableFuture<List<Pair<ExecutablePlugin, WorkflowExecution>>> newFuture = new CompletableFuture<>();
+        final CompletableFuture<List<Pair<ExecutablePlugin, WorkflowExecution>>> existingFuture =
+                evolutions.putIfAbsent(key, newFuture);
+        if (existingFuture != null) {
+            cacheHits.increment();
+            try {
+                final List<Pair<ExecutablePlugin, WorkflowExecution>> result = existingFuture.join();
+                //Without memoization, every step would be one execution lookup and one predecessor lookup
+                lookupsSaved.add(2L * result.size());
+                return result;
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+
+        //Compile the step: fetch its execution, find its predecessor and (recursively) the evolution of that
+        cacheMisses.increment();
+        try {
+            lookupsPerformed.increment();
+            final WorkflowExecution execution = workflowExecutionDao.getById(step.getExecutionId());
+            lookupsPerformed.increment();
+            final PluginWithExecutionId<ExecutablePlugin> predecessor = dataEvolutionUtils
+                    .getPreviousExecutionAndPlugin(step.getPlugin(), datasetId);
+            final List<Pair<ExecutablePlugin, WorkflowExecution>> evolution = predecessor == null ? new ArrayList<>()
+                    : new ArrayList<>(getEvolution(predecessor, datasetId));
+            evolution.add(new ImmutablePair<>(step.getPlugin(), execution));
+            final List<Pair<ExecutablePlugin, WorkflowExecution>> result = Collections.unmodifiableList(evolution);
+            newFuture.complete(result);
+            return result;
+        } catch (RuntimeException e) {
+            evolutions.remove(key, newFuture);
+            newFuture.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    /**
+     * @return The number of database lookups (predecessors and executions) that were performed
+     */
+    public long getLookupsPerformed() {
+        return lookupsPerformed.sum();
+    }
+
+    /**
+     * @return The number of database lookups (predecessors and executions) that would have been performed without
+     * memoization, but were answered from the cache instead
+     */
+    public long getLookupsSaved() {
+        return lookupsSaved.sum();
+    }
+}
@@ -7,6 +7,7 @@ import eu.europeana.metis.core.workflow.plugins.AbstractMetisPlugin;
 import eu.europeana.metis.core.workflow.plugins.ExecutablePlugin;
 import eu.europeana.metis.core.workflow.plugins.PluginType;
 import eu.europeana.metis.performance.metric.dao.MongoMetisCoreDao;
+import eu.europeana.metis.performance.metric.dao.VersionEvolutionResolver;
 import eu.europeana.metis.performance.metric.utilities.CSVUtilities;
 import java.io.File;
 import java.text.SimpleDateFormat;
@@ -17,13 +18,20 @@ import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.Logger;
@@ -40,10 +48,12 @@ public class MetricNumberOfDatasetsPublished extends Metric {
     private final SimpleDateFormat simpleDateTimeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
 
     private final MongoMetisCoreDao mongoMetisCoreDao;
+    private final int evolutionThreadCount;
     private List<String> metricContent;
 
-    public MetricNumberOfDatasetsPublished(MongoMetisCoreDao mongoMetisCoreDao) {
+    public MetricNumberOfDatasetsPublished(MongoMetisCoreDao mongoMetisCoreDao, int evolutionThreadCount) {
         this.mongoMetisCoreDao = mongoMetisCoreDao;
+        this.evolutionThreadCount = evolutionThreadCount;
     }
 
     @Override
@@ -52,8 +62,8 @@ public class MetricNumberOfDatasetsPublished extends Metric {
         final Date endDate = Date.from(endLocalDateTime.atZone(ZoneId.systemDefault()).toInstant());
         final List<WorkflowExecutionDao.ExecutionDatasetPair> workflowExecutionsOverview =
                 mongoMetisCoreDao.getAllSuccessfulPublishWorkflows(startDate, endDate).getResults();
-        final List<List<Pair<ExecutablePlugin, WorkflowExecution>>> allEvolutions = workflowExecutionsOverview
-            .stream().map(this::getEvolutionForPublishAction).filter(Objects::nonNull).collect(Collectors.toList());
+        final List<List<Pair<ExecutablePlugin, WorkflowExecution>>> allEvolutions =
+            getEvolutionsForPublishActions(workflowExecutionsOverview);
         List<List<Pair<ExecutablePlugin, WorkflowExecution>>> cleanedWorkflowExecutionList = cleanUpWorkflowExecutionList(allEvolutions);
         cleanedWorkflowExecutionList.sort(Comparator.comparing(evolution -> evolution.get(0).getLeft().getStartedDate()));
         metricContent = cleanedWorkflowExecutionList.stream()
@@ -75,6 +85,45 @@ public class MetricNumberOfDatasetsPublished extends Metric {
         }
     }
 
+    private List<List<Pair<ExecutablePlugin, WorkflowExecution>>> getEvolutionsForPublishActions(
+            List<WorkflowExecutionDao.ExecutionDatasetPair> publishPairs) {
+
+        //Group the publish actions per dataset: the datasets don't share history, so they can be processed in parallel
+        final Map<String, List<Integer>> publishIndicesPerDataset = new LinkedHashMap<>();
+        for (int i = 0; i < publishPairs.size(); i++) {
+            publishIndicesPerDataset.computeIfAbsent(publishPairs.get(i).getDataset().getDatasetId(),
+                key -> new ArrayList<>()).add(i);
+        }
+
+        //Compute the evolutions, keeping them in the order of the publish actions
+        final AtomicReferenceArray<List<Pair<ExecutablePlugin, WorkflowExecution>>> evolutions =
+            new AtomicReferenceArray<>(publishPairs.size());
+        final ExecutorService executor = Executors.newFixedThreadPool(evolutionThreadCount);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            publishIndicesPerDataset.values().forEach(indices -> futures.add(executor.submit(() -> indices
+                .forEach(index -> evolutions.set(index, getEvolutionForPublishAction(publishPairs.get(index)))))));
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while processing evolutions for metric 2", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not process evolutions for metric 2", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final VersionEvolutionResolver resolver = mongoMetisCoreDao.getVersionEvolutionResolver();
+        LOGGER.info("Evolutions for metric 2: {} publish actions of {} datasets, {} cache hits, {} cache misses, "
+                + "{} lookups performed, {} lookups saved", publishPairs.size(), publishIndicesPerDataset.size(),
+            resolver.getCacheHits(), resolver.getCacheMisses(), resolver.getLookupsPerformed(),
+            resolver.getLookupsSaved());
+        return IntStream.range(0, evolutions.length()).mapToObj(evolutions::get).filter(Objects::nonNull)
+            .collect(Collectors.toList());
+    }
+
     private List<Pair<ExecutablePlugin, WorkflowExecution>> getEvolutionForPublishAction(
             WorkflowExecutionDao.ExecutionDatasetPair publishPair) {
         final String datasetId = publishPair.getDataset().getDatasetId();
@@ -1,12 +1,11 @@
 package eu.europeana.metis.performance.metric.model;
 
-import eu.europeana.metis.core.dao.WorkflowExecutionDao;
 import eu.europeana.metis.core.workflow.WorkflowExecution;
 import eu.europeana.metis.core.workflow.plugins.AbstractExecutablePlugin;
 import eu.europeana.metis.core.workflow.plugins.PluginType;
 import eu.europeana.metis.performance.metric.dao.MongoMetisCoreDao;
 import eu.europeana.metis.performance.metric.utilities.CSVUtilities;
-import org.apache.commons.collections.CollectionUtils;
+import org.bson.types.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -14,14 +13,14 @@ import java.io.File;
 import java.text.SimpleDateFormat;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * This class is responsible in calculating the number of records processed per task per day
@@ -30,6 +29,10 @@ import java.util.stream.Collectors;
 public class MetricNumberOfRecordPerOperations extends Metric {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(MetricNumberOfRecordPerOperations.class);
+    private static final List<PluginType> PLUGIN_TYPES = List.of(PluginType.OAIPMH_HARVEST, PluginType.HTTP_HARVEST,
+            PluginType.VALIDATION_EXTERNAL, PluginType.TRANSFORMATION, PluginType.VALIDATION_INTERNAL,
+            PluginType.NORMALIZATION, PluginType.ENRICHMENT, PluginType.MEDIA_PROCESS, PluginType.PREVIEW,
+            PluginType.PUBLISH);
     private final SimpleDateFormat simpleDateFormat = new SimpleDateFormat("yyyy-MM-dd");
 
     private final MongoMetisCoreDao mongoMetisCoreDao;
@@ -42,31 +45,39 @@ public class MetricNumberOfRecordPerOperations extends Metric {
     @Override
     public void processMetric(LocalDateTime startLocalDateTime, LocalDateTime endLocalDateTime) {
 
-        final StringBuilder stringBuilder = new StringBuilder();
+        //Prepare a bucket for every day before the end date, and one for the day starting at the end date (which is
+        //reported under the day after the last day)
+        final List<DayBucket> dayBuckets = new ArrayList<>();
         LocalDateTime currentDate = startLocalDateTime;
-        final Map<LocalDateTime, List<String>> dataByDate = new HashMap<>();
-
         while (currentDate.isBefore(endLocalDateTime)) {
-            List<String> values = prepareDataWithDate(currentDate);
-            if (CollectionUtils.isNotEmpty(values) && allElementsAreNotZero(values)) {
-                dataByDate.put(currentDate, values);
-            }
+            dayBuckets.add(new DayBucket(currentDate, currentDate));
             currentDate = currentDate.plusDays(1L);
         }
+        final DayBucket endDateBucket = new DayBucket(endLocalDateTime, currentDate);
+
+        //Pass once over all workflows that any of the buckets would query, and add each to the buckets it belongs to
+        final Date queryStartDate = Stream.concat(dayBuckets.stream(), Stream.of(endDateBucket))
+                .map(bucket -> bucket.queryStartDate).min(Date::compareTo).orElseThrow();
+        LOGGER.info("Processing data for metric 1 from {} to {}", simpleDateFormat.format(queryStartDate),
+                simpleDateFormat.format(endDateBucket.endDate));
+        final Set<ObjectId> processedWorkflowIds = new HashSet<>();
+        mongoMetisCoreDao.forEachWorkflowCreatedWithinDateInterval(queryStartDate, endDateBucket.endDate, workflow -> {
+            if (processedWorkflowIds.add(workflow.getId())) {
+                addToBuckets(workflow, dayBuckets, endDateBucket);
+            }
+        });
+        LOGGER.info("Finished data for metric 1: processed {} workflows", processedWorkflowIds.size());
 
-        List<String> valuesForEndDate = prepareDataWithDate(endLocalDateTime);
-        if (CollectionUtils.isNotEmpty(valuesForEndDate) && allElementsAreNotZero(valuesForEndDate)) {
-            dataByDate.put(currentDate, valuesForEndDate);
-        }
-
-        metricContent = dataByDate.entrySet().stream()
-                .sorted(Map.Entry.comparingByKey())
-                .map(entry -> {
-                    Date date = Date.from(entry.getKey().atZone(ZoneId.systemDefault()).toInstant());
+        final StringBuilder stringBuilder = new StringBuilder();
+        metricContent = Stream.concat(dayBuckets.stream(), Stream.of(endDateBucket))
+                .filter(DayBucket::hasRecords)
+                .map(bucket -> {
+                    Date date = Date.from(bucket.label.atZone(ZoneId.systemDefault()).toInstant());
                     stringBuilder.setLength(0);
                     stringBuilder.append(simpleDateFormat.format(date));
                     stringBuilder.append(", ");
-                    stringBuilder.append(String.join(", ", entry.getValue()));
+                    stringBuilder.append(Arrays.stream(bucket.recordCounts).mapToObj(String::valueOf)
+                            .collect(Collectors.joining(", ")));
                     return stringBuilder.toString();
                 })
                 .collect(Collectors.toList());
@@ -87,46 +98,27 @@ public class MetricNumberOfRecordPerOperations extends Metric {
 
     }
 
-    private List<String> prepareDataWithDate(LocalDateTime dateToGatherData) {
-        final Date startDate = Date.from(dateToGatherData.atZone(ZoneId.systemDefault()).toInstant());
-        final Date endDate = Date.from(dateToGatherData.plusDays(1L).minusSeconds(1L).atZone(ZoneId.systemDefault()).toInstant());
-        final String formattedStartDate = simpleDateFormat.format(startDate);
-        LOGGER.info("Processing data for metric 1  date: {}", formattedStartDate);
-        final Set<WorkflowExecution> result = mongoMetisCoreDao.getAllWorkflowsWithinDateInterval(startDate, endDate).getResults()
-                .stream()
-                .map(WorkflowExecutionDao.ExecutionDatasetPair::getExecution)
-                .collect(Collectors.toSet());
-        if (CollectionUtils.isNotEmpty(result)) {
-            final String oaiPmh = String.valueOf(calculateNumberOfRecordsForPluginType(PluginType.OAIPMH_HARVEST, result, startDate, endDate));
-            final String httpHarvest = String.valueOf(calculateNumberOfRecordsForPluginType(PluginType.HTTP_HARVEST, result, startDate, endDate));
-            final String validateEdmExternal = String.valueOf(calculateNumberOfRecordsForPluginType(PluginType.VALIDATION_EXTERNAL, result, startDate, endDate));
-            final String transform = String.valueOf(calculateNumberOfRecordsForPluginType(PluginType.TRANSFORMATION, result, startDate, endDate));
-            final String validateEdmInternal = String.valueOf(calculateNumberOfRecordsForPluginType(PluginType.VALIDATION_INTERNAL, result, startDate, endDate));
-            final String normalise = String.valueOf(calculateNumberOfRecordsForPluginType(PluginType.NORMALIZATION, result, startDate, endDate));
-            final String enrich = String.valueOf(calculateNumberOfRecordsForPluginType(PluginType.ENRICHMENT, result, startDate, endDate));
-            final String processMedia = String.valueOf(calculateNumberOfRecordsForPluginType(PluginType.MEDIA_PROCESS, result, startDate, endDate));
-            final String indexToPreview = String.valueOf(calculateNumberOfRecordsForPluginType(PluginType.PREVIEW, result, startDate, endDate));
-            final String indexToPublish = String.valueOf(calculateNumberOfRecordsForPluginType(PluginType.PUBLISH, result, startDate, endDate));
-            LOGGER.info("Finished data for metric 1  date: {}", formattedStartDate);
-            return List.of(oaiPmh, httpHarvest, validateEdmExternal, transform, validateEdmInternal, normalise, enrich, processMedia, indexToPreview, indexToPublish);
-        } else {
-            LOGGER.info("Finished data for metric 1  date: {}", formattedStartDate);
-            return Collections.emptyList();
+    private void addToBuckets(WorkflowExecution workflow, List<DayBucket> dayBuckets, DayBucket endDateBucket) {
+        final long reportTime = MongoMetisCoreDao.getReportDate(workflow).getTime();
+
+        //The day buckets are sorted and don't overlap, so only the last one starting before the report time can match
+        int low = 0;
+        int high = dayBuckets.size() - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            if (dayBuckets.get(middle).startDate.getTime() <= reportTime) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
         }
+        if (high >= 0) {
+            dayBuckets.get(high).add(workflow, reportTime);
+        }
+        endDateBucket.add(workflow, reportTime);
     }
 
-    private int calculateNumberOfRecordsForPluginType(PluginType pluginType, Set<WorkflowExecution> listToGetDataFrom,
-                                                      Date startDate, Date endDate) {
-        return listToGetDataFrom.stream()
-                .map(workflowExecution -> workflowExecution.getMetisPluginWithType(pluginType))
-                .filter(Optional::isPresent)
-                .map(Optional::get)
-                .map(plugin -> getNumberOfRecordInDate((AbstractExecutablePlugin<?>) plugin, startDate, endDate))
-                .mapToInt(Integer::intValue)
-                .sum();
-    }
-
-    private int getNumberOfRecordInDate(AbstractExecutablePlugin<?> plugin, Date startDate, Date endDate) {
+    int getNumberOfRecordInDate(AbstractExecutablePlugin<?> plugin, Date startDate, Date endDate) {
         //if task has not registered any starting time, don't count records
         if(plugin.getStartedDate() == null){
             return 0;
@@ -196,7 +188,39 @@ public class MetricNumberOfRecordPerOperations extends Metric {
         return (int) Math.ceil((double) (totalRecords * actualTime) / totalTime);
     }
 
-    private boolean allElementsAreNotZero(List<String> list) {
-        return !list.stream().allMatch(value -> Integer.parseInt(value) == 0);
+    /**
+     * The records per plugin type for one day. A workflow belongs to the day if it would be returned by
+     * {@link MongoMetisCoreDao#getAllWorkflowsWithinDateInterval(Date, Date)} for the day.
+     */
+    private class DayBucket {
+
+        private final LocalDateTime label;
+        private final Date startDate;
+        private final Date endDate;
+        private final Date queryStartDate;
+        private final int[] recordCounts = new int[PLUGIN_TYPES.size()];
+
+        DayBucket(LocalDateTime dateToGatherData, LocalDateTime label) {
+            this.label = label;
+            this.startDate = Date.from(dateToGatherData.atZone(ZoneId.systemDefault()).toInstant());
+            this.endDate = Date.from(dateToGatherData.plusDays(1L).minusSeconds(1L).atZone(ZoneId.systemDefault()).toInstant());
+            this.queryStartDate = mongoMetisCoreDao.getQueryStartDate(startDate);
+        }
+
+        void add(WorkflowExecution workflow, long reportTime) {
+            if (reportTime < startDate.getTime() || reportTime > endDate.getTime()
+                    || !MongoMetisCoreDao.isCreatedWithinDateInterval(workflow, queryStartDate, endDate)) {
+                return;
+            }
+            for (int i = 0; i < PLUGIN_TYPES.size(); i++) {
+                recordCounts[i] += workflow.getMetisPluginWithType(PLUGIN_TYPES.get(i))
+                        .map(plugin -> getNumberOfRecordInDate((AbstractExecutablePlugin<?>) plugin, startDate, endDate))
+                        .orElse(0);
+            }
+        }
+
+        boolean hasRecords() {
+            return Arrays.stream(recordCounts).anyMatch(count -> count != 0);
+        }
     }
 }
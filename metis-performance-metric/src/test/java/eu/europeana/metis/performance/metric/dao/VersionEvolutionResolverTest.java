@@ -0,0 +1,118 @@
+package eu.europeana.metis.performance.metric.dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+
+import eu.europeana.metis.core.dao.DataEvolutionUtils;
+import eu.europeana.metis.core.dao.PluginWithExecutionId;
+import eu.europeana.metis.core.dao.WorkflowExecutionDao;
+import eu.europeana.metis.core.dataset.Dataset;
+import eu.europeana.metis.core.workflow.WorkflowExecution;
+import eu.europeana.metis.core.workflow.plugins.AbstractMetisPlugin;
+import eu.europeana.metis.core.workflow.plugins.ExecutablePlugin;
+import eu.europeana.metis.core.workflow.plugins.IndexToPublishPlugin;
+import eu.europeana.metis.core.workflow.plugins.IndexToPublishPluginMetadata;
+import eu.europeana.metis.core.workflow.plugins.OaipmhHarvestPlugin;
+import eu.europeana.metis.core.workflow.plugins.OaipmhHarvestPluginMetadata;
+import eu.europeana.metis.core.workflow.plugins.TransformationPlugin;
+import eu.europeana.metis.core.workflow.plugins.TransformationPluginMetadata;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares the memoized evolutions of {@link VersionEvolutionResolver} with those of
+ * {@link DataEvolutionUtils#compileVersionEvolution}, for two publish actions that share their history.
+ */
+class VersionEvolutionResolverTest {
+
+    private static final String DATASET_ID = "1";
+
+    private final Map<String, WorkflowExecution> executions = new HashMap<>();
+    private final Map<String, PluginWithExecutionId<ExecutablePlugin>> predecessors = new HashMap<>();
+    private final Map<String, Integer> fetches = new HashMap<>();
+
+    @Test
+    void publishesThatShareAChainFetchEveryStepOnce() {
+        final ExecutablePlugin harvest = new OaipmhHarvestPlugin(new OaipmhHarvestPluginMetadata());
+        final WorkflowExecution harvestExecution = createExecution(harvest, null, null);
+        final ExecutablePlugin transformation = new TransformationPlugin(new TransformationPluginMetadata());
+        final WorkflowExecution transformationExecution = createExecution(transformation, harvest, harvestExecution);
+        final ExecutablePlugin publish1 = new IndexToPublishPlugin(new IndexToPublishPluginMetadata());
+        final WorkflowExecution publishExecution1 = createExecution(publish1, transformation, transformationExecution);
+        final ExecutablePlugin publish2 = new IndexToPublishPlugin(new IndexToPublishPluginMetadata());
+        final WorkflowExecution publishExecution2 = createExecution(publish2, transformation, transformationExecution);
+
+        final VersionEvolutionResolver resolver = new VersionEvolutionResolver(createDataEvolutionUtils(),
+                createWorkflowExecutionDao());
+        final List<?> evolution1 = resolver.compileVersionEvolution(publish1, publishExecution1);
+        final List<?> evolution2 = resolver.compileVersionEvolution(publish2, publishExecution2);
+
+        //Every predecessor and every execution is fetched once
+        assertEquals(Map.of("predecessor " + publish1.getId(), 1, "predecessor " + publish2.getId(), 1,
+                "predecessor " + transformation.getId(), 1, "predecessor " + harvest.getId(), 1,
+                "execution " + transformationExecution.getId(), 1, "execution " + harvestExecution.getId(), 1),
+                fetches);
+
+        //The second publish finds the transformation in the cache, saving its two lookups and the harvest's two
+        assertEquals(1, resolver.getCacheHits());
+        assertEquals(2, resolver.getCacheMisses());
+        assertEquals(6, resolver.getLookupsPerformed());
+        assertEquals(4, resolver.getLookupsSaved());
+
+        //The evolutions are the same as without memoization
+        final List<?> expected = List.of(new ImmutablePair<>(harvest, harvestExecution),
+                new ImmutablePair<>(transformation, transformationExecution));
+        final DataEvolutionUtils dataEvolutionUtils = createDataEvolutionUtils();
+        assertEquals(expected, dataEvolutionUtils.compileVersionEvolution(publish1, publishExecution1));
+        assertEquals(expected, dataEvolutionUtils.compileVersionEvolution(publish2, publishExecution2));
+        assertEquals(expected, evolution1);
+        assertEquals(expected, evolution2);
+    }
+
+    /**
+     * Creates a data evolution utils instance of which the predecessor lookups are answered from the fixture. The
+     * evolution is compiled by the real implementation.
+     */
+    private DataEvolutionUtils createDataEvolutionUtils() {
+        final DataEvolutionUtils dataEvolutionUtils = spy(new DataEvolutionUtils(createWorkflowExecutionDao()));
+        doAnswer(invocation -> {
+            final ExecutablePlugin plugin = invocation.getArgument(0);
+            fetches.merge("predecessor " + plugin.getId(), 1, Integer::sum);
+            return predecessors.get(plugin.getId());
+        }).when(dataEvolutionUtils).getPreviousExecutionAndPlugin(any(), any());
+        return dataEvolutionUtils;
+    }
+
+    private WorkflowExecutionDao createWorkflowExecutionDao() {
+        final WorkflowExecutionDao workflowExecutionDao = mock(WorkflowExecutionDao.class);
+        when(workflowExecutionDao.getById(any())).thenAnswer(invocation -> {
+            final String executionId = invocation.getArgument(0);
+            fetches.merge("execution " + executionId, 1, Integer::sum);
+            return executions.get(executionId);
+        });
+        return workflowExecutionDao;
+    }
+
+    private WorkflowExecution createExecution(ExecutablePlugin plugin, ExecutablePlugin predecessor,
+                                              WorkflowExecution predecessorExecution) {
+        final Dataset dataset = new Dataset();
+        dataset.setDatasetId(DATASET_ID);
+        final WorkflowExecution execution = new WorkflowExecution(dataset, List.of((AbstractMetisPlugin) plugin), 0);
+        execution.setId(new ObjectId());
+        executions.put(execution.getId().toString(), execution);
+        if (predecessor != null) {
+            predecessors.put(plugin.getId(),
+                    new PluginWithExecutionId<>(predecessorExecution.getId().toString(), predecessor));
+        }
+        return execution;
+    }
+}
@@ -0,0 +1,190 @@
+package eu.europeana.metis.performance.metric.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import eu.europeana.metis.core.dao.WorkflowExecutionDao;
+import eu.europeana.metis.core.dataset.Dataset;
+import eu.europeana.metis.core.workflow.WorkflowExecution;
+import eu.europeana.metis.core.workflow.WorkflowStatus;
+import eu.europeana.metis.core.workflow.plugins.AbstractExecutablePlugin;
+import eu.europeana.metis.core.workflow.plugins.AbstractMetisPlugin;
+import eu.europeana.metis.core.workflow.plugins.ExecutionProgress;
+import eu.europeana.metis.core.workflow.plugins.IndexToPublishPlugin;
+import eu.europeana.metis.core.workflow.plugins.IndexToPublishPluginMetadata;
+import eu.europeana.metis.core.workflow.plugins.MediaProcessPlugin;
+import eu.europeana.metis.core.workflow.plugins.MediaProcessPluginMetadata;
+import eu.europeana.metis.core.workflow.plugins.OaipmhHarvestPlugin;
+import eu.europeana.metis.core.workflow.plugins.OaipmhHarvestPluginMetadata;
+import eu.europeana.metis.core.workflow.plugins.PluginType;
+import eu.europeana.metis.core.workflow.plugins.TransformationPlugin;
+import eu.europeana.metis.core.workflow.plugins.TransformationPluginMetadata;
+import eu.europeana.metis.performance.metric.dao.MongoMetisCoreDao;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Compares the single pass of {@link MetricNumberOfRecordPerOperations} with the previous approach of one workflow
+ * query per day, on a fixture with workflows around the boundaries of the days and of the query intervals.
+ */
+class MetricNumberOfRecordPerOperationsTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2022, 3, 10, 0, 0);
+    private static final LocalDateTime END = LocalDateTime.of(2022, 3, 13, 0, 0);
+    private static final int PAGE_SIZE = 2;
+
+    private static final List<PluginType> PLUGIN_TYPES = List.of(PluginType.OAIPMH_HARVEST, PluginType.HTTP_HARVEST,
+            PluginType.VALIDATION_EXTERNAL, PluginType.TRANSFORMATION, PluginType.VALIDATION_INTERNAL,
+            PluginType.NORMALIZATION, PluginType.ENRICHMENT, PluginType.MEDIA_PROCESS, PluginType.PREVIEW,
+            PluginType.PUBLISH);
+
+    @TempDir
+    Path outputFolder;
+
+    @Test
+    void processMetricCountsAsTheQueryPerDay() throws IOException {
+        final List<WorkflowExecution> workflows = List.of(
+                //Within one day
+                createWorkflow(WorkflowStatus.FINISHED, date(3, 10, 8, 0), date(3, 10, 12, 0),
+                        createPlugin(new OaipmhHarvestPlugin(new OaipmhHarvestPluginMetadata()),
+                                date(3, 10, 9, 0), date(3, 10, 11, 0), 100),
+                        createPlugin(new TransformationPlugin(new TransformationPluginMetadata()),
+                                date(3, 10, 11, 0), date(3, 10, 12, 0), 100)),
+                //Across midnight, created ten days before
+                createWorkflow(WorkflowStatus.FINISHED, date(2, 28, 10, 0), date(3, 11, 0, 30),
+                        createPlugin(new IndexToPublishPlugin(new IndexToPublishPluginMetadata()),
+                                date(3, 10, 23, 0), date(3, 11, 0, 30), 90)),
+                //Created more than two weeks before the day it is reported on, but within two weeks of the start
+                createWorkflow(WorkflowStatus.FINISHED, date(2, 24, 12, 0), date(3, 11, 10, 0),
+                        createPlugin(new OaipmhHarvestPlugin(new OaipmhHarvestPluginMetadata()),
+                                date(3, 11, 9, 0), date(3, 11, 10, 0), 50)),
+                //Not finished: reported on its updated date
+                createWorkflow(WorkflowStatus.RUNNING, date(3, 12, 10, 0), date(3, 12, 18, 0),
+                        createPlugin(new MediaProcessPlugin(new MediaProcessPluginMetadata()),
+                                date(3, 12, 11, 0), null, 70)),
+                //Reported after the end of the day (23:59:59) but before the next day
+                createWorkflow(WorkflowStatus.FINISHED, date(3, 10, 8, 0),
+                        new Date(date(3, 11, 0, 0).getTime() - 500L),
+                        createPlugin(new OaipmhHarvestPlugin(new OaipmhHarvestPluginMetadata()),
+                                date(3, 10, 20, 0), date(3, 10, 23, 0), 30)),
+                //Reported within a day, but created after it
+                createWorkflow(WorkflowStatus.RUNNING, date(3, 12, 1, 0), date(3, 11, 20, 0),
+                        createPlugin(new TransformationPlugin(new TransformationPluginMetadata()),
+                                date(3, 11, 19, 0), date(3, 11, 20, 0), 40)),
+                //On the end date
+                createWorkflow(WorkflowStatus.FINISHED, date(3, 13, 8, 0), date(3, 13, 9, 0),
+                        createPlugin(new IndexToPublishPlugin(new IndexToPublishPluginMetadata()),
+                                date(3, 13, 8, 30), date(3, 13, 9, 0), 20)));
+        final MongoMetisCoreDao mongoMetisCoreDao = new MongoMetisCoreDao(createWorkflowExecutionDao(workflows));
+
+        final MetricNumberOfRecordPerOperations metric = new MetricNumberOfRecordPerOperations(mongoMetisCoreDao);
+        metric.processMetric(START, END);
+        final Path csvFile = outputFolder.resolve("metric.csv");
+        metric.toCsv(csvFile.toString());
+        final List<String> lines = Files.readAllLines(csvFile);
+
+        final List<String> expected = countPerDayWithQueryPerDay(metric, mongoMetisCoreDao);
+        assertEquals(4, expected.size());
+        assertEquals(expected, lines.subList(1, lines.size()));
+    }
+
+    /**
+     * The counts as computed before the single pass: one query per day, and the records per plugin type counted
+     * over the result of that query.
+     */
+    private static List<String> countPerDayWithQueryPerDay(MetricNumberOfRecordPerOperations metric,
+                                                           MongoMetisCoreDao mongoMetisCoreDao) {
+        final SimpleDateFormat simpleDateFormat = new SimpleDateFormat("yyyy-MM-dd");
+        final List<String> result = new ArrayList<>();
+        LocalDateTime currentDate = START;
+        while (!currentDate.isAfter(END)) {
+            final LocalDateTime dateToGatherData = currentDate.isBefore(END) ? currentDate : END;
+            final Date startDate = Date.from(dateToGatherData.atZone(ZoneId.systemDefault()).toInstant());
+            final Date endDate = Date.from(dateToGatherData.plusDays(1L).minusSeconds(1L)
+                    .atZone(ZoneId.systemDefault()).toInstant());
+            final Set<WorkflowExecution> workflows = mongoMetisCoreDao
+                    .getAllWorkflowsWithinDateInterval(startDate, endDate).getResults().stream()
+                    .map(WorkflowExecutionDao.ExecutionDatasetPair::getExecution).collect(Collectors.toSet());
+            final List<Integer> counts = PLUGIN_TYPES.stream().map(pluginType -> workflows.stream()
+                    .map(workflow -> workflow.getMetisPluginWithType(pluginType)
+                            .map(plugin -> metric.getNumberOfRecordInDate((AbstractExecutablePlugin<?>) plugin,
+                                    startDate, endDate))
+                            .orElse(0))
+                    .mapToInt(Integer::intValue).sum()).collect(Collectors.toList());
+            if (counts.stream().anyMatch(count -> count != 0)) {
+                result.add(simpleDateFormat.format(Date.from(currentDate.atZone(ZoneId.systemDefault()).toInstant()))
+                        + ", " + counts.stream().map(String::valueOf).collect(Collectors.joining(", ")));
+            }
+            currentDate = currentDate.plusDays(1L);
+        }
+        return result;
+    }
+
+    /**
+     * Creates a workflow execution dao of which the overview query returns the given workflows in small pages,
+     * filtered on the created date like the query in metis-core: from date inclusive, to date exclusive.
+     */
+    private static WorkflowExecutionDao createWorkflowExecutionDao(List<WorkflowExecution> workflows) {
+        final WorkflowExecutionDao workflowExecutionDao = mock(WorkflowExecutionDao.class);
+        when(workflowExecutionDao.getWorkflowExecutionsOverview(any(), any(), any(), any(), any(), anyInt(),
+                anyInt())).thenAnswer(invocation -> {
+            final Date fromDate = invocation.getArgument(3);
+            final Date toDate = invocation.getArgument(4);
+            final int page = invocation.getArgument(5);
+            final List<WorkflowExecutionDao.ExecutionDatasetPair> result = workflows.stream()
+                    .filter(workflow -> !workflow.getCreatedDate().before(fromDate)
+                            && workflow.getCreatedDate().before(toDate))
+                    .sorted(Comparator.comparing(WorkflowExecution::getCreatedDate))
+                    .skip((long) page * PAGE_SIZE).limit(PAGE_SIZE)
+                    .map(workflow -> new WorkflowExecutionDao.ExecutionDatasetPair(new Dataset(), workflow))
+                    .collect(Collectors.toList());
+            return new WorkflowExecutionDao.ResultList<>(result, false);
+        });
+        return workflowExecutionDao;
+    }
+
+    private static WorkflowExecution createWorkflow(WorkflowStatus status, Date createdDate, Date reportDate,
+                                                    AbstractMetisPlugin... plugins) {
+        final WorkflowExecution workflow = new WorkflowExecution(new Dataset(), List.of(plugins), 0);
+        workflow.setId(new ObjectId());
+        workflow.setWorkflowStatus(status);
+        workflow.setCreatedDate(createdDate);
+        workflow.setUpdatedDate(reportDate);
+        if (status == WorkflowStatus.FINISHED) {
+            workflow.setFinishedDate(reportDate);
+        }
+        return workflow;
+    }
+
+    private static AbstractMetisPlugin createPlugin(AbstractExecutablePlugin<?> plugin, Date startedDate,
+                                                    Date finishedDate, int processedRecords) {
+        plugin.setStartedDate(startedDate);
+        plugin.setUpdatedDate(finishedDate == null ? startedDate : finishedDate);
+        plugin.setFinishedDate(finishedDate);
+        final ExecutionProgress executionProgress = new ExecutionProgress();
+        executionProgress.setProcessedRecords(processedRecords);
+        plugin.setExecutionProgress(executionProgress);
+        return plugin;
+    }
+
+    private static Date date(int month, int day, int hour, int minute) {
+        return Date.from(LocalDateTime.of(2022, month, day, hour, minute).atZone(ZoneId.systemDefault()).toInstant());
+    }
+}
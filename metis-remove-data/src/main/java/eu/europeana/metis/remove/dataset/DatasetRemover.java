@@ -11,8 +11,12 @@ import eu.europeana.metis.core.dao.WorkflowDao;
 import eu.europeana.metis.core.dao.WorkflowExecutionDao;
 import eu.europeana.metis.core.dataset.Dataset;
 import eu.europeana.metis.core.mongo.MorphiaDatastoreProvider;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.function.Consumer;
+import java.util.List;
+import org.apache.solr.client.solrj.SolrServerException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -23,6 +27,10 @@ public class DatasetRemover {
   private final DataSetServiceClient datasetServiceClient;
   private final RecordServiceClient recordServiceClient;
   private final String providerId;
+  private final int maxInFlightDeletes;
+  private final int maxDeleteRetries;
+  private final Path checkpointFolder;
+  private final List<RecordPurger> recordPurgers;
 
   private final DatasetDao datasetDao;
   private final WorkflowDao workflowDao;
@@ -32,11 +40,16 @@ public class DatasetRemover {
 
   public DatasetRemover(MorphiaDatastoreProvider morphiaDatastoreProvider,
       DataSetServiceClient datasetServiceClient, RecordServiceClient recordServiceClient,
-      String providerId) {
+      String providerId, int maxInFlightDeletes, int maxDeleteRetries, Path checkpointFolder,
+      List<RecordPurger> recordPurgers) {
 
     this.datasetServiceClient = datasetServiceClient;
     this.recordServiceClient = recordServiceClient;
     this.providerId = providerId;
+    this.maxInFlightDeletes = maxInFlightDeletes;
+    this.maxDeleteRetries = maxDeleteRetries;
+    this.checkpointFolder = checkpointFolder;
+    this.recordPurgers = new ArrayList<>(recordPurgers);
 
     this.datasetDao = new DatasetDao(morphiaDatastoreProvider, null);
     this.datasetXsltDao = new DatasetXsltDao(morphiaDatastoreProvider);
@@ -45,7 +58,8 @@ public class DatasetRemover {
     this.scheduledWorkflowDao = new ScheduledWorkflowDao(morphiaDatastoreProvider);
   }
 
-  public void removeDataset(String metisDatasetId) throws MCSException {
+  public void removeDataset(String metisDatasetId)
+      throws MCSException, IOException, InterruptedException, SolrServerException {
 
     // Get the dataset: if it doesn't exist, we are done.
     final Dataset dataset = datasetDao.getDatasetByDatasetId(metisDatasetId);
@@ -62,24 +76,33 @@ public class DatasetRemover {
     LOGGER.info("  * Starting removal of dataset {} ({}) with eCloud ID {}.", metisDatasetId,
         dataset.getDatasetName(), ecloudDatasetId);
 
+    // Delete all records from preview and publish Mongo and Solr. This happens before anything is
+    // removed from Metis: if it fails, the dataset still exists and a rerun will purge again.
+    purgeRecords(metisDatasetId);
+
     // TODO JV: Check whether the ecloud ID exists (has been created): otherwise, skip next steps.
     LOGGER.error("TODO: Check whether the ecloud ID exists (has been created): otherwise, skip next steps.");
 
     // TODO JV: Replace this by calling the two services that will be implemented in eCloud: one for removing tasks, one for removing representations.
     // Remove all representations of this dataset in eCloud
-    LOGGER.info("  * Removing all representations in eCloud.");
+    final Path checkpointFile = checkpointFolder
+        .resolve("deleted_representations_" + ecloudDatasetId + ".txt");
+    LOGGER.info("  * Removing all representations in eCloud (checkpoint file: {}).",
+        checkpointFile);
     final Iterator<Representation> representations = datasetServiceClient
         .getRepresentationIterator(providerId, ecloudDatasetId);
-    final RecordDeleter recordDeleter = new RecordDeleter();
-    final Thread logThread = new Thread(() -> regularCountLog(recordDeleter));
+    final RepresentationDeleter representationDeleter = new RepresentationDeleter(
+        recordServiceClient, maxInFlightDeletes, maxDeleteRetries);
+    final Thread logThread = new Thread(() -> regularCountLog(representationDeleter));
     logThread.start();
     try {
-      representations.forEachRemaining(recordDeleter);
+      representationDeleter.deleteAll(representations, checkpointFile);
     } finally {
       logThread.interrupt();
     }
-    LOGGER.info("  * Finished removing representations: {} representations removed from eCloud.",
-        recordDeleter.count);
+    LOGGER.info("  * Finished removing representations: {} representations removed from eCloud, "
+            + "{} skipped as they were removed in a previous run.",
+        representationDeleter.getDeletedCount(), representationDeleter.getSkippedCount());
 
     // Remove dataset in eCloud
     LOGGER.info("  * Removing dataset in eCloud.");
@@ -92,12 +115,23 @@ public class DatasetRemover {
     workflowDao.deleteWorkflow(metisDatasetId);
     datasetXsltDao.deleteAllByDatasetId(metisDatasetId);
     datasetDao.delete(dataset);
+  }
 
-    // TODO JV: Delete all records from preview and publish Mongo and Solr - call depublish script.
-    LOGGER.error("TODO: Delete all records from preview and publish Mongo and Solr.");
+  /**
+   * Purges (or counts, for purgers in dry run mode) the records of the dataset from the preview
+   * and publish Mongo and Solr.
+   *
+   * @param metisDatasetId The dataset ID.
+   * @throws IOException In case there was a problem with Solr.
+   * @throws SolrServerException In case there was a problem with Solr.
+   */
+  public void purgeRecords(String metisDatasetId) throws IOException, SolrServerException {
+    for (RecordPurger recordPurger : recordPurgers) {
+      recordPurger.purge(metisDatasetId);
+    }
   }
 
-  private static void regularCountLog(RecordDeleter recordDeleter) {
+  private static void regularCountLog(RepresentationDeleter representationDeleter) {
     while (true) {
       try {
         Thread.sleep(5000);
@@ -107,24 +141,8 @@ public class DatasetRemover {
       if (Thread.interrupted()) {
         return;
       } else {
-        LOGGER.info("        {} representations deleted.", recordDeleter.count);
-      }
-    }
-  }
-
-  private class RecordDeleter implements Consumer<Representation> {
-
-    int count = 0;
-
-    @Override
-    public void accept(Representation representation) {
-      try {
-        recordServiceClient.deleteRepresentation(representation.getCloudId(),
-            representation.getRepresentationName(), representation.getVersion());
-      } catch (MCSException e) {
-        throw new RuntimeException(e);
+        LOGGER.info("        {} representations deleted.", representationDeleter.getDeletedCount());
       }
-      count++;
     }
   }
 }
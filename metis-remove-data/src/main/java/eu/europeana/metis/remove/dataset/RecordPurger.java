@@ -0,0 +1,290 @@
+package eu.europeana.metis.remove.dataset;
+
+import com.mongodb.DBRef;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import eu.europeana.indexing.IndexingSettings;
+import eu.europeana.indexing.exception.SetupRelatedIndexingException;
+import eu.europeana.metis.mongo.connection.MongoClientProvider;
+import eu.europeana.metis.network.ExternalRequestUtil;
+import eu.europeana.metis.solr.client.CompoundSolrClient;
+import eu.europeana.metis.solr.connection.SolrClientProvider;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.util.ClientUtils;
+import org.apache.solr.common.SolrDocumentList;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Purges all records of a dataset from one indexing target (i.e. the Mongo and Solr of the preview
+ * or publish environment).
+ * <p>In Mongo, the documents of which the about starts with the dataset prefix are removed in
+ * batches: each batch is a range of {@value #BATCH_SIZE} IDs (in order), that is removed with one
+ * delete. The web resources are found through the aggregations, and removed with them. In Solr,
+ * the documents are removed with one delete by query, followed by one commit. Solr is purged
+ * before Mongo: if the purge fails, no records remain that can be found in Solr but not in
+ * Mongo.</p>
+ * <p>In dry run mode, the documents that would be removed are only counted.</p>
+ */
+public class RecordPurger implements Closeable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(RecordPurger.class);
+
+  private static final int BATCH_SIZE = 1000;
+  private static final String ID_FIELD = "_id";
+  private static final String ABOUT_FIELD = "about";
+  private static final String WEB_RESOURCES_FIELD = "webResources";
+  private static final String AGGREGATION_COLLECTION = "Aggregation";
+  private static final String RECORD_COLLECTION = "record";
+  private static final String WEB_RESOURCE_COLLECTION = "WebResource";
+  private static final String SOLR_DATASET_FIELD = "edm_datasetName";
+  private static final Pattern REGEX_SPECIAL_CHARACTERS = Pattern
+      .compile("[\\\\^$.|?*+()\\[\\]{}]");
+
+  /**
+   * The collections with dataset specific abouts, and the prefix of these abouts (to be followed by
+   * the dataset ID and a slash). The collections are purged in this order.
+   */
+  private static final List<CollectionPrefix> COLLECTION_PREFIXES = List.of(
+      new CollectionPrefix(AGGREGATION_COLLECTION, "/aggregation/provider/"),
+      new CollectionPrefix("EuropeanaAggregation", "/aggregation/europeana/"),
+      new CollectionPrefix("Proxy", "/proxy/provider/"),
+      new CollectionPrefix("Proxy", "/proxy/europeana/"),
+      new CollectionPrefix("ProvidedCHO", "/item/"),
+      new CollectionPrefix(RECORD_COLLECTION, "/"));
+
+  private final String name;
+  private final MongoClient mongoClient;
+  private final MongoDatabase mongoDatabase;
+  private final SolrClient solrClient;
+  private final Closeable solrConnection;
+  private final boolean dryRun;
+
+  /**
+   * Constructor.
+   *
+   * @param name The name of the indexing target (for logging).
+   * @param indexingSettings The settings of the indexing target.
+   * @param dryRun Whether to only count the documents (rather than remove them).
+   * @throws SetupRelatedIndexingException In case the connections could not be set up.
+   */
+  public RecordPurger(String name, IndexingSettings indexingSettings, boolean dryRun)
+      throws SetupRelatedIndexingException {
+    this(name, indexingSettings, new SolrClientProvider<>(indexingSettings.getSolrProperties())
+        .createSolrClient(), dryRun);
+  }
+
+  private RecordPurger(String name, IndexingSettings indexingSettings,
+      CompoundSolrClient solrClient, boolean dryRun) throws SetupRelatedIndexingException {
+    this(name, new MongoClientProvider<>(indexingSettings.getMongoProperties())
+            .createMongoClient(), indexingSettings.getMongoDatabaseName(),
+        solrClient.getSolrClient(), solrClient, dryRun);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param name The name of the indexing target (for logging).
+   * @param mongoClient The Mongo client. Will be closed when this purger is closed.
+   * @param mongoDatabaseName The name of the Mongo database.
+   * @param solrClient The Solr client.
+   * @param solrConnection The Solr connection. Will be closed when this purger is closed.
+   * @param dryRun Whether to only count the documents (rather than remove them).
+   */
+  RecordPurger(String name, MongoClient mongoClient, String mongoDatabaseName,
+      SolrClient solrClient, Closeable solrConnection, boolean dryRun) {
+    this.name = name;
+    this.mongoClient = mongoClient;
+    this.mongoDatabase = mongoClient.getDatabase(mongoDatabaseName);
+    this.solrClient = solrClient;
+    this.solrConnection = solrConnection;
+    this.dryRun = dryRun;
+  }
+
+  /**
+   * Purges (or counts, in dry run mode) all records of the dataset.
+   *
+   * @param datasetId The (Metis) dataset ID.
+   * @throws IOException In case there was a problem with Solr.
+   * @throws SolrServerException In case there was a problem with Solr.
+   */
+  void purge(String datasetId) throws IOException, SolrServerException {
+    LOGGER.info("  * {} records in {} Mongo and Solr.", dryRun ? "Counting" : "Purging", name);
+    final long solrDocumentCount = countSolr(datasetId);
+    if (!dryRun) {
+      deleteFromSolr(Collections.singletonList(datasetId));
+      commitSolr();
+    }
+    LOGGER.info("        {} {} documents in Solr.", dryRun ? "Found" : "Removed",
+        solrDocumentCount);
+    purgeMongo(datasetId);
+  }
+
+  /**
+   * Purges (or counts, in dry run mode) all records of the dataset from Mongo.
+   *
+   * @param datasetId The (Metis) dataset ID.
+   * @return The number of records (i.e. the number of documents in the record collection).
+   */
+  public long purgeMongo(String datasetId) {
+    long recordCount = 0;
+    for (CollectionPrefix collectionPrefix : COLLECTION_PREFIXES) {
+      final long documentCount = purgeCollection(collectionPrefix, datasetId);
+      if (RECORD_COLLECTION.equals(collectionPrefix.collection)) {
+        recordCount = documentCount;
+      }
+    }
+    return recordCount;
+  }
+
+  private long purgeCollection(CollectionPrefix collectionPrefix, String datasetId) {
+    final MongoCollection<Document> collection = mongoDatabase
+        .getCollection(collectionPrefix.collection);
+    final boolean withWebResources = AGGREGATION_COLLECTION.equals(collectionPrefix.collection);
+    final Bson aboutFilter = Filters.regex(ABOUT_FIELD,
+        "^" + REGEX_SPECIAL_CHARACTERS.matcher(collectionPrefix.prefix + datasetId + "/")
+            .replaceAll("\\\\$0"));
+    final Bson projection = withWebResources ? Projections.include(ID_FIELD, WEB_RESOURCES_FIELD)
+        : Projections.include(ID_FIELD);
+
+    // Go through the documents in batches of IDs.
+    long documentCount = 0;
+    long webResourceCount = 0;
+    ObjectId lastId = null;
+    while (true) {
+
+      // Get the next batch. Note that we don't rely on the documents being removed.
+      final Bson filter = lastId == null ? aboutFilter
+          : Filters.and(aboutFilter, Filters.gt(ID_FIELD, lastId));
+      final List<Document> batch = ExternalRequestUtil
+          .retryableExternalRequestForNetworkExceptions(() -> collection.find(filter)
+              .projection(projection).sort(Sorts.ascending(ID_FIELD)).limit(BATCH_SIZE)
+              .into(new ArrayList<>()));
+      if (batch.isEmpty()) {
+        break;
+      }
+      final ObjectId firstId = batch.get(0).getObjectId(ID_FIELD);
+      lastId = batch.get(batch.size() - 1).getObjectId(ID_FIELD);
+      documentCount += batch.size();
+
+      // Remove the web resources first: otherwise we can't find them anymore.
+      if (withWebResources) {
+        webResourceCount += purgeWebResources(batch);
+      }
+
+      // Remove the documents in the range.
+      if (!dryRun) {
+        final Bson rangeFilter = Filters.and(aboutFilter, Filters.gte(ID_FIELD, firstId),
+            Filters.lte(ID_FIELD, lastId));
+        ExternalRequestUtil.retryableExternalRequestForNetworkExceptions(
+            () -> collection.deleteMany(rangeFilter));
+      }
+    }
+
+    // Log.
+    LOGGER.info("        {} {} documents in collection {}.", dryRun ? "Found" : "Removed",
+        documentCount, collectionPrefix.collection);
+    if (withWebResources) {
+      LOGGER.info("        {} {} documents in collection {}.", dryRun ? "Found" : "Removed",
+          webResourceCount, WEB_RESOURCE_COLLECTION);
+    }
+    return documentCount;
+  }
+
+  private long purgeWebResources(List<Document> aggregations) {
+    final List<Object> webResourceIds = aggregations.stream()
+        .map(aggregation -> aggregation.getList(WEB_RESOURCES_FIELD, DBRef.class))
+        .filter(Objects::nonNull).flatMap(List::stream).map(DBRef::getId)
+        .collect(Collectors.toList());
+    if (webResourceIds.isEmpty()) {
+      return 0;
+    }
+    final MongoCollection<Document> collection = mongoDatabase
+        .getCollection(WEB_RESOURCE_COLLECTION);
+    final Bson filter = Filters.in(ID_FIELD, webResourceIds);
+    if (dryRun) {
+      return ExternalRequestUtil
+          .retryableExternalRequestForNetworkExceptions(() -> collection.countDocuments(filter));
+    }
+    return ExternalRequestUtil
+        .retryableExternalRequestForNetworkExceptions(() -> collection.deleteMany(filter))
+        .getDeletedCount();
+  }
+
+  /**
+   * Counts the records of the dataset in Solr.
+   *
+   * @param datasetId The (Metis) dataset ID.
+   * @return The number of records.
+   * @throws IOException In case there was a problem with Solr.
+   * @throws SolrServerException In case there was a problem with Solr.
+   */
+  public long countSolr(String datasetId) throws IOException, SolrServerException {
+    final String query = createSolrQuery(Collections.singletonList(datasetId));
+    return Optional.ofNullable(solrClient.query(new SolrQuery(query).setRows(0))
+        .getResults()).map(SolrDocumentList::getNumFound).orElse(0L);
+  }
+
+  /**
+   * Removes the records of all given datasets from Solr with one delete by query. The changes are
+   * not committed: see {@link #commitSolr()}. Note: this method ignores the dry run mode.
+   *
+   * @param datasetIds The (Metis) dataset IDs.
+   * @throws IOException In case there was a problem with Solr.
+   * @throws SolrServerException In case there was a problem with Solr.
+   */
+  public void deleteFromSolr(List<String> datasetIds) throws IOException, SolrServerException {
+    solrClient.deleteByQuery(createSolrQuery(datasetIds));
+  }
+
+  /**
+   * Commits the pending changes to Solr. Note: this method ignores the dry run mode.
+   *
+   * @throws IOException In case there was a problem with Solr.
+   * @throws SolrServerException In case there was a problem with Solr.
+   */
+  public void commitSolr() throws IOException, SolrServerException {
+    solrClient.commit();
+  }
+
+  private static String createSolrQuery(List<String> datasetIds) {
+    return datasetIds.stream()
+        .map(datasetId -> ClientUtils.escapeQueryChars(datasetId + "_") + "*")
+        .collect(Collectors.joining(" OR ", SOLR_DATASET_FIELD + ":(", ")"));
+  }
+
+  @Override
+  public void close() throws IOException {
+    mongoClient.close();
+    solrConnection.close();
+  }
+
+  private static final class CollectionPrefix {
+
+    private final String collection;
+    private final String prefix;
+
+    CollectionPrefix(String collection, String prefix) {
+      this.collection = collection;
+      this.prefix = prefix;
+    }
+  }
+}
@@ -3,10 +3,17 @@ package eu.europeana.metis.remove.dataset;
 import eu.europeana.cloud.mcs.driver.DataSetServiceClient;
 import eu.europeana.cloud.mcs.driver.RecordServiceClient;
 import eu.europeana.cloud.service.mcs.exception.MCSException;
+import eu.europeana.indexing.IndexingSettings;
+import eu.europeana.indexing.exception.IndexingException;
 import eu.europeana.metis.remove.utils.Application;
 import eu.europeana.metis.utils.CustomTruststoreAppender.TrustStoreConfigurationException;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import org.apache.solr.client.solrj.SolrServerException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -16,7 +23,15 @@ public class RemoveDatasetsMain {
 
   private static final String DATASET_IDS_FILE = "/home/jochen/Desktop/invalid_dataset_ids.log";
 
-  public static void main(String[] args) throws MCSException, TrustStoreConfigurationException {
+  /**
+   * NOTE: this should be set before running. If true, only the records in the preview and publish
+   * Mongo and Solr are counted: nothing is removed.
+   */
+  private static final boolean DRY_RUN = false;
+
+  public static void main(String[] args)
+      throws MCSException, TrustStoreConfigurationException, IOException, InterruptedException,
+      IndexingException, URISyntaxException, SolrServerException {
 
     final List<String> datasetIds =
         Arrays.asList(
@@ -25,7 +40,10 @@ public class RemoveDatasetsMain {
 //        FileUtils.readLines(new File(DATASET_IDS_FILE), StandardCharsets.UTF_8).stream()
 //        .filter(StringUtils::isNotBlank).map(String::trim).collect(Collectors.toList());
 
-    try(final Application application = Application.initialize()) {
+    try(final Application application = Application.initialize();
+        final RecordPurger publishPurger = new RecordPurger("publish",
+            application.getProperties().getPublishIndexingSettings(), DRY_RUN);
+        final RecordPurger previewPurger = createPreviewPurger(application)) {
 
       DataSetServiceClient datasetServiceClient = new DataSetServiceClient(
           application.getProperties().ecloudMcsBaseUrl, application.getProperties().ecloudUsername,
@@ -35,15 +53,40 @@ public class RemoveDatasetsMain {
           application.getProperties().ecloudMcsBaseUrl, application.getProperties().ecloudUsername,
           application.getProperties().ecloudPassword);
 
+      final List<RecordPurger> recordPurgers = new ArrayList<>();
+      recordPurgers.add(publishPurger);
+      if (previewPurger != null) {
+        recordPurgers.add(previewPurger);
+      }
+
       final DatasetRemover datasetRemover = new DatasetRemover(application.getDatastoreProvider(),
-          datasetServiceClient, recordServiceClient, application.getProperties().ecloudProvider);
+          datasetServiceClient, recordServiceClient, application.getProperties().ecloudProvider,
+          application.getProperties().ecloudDeleteMaxInFlight,
+          application.getProperties().ecloudDeleteMaxRetries,
+          Paths.get(application.getProperties().ecloudDeleteCheckpointFolder), recordPurgers);
 
       int count = 0;
       for (String datasetId : datasetIds) {
         count++;
-        LOGGER.info("Removing dataset {} of {}.", count, datasetIds.size());
-        datasetRemover.removeDataset(datasetId);
+        if (DRY_RUN) {
+          LOGGER.info("Counting records of dataset {} of {}.", count, datasetIds.size());
+          datasetRemover.purgeRecords(datasetId);
+        } else {
+          LOGGER.info("Removing dataset {} of {}.", count, datasetIds.size());
+          datasetRemover.removeDataset(datasetId);
+        }
       }
     }
   }
+
+  private static RecordPurger createPreviewPurger(Application application)
+      throws IndexingException, URISyntaxException {
+    final IndexingSettings previewSettings = application.getProperties()
+        .getPreviewIndexingSettings();
+    if (previewSettings == null) {
+      LOGGER.warn("Preview Mongo and Solr are not configured: preview records will not be purged.");
+      return null;
+    }
+    return new RecordPurger("preview", previewSettings, DRY_RUN);
+  }
 }
@@ -0,0 +1,179 @@
+package eu.europeana.metis.remove.dataset;
+
+import eu.europeana.cloud.common.model.Representation;
+import eu.europeana.cloud.mcs.driver.RecordServiceClient;
+import eu.europeana.cloud.service.mcs.exception.MCSException;
+import eu.europeana.cloud.service.mcs.exception.RepresentationNotExistsException;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Deletes eCloud representations with a bounded number of concurrent calls.
+ * <p>Every call is retried with an exponential backoff with full jitter. Each representation that
+ * is deleted is appended to a checkpoint file, and representations that are listed in the
+ * checkpoint file are skipped: so a run that was interrupted can be resumed without issuing the
+ * same deletes again. A representation that does not exist (anymore) counts as deleted.</p>
+ */
+class RepresentationDeleter {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(RepresentationDeleter.class);
+
+  private static final long INITIAL_BACKOFF_MILLIS = 500;
+  private static final long MAX_BACKOFF_MILLIS = 30_000;
+  private static final int MAX_BACKOFF_DOUBLINGS = 16;
+
+  private final RecordServiceClient recordServiceClient;
+  private final int maxInFlight;
+  private final int maxRetries;
+
+  private final AtomicLong deletedCount = new AtomicLong();
+  private final AtomicLong skippedCount = new AtomicLong();
+
+  /**
+   * Constructor.
+   *
+   * @param recordServiceClient The client with which to delete the representations.
+   * @param maxInFlight The maximum number of deletes that are in progress at the same time.
+   * @param maxRetries The maximum number of times a failed delete is retried.
+   */
+  RepresentationDeleter(RecordServiceClient recordServiceClient, int maxInFlight, int maxRetries) {
+    this.recordServiceClient = recordServiceClient;
+    this.maxInFlight = Math.max(1, maxInFlight);
+    this.maxRetries = Math.max(0, maxRetries);
+  }
+
+  /**
+   * Deletes all given representations, skipping those listed in the checkpoint file. This method
+   * returns only after all deletes have completed.
+   *
+   * @param representations The representations to delete.
+   * @param checkpointFile The checkpoint file. Will be created if it doesn't exist.
+   * @throws MCSException The first exception that was encountered (after retries), if any. In
+   * this case all other representations are still processed.
+   * @throws IOException In case the checkpoint file could not be read or written.
+   * @throws InterruptedException In case the thread was interrupted while waiting.
+   */
+  void deleteAll(Iterator<Representation> representations, Path checkpointFile)
+      throws MCSException, IOException, InterruptedException {
+
+    // Read the checkpoint.
+    final Set<String> completedIds = new HashSet<>();
+    if (Files.exists(checkpointFile)) {
+      completedIds.addAll(Files.readAllLines(checkpointFile, StandardCharsets.UTF_8));
+      LOGGER.info("        {} representations were deleted in a previous run.",
+          completedIds.size());
+    }
+
+    // Submit the deletes, never having more than the maximum number in progress.
+    final AtomicReference<Exception> firstFailure = new AtomicReference<>();
+    final ExecutorService executor = Executors.newFixedThreadPool(maxInFlight);
+    final Semaphore inFlight = new Semaphore(maxInFlight);
+    try (final BufferedWriter checkpointWriter = Files
+        .newBufferedWriter(checkpointFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+            StandardOpenOption.APPEND)) {
+      try {
+        while (representations.hasNext()) {
+          final Representation representation = representations.next();
+          final String id = getId(representation);
+          if (completedIds.contains(id)) {
+            skippedCount.incrementAndGet();
+            continue;
+          }
+          inFlight.acquire();
+          executor.execute(() -> {
+            try {
+              deleteWithRetries(representation);
+              writeCheckpoint(checkpointWriter, id);
+              deletedCount.incrementAndGet();
+            } catch (MCSException | IOException | RuntimeException e) {
+              LOGGER.warn("Could not delete representation {}.", id, e);
+              firstFailure.compareAndSet(null, e);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+              firstFailure.compareAndSet(null, e);
+            } finally {
+              inFlight.release();
+            }
+          });
+        }
+      } finally {
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      }
+    }
+
+    // Report the first failure.
+    final Exception failure = firstFailure.get();
+    if (failure instanceof MCSException) {
+      throw (MCSException) failure;
+    } else if (failure instanceof IOException) {
+      throw (IOException) failure;
+    } else if (failure instanceof InterruptedException) {
+      throw (InterruptedException) failure;
+    } else if (failure != null) {
+      throw (RuntimeException) failure;
+    }
+  }
+
+  private void deleteWithRetries(Representation representation)
+      throws MCSException, InterruptedException {
+    int attempt = 0;
+    while (true) {
+      try {
+        recordServiceClient.deleteRepresentation(representation.getCloudId(),
+            representation.getRepresentationName(), representation.getVersion());
+        return;
+      } catch (RepresentationNotExistsException e) {
+        LOGGER.debug("Representation {} does not exist: assuming it was deleted.",
+            getId(representation));
+        return;
+      } catch (MCSException | RuntimeException e) {
+        if (attempt >= maxRetries) {
+          throw e;
+        }
+        attempt++;
+        final long backoff = Math.min(MAX_BACKOFF_MILLIS,
+            INITIAL_BACKOFF_MILLIS << Math.min(attempt, MAX_BACKOFF_DOUBLINGS));
+        Thread.sleep(ThreadLocalRandom.current().nextLong(backoff + 1));
+      }
+    }
+  }
+
+  private static void writeCheckpoint(BufferedWriter checkpointWriter, String id)
+      throws IOException {
+    synchronized (checkpointWriter) {
+      checkpointWriter.write(id);
+      checkpointWriter.newLine();
+      checkpointWriter.flush();
+    }
+  }
+
+  private static String getId(Representation representation) {
+    return representation.getCloudId() + "/" + representation.getRepresentationName() + "/"
+        + representation.getVersion();
+  }
+
+  long getDeletedCount() {
+    return deletedCount.get();
+  }
+
+  long getSkippedCount() {
+    return skippedCount.get();
+  }
+}
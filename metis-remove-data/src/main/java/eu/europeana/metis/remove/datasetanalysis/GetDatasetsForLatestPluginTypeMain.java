@@ -11,6 +11,7 @@ import eu.europeana.metis.core.workflow.plugins.ExecutablePluginType;
 import eu.europeana.metis.core.workflow.plugins.PluginType;
 import eu.europeana.metis.network.ExternalRequestUtil;
 import eu.europeana.metis.remove.utils.Application;
+import eu.europeana.metis.remove.utils.DatasetIdComparator;
 import eu.europeana.metis.utils.CustomTruststoreAppender.TrustStoreConfigurationException;
 import java.io.BufferedWriter;
 import java.io.IOException;
@@ -21,10 +22,17 @@ import java.nio.file.Paths;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * This class analyzes the data and lists all datasets of which the latest executed plugin
@@ -32,6 +40,9 @@ import java.util.concurrent.atomic.AtomicInteger;
  */
 public class GetDatasetsForLatestPluginTypeMain {
 
+  private static final Logger LOGGER = LoggerFactory
+      .getLogger(GetDatasetsForLatestPluginTypeMain.class);
+
   // Where I want the output file to be located.
   private static final String OUTPUT_FILE = "/home/jochen/Desktop/dataset_analysis.csv";
 
@@ -55,29 +66,57 @@ public class GetDatasetsForLatestPluginTypeMain {
       final Set<String> datasetIds = getDatasetIds(application.getDatastoreProvider());
       final WorkflowExecutionDao dao = new WorkflowExecutionDao(application.getDatastoreProvider());
       final AtomicInteger counter = new AtomicInteger();
+      final ExecutorService executor = Executors
+          .newFixedThreadPool(application.getProperties().parallelThreads);
       final List<DatasetResult> results = new ArrayList<>();
-      datasetIds.forEach(datasetId -> {
-        final PluginWithExecutionId<ExecutablePlugin> latestPlugin = dao.getLatestSuccessfulExecutablePlugin(
-            datasetId, meaningfulTypes, false);
-        if (latestPlugin != null &&
-            permissibleTypes.contains(latestPlugin.getPlugin().getPluginType())) {
-          results.add(new DatasetResult(datasetId, latestPlugin.getPlugin()));
-        }
-        final int currentCounter = counter.incrementAndGet();
-        if (currentCounter % 100 == 0) {
-          System.out.println(
-              "Analyzed " + currentCounter + " of " + datasetIds.size() + " datasets.");
+      try {
+
+        // Analyze the datasets in parallel.
+        final List<Future<DatasetResult>> futures = datasetIds.stream()
+            .map(datasetId -> executor.submit(() -> {
+              final DatasetResult result = analyzeDataset(datasetId, dao);
+              final int currentCounter = counter.incrementAndGet();
+              if (currentCounter % 100 == 0) {
+                LOGGER.info("Analyzed {} of {} datasets.", currentCounter, datasetIds.size());
+              }
+              return result;
+            })).collect(Collectors.toList());
+
+        // Collect the results in the order of the dataset IDs.
+        for (Future<DatasetResult> future : futures) {
+          final DatasetResult result = future.get();
+          if (result != null) {
+            results.add(result);
+          }
         }
-      });
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while analyzing datasets.", e);
+      } catch (ExecutionException e) {
+        throw new IllegalStateException("Problem while analyzing datasets.", e.getCause());
+      } finally {
+        executor.shutdown();
+      }
       outputResults(results);
     }
   }
 
+  private static DatasetResult analyzeDataset(String datasetId, WorkflowExecutionDao dao) {
+    final PluginWithExecutionId<ExecutablePlugin> latestPlugin = dao
+        .getLatestSuccessfulExecutablePlugin(datasetId, meaningfulTypes, false);
+    if (latestPlugin != null &&
+        permissibleTypes.contains(latestPlugin.getPlugin().getPluginType())) {
+      return new DatasetResult(datasetId, latestPlugin.getPlugin());
+    }
+    return null;
+  }
+
   private static Set<String> getDatasetIds(MorphiaDatastoreProvider morphiaDatastoreProvider) {
     final MongoCollection<WorkflowExecution> collection = morphiaDatastoreProvider.getDatastore()
         .getMapper().getCollection(WorkflowExecution.class);
     return ExternalRequestUtil.retryableExternalRequestForNetworkExceptions(() -> {
-      final Set<String> datasetIds = new HashSet<>();
+      // Sort numeric dataset IDs as numbers, not as strings.
+      final Set<String> datasetIds = new TreeSet<>(DatasetIdComparator.INSTANCE);
       collection.distinct("datasetId", String.class).cursor().forEachRemaining(datasetIds::add);
       return datasetIds;
     });
@@ -1,32 +1,69 @@
 package eu.europeana.metis.remove.depublish;
 
-import eu.europeana.indexing.Indexer;
-import eu.europeana.indexing.IndexerFactory;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.opencsv.CSVWriter;
 import eu.europeana.indexing.IndexingSettings;
 import eu.europeana.indexing.exception.IndexingException;
+import eu.europeana.metis.core.dao.PluginWithExecutionId;
 import eu.europeana.metis.core.dao.WorkflowExecutionDao;
 import eu.europeana.metis.core.workflow.WorkflowExecution;
-import eu.europeana.metis.core.workflow.plugins.AbstractExecutablePlugin;
-import eu.europeana.metis.core.workflow.plugins.AbstractMetisPlugin;
 import eu.europeana.metis.core.workflow.plugins.DataStatus;
 import eu.europeana.metis.core.workflow.plugins.ExecutablePlugin;
 import eu.europeana.metis.core.workflow.plugins.MetisPlugin;
 import eu.europeana.metis.core.workflow.plugins.PluginType;
+import eu.europeana.metis.network.ExternalRequestUtil;
+import eu.europeana.metis.remove.dataset.RecordPurger;
 import eu.europeana.metis.remove.utils.Application;
 import eu.europeana.metis.utils.CustomTruststoreAppender.TrustStoreConfigurationException;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Depublishes a list of datasets: the records are removed from the publish Mongo and Solr, and the
+ * latest successful publish plugin of each dataset is marked as deprecated.
+ * <p>The datasets are processed in batches of {@value #BATCH_SIZE}. The records of a batch are
+ * first removed from Solr, with one delete by query and one commit, and only then from Mongo, per
+ * dataset. So if something fails, no records remain that can be found in Solr but not in Mongo.
+ * The plugins of a batch are marked with one update. The outcome for each dataset is written to
+ * {@link #OUTPUT_FILE} as soon as its batch is done. The records removed are only reported for
+ * datasets that were removed from both Solr and Mongo.</p>
+ */
 public class DepublishDatasetsMain {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(DepublishDatasetsMain.class);
 
+  /** NOTE: this should be set before running. */
+  private static final String OUTPUT_FILE = "/home/jochen/Desktop/depublish_outcome.csv";
+
+  /** The number of datasets of which the plugins are marked as deprecated in one go. */
+  private static final int BATCH_SIZE = 50;
+
+  private static final String METIS_PLUGINS_FIELD = "metisPlugins";
+  private static final String PLUGIN_ID_FIELD = "id";
+  private static final String DATA_STATUS_FIELD = "dataStatus";
+  private static final String PLUGIN_IDENTIFIER = "plugin";
+
   public static void main(String[] args)
       throws IndexingException, URISyntaxException, IOException, TrustStoreConfigurationException {
 
@@ -35,46 +72,150 @@ public class DepublishDatasetsMain {
     );
     //    FileUtils.readLines(new File(DATASET_IDS_FILE), StandardCharsets.UTF_8).stream()
     //        .filter(StringUtils::isNotBlank).map(String::trim).collect(Collectors.toList());
-    try (final Application application = Application.initialize()) {
+    final Path path = Paths.get(OUTPUT_FILE);
+    try (final Application application = Application.initialize();
+        final BufferedWriter fileWriter = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+        final CSVWriter writer = new CSVWriter(fileWriter)) {
+
+      // Write header
+      writer.writeNext(new String[]{
+          "datasetId",
+          "mongo records removed",
+          "solr records removed",
+          "plugin marked as deprecated",
+          "error"
+      });
+
       final IndexingSettings settings = application.getProperties().getPublishIndexingSettings();
-      try (final Indexer indexer = new IndexerFactory(settings).getIndexer()) {
-        int count = 0;
-        for (String datasetId : datasetIds) {
-          count++;
-          LOGGER
-              .info("Depublishing dataset {} of {}. ID: {}.", count, datasetIds.size(), datasetId);
-          depublish(datasetId, application, indexer);
+      final WorkflowExecutionDao workflowExecutionDao = new WorkflowExecutionDao(
+          application.getDatastoreProvider());
+      final MongoCollection<Document> executionCollection = application.getDatastoreProvider()
+          .getDatastore().getMapper().getCollection(WorkflowExecution.class)
+          .withDocumentClass(Document.class);
+      try (final RecordPurger recordPurger = new RecordPurger("publish", settings, false)) {
+        for (int start = 0; start < datasetIds.size(); start += BATCH_SIZE) {
+          final List<String> batch = datasetIds
+              .subList(start, Math.min(start + BATCH_SIZE, datasetIds.size()));
+          LOGGER.info("Depublishing datasets {} to {} of {}.", start + 1, start + batch.size(),
+              datasetIds.size());
+          depublishBatch(batch, recordPurger, workflowExecutionDao, executionCollection)
+              .forEach(outcome -> writeOutcome(writer, outcome));
+          writer.flush();
         }
-        LOGGER.info("Triggering flush of pending changes");
-        indexer.triggerFlushOfPendingChanges(true);
       }
     }
+    LOGGER.info("Outcome of {} datasets written to {}.", datasetIds.size(), path);
   }
 
-  private static void depublish(String datasetId, Application application, Indexer indexer)
-      throws IndexingException {
+  private static List<DatasetOutcome> depublishBatch(List<String> datasetIds,
+      RecordPurger recordPurger, WorkflowExecutionDao workflowExecutionDao,
+      MongoCollection<Document> executionCollection) {
 
-    // Remove from mongo and solr.
-    final int removed = indexer.removeAll(datasetId, null);
-    LOGGER.info(" -> {} records in dataset {} are successfully removed.", removed, datasetId);
+    // Count the Solr documents per dataset, before they are removed.
+    final List<DatasetOutcome> outcomes = new ArrayList<>(datasetIds.size());
+    final Map<String, Long> solrRecordCounts = new LinkedHashMap<>();
+    for (String datasetId : datasetIds) {
+      final DatasetOutcome outcome = new DatasetOutcome(datasetId);
+      outcomes.add(outcome);
+      try {
+        solrRecordCounts.put(datasetId, recordPurger.countSolr(datasetId));
+      } catch (IOException | SolrServerException | RuntimeException e) {
+        LOGGER.warn("Could not count the Solr records of dataset {}.", datasetId, e);
+        outcome.error = e.getMessage();
+      }
+    }
 
-    // Mark as deprecated
-    final WorkflowExecutionDao workflowExecutionDao = new WorkflowExecutionDao(
-        application.getDatastoreProvider());
-    final MetisPlugin targetPlugin = workflowExecutionDao.getLatestSuccessfulPlugin(datasetId,
-        EnumSet.of(PluginType.PUBLISH, PluginType.REINDEX_TO_PUBLISH)).getPlugin();
+    // Remove the batch from Solr with one delete by query and one commit.
+    final List<String> datasetIdsToPurge = new ArrayList<>(solrRecordCounts.keySet());
+    if (!datasetIdsToPurge.isEmpty()) {
+      try {
+        recordPurger.deleteFromSolr(datasetIdsToPurge);
+        recordPurger.commitSolr();
+      } catch (IOException | SolrServerException | RuntimeException e) {
+        LOGGER.warn("Could not remove datasets {} from Solr.", datasetIdsToPurge, e);
+        outcomes.stream().filter(outcome -> outcome.error == null)
+            .forEach(outcome -> outcome.error = e.getMessage());
+        return outcomes;
+      }
+    }
+
+    // Only then remove from Mongo, and find the plugin to mark, per dataset.
+    for (DatasetOutcome outcome : outcomes) {
+      if (outcome.error != null) {
+        continue;
+      }
+      try {
+        final long mongoRecordsRemoved = recordPurger.purgeMongo(outcome.datasetId);
+        outcome.solrRecordsRemoved = solrRecordCounts.get(outcome.datasetId);
+        outcome.mongoRecordsRemoved = mongoRecordsRemoved;
+        outcome.deprecatedPluginId = findPluginToDeprecate(outcome.datasetId,
+            workflowExecutionDao);
+      } catch (RuntimeException e) {
+        LOGGER.warn("Could not depublish dataset {}.", outcome.datasetId, e);
+        outcome.error = e.getMessage();
+      }
+    }
+
+    // Mark the plugins as deprecated with one update.
+    final List<String> pluginIds = outcomes.stream()
+        .filter(outcome -> outcome.error == null).map(outcome -> outcome.deprecatedPluginId)
+        .filter(Objects::nonNull).collect(Collectors.toList());
+    if (!pluginIds.isEmpty()) {
+      final Bson filter = Filters.in(METIS_PLUGINS_FIELD + "." + PLUGIN_ID_FIELD, pluginIds);
+      final Bson update = Updates.set(
+          METIS_PLUGINS_FIELD + ".$[" + PLUGIN_IDENTIFIER + "]." + DATA_STATUS_FIELD,
+          DataStatus.DEPRECATED.name());
+      final UpdateOptions options = new UpdateOptions().arrayFilters(List.of(
+          Filters.in(PLUGIN_IDENTIFIER + "." + PLUGIN_ID_FIELD, pluginIds)));
+      try {
+        final long modified = ExternalRequestUtil.retryableExternalRequestForNetworkExceptions(
+            () -> executionCollection.updateMany(filter, update, options)).getModifiedCount();
+        LOGGER.info(" -> {} plugins are marked as deprecated.", modified);
+      } catch (RuntimeException e) {
+        LOGGER.warn("Could not mark plugins {} as deprecated.", pluginIds, e);
+        outcomes.stream().filter(outcome -> outcome.error == null)
+            .filter(outcome -> outcome.deprecatedPluginId != null)
+            .forEach(outcome -> outcome.error = e.getMessage());
+      }
+    }
+    return outcomes;
+  }
+
+  private static String findPluginToDeprecate(String datasetId,
+      WorkflowExecutionDao workflowExecutionDao) {
+    final PluginWithExecutionId<MetisPlugin> latestPlugin = workflowExecutionDao
+        .getLatestSuccessfulPlugin(datasetId,
+            EnumSet.of(PluginType.PUBLISH, PluginType.REINDEX_TO_PUBLISH));
+    final MetisPlugin targetPlugin = latestPlugin == null ? null : latestPlugin.getPlugin();
     if (targetPlugin instanceof ExecutablePlugin) {
-      final ExecutablePlugin castPlugin = (ExecutablePlugin) targetPlugin;
-      final DataStatus dataStatus = castPlugin.getDataStatus();
+      final DataStatus dataStatus = ((ExecutablePlugin) targetPlugin).getDataStatus();
       if (dataStatus == null || dataStatus == DataStatus.VALID) {
-        final WorkflowExecution execution = workflowExecutionDao
-            .getByExternalTaskId(Long.parseLong(castPlugin.getExternalTaskId()));
-        final Optional<AbstractMetisPlugin> metisPluginWithType = execution
-            .getMetisPluginWithType(castPlugin.getPluginType());
-        metisPluginWithType.ifPresent(
-            plugin -> ((AbstractExecutablePlugin) plugin).setDataStatus(DataStatus.DEPRECATED));
-        workflowExecutionDao.update(execution);
+        return targetPlugin.getId();
       }
     }
+    return null;
+  }
+
+  private static void writeOutcome(CSVWriter writer, DatasetOutcome outcome) {
+    writer.writeNext(new String[]{
+        outcome.datasetId,
+        Objects.toString(outcome.mongoRecordsRemoved, ""),
+        Objects.toString(outcome.solrRecordsRemoved, ""),
+        Objects.toString(outcome.deprecatedPluginId, ""),
+        Objects.toString(outcome.error, "")
+    });
+  }
+
+  private static class DatasetOutcome {
+
+    private final String datasetId;
+    private Long mongoRecordsRemoved;
+    private Long solrRecordsRemoved;
+    private String deprecatedPluginId;
+    private String error;
+
+    DatasetOutcome(String datasetId) {
+      this.datasetId = datasetId;
+    }
   }
 }
@@ -1,22 +1,27 @@
 package eu.europeana.metis.remove.discover;
 
-import com.mongodb.client.MongoCollection;
-import dev.morphia.query.Query;
-import dev.morphia.query.filters.Filters;
+import dev.morphia.query.FindOptions;
+import dev.morphia.query.Sort;
 import eu.europeana.metis.core.mongo.MorphiaDatastoreProvider;
 import eu.europeana.metis.core.workflow.WorkflowExecution;
 import eu.europeana.metis.core.workflow.plugins.AbstractExecutablePlugin;
 import eu.europeana.metis.core.workflow.plugins.ExecutionProgress;
 import eu.europeana.metis.core.workflow.plugins.PluginType;
-import eu.europeana.metis.mongo.utils.MorphiaUtils;
 import eu.europeana.metis.network.ExternalRequestUtil;
+import eu.europeana.metis.remove.utils.DatasetIdComparator;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Predicate;
 import java.util.function.ToIntFunction;
 import java.util.stream.Collectors;
@@ -39,6 +44,8 @@ abstract class AbstractPluginIdentification {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(AbstractPluginIdentification.class);
 
+  private static final String DATASET_ID_FIELD = "datasetId";
+
   private final MorphiaDatastoreProvider morphiaDatastoreProvider;
 
   private final DiscoveryMode discoveryMode;
@@ -90,45 +97,58 @@ abstract class AbstractPluginIdentification {
    * no more nodes can be removed. It prints the iterations to the log, and returns only the nodes
    * to remove for the FIRST iteration (i.e. the nodes that can currently be removed).
    *
+   * @param parallelThreads The number of datasets to process in parallel.
    * @return The nodes that can currently be removed.
    */
-  final List<ExecutionPluginNode> discoverPlugins() {
+  final List<ExecutionPluginNode> discoverPlugins(int parallelThreads) {
+    final ExecutorService executor = Executors.newFixedThreadPool(parallelThreads);
+    try {
+      return discoverPlugins(getForests(executor), executor);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * This method computes all remove iterations for the given forests (see {@link
+   * #discoverPlugins(int)}). The forests are built only once: the removal of the nodes of an
+   * iteration is simulated by removing them from the forests in place. The datasets are processed
+   * in parallel, but the results are always merged in the order of the dataset IDs, so that the
+   * outcome does not depend on the number of threads.
+   *
+   * @param forests The forests, by dataset ID. Note: these forests will be modified.
+   * @param executor The executor with which to process the datasets.
+   * @return The nodes that can currently be removed.
+   */
+  final List<ExecutionPluginNode> discoverPlugins(Map<String, ExecutionPluginForest> forests,
+      ExecutorService executor) {
+
+    // Compute the total size (before any removal).
+    final List<ExecutionPluginNode> allNodes = forests.values().stream()
+        .map(forest -> forest.getNodes(node -> true)).flatMap(List::stream)
+        .collect(Collectors.toList());
+    final int totalNodeCount = allNodes.size();
+    final int totalRecordCount = allNodes.stream().mapToInt(RECORD_COUNTER).sum();
 
     // Compute all iterations
     final List<List<ExecutionPluginNode>> iterations = new ArrayList<>();
-    final AtomicInteger totalNodeCount = new AtomicInteger(0);
-    final AtomicInteger totalRecordCount = new AtomicInteger(0);
-    final Set<String> datasetIds = getDatasetIds();
-    final Set<String> datasetIdsToSkip = new HashSet<>();
-    final Set<String> nodeIdsToSkip = new HashSet<>();
+    final Map<String, ExecutionPluginForest> forestsToProcess = new TreeMap<>(
+        DatasetIdComparator.INSTANCE);
+    forestsToProcess.putAll(forests);
     while (true) {
 
-      // Perform one iteration. Compute which nodes to remove for this iteration.
-      final List<ExecutionPluginNode> nodesToRemove = new ArrayList<>();
-      for (String datasetId : datasetIds) {
-
-        // If we can skip this dataset, do so.
-        if (datasetIdsToSkip.contains(datasetId)) {
-          continue;
-        }
-
-        // Get the forest for this dataset, and log if needed.
-        final ExecutionPluginForest forest = getForest(datasetId, nodeIdsToSkip);
-        if (iterations.isEmpty() && forest!=null){
-          final List<ExecutionPluginNode> allNodes = forest.getNodes(node->true);
-          totalNodeCount.addAndGet(allNodes.size());
-          totalRecordCount.addAndGet(allNodes.stream().mapToInt(RECORD_COUNTER).sum());
-        }
-
-        // Obtain the plugins for this dataset, in the right order for removal.
-        final List<ExecutionPluginNode> plugins = Optional.ofNullable(forest)
-            .map(this::identifyPlugins).orElse(Collections.emptyList()).stream()
-            .map(ExecutionPluginNode::getAllInOrderOfRemoval).flatMap(List::stream)
-            .filter(discoveryMode.pluginTest).collect(Collectors.toList());
+      // Perform one iteration. Compute which nodes to remove for this iteration (in parallel).
+      final Map<String, Future<List<ExecutionPluginNode>>> pluginsByDataset = new TreeMap<>(
+          DatasetIdComparator.INSTANCE);
+      forestsToProcess.forEach((datasetId, forest) -> pluginsByDataset
+          .put(datasetId, executor.submit(() -> identifyAndRemovePlugins(forest))));
 
-        // If we find no plugins, we mark this dataset to skip. Otherwise, add them for removal.
+      // Merge the results in order. If we find no plugins, we can skip the dataset from now on.
+      final List<ExecutionPluginNode> nodesToRemove = new ArrayList<>();
+      for (Entry<String, Future<List<ExecutionPluginNode>>> entry : pluginsByDataset.entrySet()) {
+        final List<ExecutionPluginNode> plugins = getResult(entry.getValue());
         if (plugins.isEmpty()) {
-          datasetIdsToSkip.add(datasetId);
+          forestsToProcess.remove(entry.getKey());
         } else {
           nodesToRemove.addAll(plugins);
         }
@@ -142,9 +162,6 @@ abstract class AbstractPluginIdentification {
       // Save the nodes to remove as an iteration.
       iterations.add(nodesToRemove);
 
-      // Add all nodes to remove to the node skip list: we can ignore them in the next iteration.
-      nodesToRemove.stream().map(ExecutionPluginNode::getId).forEach(nodeIdsToSkip::add);
-
       // Log
       LOGGER.info("Iteration {} identified.", iterations.size());
     }
@@ -156,8 +173,8 @@ abstract class AbstractPluginIdentification {
     }
 
     // Print all iterations to the log.
-    LOGGER.info("Total database size: {} records in {} nodes.", totalRecordCount.get(),
-        totalNodeCount.get());
+    LOGGER.info("Total database size: {} records in {} nodes.", totalRecordCount,
+        totalNodeCount);
     LOGGER.info("{} iterations are needed:", iterations.size());
     int totalRecords = 0;
     int totalNodes = 0;
@@ -180,33 +197,102 @@ abstract class AbstractPluginIdentification {
     return iterations.get(0);
   }
 
-  private ExecutionPluginForest getForest(String datasetId, Set<String> idsToSkip) {
-    try {
-      return new ExecutionPluginForest(getWorkflowExecutions(datasetId),
-              discoveryMode.attemptToIgnoreDeletedPlugins, idsToSkip);
-    } catch (RuntimeException e) {
-      LOGGER.warn("Problem with dataset {}.", datasetId, e);
-      return null;
-    }
+  private List<ExecutionPluginNode> identifyAndRemovePlugins(ExecutionPluginForest forest) {
+
+    // Obtain the plugins for this dataset, in the right order for removal.
+    final List<ExecutionPluginNode> plugins = identifyPlugins(forest).stream()
+        .map(ExecutionPluginNode::getAllInOrderOfRemoval).flatMap(List::stream)
+        .filter(discoveryMode.pluginTest).collect(Collectors.toList());
+
+    // Remove them from the forest: we can ignore them in the next iteration.
+    forest.removeNodes(plugins);
+    return plugins;
   }
 
+  /**
+   * Identifies the plugins to remove. Note: this method may be called for different forests
+   * simultaneously, so implementations should not keep state.
+   *
+   * @param forest The forest of one dataset.
+   * @return The plugins to remove.
+   */
   abstract List<ExecutionPluginNode> identifyPlugins(ExecutionPluginForest forest);
 
-  private Set<String> getDatasetIds() {
-    final MongoCollection<WorkflowExecution> collection = morphiaDatastoreProvider.getDatastore()
-            .getMapper().getCollection(WorkflowExecution.class);
+  /**
+   * Reads all workflow executions in one pass, sorted by dataset, and builds the forest for each
+   * dataset as soon as all its executions are read.
+   */
+  private Map<String, ExecutionPluginForest> getForests(ExecutorService executor) {
     return ExternalRequestUtil.retryableExternalRequestForNetworkExceptions(() -> {
-      final Set<String> datasetIds = new HashSet<>();
-      collection.distinct("datasetId", String.class).cursor().forEachRemaining(datasetIds::add);
-      return datasetIds;
+      final FindOptions findOptions = new FindOptions().sort(Sort.ascending(DATASET_ID_FIELD));
+      final Iterator<WorkflowExecution> executions = morphiaDatastoreProvider.getDatastore()
+          .find(WorkflowExecution.class).iterator(findOptions);
+      return createForests(executions, discoveryMode.attemptToIgnoreDeletedPlugins, executor);
     });
   }
 
-  private List<WorkflowExecution> getWorkflowExecutions(String datasetId) {
-    return ExternalRequestUtil.retryableExternalRequestForNetworkExceptions(() -> {
-      final Query<WorkflowExecution> query = morphiaDatastoreProvider.getDatastore()
-              .find(WorkflowExecution.class).filter(Filters.eq("datasetId", datasetId));
-      return MorphiaUtils.getListOfQueryRetryable(query);
-    });
+  /**
+   * Builds the forests for the given executions. The forest of a dataset is built in the executor
+   * as soon as all its executions are read.
+   *
+   * @param executions The executions. All executions of one dataset are expected to be adjacent.
+   * @param attemptToIgnoreDeletedPlugins Whether to ignore deleted plugins (see {@link
+   * ExecutionPluginForest}).
+   * @param executor The executor with which to build the forests.
+   * @return The forests by dataset ID, sorted by dataset ID (see {@link DatasetIdComparator}).
+   * Datasets for which the forest could not be built are logged and left out.
+   */
+  static Map<String, ExecutionPluginForest> createForests(Iterator<WorkflowExecution> executions,
+      boolean attemptToIgnoreDeletedPlugins, ExecutorService executor) {
+    final Map<String, Future<ExecutionPluginForest>> forestsByDataset = new TreeMap<>(
+        DatasetIdComparator.INSTANCE);
+    final List<WorkflowExecution> executionsOfDataset = new ArrayList<>();
+    while (executions.hasNext()) {
+      final WorkflowExecution execution = executions.next();
+      if (!executionsOfDataset.isEmpty() && !Objects
+          .equals(executionsOfDataset.get(0).getDatasetId(), execution.getDatasetId())) {
+        submitForest(executionsOfDataset, attemptToIgnoreDeletedPlugins, executor,
+            forestsByDataset);
+        executionsOfDataset.clear();
+      }
+      executionsOfDataset.add(execution);
+    }
+    if (!executionsOfDataset.isEmpty()) {
+      submitForest(executionsOfDataset, attemptToIgnoreDeletedPlugins, executor, forestsByDataset);
+    }
+    final Map<String, ExecutionPluginForest> result = new TreeMap<>(DatasetIdComparator.INSTANCE);
+    forestsByDataset.forEach((datasetId, future) -> Optional.ofNullable(getResult(future))
+        .ifPresent(forest -> result.put(datasetId, forest)));
+    return result;
+  }
+
+  private static void submitForest(List<WorkflowExecution> executionsOfDataset,
+      boolean attemptToIgnoreDeletedPlugins, ExecutorService executor,
+      Map<String, Future<ExecutionPluginForest>> forestsByDataset) {
+    final String datasetId = executionsOfDataset.get(0).getDatasetId();
+    if (datasetId == null) {
+      LOGGER.warn("Ignoring {} executions without dataset.", executionsOfDataset.size());
+      return;
+    }
+    final List<WorkflowExecution> executionsToProcess = new ArrayList<>(executionsOfDataset);
+    forestsByDataset.put(datasetId, executor.submit(() -> {
+      try {
+        return new ExecutionPluginForest(executionsToProcess, attemptToIgnoreDeletedPlugins);
+      } catch (RuntimeException e) {
+        LOGGER.warn("Problem with dataset {}.", datasetId, e);
+        return null;
+      }
+    }));
+  }
+
+  private static <T> T getResult(Future<T> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while discovering plugins.", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Problem while discovering plugins.", e.getCause());
+    }
   }
 }
@@ -15,7 +15,8 @@ public abstract class AbstractPluginIdentificationEngine {
   protected void discoverPlugins() throws IOException, TrustStoreConfigurationException {
     try (final Application application = Application.initialize()) {
       final AbstractPluginIdentification pluginDiscoverer = createPluginDiscoverer(application);
-      final List<ExecutionPluginNode> plugins = pluginDiscoverer.discoverPlugins();
+      final List<ExecutionPluginNode> plugins = pluginDiscoverer
+          .discoverPlugins(application.getProperties().parallelThreads);
       OutputUtils.saveFileForPluginRemoval(plugins, FILE_FOR_PLUGIN_REMOVAL);
       OutputUtils.saveFileForRevisionRemoval(plugins, application.getProperties().ecloudProvider,
           FILE_FOR_REVISION_REMOVAL);
@@ -12,6 +12,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -65,6 +66,8 @@ class ExecutionPluginForest {
   private final Map<String, ExecutionPluginNode> nodesById = new HashMap<>();
   private final List<ExecutionPluginNode> rootNodes;
   private final Set<String> leafNodeIds;
+  private final Set<String> keptIgnoredNodeIds = new HashSet<>();
+  private final Set<String> removedIgnoredNodeIds = new HashSet<>();
 
   ExecutionPluginForest(List<WorkflowExecution> executions, boolean attemptToIgnoreDeletedPlugins) {
     this(executions, attemptToIgnoreDeletedPlugins, Collections.emptySet());
@@ -127,16 +130,76 @@ class ExecutionPluginForest {
       // We add all nodes that we need to keep to our master node map. We also put them up for
       // processing during the next iteration.
       nodesById.putAll(ignoredNodesToBeKept);
+      keptIgnoredNodeIds.addAll(ignoredNodesToBeKept.keySet());
       nodesToProcess = ignoredNodesToBeKept;
     }
 
     // Compose the list of root nodes
     rootNodes = nodesById.values().stream().filter(node -> node.getParent() == null)
-        .collect(Collectors.toList());
+        .collect(Collectors.toCollection(ArrayList::new));
 
     // Find all leaf nodes (candidates for removal)
     this.leafNodeIds = nodesById.values().stream().filter(ExecutionPluginNode::isLeaf)
-        .map(ExecutionPluginNode::getId).collect(Collectors.toSet());
+        .map(ExecutionPluginNode::getId).collect(Collectors.toCollection(HashSet::new));
+  }
+
+  /**
+   * This method removes the given nodes from the forest, updating the forest in place. This is
+   * equivalent to (but much cheaper than) creating the forest anew while ignoring the given nodes.
+   * The nodes are removed in the given order, and each node must have no children at the time it
+   * is removed (so children need to be removed before their parents). Nodes that would have been
+   * ignored, but were kept because they had children, are removed as soon as they lose their last
+   * child. If such a node is also among the given nodes (e.g. because it is a leaf with link
+   * checking children), it is skipped when it is encountered.
+   *
+   * @param nodesToRemove The nodes to remove.
+   */
+  void removeNodes(List<ExecutionPluginNode> nodesToRemove) {
+    nodesToRemove.stream().filter(node -> !removedIgnoredNodeIds.contains(node.getId()))
+        .forEach(this::removeNode);
+  }
+
+  private void removeNode(ExecutionPluginNode node) {
+
+    // Check that we can remove the node.
+    if (nodesById.get(node.getId()) != node || !node.getChildren().isEmpty()) {
+      throw new IllegalStateException(
+          "Problem with plugin " + node.getId() + ": this node cannot be removed from the forest.");
+    }
+
+    // Remove the node itself.
+    nodesById.remove(node.getId());
+    leafNodeIds.remove(node.getId());
+    keptIgnoredNodeIds.remove(node.getId());
+    final ExecutionPluginNode parent = node.getParent();
+    if (parent == null) {
+      rootNodes.remove(node);
+      return;
+    }
+    parent.removeChild(node);
+
+    // Go up the tree as long as the descendant status changes: the leaf status of these nodes and
+    // their children may change as a result.
+    ExecutionPluginNode ancestor = parent;
+    while (ancestor != null && ancestor.updateNonLinkCheckingDescendant()) {
+      updateLeafStatus(ancestor);
+      ancestor.getChildren().forEach(this::updateLeafStatus);
+      ancestor = ancestor.getParent();
+    }
+
+    // If the parent was only kept because of its children, and now it has none, remove it too.
+    if (keptIgnoredNodeIds.contains(parent.getId()) && parent.getChildren().isEmpty()) {
+      removeNode(parent);
+      removedIgnoredNodeIds.add(parent.getId());
+    }
+  }
+
+  private void updateLeafStatus(ExecutionPluginNode node) {
+    if (node.isLeaf()) {
+      leafNodeIds.add(node.getId());
+    } else {
+      leafNodeIds.remove(node.getId());
+    }
   }
 
   int getNodeCount() {
@@ -68,6 +68,27 @@ class ExecutionPluginNode {
     }
   }
 
+  void removeChild(ExecutionPluginNode child) {
+    if (child.getParent() != this || !this.children.remove(child)) {
+      throw new IllegalStateException();
+    }
+    child.parent = null;
+  }
+
+  /**
+   * Recomputes whether this node has a descendant that is not a link checking, based on the
+   * current children. This does not update the parent.
+   *
+   * @return Whether the value changed.
+   */
+  boolean updateNonLinkCheckingDescendant() {
+    final boolean newValue = children.stream().anyMatch(
+        child -> child.hasNonLinkCheckingDescendant || child.getType() != PluginType.LINK_CHECKING);
+    final boolean changed = newValue != hasNonLinkCheckingDescendant;
+    hasNonLinkCheckingDescendant = newValue;
+    return changed;
+  }
+
   private void registerNonLinkCheckingDescendant() {
     if (!hasNonLinkCheckingDescendant) {
       hasNonLinkCheckingDescendant = true;
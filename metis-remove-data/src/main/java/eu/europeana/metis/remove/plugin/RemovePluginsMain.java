@@ -1,11 +1,17 @@
 package eu.europeana.metis.remove.plugin;
 
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
 import com.opencsv.CSVReader;
-import dev.morphia.query.FindOptions;
 import dev.morphia.query.Query;
-import dev.morphia.query.filters.Filter;
 import dev.morphia.query.filters.Filters;
-import eu.europeana.metis.core.dao.WorkflowExecutionDao;
 import eu.europeana.metis.core.mongo.MorphiaDatastoreProvider;
 import eu.europeana.metis.core.workflow.WorkflowExecution;
 import eu.europeana.metis.core.workflow.WorkflowStatus;
@@ -14,6 +20,7 @@ import eu.europeana.metis.core.workflow.plugins.AbstractMetisPlugin;
 import eu.europeana.metis.core.workflow.plugins.DataStatus;
 import eu.europeana.metis.core.workflow.plugins.PluginStatus;
 import eu.europeana.metis.core.workflow.plugins.PluginType;
+import eu.europeana.metis.mongo.utils.MorphiaUtils;
 import eu.europeana.metis.remove.utils.Application;
 import eu.europeana.metis.utils.CustomTruststoreAppender.TrustStoreConfigurationException;
 import eu.europeana.metis.network.ExternalRequestUtil;
@@ -24,13 +31,25 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -48,15 +67,70 @@ public class RemovePluginsMain {
   /** NOTE: this mode should be set before running. */
   private static final Mode MODE = Mode.MARK_AS_DELETED;
 
+  /**
+   * NOTE: this should be set before running. If true, the bulk operations are only printed to the
+   * log, not sent to the database.
+   */
+  private static final boolean DRY_RUN = false;
+
+  /** The number of executions that are loaded or updated in one go. */
+  private static final int EXECUTION_BATCH_SIZE = 500;
+
+  private static final String ID_FIELD = "_id";
+  private static final String METIS_PLUGINS_FIELD = "metisPlugins";
+  private static final String PLUGIN_ID_FIELD = "id";
+  private static final String DATA_STATUS_FIELD = "dataStatus";
+  private static final String WORKFLOW_STATUS_FIELD = "workflowStatus";
+  private static final String REVISION_NAME_PREVIOUS_PLUGIN_FIELD =
+      "pluginMetadata.revisionNamePreviousPlugin";
+  private static final String REVISION_TIMESTAMP_PREVIOUS_PLUGIN_FIELD =
+      "pluginMetadata.revisionTimestampPreviousPlugin";
+
   public static void main(String[] args) throws TrustStoreConfigurationException, IOException {
     try (final Application application = Application.initialize()) {
+      final MongoCollection<Document> collection = application.getDatastoreProvider()
+          .getDatastore().getMapper().getCollection(WorkflowExecution.class)
+          .withDocumentClass(Document.class);
+
+      // Find the plugins and check that they can be deleted.
       final List<PluginToRemove> plugins = readFile();
       LOGGER.info("Removing {} plugins.", plugins.size());
-      final WorkflowExecutionDao dao = new WorkflowExecutionDao(application.getDatastoreProvider());
-      plugins.stream().map(plugin -> RemovePluginsMain.findPlugin(plugin, dao))
-          .filter(Objects::nonNull).filter(pluginPair -> canEditWorkflow(pluginPair.getLeft()))
-          .filter(pluginPair -> canDeletePlugin(pluginPair, application.getDatastoreProvider()))
-          .forEach(pluginPair -> deletePlugin(pluginPair, application.getDatastoreProvider()));
+      final Map<String, WorkflowExecution> executions = getExecutions(plugins,
+          application.getDatastoreProvider());
+      final List<Pair<WorkflowExecution, AbstractMetisPlugin>> candidates = plugins.stream()
+          .map(plugin -> RemovePluginsMain.findPlugin(plugin, executions)).filter(Objects::nonNull)
+          .filter(pluginPair -> canEditWorkflow(pluginPair.getLeft()))
+          .collect(Collectors.toList());
+      final Map<Pair<String, Date>, List<SuccessorPlugin>> successors = findSuccessors(candidates,
+          collection);
+      final Set<String> deletedPluginIds = new HashSet<>();
+      final Map<WorkflowExecution, List<AbstractMetisPlugin>> pluginsToDeleteByExecution =
+          new LinkedHashMap<>();
+      for (Pair<WorkflowExecution, AbstractMetisPlugin> candidate : candidates) {
+        if (canDeletePlugin(candidate, successors, deletedPluginIds)) {
+          registerDeletion(candidate, deletedPluginIds, pluginsToDeleteByExecution);
+        }
+      }
+
+      // Delete the plugins in batches of executions.
+      final List<WriteModel<Document>> operations = pluginsToDeleteByExecution.entrySet().stream()
+          .map(entry -> createOperation(entry.getKey(), entry.getValue()))
+          .collect(Collectors.toList());
+      LOGGER.info("Removing {} plugins in {} executions.", deletedPluginIds.size(),
+          operations.size());
+      for (int start = 0; start < operations.size(); start += EXECUTION_BATCH_SIZE) {
+        final List<WriteModel<Document>> batch = operations
+            .subList(start, Math.min(start + EXECUTION_BATCH_SIZE, operations.size()));
+        if (DRY_RUN) {
+          batch.forEach(operation -> LOGGER.info("Dry run: {}", describe(operation)));
+        } else {
+          final BulkWriteResult result = ExternalRequestUtil
+              .retryableExternalRequestForNetworkExceptions(
+                  () -> collection.bulkWrite(batch, new BulkWriteOptions().ordered(false)));
+          LOGGER.info("Batch of {} operations: {} executions updated, {} executions deleted.",
+              batch.size(), result.getModifiedCount(), result.getDeletedCount());
+        }
+      }
       LOGGER.info("Done.");
     }
   }
@@ -117,11 +191,27 @@ public class RemovePluginsMain {
     return true;
   }
 
+  private static Map<String, WorkflowExecution> getExecutions(List<PluginToRemove> plugins,
+      MorphiaDatastoreProvider datastoreProvider) {
+    final List<ObjectId> executionIds = plugins.stream().map(PluginToRemove::getExecutionId)
+        .distinct().filter(ObjectId::isValid).map(ObjectId::new).collect(Collectors.toList());
+    final Map<String, WorkflowExecution> result = new HashMap<>();
+    for (int start = 0; start < executionIds.size(); start += EXECUTION_BATCH_SIZE) {
+      final List<ObjectId> batch = executionIds
+          .subList(start, Math.min(start + EXECUTION_BATCH_SIZE, executionIds.size()));
+      final Query<WorkflowExecution> query = datastoreProvider.getDatastore()
+          .find(WorkflowExecution.class).filter(Filters.in(ID_FIELD, batch));
+      MorphiaUtils.getListOfQueryRetryable(query)
+          .forEach(execution -> result.put(execution.getId().toString(), execution));
+    }
+    return result;
+  }
+
   private static Pair<WorkflowExecution, AbstractMetisPlugin> findPlugin(
-      PluginToRemove pluginToRemove, WorkflowExecutionDao dao) {
+      PluginToRemove pluginToRemove, Map<String, WorkflowExecution> executions) {
 
     // Get the execution.
-    final WorkflowExecution execution = dao.getById(pluginToRemove.getExecutionId());
+    final WorkflowExecution execution = executions.get(pluginToRemove.getExecutionId());
     if (execution == null) {
       LOGGER
           .error("Could not find workflow execution with ID {}.", pluginToRemove.getExecutionId());
@@ -142,46 +232,92 @@ public class RemovePluginsMain {
     return new ImmutablePair<>(execution, plugin);
   }
 
+  /**
+   * Finds, with one aggregation, all plugins that are explicitly based on one of the candidates
+   * (i.e. that name the type and start date of the candidate as their predecessor).
+   *
+   * @return The successor plugins, by type name and start date of the predecessor.
+   */
+  private static Map<Pair<String, Date>, List<SuccessorPlugin>> findSuccessors(
+      List<Pair<WorkflowExecution, AbstractMetisPlugin>> candidates,
+      MongoCollection<Document> collection) {
+    final List<Date> startedDates = candidates.stream().map(Pair::getRight)
+        .map(AbstractMetisPlugin::getStartedDate).filter(Objects::nonNull).distinct()
+        .collect(Collectors.toList());
+    final Map<Pair<String, Date>, List<SuccessorPlugin>> result = new HashMap<>();
+    if (startedDates.isEmpty()) {
+      return result;
+    }
+    final String pluginPrefix = METIS_PLUGINS_FIELD + ".";
+    final Document previousTimestampFilter = new Document(
+        pluginPrefix + REVISION_TIMESTAMP_PREVIOUS_PLUGIN_FIELD,
+        new Document("$in", startedDates));
+    final List<Bson> pipeline = List.of(
+        Aggregates.match(previousTimestampFilter),
+        Aggregates.unwind("$" + METIS_PLUGINS_FIELD),
+        Aggregates.match(previousTimestampFilter),
+        Aggregates.project(Projections.fields(
+            Projections.computed("pluginId", "$" + pluginPrefix + PLUGIN_ID_FIELD),
+            Projections.computed(DATA_STATUS_FIELD, "$" + pluginPrefix + DATA_STATUS_FIELD),
+            Projections.computed("previousName",
+                "$" + pluginPrefix + REVISION_NAME_PREVIOUS_PLUGIN_FIELD),
+            Projections.computed("previousTimestamp",
+                "$" + pluginPrefix + REVISION_TIMESTAMP_PREVIOUS_PLUGIN_FIELD))));
+    ExternalRequestUtil.retryableExternalRequestForNetworkExceptions(() -> {
+      result.clear();
+      collection.aggregate(pipeline).allowDiskUse(true).forEach(document -> result
+          .computeIfAbsent(new ImmutablePair<>(document.getString("previousName"),
+              document.getDate("previousTimestamp")), key -> new ArrayList<>())
+          .add(new SuccessorPlugin(document.getObjectId(ID_FIELD).toString(),
+              document.getString("pluginId"), document.getString(DATA_STATUS_FIELD))));
+      return null;
+    });
+    return result;
+  }
+
+  /**
+   * Checks whether the plugin can be deleted. This check takes into account the plugins that
+   * were found deletable before (as if they were already deleted), so that the outcome is the same
+   * as when deleting the plugins one by one in the given order.
+   */
   private static boolean canDeletePlugin(
       Pair<WorkflowExecution, AbstractMetisPlugin> executionAndPlugin,
-      MorphiaDatastoreProvider datastoreProvider) {
+      Map<Pair<String, Date>, List<SuccessorPlugin>> successors, Set<String> deletedPluginIds) {
     final WorkflowExecution execution = executionAndPlugin.getLeft();
     final AbstractMetisPlugin plugin = executionAndPlugin.getRight();
 
-    // Test that there is no other plugin depending on this one. NOTE: disabling validation on
-    // the queries to suppress warnings from Morphia. If the mode is to mark as deleted, we will
-    // accept depending plugins that are themselves also deleted.
-    final List<Filter> pluginFilters = new ArrayList<>();
-    pluginFilters.add(Filters.eq("pluginMetadata.revisionNamePreviousPlugin",
-            plugin.getPluginType().name()));
-    pluginFilters.add(Filters.eq("pluginMetadata.revisionTimestampPreviousPlugin",
-            plugin.getStartedDate()));
-    if (MODE == Mode.MARK_AS_DELETED) {
-      pluginFilters.add(Filters.ne("dataStatus", DataStatus.DELETED));
-    }
-    final Query<WorkflowExecution> query =
-        datastoreProvider.getDatastore().find(WorkflowExecution.class).disableValidation();
-    query.filter(Filters.elemMatch("metisPlugins", pluginFilters.toArray(new Filter[0])));
-    final WorkflowExecution result = ExternalRequestUtil
-            .retryableExternalRequestForNetworkExceptions(() -> query.first(new FindOptions()));
-    if (result != null) {
+    // Test that there is no other plugin depending on this one. If the mode is to mark as deleted,
+    // we will accept depending plugins that are themselves also deleted.
+    final SuccessorPlugin successor = Optional.ofNullable(plugin.getStartedDate())
+        .map(startedDate -> successors.get(
+            new ImmutablePair<>(plugin.getPluginType().name(), startedDate)))
+        .orElse(Collections.emptyList()).stream()
+        .filter(candidate -> !deletedPluginIds.contains(candidate.pluginId))
+        .filter(candidate -> MODE != Mode.MARK_AS_DELETED
+            || !DataStatus.DELETED.name().equals(candidate.dataStatus))
+        .findFirst().orElse(null);
+    if (successor != null) {
       LOGGER.error("Could not remove plugin execution with ID {} and type {} in workflow with ID "
                       + "{}: there seems to be a successor of this plugin in workflow with ID {}.",
-              plugin.getId(), plugin.getPluginType(), execution.getId(), result.getId().toString());
+              plugin.getId(), plugin.getPluginType(), execution.getId(), successor.executionId);
       return false;
     }
 
     // Test that if the plugin is not the last one, the next plugin has another source set (meaning
     // that it is not implicitly a successor of the plugin to be removed). Note: it is ok for there
-    // to be an implicit successor if that successor is also marked as deleted.
+    // to be an implicit successor if that successor is also marked as deleted. Plugins that are
+    // removed from the database before this one are not taken into account.
     // TODO this method does not take into account Link checking and the jumps that can happen. I.E.
     // a plugin can be successor of two plugins earlier if the one in between is link checking.
-    final int pluginIndex = IntStream.range(0, execution.getMetisPlugins().size())
-        .filter(index -> execution.getMetisPlugins().get(index).getId().equals(plugin.getId()))
+    final List<AbstractMetisPlugin> metisPlugins = execution.getMetisPlugins().stream()
+        .filter(metisPlugin -> MODE != Mode.REMOVE_FROM_DB
+            || !deletedPluginIds.contains(metisPlugin.getId())).collect(Collectors.toList());
+    final int pluginIndex = IntStream.range(0, metisPlugins.size())
+        .filter(index -> metisPlugins.get(index).getId().equals(plugin.getId()))
         .findFirst().orElseThrow(IllegalStateException::new);
     if (plugin.getPluginType() != PluginType.LINK_CHECKING
-            && pluginIndex != execution.getMetisPlugins().size() - 1) {
-      final AbstractMetisPlugin nextPlugin = execution.getMetisPlugins().get(pluginIndex + 1);
+            && pluginIndex != metisPlugins.size() - 1) {
+      final AbstractMetisPlugin nextPlugin = metisPlugins.get(pluginIndex + 1);
       final boolean previousTimestampIsSetAndDifferent = nextPlugin.getPluginMetadata() != null
           && nextPlugin.getPluginMetadata().getRevisionTimestampPreviousPlugin() != null
           && !nextPlugin.getPluginMetadata().getRevisionTimestampPreviousPlugin()
@@ -190,8 +326,9 @@ public class RemovePluginsMain {
           && nextPlugin.getPluginMetadata().getRevisionNamePreviousPlugin() != null && !nextPlugin
           .getPluginMetadata().getRevisionNamePreviousPlugin()
           .equals(plugin.getPluginType().name());
-      final boolean acceptableBecauseMarkedAsDeleted =
-              MODE == Mode.MARK_AS_DELETED && nextPlugin.getDataStatus() == DataStatus.DELETED;
+      final boolean acceptableBecauseMarkedAsDeleted = MODE == Mode.MARK_AS_DELETED
+          && (nextPlugin.getDataStatus() == DataStatus.DELETED
+          || deletedPluginIds.contains(nextPlugin.getId()));
       if (!previousTimestampIsSetAndDifferent && !previousNameIsSetAndDifferent &&
               !acceptableBecauseMarkedAsDeleted) {
         LOGGER.error("Could not remove plugin execution with ID {} and type {} in workflow with ID "
@@ -205,42 +342,73 @@ public class RemovePluginsMain {
     return true;
   }
 
-  private static void deletePlugin(Pair<WorkflowExecution, AbstractMetisPlugin> executionAndPlugin,
-      MorphiaDatastoreProvider datastoreProvider) {
+  private static void registerDeletion(
+      Pair<WorkflowExecution, AbstractMetisPlugin> executionAndPlugin, Set<String> deletedPluginIds,
+      Map<WorkflowExecution, List<AbstractMetisPlugin>> pluginsToDeleteByExecution) {
 
-    // If the mode calls for marking as deleted, we do this and are done.
-    if (MODE == Mode.MARK_AS_DELETED) {
-      if (executionAndPlugin.getRight() instanceof AbstractExecutablePlugin) {
-        executionAndPlugin.getRight().setDataStatus(DataStatus.DELETED);
-        ExternalRequestUtil.retryableExternalRequestForNetworkExceptions(
-            () -> datastoreProvider.getDatastore().save(executionAndPlugin.getLeft()));
-      }
+    // If the mode calls for marking as deleted, only executable plugins are marked.
+    if (MODE == Mode.MARK_AS_DELETED
+        && !(executionAndPlugin.getRight() instanceof AbstractExecutablePlugin)) {
       return;
     }
-
-    // If there is only one plugin, we remove the execution and we are done.
-    final WorkflowExecution execution = executionAndPlugin.getLeft();
-    if (execution.getMetisPlugins().size() == 1) {
-      ExternalRequestUtil.retryableExternalRequestForNetworkExceptions(
-          () -> datastoreProvider.getDatastore().delete(execution));
+    if (!deletedPluginIds.add(executionAndPlugin.getRight().getId())) {
       return;
     }
+    pluginsToDeleteByExecution.computeIfAbsent(executionAndPlugin.getLeft(),
+        key -> new ArrayList<>()).add(executionAndPlugin.getRight());
+  }
 
-    // Otherwise find the index of the plugin in the executions and remove it.
-    final AbstractMetisPlugin plugin = executionAndPlugin.getRight();
-    final int pluginIndex = IntStream.range(0, execution.getMetisPlugins().size())
-        .filter(index -> execution.getMetisPlugins().get(index).getId().equals(plugin.getId()))
-        .findFirst().orElseThrow(IllegalStateException::new);
-    final List<AbstractMetisPlugin> metisPlugins = new ArrayList<>(execution.getMetisPlugins());
-    metisPlugins.remove(pluginIndex);
-    execution.setMetisPlugins(metisPlugins);
+  /**
+   * Creates the operation that removes all the given plugins from the execution: it marks them as
+   * deleted, removes them from the execution or removes the execution (if no plugins remain).
+   */
+  private static WriteModel<Document> createOperation(WorkflowExecution execution,
+      List<AbstractMetisPlugin> pluginsToDelete) {
+    final Document filter = new Document(ID_FIELD, execution.getId());
+    final List<String> pluginIds = pluginsToDelete.stream().map(AbstractMetisPlugin::getId)
+        .collect(Collectors.toList());
+
+    // If the mode calls for marking as deleted, we set the data status of all plugins.
+    if (MODE == Mode.MARK_AS_DELETED) {
+      final Document set = new Document();
+      final List<Document> arrayFilters = new ArrayList<>();
+      for (int i = 0; i < pluginIds.size(); i++) {
+        final String identifier = "p" + i;
+        set.append(METIS_PLUGINS_FIELD + ".$[" + identifier + "]." + DATA_STATUS_FIELD,
+            DataStatus.DELETED.name());
+        arrayFilters.add(new Document(identifier + "." + PLUGIN_ID_FIELD, pluginIds.get(i)));
+      }
+      return new UpdateOneModel<>(filter, new Document("$set", set),
+          new UpdateOptions().arrayFilters(arrayFilters));
+    }
+
+    // If no plugins remain, we remove the execution.
+    final List<AbstractMetisPlugin> remainingPlugins = execution.getMetisPlugins().stream()
+        .filter(plugin -> !pluginIds.contains(plugin.getId())).collect(Collectors.toList());
+    if (remainingPlugins.isEmpty()) {
+      return new DeleteOneModel<>(filter);
+    }
 
-    // Set the new workflow status. In case it changes to CANCELLED, leave cancelledBy blank.
-    execution.setWorkflowStatus(determineWorkflowStatus(execution.getMetisPlugins()));
+    // Otherwise we remove the plugins and set the new workflow status. In case it changes to
+    // CANCELLED, leave cancelledBy blank.
+    final Document update = new Document("$pull", new Document(METIS_PLUGINS_FIELD,
+        new Document(PLUGIN_ID_FIELD, new Document("$in", pluginIds))))
+        .append("$set", new Document(WORKFLOW_STATUS_FIELD,
+            determineWorkflowStatus(remainingPlugins).name()));
+    return new UpdateOneModel<>(filter, update);
+  }
 
-    // Save the new execution.
-    ExternalRequestUtil.retryableExternalRequestForNetworkExceptions(
-        () -> datastoreProvider.getDatastore().save(execution));
+  private static String describe(WriteModel<Document> operation) {
+    if (operation instanceof DeleteOneModel) {
+      return "deleteOne " + ((Document) ((DeleteOneModel<Document>) operation).getFilter())
+          .toJson();
+    }
+    final UpdateOneModel<Document> update = (UpdateOneModel<Document>) operation;
+    final List<? extends Bson> arrayFilters = update.getOptions().getArrayFilters();
+    return "updateOne " + ((Document) update.getFilter()).toJson() + " " + ((Document) update
+        .getUpdate()).toJson() + (arrayFilters == null ? "" : " arrayFilters " + arrayFilters
+        .stream().map(Document.class::cast).map(Document::toJson)
+        .collect(Collectors.joining(", ", "[", "]")));
   }
 
   private static WorkflowStatus determineWorkflowStatus(List<AbstractMetisPlugin> plugins) {
@@ -268,4 +436,17 @@ public class RemovePluginsMain {
     }
     return result;
   }
+
+  private static class SuccessorPlugin {
+
+    private final String executionId;
+    private final String pluginId;
+    private final String dataStatus;
+
+    SuccessorPlugin(String executionId, String pluginId, String dataStatus) {
+      this.executionId = executionId;
+      this.pluginId = pluginId;
+      this.dataStatus = dataStatus;
+    }
+  }
 }
@@ -0,0 +1,49 @@
+package eu.europeana.metis.remove.utils;
+
+import java.util.Comparator;
+
+/**
+ * Orders dataset IDs. Dataset IDs are normally numeric, and these are ordered as numbers. Any
+ * non-numeric IDs are ordered as strings, after all numeric IDs. All tools in this module that
+ * process or output datasets in order use this comparator, so that their orders agree.
+ */
+public final class DatasetIdComparator implements Comparator<String> {
+
+  public static final DatasetIdComparator INSTANCE = new DatasetIdComparator();
+
+  private DatasetIdComparator() {
+  }
+
+  @Override
+  public int compare(String datasetId1, String datasetId2) {
+    final boolean numeric1 = isNumeric(datasetId1);
+    final boolean numeric2 = isNumeric(datasetId2);
+    if (numeric1 != numeric2) {
+      return numeric1 ? -1 : 1;
+    }
+    if (numeric1) {
+      // Compare the digits without leading zeros, so that there is no limit on the length.
+      final String digits1 = stripLeadingZeros(datasetId1);
+      final String digits2 = stripLeadingZeros(datasetId2);
+      final int result = digits1.length() != digits2.length() ? Integer
+          .compare(digits1.length(), digits2.length()) : digits1.compareTo(digits2);
+      if (result != 0) {
+        return result;
+      }
+    }
+    // Also for numeric IDs that only differ in leading zeros: these are different IDs.
+    return datasetId1.compareTo(datasetId2);
+  }
+
+  private static boolean isNumeric(String datasetId) {
+    return !datasetId.isEmpty() && datasetId.chars().allMatch(c -> c >= '0' && c <= '9');
+  }
+
+  private static String stripLeadingZeros(String digits) {
+    int start = 0;
+    while (start < digits.length() - 1 && digits.charAt(start) == '0') {
+      start++;
+    }
+    return digits.substring(start);
+  }
+}
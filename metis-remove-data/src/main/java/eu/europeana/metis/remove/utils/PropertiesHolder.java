@@ -14,6 +14,7 @@ import java.net.URISyntaxException;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Properties;
+import org.apache.commons.lang3.StringUtils;
 
 /**
  * Contains all properties that are required for execution.
@@ -41,26 +42,20 @@ public class PropertiesHolder {
   public final String ecloudProvider;
   public final String ecloudUsername;
   public final String ecloudPassword;
+  public final int ecloudDeleteMaxInFlight;
+  public final int ecloudDeleteMaxRetries;
+  public final String ecloudDeleteCheckpointFolder;
+
+  // Processing
+  public final int parallelThreads;
 
   // truststore
   final String truststorePath;
   final String truststorePassword;
 
-  // Mongo publish
-  private final String[] publishMongoHosts;
-  private final int[] publishMongoPorts;
-  private final String publishMongoAuthenticationDb;
-  private final String publishMongoUsername;
-  private final String publishMongoPassword;
-  private final boolean publishMongoEnablessl;
-  private final String publishMongoDb;
-
-  // Solr/Zookeeper publish
-  private final String[] publishSolrHosts;
-  private final String[] publishZookeeperHosts;
-  private final int[] publishZookeeperPorts;
-  private final String publishZookeeperChroot;
-  private final String publishZookeeperDefaultCollection;
+  // Mongo and Solr/Zookeeper published and preview records
+  private final IndexingTargetProperties publishProperties;
+  private final IndexingTargetProperties previewProperties;
 
   public PropertiesHolder() {
 
@@ -89,33 +84,23 @@ public class PropertiesHolder {
     ecloudProvider = properties.getProperty("ecloud.provider");
     ecloudUsername = properties.getProperty("ecloud.username");
     ecloudPassword = properties.getProperty("ecloud.password");
+    ecloudDeleteMaxInFlight = Integer
+        .parseInt(properties.getProperty("ecloud.delete.max.in.flight", "1"));
+    ecloudDeleteMaxRetries = Integer
+        .parseInt(properties.getProperty("ecloud.delete.max.retries", "0"));
+    ecloudDeleteCheckpointFolder = properties.getProperty("ecloud.delete.checkpoint.folder", ".");
+
+    // Processing
+    parallelThreads = Integer.parseInt(properties.getProperty("parallel.threads", "1"));
 
     // truststore
     truststorePath = properties.getProperty("truststore.path");
     truststorePassword = properties.getProperty("truststore.password");
 
-    // Mongo publish
-    publishMongoHosts = properties.getProperty("mongo.publish.hosts").split(",");
-    publishMongoPorts = Arrays
-        .stream(properties.getProperty("mongo.publish.port").split(","))
-        .mapToInt(Integer::parseInt).toArray();
-    publishMongoAuthenticationDb = properties
-        .getProperty("mongo.publish.authentication.db");
-    publishMongoUsername = properties.getProperty("mongo.publish.username");
-    publishMongoPassword = properties.getProperty("mongo.publish.password");
-    publishMongoEnablessl = Boolean
-        .parseBoolean(properties.getProperty("mongo.publish.enableSSL"));
-    publishMongoDb = properties.getProperty("mongo.publish.db");
-
-    // Solr/Zookeeper publish
-    publishSolrHosts = properties.getProperty("solr.publish.hosts").split(",");
-    publishZookeeperHosts = properties.getProperty("zookeeper.publish.hosts").split(",");
-    publishZookeeperPorts = Arrays
-        .stream(properties.getProperty("zookeeper.publish.port").split(","))
-        .mapToInt(Integer::parseInt).toArray();
-    publishZookeeperChroot = properties.getProperty("zookeeper.publish.chroot");
-    publishZookeeperDefaultCollection = properties
-        .getProperty("zookeeper.publish.defaultCollection");
+    // Mongo and Solr/Zookeeper published and preview records (the latter being optional)
+    publishProperties = new IndexingTargetProperties(properties, "publish");
+    previewProperties = StringUtils.isBlank(properties.getProperty("mongo.preview.hosts")) ? null
+        : new IndexingTargetProperties(properties, "preview");
   }
 
   public MongoProperties<IllegalArgumentException> getMongoCoreProperties() {
@@ -129,39 +114,100 @@ public class PropertiesHolder {
 
   public IndexingSettings getPublishIndexingSettings()
       throws IndexingException, URISyntaxException {
-    final IndexingSettings indexingSettings = new IndexingSettings();
-    prepareMongoSettings(indexingSettings);
-    prepareSolrSettings(indexingSettings);
-    prepareZookeeperSettings(indexingSettings);
-    indexingSettings.setRecordRedirectDatabaseName("assumed_to_not_be_needed");
-    return indexingSettings;
+    return publishProperties.getIndexingSettings(mongoCoreApplicationName);
   }
 
-  private void prepareMongoSettings(IndexingSettings indexingSettings) throws IndexingException {
-    indexingSettings.getMongoProperties().setAllProperties(publishMongoHosts,
-            publishMongoPorts, publishMongoAuthenticationDb, publishMongoUsername,
-            publishMongoPassword, publishMongoEnablessl,
-            eu.europeana.metis.mongo.connection.MongoProperties.ReadPreferenceValue.PRIMARY,
-            mongoCoreApplicationName);
-    indexingSettings.setMongoDatabaseName(publishMongoDb);
+  /**
+   * @return The indexing settings for the preview environment, or null if they are not
+   * configured.
+   */
+  public IndexingSettings getPreviewIndexingSettings()
+      throws IndexingException, URISyntaxException {
+    return previewProperties == null ? null
+        : previewProperties.getIndexingSettings(mongoCoreApplicationName);
   }
 
-  private void prepareSolrSettings(IndexingSettings indexingSettings)
-      throws URISyntaxException, SetupRelatedIndexingException {
-    for (String instance : publishSolrHosts) {
-      indexingSettings.addSolrHost(new URI(instance + publishZookeeperDefaultCollection));
+  /**
+   * The Mongo and Solr/Zookeeper properties of one indexing target (e.g. publish or preview).
+   */
+  private static final class IndexingTargetProperties {
+
+    // Mongo
+    private final String[] mongoHosts;
+    private final int[] mongoPorts;
+    private final String mongoAuthenticationDb;
+    private final String mongoUsername;
+    private final String mongoPassword;
+    private final boolean mongoEnablessl;
+    private final String mongoDb;
+
+    // Solr/Zookeeper
+    private final String[] solrHosts;
+    private final String[] zookeeperHosts;
+    private final int[] zookeeperPorts;
+    private final String zookeeperChroot;
+    private final String zookeeperDefaultCollection;
+
+    IndexingTargetProperties(Properties properties, String target) {
+
+      // Mongo
+      mongoHosts = properties.getProperty("mongo." + target + ".hosts").split(",");
+      mongoPorts = Arrays
+          .stream(properties.getProperty("mongo." + target + ".port").split(","))
+          .mapToInt(Integer::parseInt).toArray();
+      mongoAuthenticationDb = properties.getProperty("mongo." + target + ".authentication.db");
+      mongoUsername = properties.getProperty("mongo." + target + ".username");
+      mongoPassword = properties.getProperty("mongo." + target + ".password");
+      mongoEnablessl = Boolean
+          .parseBoolean(properties.getProperty("mongo." + target + ".enableSSL"));
+      mongoDb = properties.getProperty("mongo." + target + ".db");
+
+      // Solr/Zookeeper
+      solrHosts = properties.getProperty("solr." + target + ".hosts").split(",");
+      zookeeperHosts = properties.getProperty("zookeeper." + target + ".hosts").split(",");
+      zookeeperPorts = Arrays
+          .stream(properties.getProperty("zookeeper." + target + ".port").split(","))
+          .mapToInt(Integer::parseInt).toArray();
+      zookeeperChroot = properties.getProperty("zookeeper." + target + ".chroot");
+      zookeeperDefaultCollection = properties
+          .getProperty("zookeeper." + target + ".defaultCollection");
+    }
+
+    IndexingSettings getIndexingSettings(String applicationName)
+        throws IndexingException, URISyntaxException {
+      final IndexingSettings indexingSettings = new IndexingSettings();
+      prepareMongoSettings(indexingSettings, applicationName);
+      prepareSolrSettings(indexingSettings);
+      prepareZookeeperSettings(indexingSettings);
+      indexingSettings.setRecordRedirectDatabaseName("assumed_to_not_be_needed");
+      return indexingSettings;
+    }
+
+    private void prepareMongoSettings(IndexingSettings indexingSettings, String applicationName)
+        throws IndexingException {
+      indexingSettings.getMongoProperties().setAllProperties(mongoHosts, mongoPorts,
+          mongoAuthenticationDb, mongoUsername, mongoPassword, mongoEnablessl,
+          ReadPreferenceValue.PRIMARY, applicationName);
+      indexingSettings.setMongoDatabaseName(mongoDb);
+    }
+
+    private void prepareSolrSettings(IndexingSettings indexingSettings)
+        throws URISyntaxException, SetupRelatedIndexingException {
+      for (String instance : solrHosts) {
+        indexingSettings.addSolrHost(new URI(instance + zookeeperDefaultCollection));
+      }
     }
-  }
 
-  private void prepareZookeeperSettings(IndexingSettings indexingSettings)
-      throws SetupRelatedIndexingException {
-    final List<InetSocketAddress> addresses = new InetAddressUtil<>(
-            SetupRelatedIndexingException::new)
-            .getAddressesFromHostsAndPorts(publishZookeeperHosts, publishZookeeperPorts);
-    for (InetSocketAddress address : addresses) {
-      indexingSettings.addZookeeperHost(address);
+    private void prepareZookeeperSettings(IndexingSettings indexingSettings)
+        throws SetupRelatedIndexingException {
+      final List<InetSocketAddress> addresses = new InetAddressUtil<>(
+          SetupRelatedIndexingException::new)
+          .getAddressesFromHostsAndPorts(zookeeperHosts, zookeeperPorts);
+      for (InetSocketAddress address : addresses) {
+        indexingSettings.addZookeeperHost(address);
+      }
+      indexingSettings.setZookeeperChroot(zookeeperChroot);
+      indexingSettings.setZookeeperDefaultCollection(zookeeperDefaultCollection);
     }
-    indexingSettings.setZookeeperChroot(publishZookeeperChroot);
-    indexingSettings.setZookeeperDefaultCollection(publishZookeeperDefaultCollection);
   }
 }
@@ -0,0 +1,120 @@
+package eu.europeana.metis.remove.dataset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import eu.europeana.cloud.mcs.driver.DataSetServiceClient;
+import eu.europeana.cloud.mcs.driver.RecordServiceClient;
+import eu.europeana.metis.core.dao.DatasetDao;
+import eu.europeana.metis.core.dataset.Dataset;
+import eu.europeana.metis.core.mongo.MorphiaDatastoreProvider;
+import eu.europeana.metis.core.mongo.MorphiaDatastoreProviderImpl;
+import eu.europeana.metis.mongo.embedded.EmbeddedLocalhostMongo;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.util.NamedList;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests the {@link DatasetRemover} against an embedded Mongo.
+ */
+class DatasetRemoverTest {
+
+  private static final String METIS_DATABASE_NAME = "metis-core";
+  private static final String RECORD_DATABASE_NAME = "records";
+  private static final String DATASET_ID = "1";
+
+  private static EmbeddedLocalhostMongo embeddedMongo;
+
+  @TempDir
+  Path tempDir;
+
+  private MongoClient mongoClient;
+  private RecordPurger recordPurger;
+  private DatasetDao datasetDao;
+  private DatasetRemover datasetRemover;
+  private final AtomicInteger solrRequests = new AtomicInteger();
+
+  @BeforeAll
+  static void startMongo() {
+    embeddedMongo = new EmbeddedLocalhostMongo();
+    embeddedMongo.start();
+  }
+
+  @AfterAll
+  static void stopMongo() {
+    embeddedMongo.stop();
+  }
+
+  @BeforeEach
+  void setUp() {
+    mongoClient = createMongoClient();
+    mongoClient.getDatabase(METIS_DATABASE_NAME).drop();
+    final MorphiaDatastoreProvider datastoreProvider = new MorphiaDatastoreProviderImpl(
+        mongoClient, METIS_DATABASE_NAME);
+    datasetDao = new DatasetDao(datastoreProvider, null);
+    final Dataset dataset = new Dataset();
+    dataset.setDatasetId(DATASET_ID);
+    dataset.setDatasetName("Dataset");
+    dataset.setEcloudDatasetId("ecloud-dataset");
+    datasetDao.create(dataset);
+
+    // Solr is not available: every request fails. eCloud is never reached.
+    final SolrClient failingSolrClient = new SolrClient() {
+      @Override
+      public NamedList<Object> request(SolrRequest request, String collection)
+          throws SolrServerException {
+        solrRequests.incrementAndGet();
+        throw new SolrServerException("Solr is not available.");
+      }
+
+      @Override
+      public void close() {
+        // Nothing to close.
+      }
+    };
+    recordPurger = new RecordPurger("test", createMongoClient(),
+        RECORD_DATABASE_NAME, failingSolrClient, failingSolrClient, false);
+    final String unusedUrl = "http://localhost:1/mcs";
+    datasetRemover = new DatasetRemover(datastoreProvider,
+        new DataSetServiceClient(unusedUrl, "user", "password"),
+        new RecordServiceClient(unusedUrl, "user", "password"), "provider", 1, 0, tempDir,
+        List.of(recordPurger));
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    recordPurger.close();
+    mongoClient.close();
+  }
+
+  @Test
+  void datasetIsKeptWhenPurgingTheRecordsFails() {
+    assertThrows(SolrServerException.class, () -> datasetRemover.removeDataset(DATASET_ID));
+    assertNotNull(datasetDao.getDatasetByDatasetId(DATASET_ID));
+    final int requestsInFirstRun = solrRequests.get();
+
+    // A rerun does not stop because the dataset is gone: it tries to purge the records again.
+    assertThrows(SolrServerException.class, () -> datasetRemover.removeDataset(DATASET_ID));
+    assertNotNull(datasetDao.getDatasetByDatasetId(DATASET_ID));
+    assertEquals(2 * requestsInFirstRun, solrRequests.get());
+  }
+
+  private static MongoClient createMongoClient() {
+    return MongoClients.create(String.format("mongodb://%s:%s", embeddedMongo.getMongoHost(),
+        embeddedMongo.getMongoPort()));
+  }
+}
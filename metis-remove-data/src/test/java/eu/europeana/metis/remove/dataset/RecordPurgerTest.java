@@ -0,0 +1,183 @@
+package eu.europeana.metis.remove.dataset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.mongodb.DBRef;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import eu.europeana.metis.mongo.embedded.EmbeddedLocalhostMongo;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.embedded.EmbeddedSolrServer;
+import org.apache.solr.common.SolrInputDocument;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests the {@link RecordPurger} against an embedded Mongo and an embedded Solr.
+ */
+class RecordPurgerTest {
+
+  private static final String DATABASE_NAME = "records";
+  private static final String SOLR_CORE_NAME = "records";
+
+  /** More records than fit in one batch, so that the purge takes more than one batch. */
+  private static final int RECORDS_IN_DATASET = 1500;
+  private static final int RECORDS_IN_OTHER_DATASET = 20;
+  private static final String DATASET_ID = "1";
+  private static final String OTHER_DATASET_ID = "10";
+
+  /** The collections with dataset specific abouts, and the prefix of these abouts. */
+  private static final Map<String, List<String>> PREFIXES_BY_COLLECTION = Map.of(
+      "Aggregation", List.of("/aggregation/provider/"),
+      "EuropeanaAggregation", List.of("/aggregation/europeana/"),
+      "Proxy", List.of("/proxy/provider/", "/proxy/europeana/"),
+      "ProvidedCHO", List.of("/item/"),
+      "record", List.of("/"));
+
+  private static EmbeddedLocalhostMongo embeddedMongo;
+
+  @TempDir
+  Path tempDir;
+
+  private EmbeddedSolrServer solrServer;
+  private MongoDatabase mongoDatabase;
+  private MongoClient testMongoClient;
+
+  @BeforeAll
+  static void startMongo() {
+    embeddedMongo = new EmbeddedLocalhostMongo();
+    embeddedMongo.start();
+  }
+
+  @AfterAll
+  static void stopMongo() {
+    embeddedMongo.stop();
+  }
+
+  @BeforeEach
+  void setUp() throws IOException, SolrServerException, URISyntaxException {
+    testMongoClient = createMongoClient();
+    mongoDatabase = testMongoClient.getDatabase(DATABASE_NAME);
+    mongoDatabase.drop();
+    solrServer = startSolr(tempDir);
+    addRecords(DATASET_ID, RECORDS_IN_DATASET);
+    addRecords(OTHER_DATASET_ID, RECORDS_IN_OTHER_DATASET);
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    solrServer.close();
+    testMongoClient.close();
+  }
+
+  @Test
+  void purgeRemovesAllRecordsOfTheDatasetOnly() throws IOException, SolrServerException {
+    try (RecordPurger purger = createPurger(false)) {
+      assertEquals(RECORDS_IN_DATASET, purger.countSolr(DATASET_ID));
+      purger.purge(DATASET_ID);
+      assertEquals(0, purger.countSolr(DATASET_ID));
+      assertEquals(RECORDS_IN_OTHER_DATASET, purger.countSolr(OTHER_DATASET_ID));
+    }
+    assertMongoRecords(DATASET_ID, 0);
+    assertMongoRecords(OTHER_DATASET_ID, RECORDS_IN_OTHER_DATASET);
+    assertEquals(RECORDS_IN_OTHER_DATASET,
+        mongoDatabase.getCollection("WebResource").countDocuments());
+    assertEquals(RECORDS_IN_OTHER_DATASET, countSolrDocuments());
+  }
+
+  @Test
+  void purgeInDryRunModeRemovesNothing() throws IOException, SolrServerException {
+    try (RecordPurger purger = createPurger(true)) {
+      purger.purge(DATASET_ID);
+      assertEquals(RECORDS_IN_DATASET, purger.purgeMongo(DATASET_ID));
+    }
+    assertMongoRecords(DATASET_ID, RECORDS_IN_DATASET);
+    assertMongoRecords(OTHER_DATASET_ID, RECORDS_IN_OTHER_DATASET);
+    assertEquals(RECORDS_IN_DATASET + RECORDS_IN_OTHER_DATASET,
+        mongoDatabase.getCollection("WebResource").countDocuments());
+    assertEquals(RECORDS_IN_DATASET + RECORDS_IN_OTHER_DATASET, countSolrDocuments());
+  }
+
+  private RecordPurger createPurger(boolean dryRun) {
+    // The Solr server is closed after the test: the purger should not close it.
+    return new RecordPurger("test", createMongoClient(), DATABASE_NAME, solrServer, () -> {
+    }, dryRun);
+  }
+
+  private void addRecords(String datasetId, int recordCount)
+      throws IOException, SolrServerException {
+    final List<SolrInputDocument> solrDocuments = new ArrayList<>(recordCount);
+    for (int index = 0; index < recordCount; index++) {
+      final String recordId = datasetId + "/record" + index;
+      final ObjectId webResourceId = new ObjectId();
+      mongoDatabase.getCollection("WebResource").insertOne(
+          new Document("_id", webResourceId).append("about", "http://resource/" + index));
+      for (Map.Entry<String, List<String>> entry : PREFIXES_BY_COLLECTION.entrySet()) {
+        for (String prefix : entry.getValue()) {
+          final Document document = new Document("about", prefix + recordId);
+          if ("Aggregation".equals(entry.getKey())) {
+            document.append("webResources", List.of(new DBRef("WebResource", webResourceId)));
+          }
+          mongoDatabase.getCollection(entry.getKey()).insertOne(document);
+        }
+      }
+      final SolrInputDocument solrDocument = new SolrInputDocument();
+      solrDocument.addField("europeana_id", "/" + recordId);
+      solrDocument.addField("edm_datasetName", datasetId + "_Dataset");
+      solrDocuments.add(solrDocument);
+    }
+    solrServer.add(solrDocuments);
+    solrServer.commit();
+  }
+
+  private void assertMongoRecords(String datasetId, long expectedCount) {
+    for (Map.Entry<String, List<String>> entry : PREFIXES_BY_COLLECTION.entrySet()) {
+      for (String prefix : entry.getValue()) {
+        assertEquals(expectedCount, mongoDatabase.getCollection(entry.getKey())
+            .countDocuments(Filters.regex("about", "^" + prefix + datasetId + "/")));
+      }
+    }
+  }
+
+  private long countSolrDocuments() throws IOException, SolrServerException {
+    return solrServer.query(new SolrQuery("*:*").setRows(0)).getResults().getNumFound();
+  }
+
+  private static MongoClient createMongoClient() {
+    return MongoClients.create(String.format("mongodb://%s:%s", embeddedMongo.getMongoHost(),
+        embeddedMongo.getMongoPort()));
+  }
+
+  /**
+   * Starts an embedded Solr, with a copy of the Solr home in the test resources.
+   */
+  private static EmbeddedSolrServer startSolr(Path tempDir)
+      throws IOException, URISyntaxException {
+    final Path sourceHome = Paths.get(RecordPurgerTest.class.getResource("/solr").toURI());
+    final Path solrHome = tempDir.resolve("solr");
+    try (Stream<Path> paths = Files.walk(sourceHome)) {
+      for (Path path : (Iterable<Path>) paths::iterator) {
+        Files.copy(path, solrHome.resolve(sourceHome.relativize(path).toString()));
+      }
+    }
+    return new EmbeddedSolrServer(solrHome, SOLR_CORE_NAME);
+  }
+}
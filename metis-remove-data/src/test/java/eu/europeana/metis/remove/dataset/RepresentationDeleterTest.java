@@ -0,0 +1,177 @@
+package eu.europeana.metis.remove.dataset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import eu.europeana.cloud.common.model.Representation;
+import eu.europeana.cloud.mcs.driver.RecordServiceClient;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests the {@link RepresentationDeleter} against a local HTTP stub of the eCloud record service.
+ */
+class RepresentationDeleterTest {
+
+  private static final int REPRESENTATIONS = 40;
+  private static final int MAX_IN_FLIGHT = 4;
+  private static final int MAX_RETRIES = 2;
+  private static final long RESPONSE_DELAY_MILLIS = 20;
+
+  private static final String ERROR_RESPONSE = "<?xml version=\"1.0\" encoding=\"UTF-8\" "
+      + "standalone=\"yes\"?><errorInfo><details>Stub failure</details>"
+      + "<errorCode>OTHER</errorCode></errorInfo>";
+
+  @TempDir
+  Path tempDir;
+
+  private HttpServer server;
+  private ExecutorService serverExecutor;
+  private RecordServiceClient recordServiceClient;
+  private Path checkpointFile;
+
+  private final Map<String, AtomicInteger> failuresToServeByCloudId = new ConcurrentHashMap<>();
+  private final Map<String, AtomicInteger> requestsByCloudId = new ConcurrentHashMap<>();
+  private final Set<String> deletedCloudIds = ConcurrentHashMap.newKeySet();
+  private final AtomicInteger requestsInProgress = new AtomicInteger();
+  private final AtomicInteger maxRequestsInProgress = new AtomicInteger();
+
+  @BeforeEach
+  void startServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/", this::handleDelete);
+    serverExecutor = Executors.newFixedThreadPool(4 * MAX_IN_FLIGHT);
+    server.setExecutor(serverExecutor);
+    server.start();
+    recordServiceClient = new RecordServiceClient(
+        "http://localhost:" + server.getAddress().getPort() + "/mcs");
+    checkpointFile = tempDir.resolve("checkpoint.txt");
+  }
+
+  @AfterEach
+  void stopServer() {
+    server.stop(0);
+    serverExecutor.shutdownNow();
+  }
+
+  @Test
+  void deletesConcurrentlyWithinTheLimitAndRetriesFailures() throws Exception {
+    failuresToServeByCloudId.put(getCloudId(3), new AtomicInteger(MAX_RETRIES));
+    failuresToServeByCloudId.put(getCloudId(17), new AtomicInteger(1));
+
+    final RepresentationDeleter deleter = new RepresentationDeleter(recordServiceClient,
+        MAX_IN_FLIGHT, MAX_RETRIES);
+    deleter.deleteAll(createRepresentations().iterator(), checkpointFile);
+
+    assertEquals(REPRESENTATIONS, deleter.getDeletedCount());
+    assertEquals(0, deleter.getSkippedCount());
+    assertEquals(getAllCloudIds(), deletedCloudIds);
+    assertEquals(MAX_RETRIES + 1, requestsByCloudId.get(getCloudId(3)).get());
+    assertEquals(2, requestsByCloudId.get(getCloudId(17)).get());
+    assertTrue(maxRequestsInProgress.get() > 1);
+    assertTrue(maxRequestsInProgress.get() <= MAX_IN_FLIGHT);
+    assertEquals(REPRESENTATIONS, readCheckpoint().size());
+  }
+
+  @Test
+  void resumesFromTheCheckpointAfterAFailedRun() throws Exception {
+
+    // The first run fails for one representation, even after the retries.
+    failuresToServeByCloudId.put(getCloudId(5), new AtomicInteger(MAX_RETRIES + 1));
+    final RepresentationDeleter firstDeleter = new RepresentationDeleter(recordServiceClient,
+        MAX_IN_FLIGHT, MAX_RETRIES);
+    assertThrows(Exception.class,
+        () -> firstDeleter.deleteAll(createRepresentations().iterator(), checkpointFile));
+    assertEquals(REPRESENTATIONS - 1, firstDeleter.getDeletedCount());
+    assertEquals(REPRESENTATIONS - 1, readCheckpoint().size());
+
+    // The second run only deletes the representation that failed.
+    requestsByCloudId.clear();
+    final RepresentationDeleter secondDeleter = new RepresentationDeleter(recordServiceClient,
+        MAX_IN_FLIGHT, MAX_RETRIES);
+    secondDeleter.deleteAll(createRepresentations().iterator(), checkpointFile);
+    assertEquals(1, secondDeleter.getDeletedCount());
+    assertEquals(REPRESENTATIONS - 1, secondDeleter.getSkippedCount());
+    assertEquals(Set.of(getCloudId(5)), requestsByCloudId.keySet());
+    assertEquals(getAllCloudIds(), deletedCloudIds);
+    assertEquals(REPRESENTATIONS, readCheckpoint().size());
+  }
+
+  private void handleDelete(HttpExchange exchange) throws IOException {
+    final int inProgress = requestsInProgress.incrementAndGet();
+    maxRequestsInProgress.accumulateAndGet(inProgress, Math::max);
+    try {
+      Thread.sleep(RESPONSE_DELAY_MILLIS);
+
+      // The cloud ID follows the 'records' segment of the path.
+      final List<String> segments = List.of(exchange.getRequestURI().getPath().split("/"));
+      final String cloudId = segments.get(segments.indexOf("records") + 1);
+      requestsByCloudId.computeIfAbsent(cloudId, key -> new AtomicInteger()).incrementAndGet();
+      final AtomicInteger failuresToServe = failuresToServeByCloudId.get(cloudId);
+      if (!"DELETE".equals(exchange.getRequestMethod())) {
+        exchange.sendResponseHeaders(405, -1);
+      } else if (failuresToServe != null && failuresToServe.getAndDecrement() > 0) {
+        final byte[] body = ERROR_RESPONSE.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/xml");
+        exchange.sendResponseHeaders(500, body.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+          outputStream.write(body);
+        }
+      } else {
+        deletedCloudIds.add(cloudId);
+        exchange.sendResponseHeaders(204, -1);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      exchange.sendResponseHeaders(503, -1);
+    } finally {
+      requestsInProgress.decrementAndGet();
+      exchange.close();
+    }
+  }
+
+  private List<String> readCheckpoint() throws IOException {
+    return Files.readAllLines(checkpointFile, StandardCharsets.UTF_8);
+  }
+
+  private static List<Representation> createRepresentations() {
+    return IntStream.range(0, REPRESENTATIONS).mapToObj(index -> {
+      final Representation representation = new Representation();
+      representation.setCloudId(getCloudId(index));
+      representation.setRepresentationName("metadataRecord");
+      representation.setVersion("version" + index);
+      return representation;
+    }).collect(Collectors.toList());
+  }
+
+  private static Set<String> getAllCloudIds() {
+    return IntStream.range(0, REPRESENTATIONS).mapToObj(RepresentationDeleterTest::getCloudId)
+        .collect(Collectors.toCollection(HashSet::new));
+  }
+
+  private static String getCloudId(int index) {
+    return "CLOUDID" + index;
+  }
+}
@@ -0,0 +1,110 @@
+package eu.europeana.metis.remove.discover;
+
+import eu.europeana.metis.core.workflow.WorkflowExecution;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH benchmark that compares removing nodes from an {@link ExecutionPluginForest} in place to the
+ * previous approach of building the forest anew in every iteration, ignoring the nodes removed so
+ * far. Both approaches remove all leafs (with their link checking descendants) of every dataset in
+ * every iteration until the forests are empty. The histories are generated by {@link
+ * ExecutionPluginForestTest#generateHistory(String, Random)}, so this does not need a database. Run
+ * the main method (from the test classpath) to run the benchmark with the GC profiler.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExecutionPluginForestBenchmark {
+
+  private static final int DATASET_COUNT = 50;
+  private static final long SEED = 1L;
+
+  private List<List<WorkflowExecution>> histories;
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(ExecutionPluginForestBenchmark.class.getName())
+        .addProfiler(GCProfiler.class).build()).run();
+  }
+
+  @Setup
+  public void setUp() {
+    histories = generateHistories(DATASET_COUNT);
+  }
+
+  @Benchmark
+  public int inPlace() {
+    return removeAllInPlace(histories);
+  }
+
+  @Benchmark
+  public int rebuild() {
+    return removeAllByRebuilding(histories);
+  }
+
+  static List<List<WorkflowExecution>> generateHistories(int datasetCount) {
+    final Random random = new Random(SEED);
+    final List<List<WorkflowExecution>> result = new ArrayList<>(datasetCount);
+    for (int datasetIndex = 0; datasetIndex < datasetCount; datasetIndex++) {
+      result.add(ExecutionPluginForestTest.generateHistory(Integer.toString(datasetIndex), random));
+    }
+    return result;
+  }
+
+  static int removeAllInPlace(List<List<WorkflowExecution>> histories) {
+    int removedNodes = 0;
+    for (List<WorkflowExecution> history : histories) {
+      final ExecutionPluginForest forest = new ExecutionPluginForest(history, false);
+      List<ExecutionPluginNode> nodesToRemove = getLeafSubtreeNodes(forest);
+      while (!nodesToRemove.isEmpty()) {
+        forest.removeNodes(nodesToRemove);
+        removedNodes += nodesToRemove.size();
+        nodesToRemove = getLeafSubtreeNodes(forest);
+      }
+    }
+    return removedNodes;
+  }
+
+  static int removeAllByRebuilding(List<List<WorkflowExecution>> histories) {
+    int removedNodes = 0;
+    for (List<WorkflowExecution> history : histories) {
+      final Set<String> removedIds = new HashSet<>();
+      List<ExecutionPluginNode> nodesToRemove = getLeafSubtreeNodes(
+          new ExecutionPluginForest(history, false, removedIds));
+      while (!nodesToRemove.isEmpty()) {
+        nodesToRemove.stream().map(ExecutionPluginNode::getId).forEach(removedIds::add);
+        removedNodes += nodesToRemove.size();
+        nodesToRemove = getLeafSubtreeNodes(new ExecutionPluginForest(history, false, removedIds));
+      }
+    }
+    return removedNodes;
+  }
+
+  private static List<ExecutionPluginNode> getLeafSubtreeNodes(ExecutionPluginForest forest) {
+    return forest.getLeafSubtrees(node -> true).stream()
+        .map(ExecutionPluginNode::getAllInOrderOfRemoval).flatMap(List::stream)
+        .collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,171 @@
+package eu.europeana.metis.remove.discover;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import eu.europeana.metis.core.dataset.Dataset;
+import eu.europeana.metis.core.workflow.WorkflowExecution;
+import eu.europeana.metis.core.workflow.plugins.AbstractMetisPlugin;
+import eu.europeana.metis.core.workflow.plugins.AbstractMetisPluginMetadata;
+import eu.europeana.metis.core.workflow.plugins.DataStatus;
+import eu.europeana.metis.core.workflow.plugins.LinkCheckingPlugin;
+import eu.europeana.metis.core.workflow.plugins.LinkCheckingPluginMetadata;
+import eu.europeana.metis.core.workflow.plugins.PluginStatus;
+import eu.europeana.metis.core.workflow.plugins.ReindexToPreviewPlugin;
+import eu.europeana.metis.core.workflow.plugins.ReindexToPreviewPluginMetadata;
+import eu.europeana.metis.core.workflow.plugins.ReindexToPublishPlugin;
+import eu.europeana.metis.core.workflow.plugins.ReindexToPublishPluginMetadata;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+class ExecutionPluginForestTest {
+
+  private static final int EXECUTIONS = 100;
+  private static final long SEED = 1L;
+
+  @Test
+  void removingNodesInPlaceIsEquivalentToRebuildingTheForest() {
+    testRemovingNodesInPlace(false);
+  }
+
+  @Test
+  void removingNodesInPlaceIsEquivalentToRebuildingTheForestWhenIgnoringDeletedPlugins() {
+    testRemovingNodesInPlace(true);
+  }
+
+  private static void testRemovingNodesInPlace(boolean attemptToIgnoreDeletedPlugins) {
+    final List<WorkflowExecution> executions = generateHistory("1", new Random(SEED));
+    final ExecutionPluginForest forest = new ExecutionPluginForest(executions,
+        attemptToIgnoreDeletedPlugins);
+    final Set<String> removedIds = new HashSet<>();
+    final Random random = new Random(SEED);
+    int steps = 0;
+    while (forest.getNodeCount() > 0) {
+
+      // Remove some of the leafs (with their link checking descendants), as an iteration would.
+      final List<ExecutionPluginNode> leafs = forest.getLeafSubtrees(node -> true).stream()
+          .sorted(Comparator.comparing(ExecutionPluginNode::getId)).collect(Collectors.toList());
+      final List<ExecutionPluginNode> selectedLeafs = leafs.stream()
+          .filter(leaf -> random.nextBoolean()).collect(Collectors.toList());
+      final List<ExecutionPluginNode> nodesToRemove = (selectedLeafs.isEmpty() ? leafs.subList(0, 1)
+          : selectedLeafs).stream().map(ExecutionPluginNode::getAllInOrderOfRemoval)
+          .flatMap(List::stream).collect(Collectors.toList());
+      forest.removeNodes(nodesToRemove);
+      nodesToRemove.stream().map(ExecutionPluginNode::getId).forEach(removedIds::add);
+      steps++;
+
+      // Compare with the forest that is built anew, ignoring all nodes removed so far.
+      assertForestsEqual(
+          new ExecutionPluginForest(executions, attemptToIgnoreDeletedPlugins, removedIds),
+          forest);
+    }
+    assertTrue(steps > 1);
+  }
+
+  @Test
+  void benchmarkApproachesRemoveTheSameNodes() {
+    final List<List<WorkflowExecution>> histories = ExecutionPluginForestBenchmark
+        .generateHistories(3);
+    final int removedInPlace = ExecutionPluginForestBenchmark.removeAllInPlace(histories);
+    assertTrue(removedInPlace > 0);
+    assertEquals(removedInPlace, ExecutionPluginForestBenchmark.removeAllByRebuilding(histories));
+  }
+
+  private static void assertForestsEqual(ExecutionPluginForest expected,
+      ExecutionPluginForest actual) {
+    assertEquals(expected.getNodeCount(), actual.getNodeCount());
+    assertEquals(expected.getTreeCount(), actual.getTreeCount());
+    assertEquals(expected.getLeafCount(), actual.getLeafCount());
+    assertEquals(describeNodes(expected), describeNodes(actual));
+  }
+
+  private static Map<String, String> describeNodes(ExecutionPluginForest forest) {
+    final Set<String> leafIds = forest.getLeafSubtrees(node -> true).stream()
+        .map(ExecutionPluginNode::getId).collect(Collectors.toSet());
+    return forest.getNodes(node -> true).stream().collect(Collectors.toMap(
+        ExecutionPluginNode::getId,
+        node -> String.format("parent: %s, children: %s, leaf: %s, registered as leaf: %s",
+            node.getParent() == null ? null : node.getParent().getId(),
+            node.getChildren().stream().map(ExecutionPluginNode::getId).sorted()
+                .collect(Collectors.toList()), node.isLeaf(), leafIds.contains(node.getId()))));
+  }
+
+  /**
+   * Generates the history of one dataset. Every execution has a reindex to preview plugin (based on
+   * the reindex to preview plugin of a random earlier execution, so that the trees branch) followed
+   * by a reindex to publish plugin. Some plugins are followed by link checking plugins and some
+   * plugins are marked as deleted.
+   */
+  static List<WorkflowExecution> generateHistory(String datasetId, Random random) {
+    final Dataset dataset = new Dataset();
+    dataset.setDatasetId(datasetId);
+    final List<WorkflowExecution> executions = new ArrayList<>(EXECUTIONS);
+    final List<AbstractMetisPlugin> previewPlugins = new ArrayList<>(EXECUTIONS);
+    long timestamp = 0;
+    for (int executionIndex = 0; executionIndex < EXECUTIONS; executionIndex++) {
+      final List<AbstractMetisPlugin> plugins = new ArrayList<>();
+
+      // The preview plugin: mostly based on an earlier preview plugin, sometimes a new tree.
+      final ReindexToPreviewPluginMetadata previewMetadata = new ReindexToPreviewPluginMetadata();
+      if (!previewPlugins.isEmpty() && random.nextInt(5) != 0) {
+        setPredecessor(previewMetadata,
+            previewPlugins.get(random.nextInt(previewPlugins.size())));
+      }
+      final ReindexToPreviewPlugin previewPlugin = new ReindexToPreviewPlugin(previewMetadata);
+      initializePlugin(previewPlugin, timestamp++, random);
+      plugins.add(previewPlugin);
+      previewPlugins.add(previewPlugin);
+
+      // The publish plugin, based on the preview plugin.
+      final ReindexToPublishPluginMetadata publishMetadata = new ReindexToPublishPluginMetadata();
+      setPredecessor(publishMetadata, previewPlugin);
+      final ReindexToPublishPlugin publishPlugin = new ReindexToPublishPlugin(publishMetadata);
+      initializePlugin(publishPlugin, timestamp++, random);
+      plugins.add(publishPlugin);
+
+      // Link checking plugins, based on the preview or the publish plugin.
+      for (AbstractMetisPlugin linkCheckedPlugin : List.of(previewPlugin, publishPlugin)) {
+        if (random.nextInt(3) == 0) {
+          final LinkCheckingPluginMetadata linkCheckingMetadata = new LinkCheckingPluginMetadata();
+          setPredecessor(linkCheckingMetadata, linkCheckedPlugin);
+          final LinkCheckingPlugin linkCheckingPlugin = new LinkCheckingPlugin(
+              linkCheckingMetadata);
+          initializePlugin(linkCheckingPlugin, timestamp++, random);
+          plugins.add(linkCheckingPlugin);
+        }
+      }
+
+      // The execution.
+      final WorkflowExecution execution = new WorkflowExecution(dataset, plugins, 0);
+      execution.setCreatedDate(previewPlugin.getStartedDate());
+      execution.setStartedDate(previewPlugin.getStartedDate());
+      executions.add(execution);
+    }
+    return executions;
+  }
+
+  private static void setPredecessor(AbstractMetisPluginMetadata metadata,
+      AbstractMetisPlugin predecessor) {
+    metadata.setRevisionNamePreviousPlugin(predecessor.getPluginType().name());
+    metadata.setRevisionTimestampPreviousPlugin(predecessor.getStartedDate());
+  }
+
+  private static void initializePlugin(AbstractMetisPlugin plugin, long timestamp,
+      Random random) {
+    plugin.setId("plugin" + timestamp);
+    plugin.setStartedDate(new Date(timestamp));
+    plugin.setFinishedDate(new Date(timestamp));
+    plugin.setPluginStatus(PluginStatus.FINISHED);
+    if (random.nextInt(6) == 0) {
+      plugin.setDataStatus(DataStatus.DELETED);
+    }
+  }
+}
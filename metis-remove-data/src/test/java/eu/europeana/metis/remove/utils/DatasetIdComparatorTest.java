@@ -0,0 +1,21 @@
+package eu.europeana.metis.remove.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import org.junit.jupiter.api.Test;
+
+class DatasetIdComparatorTest {
+
+  @Test
+  void ordersNumericIdsAsNumbersAndOtherIdsAsStrings() {
+    final List<String> datasetIds = List.of("10", "a", "9", "1a", "01", "1",
+        "99999999999999999999", "2");
+    final TreeSet<String> sortedIds = new TreeSet<>(DatasetIdComparator.INSTANCE);
+    sortedIds.addAll(datasetIds);
+    assertEquals(List.of("01", "1", "2", "9", "10", "99999999999999999999", "1a", "a"),
+        new ArrayList<>(sortedIds));
+  }
+}
@@ -1,29 +1,41 @@
 package eu.europeana.metis.technical.metadata.generation;
 
 import eu.europeana.metis.technical.metadata.generation.model.FileStatus;
+import eu.europeana.metis.technical.metadata.generation.model.FileStatusProgress;
 import eu.europeana.metis.technical.metadata.generation.utilities.ExecutorManager;
 import eu.europeana.metis.technical.metadata.generation.utilities.MediaExtractorForFile;
 import eu.europeana.metis.technical.metadata.generation.utilities.MongoDao;
 import eu.europeana.metis.technical.metadata.generation.utilities.MongoInitializer;
 import eu.europeana.metis.technical.metadata.generation.utilities.PropertiesHolder;
 import eu.europeana.metis.utils.CustomTruststoreAppender.TrustStoreConfigurationException;
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
-import java.nio.charset.StandardCharsets;
-import java.util.Optional;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import org.mongodb.morphia.Datastore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Main method to manually check progress of the execution of the script with main class {@link
+ * TechnicalMetadataGenerationMain}, for the file index range of the configuration.
+ * <p>The progress is aggregated from the {@link FileStatus} entries in the database, that contain
+ * the line count of each file. Only files that were never counted are read, after which their
+ * line count is stored.</p>
+ */
 public class ProgressCheckerMain {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(ProgressCheckerMain.class);
 
   private static final String CONFIGURATION_FILE = "application.properties";
+  private static final Duration ACTIVE_WINDOW = Duration.ofMinutes(5);
 
   public static void main(String[] args) throws IOException, TrustStoreConfigurationException {
 
@@ -36,75 +48,71 @@ public class ProgressCheckerMain {
         .createDatastore(mongoInitializer.getMongoClient(), propertiesHolder.mongoDb);
 
     // Check the progress.
-    System.out.println("FIRST PASS");
-
-    System.out.println("RECHECK");
-    checkProgress(propertiesHolder, datastore, 181, 181);
-    checkProgress(propertiesHolder, datastore, 182, 185);
-    checkProgress(propertiesHolder, datastore, 1088, 1088);
-    checkProgress(propertiesHolder, datastore, 1981, 2200);
-
-    System.out.println("COMPLETED");
-    checkProgress(propertiesHolder, datastore, 1, 180);
-    checkProgress(propertiesHolder, datastore, 186, 1087);
-    checkProgress(propertiesHolder, datastore, 1089, 1980);
+    checkProgress(propertiesHolder, datastore, propertiesHolder.startFromFileIndexInDirectory,
+        propertiesHolder.endAtFileIndexInDirectory);
 
     // Cleanup.
     LOGGER.info("Done.");
     mongoInitializer.close();
   }
 
-  private static int getLinkCount(File datasetFile) throws IOException {
-    try (InputStream inputStream = MediaExtractorForFile.getInputStreamForFilePath(datasetFile);
-        Reader inputStreamReader = new InputStreamReader(inputStream, StandardCharsets.UTF_8);
-        BufferedReader reader = new BufferedReader(inputStreamReader)) {
-      int lines = 0;
-      while (reader.readLine() != null) {
-        lines++;
-      }
-      return lines;
-    }
-  }
-
   private static void checkProgress(PropertiesHolder propertiesHolder, Datastore datastore,
       int from, int to) throws IOException {
     final MongoDao mongoDao = new MongoDao(datastore);
     final File[] filesPerDataset = ExecutorManager
         .getAllFiles(propertiesHolder.directoryWithResourcesPerDatasetPath);
 
+    // Get the files in range, keeping their one-based index.
+    final Map<String, Integer> fileIndexes = new HashMap<>();
+    final Map<String, File> files = new LinkedHashMap<>();
+    for (int i = Math.max(from, 1); i <= Math.min(to, filesPerDataset.length); i++) {
+      final File datasetFile = filesPerDataset[i - 1];
+      fileIndexes.put(datasetFile.getName(), i);
+      files.put(datasetFile.getName(), datasetFile);
+    }
 
-    long totalLinkCount = 0;
-    long processedLinkCount = 0;
-    int fileIndex = 1; // one-based!
-    for (File datasetFile : filesPerDataset) {
-
-      if (fileIndex >= from && fileIndex <= to) {
-
-        // Get the current status.
-        final String fileName = datasetFile.getName();
-        final FileStatus fileStatus = Optional.ofNullable(mongoDao.getFileStatus(fileName))
-            .orElse(new FileStatus(fileName, 0));
-        final int linkCount = getLinkCount(datasetFile);
-
-        // maintain statistics
-        final boolean isFinished =
-            fileStatus.isEndOfFileReached() || fileStatus.getLineReached() >= linkCount;
-        totalLinkCount += linkCount;
-        processedLinkCount += (isFinished ? linkCount : fileStatus.getLineReached());
-
-        // Print
-        if (!isFinished) {
-          System.out.println(String
-              .format("File %s: %s, line %s of %s. %s lines left.", fileIndex, fileName,
-                  fileStatus.getLineReached(), linkCount, linkCount - fileStatus.getLineReached()));
-        }
-      }
-
-      // Next file.
-      fileIndex++;
+    // Aggregate the progress of all files in one query.
+    final Date activeSince = new Date(System.currentTimeMillis() - ACTIVE_WINDOW.toMillis());
+    final FileStatusProgress progress = mongoDao
+        .getFileStatusProgress(files.keySet(), activeSince);
+
+    // Count the files that were never counted, and store the count so that they are read once.
+    final List<FileStatus> uncountedFileStatuses = new ArrayList<>(
+        progress.getUncountedFileStatuses());
+    files.keySet().stream().filter(fileName -> !progress.getFileNames().contains(fileName))
+        .map(fileName -> new FileStatus(fileName, 0)).forEach(uncountedFileStatuses::add);
+    for (FileStatus fileStatus : uncountedFileStatuses) {
+      final int linkCount = MediaExtractorForFile
+          .getLineCount(files.get(fileStatus.getFileName()));
+      mongoDao.storeLineCount(fileStatus.getFileName(), linkCount);
+      progress.addCountedFileStatus(fileStatus, linkCount);
+    }
+    final long totalLinkCount = progress.getCountedLines();
+    final long processedLinkCount = progress.getProcessedLines();
+    final List<FileStatus> unfinishedFileStatuses = new ArrayList<>(
+        progress.getUnfinishedFileStatuses());
+
+    // Print
+    unfinishedFileStatuses.sort(Comparator.comparing(FileStatus::getFileName));
+    for (FileStatus fileStatus : unfinishedFileStatuses) {
+      System.out.println(String
+          .format("File %s: %s, line %s of %s. %s lines left.",
+              fileIndexes.get(fileStatus.getFileName()), fileStatus.getFileName(),
+              fileStatus.getLineReached(), fileStatus.getLineCount(),
+              fileStatus.getLineCount() - fileStatus.getLineReached()));
     }
 
-    LOGGER.info("{} files examined. Processed {} of {} links. {} links left.", fileIndex,
-        processedLinkCount, totalLinkCount, totalLinkCount - processedLinkCount);
+    final long linksLeft = totalLinkCount - processedLinkCount;
+    LOGGER.info("{} files examined. Processed {} of {} links. {} links left.", files.size(),
+        processedLinkCount, totalLinkCount, linksLeft);
+    if (progress.getUrlsPerSecond() > 0) {
+      LOGGER.info("Throughput of {} active files: {} URLs/s. ETA: {}",
+          progress.getActiveFiles(),
+          String.format(Locale.ENGLISH, "%.2f", progress.getUrlsPerSecond()),
+          Duration.ofSeconds((long) (linksLeft / progress.getUrlsPerSecond())));
+    } else {
+      LOGGER.info("No files were updated in the last {}, no throughput available.",
+          ACTIVE_WINDOW);
+    }
   }
 }
@@ -1,6 +1,7 @@
 package eu.europeana.metis.technical.metadata.generation.model;
 
 import eu.europeana.metis.mongo.model.HasMongoObjectId;
+import java.util.Date;
 
 /**
  * @author Simon Tzanakis (Simon.Tzanakis@europeana.eu)
@@ -20,4 +21,32 @@ public interface DatasetFileStatus extends HasMongoObjectId {
 
   void setEndOfFileReached(boolean endOfFileReached);
 
+  /**
+   * @return the number of lines of the file, or null if the file was not yet counted
+   */
+  Integer getLineCount();
+
+  void setLineCount(Integer lineCount);
+
+  /**
+   * @return the time the current, or latest, processing of the file started
+   */
+  Date getProcessingStartedAt();
+
+  void setProcessingStartedAt(Date processingStartedAt);
+
+  /**
+   * @return the line reached at the time the current, or latest, processing of the file started
+   */
+  int getLineReachedAtStart();
+
+  void setLineReachedAtStart(int lineReachedAtStart);
+
+  /**
+   * @return the time the line reached was last updated
+   */
+  Date getUpdatedAt();
+
+  void setUpdatedAt(Date updatedAt);
+
 }
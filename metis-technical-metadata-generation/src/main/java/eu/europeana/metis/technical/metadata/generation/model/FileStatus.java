@@ -2,6 +2,7 @@ package eu.europeana.metis.technical.metadata.generation.model;
 
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import eu.europeana.metis.mongo.utils.ObjectIdSerializer;
+import java.util.Date;
 import org.bson.types.ObjectId;
 import org.mongodb.morphia.annotations.Id;
 import org.mongodb.morphia.annotations.IndexOptions;
@@ -23,6 +24,10 @@ public class FileStatus implements DatasetFileStatus {
   private String fileName;
   private int lineReached;
   private boolean endOfFileReached;
+  private Integer lineCount;
+  private Date processingStartedAt;
+  private int lineReachedAtStart;
+  private Date updatedAt;
 
   public FileStatus() {
   }
@@ -72,10 +77,51 @@ public class FileStatus implements DatasetFileStatus {
     this.endOfFileReached = endOfFileReached;
   }
 
+  @Override
+  public Integer getLineCount() {
+    return lineCount;
+  }
+
+  @Override
+  public void setLineCount(Integer lineCount) {
+    this.lineCount = lineCount;
+  }
+
+  @Override
+  public Date getProcessingStartedAt() {
+    return processingStartedAt == null ? null : new Date(processingStartedAt.getTime());
+  }
+
+  @Override
+  public void setProcessingStartedAt(Date processingStartedAt) {
+    this.processingStartedAt =
+        processingStartedAt == null ? null : new Date(processingStartedAt.getTime());
+  }
+
+  @Override
+  public int getLineReachedAtStart() {
+    return lineReachedAtStart;
+  }
+
+  @Override
+  public void setLineReachedAtStart(int lineReachedAtStart) {
+    this.lineReachedAtStart = lineReachedAtStart;
+  }
+
+  @Override
+  public Date getUpdatedAt() {
+    return updatedAt == null ? null : new Date(updatedAt.getTime());
+  }
+
+  @Override
+  public void setUpdatedAt(Date updatedAt) {
+    this.updatedAt = updatedAt == null ? null : new Date(updatedAt.getTime());
+  }
+
   @Override
   public String toString() {
     return String
-        .format("ObjectId: %s, fileName: %s, lineReached: %d, endOfFileReached: %b", id, fileName,
-            lineReached, endOfFileReached);
+        .format("ObjectId: %s, fileName: %s, lineReached: %d, endOfFileReached: %b, lineCount: %s",
+            id, fileName, lineReached, endOfFileReached, lineCount);
   }
 }
@@ -0,0 +1,99 @@
+package eu.europeana.metis.technical.metadata.generation.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Model class that contains the aggregated progress of a group of {@link FileStatus}.
+ * <p>The totals only contain the file statuses for which the line count is known. The file
+ * statuses for which it is not known are contained in {@link #getUncountedFileStatuses()}. Once
+ * such a file is counted, it can be added to the totals with {@link #addCountedFileStatus(FileStatus,
+ * int)}.</p>
+ */
+public class FileStatusProgress {
+
+  private long countedLines;
+  private long processedLines;
+  private final double urlsPerSecond;
+  private final int activeFiles;
+  private final Set<String> fileNames;
+  private final List<FileStatus> unfinishedFileStatuses;
+  private final List<FileStatus> uncountedFileStatuses;
+
+  public FileStatusProgress(long countedLines, long processedLines, double urlsPerSecond,
+      int activeFiles, Set<String> fileNames, List<FileStatus> unfinishedFileStatuses,
+      List<FileStatus> uncountedFileStatuses) {
+    this.countedLines = countedLines;
+    this.processedLines = processedLines;
+    this.urlsPerSecond = urlsPerSecond;
+    this.activeFiles = activeFiles;
+    this.fileNames = Collections.unmodifiableSet(fileNames);
+    this.unfinishedFileStatuses = new ArrayList<>(unfinishedFileStatuses);
+    this.uncountedFileStatuses = Collections.unmodifiableList(uncountedFileStatuses);
+  }
+
+  /**
+   * Adds a file status, of which the line count was not known, to the totals.
+   *
+   * @param fileStatus the file status, or a new file status for a file that has none
+   * @param lineCount the line count of the file
+   */
+  public void addCountedFileStatus(FileStatus fileStatus, int lineCount) {
+    final boolean isFinished =
+        fileStatus.isEndOfFileReached() || fileStatus.getLineReached() >= lineCount;
+    countedLines += lineCount;
+    processedLines += (isFinished ? lineCount : fileStatus.getLineReached());
+    if (!isFinished) {
+      fileStatus.setLineCount(lineCount);
+      unfinishedFileStatuses.add(fileStatus);
+    }
+  }
+
+  /**
+   * @return the total lines of the file statuses with a known line count
+   */
+  public long getCountedLines() {
+    return countedLines;
+  }
+
+  /**
+   * @return the processed lines of the file statuses with a known line count
+   */
+  public long getProcessedLines() {
+    return processedLines;
+  }
+
+  /**
+   * @return the sum of the processing rates of the recently updated file statuses
+   */
+  public double getUrlsPerSecond() {
+    return urlsPerSecond;
+  }
+
+  public int getActiveFiles() {
+    return activeFiles;
+  }
+
+  /**
+   * @return the names of all files that have a file status
+   */
+  public Set<String> getFileNames() {
+    return fileNames;
+  }
+
+  /**
+   * @return the unfinished file statuses with a known line count
+   */
+  public List<FileStatus> getUnfinishedFileStatuses() {
+    return Collections.unmodifiableList(unfinishedFileStatuses);
+  }
+
+  /**
+   * @return the file statuses without a known line count
+   */
+  public List<FileStatus> getUncountedFileStatuses() {
+    return uncountedFileStatuses;
+  }
+}
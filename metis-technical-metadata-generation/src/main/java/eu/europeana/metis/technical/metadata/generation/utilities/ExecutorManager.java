@@ -6,6 +6,7 @@ import static eu.europeana.metis.technical.metadata.generation.utilities.Propert
 import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3Client;
+import eu.europeana.metis.mediaprocessing.AbstractMediaProcessorPool.MediaExtractorPool;
 import eu.europeana.metis.mediaprocessing.MediaProcessorFactory;
 import eu.europeana.metis.technical.metadata.generation.model.Mode;
 import java.io.File;
@@ -22,6 +23,14 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Contains the {@link ExecutorService} class and handles the parallelization of the tasks.
+ * <p>Files are read in parallel by {@link MediaExtractorForFile} producers, that submit one task
+ * per resource url to a single {@link HostAwareScheduler} shared by all files. The total
+ * number of resources processed concurrently is therefore fixed to
+ * {@code maxParallelThreads * parallelThreadsPerFile}, regardless of file boundaries, and the
+ * scheduler interleaves the resources of different hosts. Every file may queue a bounded number
+ * of resources in the scheduler, so that a file waiting for a slow host does not block the
+ * others. The {@link MediaExtractorPool} is also
+ * shared by all files.</p>
  *
  * @author Simon Tzanakis (Simon.Tzanakis@europeana.eu)
  * @since 2019-04-16
@@ -30,6 +39,7 @@ public class ExecutorManager {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(ExecutorManager.class);
   private static final String PROCESSED_FILES_STR = "Processed files: {}";
+  private static final int QUEUED_RESOURCES_PER_THREAD = 4;
   private final MongoDao mongoDao;
   private final File directoryWithResourcesPerDataset;
   private final MediaProcessorFactory processorFactory = new MediaProcessorFactory();
@@ -37,17 +47,18 @@ public class ExecutorManager {
   private String s3Bucket;
   private final Mode mode;
   private final int maxParallelThreads;
-  private final int parallelThreadsPerFile;
   private final int startFromFileIndexInDirectory;
   private final int endAtFileIndexInDirectory;
 
   private final ExecutorService threadPool;
   private final ExecutorCompletionService<Void> completionService;
+  private final HostAwareScheduler hostAwareScheduler;
+  private final int resourceSlotsPerFile;
+  private final MediaExtractorPool mediaExtractorPool;
 
   public ExecutorManager(Datastore datastore, PropertiesHolder propertiesHolder) {
     this.mongoDao = new MongoDao(datastore);
     this.maxParallelThreads = propertiesHolder.maxParallelThreads;
-    this.parallelThreadsPerFile = propertiesHolder.parallelThreadsPerFile;
     this.startFromFileIndexInDirectory = propertiesHolder.startFromFileIndexInDirectory;
     this.endAtFileIndexInDirectory = propertiesHolder.endAtFileIndexInDirectory;
     this.directoryWithResourcesPerDataset = propertiesHolder.directoryWithResourcesPerDatasetPath;
@@ -64,11 +75,25 @@ public class ExecutorManager {
       this.s3Bucket = propertiesHolder.s3Bucket;
     }
 
+    final int parallelThreadsPerFile = propertiesHolder.parallelThreadsPerFile;
     threadPool = Executors.newFixedThreadPool(maxParallelThreads);
     completionService = new ExecutorCompletionService<>(threadPool);
+    final int totalResourceThreads = maxParallelThreads * parallelThreadsPerFile;
+    if (mode == Mode.UPLOAD_THUMBNAILS) {
+      //Thumbnails are uploaded to S3 and not requested from the resource hosts
+      hostAwareScheduler = new HostAwareScheduler(totalResourceThreads, totalResourceThreads,
+          totalResourceThreads, 0);
+    } else {
+      hostAwareScheduler = new HostAwareScheduler(totalResourceThreads, parallelThreadsPerFile,
+          propertiesHolder.maxParallelThreadsPerHost, propertiesHolder.requestsPerSecondPerHost);
+    }
+    //Allow resources to be queued, so that the scheduler can choose between hosts. The slots are
+    //bounded per file, so that a file with resources on a slow host cannot hold up the other files.
+    resourceSlotsPerFile = parallelThreadsPerFile * QUEUED_RESOURCES_PER_THREAD;
 
     processorFactory.setResourceConnectTimeout(propertiesHolder.resourceConnectTimeout);
     processorFactory.setResourceSocketTimeout(propertiesHolder.resourceSocketTimeout);
+    mediaExtractorPool = new MediaExtractorPool(processorFactory);
   }
 
   public static File[] getAllFiles(File directoryWithResourcesPerDataset) throws IOException {
@@ -101,7 +126,8 @@ public class ExecutorManager {
         break;
       }
       final MediaExtractorForFile mediaExtractorForFile = new MediaExtractorForFile(datasetFile,
-          mongoDao, amazonS3Client, s3Bucket, processorFactory, mode, parallelThreadsPerFile);
+          mongoDao, amazonS3Client, s3Bucket, mediaExtractorPool, mode, hostAwareScheduler,
+          resourceSlotsPerFile);
       if (threadCounter >= maxParallelThreads) {
         completionService.take();
         threadCounter--;
@@ -128,8 +154,10 @@ public class ExecutorManager {
         mongoDao.getTotalFailedResources());
   }
 
-  public void close() {
+  public void close() throws InterruptedException {
     threadPool.shutdown();
+    hostAwareScheduler.close();
+    mediaExtractorPool.close();
   }
 
 }
@@ -0,0 +1,237 @@
+package eu.europeana.metis.technical.metadata.generation.utilities;
+
+import static eu.europeana.metis.technical.metadata.generation.utilities.PropertiesHolder.EXECUTION_LOGS_MARKER;
+import static eu.europeana.metis.technical.metadata.generation.utilities.PropertiesHolder.STATISTICS_LOGS_MARKER;
+
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Schedules resource tasks on a bounded thread pool while being polite to the resource hosts.
+ * <p>Every task is queued under the host of its resource url. Hosts are visited round robin, so
+ * that resources of different hosts, and therefore of different files, are interleaved. A task
+ * is only dispatched when its host has a token available in its token bucket and has not reached
+ * its current concurrency limit.</p>
+ * <p>The concurrency limit of each host is adapted to the outcomes reported through {@link
+ * #recordOutcome(String, long, boolean)}: a successful response increases it additively, a
+ * failure or a response much slower than the average of that host decreases it
+ * multiplicatively. The limit is only increased while the recent error rate of the host is low.</p>
+ */
+public class HostAwareScheduler {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(HostAwareScheduler.class);
+  private static final long TERMINATION_TIMEOUT_MINUTES = 1;
+  private static final long DISPATCH_TICK_MILLIS = 50;
+  private static final double DECREASE_FACTOR = 0.5;
+  private static final double SLOW_RESPONSE_FACTOR = 2.0;
+  private static final double EWMA_WEIGHT = 0.2;
+  private static final double MAX_ERROR_RATE_FOR_INCREASE = 0.1;
+
+  private final int totalThreads;
+  private final int initialConcurrencyPerHost;
+  private final int maxConcurrencyPerHost;
+  private final double requestsPerSecondPerHost;
+  private final ExecutorService threadPool;
+  private final ScheduledExecutorService dispatchTicker;
+
+  //All below are guarded by this
+  private final Map<String, HostState> hostStates = new HashMap<>();
+  private final Deque<HostState> hostsWithQueuedTasks = new ArrayDeque<>();
+  private int tasksInFlight;
+
+  /**
+   * Constructor.
+   *
+   * @param totalThreads the total number of threads that execute tasks, for all hosts
+   * @param initialConcurrencyPerHost the number of concurrent tasks for a host that was not seen
+   * before
+   * @param maxConcurrencyPerHost the maximum number of concurrent tasks for a single host
+   * @param requestsPerSecondPerHost the rate at which tasks of a single host may start, a value
+   * less or equal to zero disables rate limiting
+   */
+  public HostAwareScheduler(int totalThreads, int initialConcurrencyPerHost,
+      int maxConcurrencyPerHost, double requestsPerSecondPerHost) {
+    this.totalThreads = totalThreads;
+    this.maxConcurrencyPerHost = Math.max(1, Math.min(maxConcurrencyPerHost, totalThreads));
+    this.initialConcurrencyPerHost = Math.max(1,
+        Math.min(initialConcurrencyPerHost, this.maxConcurrencyPerHost));
+    this.requestsPerSecondPerHost = requestsPerSecondPerHost;
+    this.threadPool = Executors.newFixedThreadPool(totalThreads);
+    this.dispatchTicker = Executors.newSingleThreadScheduledExecutor();
+    //Tasks waiting only for tokens need to be re-checked even if no other task finishes
+    dispatchTicker.scheduleWithFixedDelay(this::dispatch, DISPATCH_TICK_MILLIS,
+        DISPATCH_TICK_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Queue a task for the host of the resource url.
+   *
+   * @param resourceUrl the resource url the task operates on
+   * @param task the task
+   */
+  public void submit(String resourceUrl, Runnable task) {
+    synchronized (this) {
+      final HostState hostState = getHostState(resourceUrl);
+      if (hostState.queuedTasks.isEmpty()) {
+        hostsWithQueuedTasks.addLast(hostState);
+      }
+      hostState.queuedTasks.addLast(task);
+    }
+    dispatch();
+  }
+
+  /**
+   * Report the outcome of a request to the host of the resource url, so that the concurrency
+   * limit of the host can be adapted.
+   *
+   * @param resourceUrl the resource url that was requested
+   * @param latencyNanos the time the request took
+   * @param success whether the request was successful
+   */
+  public synchronized void recordOutcome(String resourceUrl, long latencyNanos, boolean success) {
+    final HostState hostState = getHostState(resourceUrl);
+    final boolean slowResponse = hostState.averageLatencyNanos > 0
+        && latencyNanos > SLOW_RESPONSE_FACTOR * hostState.averageLatencyNanos;
+    hostState.requests++;
+    hostState.errorRate = ewma(hostState.errorRate, success ? 0 : 1);
+    if (success) {
+      hostState.averageLatencyNanos = hostState.averageLatencyNanos > 0 ? ewma(
+          hostState.averageLatencyNanos, latencyNanos) : latencyNanos;
+    } else {
+      hostState.failures++;
+    }
+    if (!success || slowResponse) {
+      hostState.concurrencyLimit = Math.max(1, hostState.concurrencyLimit * DECREASE_FACTOR);
+    } else if (hostState.errorRate < MAX_ERROR_RATE_FOR_INCREASE) {
+      hostState.concurrencyLimit = Math.min(maxConcurrencyPerHost,
+          hostState.concurrencyLimit + 1 / hostState.concurrencyLimit);
+    }
+  }
+
+  private void dispatch() {
+    synchronized (this) {
+      boolean progress = true;
+      while (progress && tasksInFlight < totalThreads && !hostsWithQueuedTasks.isEmpty()) {
+        progress = false;
+        final int hostsToVisit = hostsWithQueuedTasks.size();
+        for (int i = 0; i < hostsToVisit && tasksInFlight < totalThreads; i++) {
+          final HostState hostState = hostsWithQueuedTasks.pollFirst();
+          if (hostState.tryAcquire()) {
+            final Runnable task = hostState.queuedTasks.pollFirst();
+            tasksInFlight++;
+            threadPool.execute(() -> runTask(hostState, task));
+            progress = true;
+          }
+          if (!hostState.queuedTasks.isEmpty()) {
+            hostsWithQueuedTasks.addLast(hostState);
+          }
+        }
+      }
+    }
+  }
+
+  private void runTask(HostState hostState, Runnable task) {
+    try {
+      task.run();
+    } catch (RuntimeException e) {
+      LOGGER.warn(EXECUTION_LOGS_MARKER, "Task for host {} failed", hostState.host, e);
+    } finally {
+      synchronized (this) {
+        hostState.tasksInFlight--;
+        tasksInFlight--;
+      }
+      dispatch();
+    }
+  }
+
+  private HostState getHostState(String resourceUrl) {
+    return hostStates.computeIfAbsent(getHost(resourceUrl), HostState::new);
+  }
+
+  static String getHost(String resourceUrl) {
+    try {
+      final String host = URI.create(resourceUrl.trim()).getHost();
+      return host == null ? "" : host.toLowerCase(Locale.ENGLISH);
+    } catch (IllegalArgumentException e) {
+      return "";
+    }
+  }
+
+  private static double ewma(double average, double value) {
+    return (1 - EWMA_WEIGHT) * average + EWMA_WEIGHT * value;
+  }
+
+  /**
+   * Waits for all submitted tasks to finish, logs the host statistics and shuts down the threads.
+   * If the tasks do not finish within the termination timeout, the running tasks are interrupted.
+   *
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public void close() throws InterruptedException {
+    dispatchTicker.shutdown();
+    threadPool.shutdown();
+    if (!threadPool.awaitTermination(TERMINATION_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+      LOGGER.warn(EXECUTION_LOGS_MARKER,
+          "Tasks did not finish within {} minute(s) after shutdown, interrupting them",
+          TERMINATION_TIMEOUT_MINUTES);
+      threadPool.shutdownNow();
+    }
+    synchronized (this) {
+      hostStates.values().forEach(hostState -> LOGGER.info(STATISTICS_LOGS_MARKER,
+          "Host: {}, requests: {}, failures: {}, recent error rate: {}, average latency(ms): {}, "
+              + "concurrency limit: {}", hostState.host, hostState.requests, hostState.failures,
+          String.format(Locale.ENGLISH, "%.2f", hostState.errorRate),
+          TimeUnit.NANOSECONDS.toMillis((long) hostState.averageLatencyNanos),
+          (int) hostState.concurrencyLimit));
+    }
+  }
+
+  /**
+   * The scheduling state of a single host. Guarded by the enclosing scheduler.
+   */
+  private final class HostState {
+
+    private final String host;
+    private final Deque<Runnable> queuedTasks = new ArrayDeque<>();
+    private int tasksInFlight;
+    private double concurrencyLimit = initialConcurrencyPerHost;
+    private double tokens = initialConcurrencyPerHost;
+    private long lastRefillNanos = System.nanoTime();
+    private long requests;
+    private long failures;
+    private double errorRate;
+    private double averageLatencyNanos;
+
+    private HostState(String host) {
+      this.host = host;
+    }
+
+    private boolean tryAcquire() {
+      if (tasksInFlight >= (int) concurrencyLimit) {
+        return false;
+      }
+      if (requestsPerSecondPerHost > 0) {
+        final long now = System.nanoTime();
+        final double refilled = (now - lastRefillNanos) / 1e9 * requestsPerSecondPerHost;
+        tokens = Math.min(maxConcurrencyPerHost, tokens + refilled);
+        lastRefillNanos = now;
+        if (tokens < 1) {
+          return false;
+        }
+        tokens--;
+      }
+      tasksInFlight++;
+      return true;
+    }
+  }
+}
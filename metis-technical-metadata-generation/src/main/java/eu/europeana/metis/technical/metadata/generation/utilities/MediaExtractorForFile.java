@@ -4,7 +4,6 @@ import static eu.europeana.metis.technical.metadata.generation.utilities.Propert
 
 import com.amazonaws.services.s3.AmazonS3;
 import eu.europeana.metis.mediaprocessing.AbstractMediaProcessorPool.MediaExtractorPool;
-import eu.europeana.metis.mediaprocessing.MediaProcessorFactory;
 import eu.europeana.metis.mediaprocessing.exception.MediaExtractionException;
 import eu.europeana.metis.mediaprocessing.exception.MediaProcessorException;
 import eu.europeana.metis.mediaprocessing.model.RdfResourceEntry;
@@ -16,23 +15,28 @@ import eu.europeana.metis.technical.metadata.generation.model.Mode;
 import eu.europeana.metis.technical.metadata.generation.model.TechnicalMetadataWrapper;
 import eu.europeana.metis.technical.metadata.generation.model.ThumbnailFileStatus;
 import eu.europeana.metis.technical.metadata.generation.model.ThumbnailWrapper;
+import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.PrintStream;
 import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorCompletionService;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
 import java.util.zip.GZIPInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -44,6 +48,12 @@ import org.slf4j.LoggerFactory;
  * execution, depending on the configuration, it will skip an X amount of lines. It can re-process
  * failed resources or reset the reading of the file from the beginning, if set in the
  * configuration.</p>
+ * <p>Each line is submitted as a task to the {@link HostAwareScheduler} that is shared
+ * between all files. A slot from the {@link Semaphore} of this file is acquired before every
+ * submission and released when the task finishes, so that the file reader blocks while its
+ * resources are queued or running instead of buffering the whole file. The slots belong to this
+ * file only, so resources of this file that are delayed by the scheduler (e.g. because their host
+ * is slow or throttled) do not prevent other files from submitting their resources.</p>
  *
  * @author Simon Tzanakis (Simon.Tzanakis@europeana.eu)
  * @since 2019-04-17
@@ -57,24 +67,22 @@ public class MediaExtractorForFile implements Callable<Void> {
   private final String s3Bucket;
   private final MediaExtractorPool mediaExtractorPool;
   private final Mode mode;
-  private final int parallelThreadsPerFile;
 
-  private final ExecutorService threadPool;
-  private final ExecutorCompletionService<Void> completionService;
+  private final HostAwareScheduler hostAwareScheduler;
+  private final Semaphore resourceSlots;
+  private final BlockingQueue<String> finishedResources = new LinkedBlockingQueue<>();
 
   MediaExtractorForFile(File datasetFile, MongoDao mongoDao, AmazonS3 amazonS3Client,
-      String s3Bucket, MediaProcessorFactory mediaProcessorFactory, Mode mode,
-      int parallelThreadsPerFile) {
+      String s3Bucket, MediaExtractorPool mediaExtractorPool, Mode mode,
+      HostAwareScheduler hostAwareScheduler, int resourceSlots) {
     this.datasetFile = datasetFile;
     this.mongoDao = mongoDao;
     this.amazonS3Client = amazonS3Client;
     this.s3Bucket = s3Bucket;
-    this.mediaExtractorPool = new MediaExtractorPool(mediaProcessorFactory);
+    this.mediaExtractorPool = mediaExtractorPool;
     this.mode = mode;
-    this.parallelThreadsPerFile = parallelThreadsPerFile;
-
-    threadPool = Executors.newFixedThreadPool(parallelThreadsPerFile);
-    completionService = new ExecutorCompletionService<>(threadPool);
+    this.hostAwareScheduler = hostAwareScheduler;
+    this.resourceSlots = new Semaphore(resourceSlots);
   }
 
   @Override
@@ -92,33 +100,46 @@ public class MediaExtractorForFile implements Callable<Void> {
       if (datasetFileStatus == null) {
         return null;
       }
+      //Count the lines only once, so that progress can be checked without reading the file
+      if (datasetFileStatus.getLineCount() == null) {
+        datasetFileStatus.setLineCount(getLineCount(datasetFile));
+        mongoDao.storeFileStatusToDb(datasetFileStatus);
+      }
       int lineIndex = datasetFileStatus.getLineReached();
       try (Scanner scanner = new Scanner(inputStream, "UTF-8")) {
         //Bypass lines until the reached one, from a previous execution
         if (moveScannerToLine(scanner, datasetFileStatus)) {
+          final Date processingStartedAt = new Date();
+          datasetFileStatus.setProcessingStartedAt(processingStartedAt);
+          datasetFileStatus.setLineReachedAtStart(datasetFileStatus.getLineReached());
+          datasetFileStatus.setUpdatedAt(processingStartedAt);
+          mongoDao.storeFileStatusToDb(datasetFileStatus);
           final Set<Integer> nonRegisteredLines = new HashSet<>();
           int threadCounter = 0;
           while (scanner.hasNextLine()) {
 
-            // If all threads are busy, wait for the first one to become available.
-            if (threadCounter >= parallelThreadsPerFile) {
-              completionService.take();
-              threadCounter--;
-            }
+            // If all slots of this file are taken, wait for one to become available.
+            resourceSlots.acquire();
 
             // Submit task for this line.
             lineIndex++;
             submitResource(datasetFileStatus, nonRegisteredLines, lineIndex, scanner.nextLine());
             threadCounter++;
+
+            // Collect already finished tasks of this file.
+            while (finishedResources.poll() != null) {
+              threadCounter--;
+            }
           }
 
           // Wait for remaining threads to finish.
           for (int i = 0; i < threadCounter; i++) {
-            completionService.take();
+            finishedResources.take();
           }
 
           // Set file status for end of file.
           datasetFileStatus.setEndOfFileReached(true);
+          datasetFileStatus.setUpdatedAt(new Date());
           mongoDao.storeFileStatusToDb(datasetFileStatus);
         }
       }
@@ -128,8 +149,6 @@ public class MediaExtractorForFile implements Callable<Void> {
       return null;
     }
     LOGGER.info(EXECUTION_LOGS_MARKER, "Finished: {}", datasetFile);
-    mediaExtractorPool.close();
-    threadPool.shutdown();
     return null;
   }
 
@@ -154,42 +173,52 @@ public class MediaExtractorForFile implements Callable<Void> {
   private void submitResource(final DatasetFileStatus fileStatus,
       final Set<Integer> nonRegisteredLines,
       final int thisLineIndex, final String thisLine) {
-    completionService.submit(() -> {
-
-      // process resource
-      if (mode == Mode.UPLOAD_THUMBNAILS) {
-        thumbnailUpload(thisLine);
-      } else {
-        processResource(thisLine);
+    hostAwareScheduler.submit(thisLine, () -> {
+      try {
+        processLine(fileStatus, nonRegisteredLines, thisLineIndex, thisLine);
+      } finally {
+        // Give the slot back and notify the file reader.
+        resourceSlots.release();
+        finishedResources.add(thisLine);
       }
+    });
+  }
+
+  private void processLine(final DatasetFileStatus fileStatus,
+      final Set<Integer> nonRegisteredLines,
+      final int thisLineIndex, final String thisLine) {
 
-      // Set file status - synchronized to protect the set and the file status
-      synchronized (this) {
+    // process resource
+    if (mode == Mode.UPLOAD_THUMBNAILS) {
+      thumbnailUpload(thisLine);
+    } else {
+      processResource(thisLine);
+    }
 
-        // Add the line to the non-registered lines.
-        nonRegisteredLines.add(thisLineIndex);
+    // Set file status - synchronized to protect the set and the file status
+    synchronized (this) {
 
-        // Increase the file status for all consecutive numbers that are reached.
-        while (nonRegisteredLines.contains(fileStatus.getLineReached() + 1)) {
+      // Add the line to the non-registered lines.
+      nonRegisteredLines.add(thisLineIndex);
 
-          // Remove from the non-registered numbers, and set the file status.
-          nonRegisteredLines.remove(fileStatus.getLineReached() + 1);
-          fileStatus.setLineReached(fileStatus.getLineReached() + 1);
+      // Increase the file status for all consecutive numbers that are reached.
+      while (nonRegisteredLines.contains(fileStatus.getLineReached() + 1)) {
 
-          // Occasionally, output progress.
-          if (fileStatus.getLineReached() % 100 == 0) {
-            LOGGER.info(EXECUTION_LOGS_MARKER, "Processing file: {}, reached line {}",
-                datasetFile.getName(), fileStatus.getLineReached());
-          }
-        }
+        // Remove from the non-registered numbers, and set the file status.
+        nonRegisteredLines.remove(fileStatus.getLineReached() + 1);
+        fileStatus.setLineReached(fileStatus.getLineReached() + 1);
 
-        // Save file status.
-        mongoDao.storeFileStatusToDb(fileStatus);
+        // Occasionally, output progress.
+        if (fileStatus.getLineReached() % 100 == 0) {
+          LOGGER.info(EXECUTION_LOGS_MARKER, "Processing file: {}, reached line {}",
+              datasetFile.getName(), fileStatus.getLineReached());
+        }
       }
 
-      // Done.
-      return null;
-    });
+      // Save file status.
+      fileStatus.setUpdatedAt(new Date());
+      mongoDao.storeFileStatusToDb(fileStatus);
+    }
   }
 
   private void thumbnailUpload(String resourceUrl) {
@@ -243,6 +272,25 @@ public class MediaExtractorForFile implements Callable<Void> {
     return inputStream;
   }
 
+  /**
+   * Count the lines of a dataset file, that can be gzipped.
+   *
+   * @param datasetFile the dataset file
+   * @return the number of lines
+   * @throws IOException if the file could not be read
+   */
+  public static int getLineCount(File datasetFile) throws IOException {
+    try (InputStream inputStream = getInputStreamForFilePath(datasetFile);
+        Reader inputStreamReader = new InputStreamReader(inputStream, StandardCharsets.UTF_8);
+        BufferedReader reader = new BufferedReader(inputStreamReader)) {
+      int lines = 0;
+      while (reader.readLine() != null) {
+        lines++;
+      }
+      return lines;
+    }
+  }
+
   private ResourceExtractionResult performMediaExtraction(String resourceUrl)
       throws MediaExtractionException, MediaProcessorException {
     //Use all url types to get metadata and thumbnails for all. Later we decide what to use.
@@ -250,7 +298,16 @@ public class MediaExtractorForFile implements Callable<Void> {
         new ArrayList<>(UrlType.URL_TYPES_FOR_MEDIA_EXTRACTION));
     // Perform metadata extraction
     LOGGER.info(EXECUTION_LOGS_MARKER, "Processing: {}", resourceEntry.getResourceUrl());
-    return mediaExtractorPool.processTask(resourceEntry);
+    final long start = System.nanoTime();
+    boolean success = false;
+    try {
+      final ResourceExtractionResult resourceExtractionResult = mediaExtractorPool
+          .processTask(resourceEntry);
+      success = true;
+      return resourceExtractionResult;
+    } finally {
+      hostAwareScheduler.recordOutcome(resourceUrl, System.nanoTime() - start, success);
+    }
   }
 
   private boolean eligibleForProcessing(String resourceUrl) {
@@ -1,17 +1,29 @@
 package eu.europeana.metis.technical.metadata.generation.utilities;
 
+import com.mongodb.AggregationOptions;
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.Cursor;
+import com.mongodb.DBObject;
 import eu.europeana.metis.mediaprocessing.model.ResourceExtractionResult;
 import eu.europeana.metis.mediaprocessing.model.Thumbnail;
 import eu.europeana.metis.technical.metadata.generation.model.FileStatus;
 import eu.europeana.metis.technical.metadata.generation.model.DatasetFileStatus;
+import eu.europeana.metis.technical.metadata.generation.model.FileStatusProgress;
 import eu.europeana.metis.technical.metadata.generation.model.TechnicalMetadataWrapper;
 import eu.europeana.metis.technical.metadata.generation.model.ThumbnailFileStatus;
 import eu.europeana.metis.technical.metadata.generation.model.ThumbnailWrapper;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import org.apache.commons.io.IOUtils;
 import org.mongodb.morphia.Datastore;
+import org.mongodb.morphia.UpdateOptions;
 
 /**
  * Mongo functionality required for the current script.
@@ -25,6 +37,20 @@ public class MongoDao {
   private static final String RESOURCE_URL = "resourceUrl";
   private static final String FILE_NAME = "fileName";
   private static final String SUCCESS_EXTRACTION = "successExtraction";
+  private static final String LINE_REACHED = "lineReached";
+  private static final String LINE_COUNT = "lineCount";
+  private static final String FINISHED = "finished";
+  private static final String RATE = "rate";
+  private static final String FILE_NAMES = "fileNames";
+  private static final String TOTALS = "totals";
+  private static final String THROUGHPUT = "throughput";
+  private static final String UNFINISHED = "unfinished";
+  private static final String UNCOUNTED = "uncounted";
+  private static final String COUNTED_LINES = "countedLines";
+  private static final String PROCESSED_LINES = "processedLines";
+  private static final String URLS_PER_SECOND = "urlsPerSecond";
+  private static final String ACTIVE_FILES = "activeFiles";
+  private static final int UNKNOWN_LINE_COUNT = -1;
 
   private Datastore datastore;
 
@@ -52,6 +78,128 @@ public class MongoDao {
     datastore.save(fileStatus);
   }
 
+  /**
+   * Store only the line count of a {@link FileStatus}, without overwriting the fields that a
+   * running execution may update concurrently. If the file has no status yet, one is created with
+   * no lines reached.
+   *
+   * @param fileName the file name
+   * @param lineCount the line count
+   */
+  public void storeLineCount(String fileName, int lineCount) {
+    datastore.update(datastore.find(FileStatus.class).filter(FILE_NAME, fileName),
+        datastore.createUpdateOperations(FileStatus.class).set(LINE_COUNT, lineCount)
+            .setOnInsert(LINE_REACHED, 0), new UpdateOptions().upsert(true));
+  }
+
+  /**
+   * Computes the progress of the provided files in a single aggregation over {@link FileStatus}.
+   * <p>The processing rate of a file is computed from the lines it processed since its processing
+   * started until its last update. Only files updated after {@code activeSince} contribute to the
+   * total rate.</p>
+   *
+   * @param fileNames the file names to aggregate
+   * @param activeSince the time after which an update marks a file as active
+   * @return the progress
+   */
+  public FileStatusProgress getFileStatusProgress(Collection<String> fileNames,
+      Date activeSince) {
+    final Object lineCount = new BasicDBObject("$ifNull",
+        Arrays.asList("$" + LINE_COUNT, UNKNOWN_LINE_COUNT));
+    final Object isCounted = new BasicDBObject("$gte", Arrays.asList(lineCount, 0));
+    final Object finished = new BasicDBObject("$or", Arrays.asList("$endOfFileReached",
+        new BasicDBObject("$and", Arrays.asList(isCounted,
+            new BasicDBObject("$gte", Arrays.asList("$" + LINE_REACHED, lineCount))))));
+    final Object duration = new BasicDBObject("$subtract",
+        Arrays.asList("$updatedAt", "$processingStartedAt"));
+    final Object isActive = new BasicDBObject("$and",
+        Arrays.asList(new BasicDBObject("$gte", Arrays.asList("$updatedAt", activeSince)),
+            new BasicDBObject("$gt", Arrays.asList("$updatedAt", "$processingStartedAt"))));
+    final Object rate = new BasicDBObject("$cond", Arrays.asList(isActive,
+        new BasicDBObject("$divide", Arrays.asList(new BasicDBObject("$multiply", Arrays.asList(
+            new BasicDBObject("$subtract", Arrays.asList("$" + LINE_REACHED, "$lineReachedAtStart")),
+            1000)), duration)), 0));
+
+    final DBObject project = new BasicDBObject(FILE_NAME, 1).append(LINE_REACHED, 1)
+        .append(LINE_COUNT, lineCount).append(FINISHED, finished).append(RATE, rate);
+    final DBObject facet = new BasicDBObject()
+        .append(TOTALS, Arrays.asList(
+            new BasicDBObject("$match",
+                new BasicDBObject(LINE_COUNT, new BasicDBObject("$gte", 0))),
+            new BasicDBObject("$group", new BasicDBObject(ID, null)
+                .append(COUNTED_LINES, new BasicDBObject("$sum", "$" + LINE_COUNT))
+                .append(PROCESSED_LINES, new BasicDBObject("$sum", new BasicDBObject("$cond",
+                    Arrays.asList("$" + FINISHED, "$" + LINE_COUNT, "$" + LINE_REACHED)))))))
+        .append(THROUGHPUT, Arrays.asList(
+            new BasicDBObject("$group", new BasicDBObject(ID, null)
+                .append(URLS_PER_SECOND, new BasicDBObject("$sum", "$" + RATE))
+                .append(ACTIVE_FILES, new BasicDBObject("$sum", new BasicDBObject("$cond",
+                    Arrays.asList(new BasicDBObject("$gt", Arrays.asList("$" + RATE, 0)), 1,
+                        0)))))))
+        .append(FILE_NAMES, Arrays.asList(new BasicDBObject("$group",
+            new BasicDBObject(ID, null).append(FILE_NAMES,
+                new BasicDBObject("$push", "$" + FILE_NAME)))))
+        .append(UNFINISHED, Arrays.asList(new BasicDBObject("$match",
+            new BasicDBObject(FINISHED, false)
+                .append(LINE_COUNT, new BasicDBObject("$gte", 0)))))
+        .append(UNCOUNTED, Arrays.asList(new BasicDBObject("$match",
+            new BasicDBObject(LINE_COUNT, UNKNOWN_LINE_COUNT))));
+    final List<DBObject> pipeline = Arrays.asList(
+        new BasicDBObject("$match",
+            new BasicDBObject(FILE_NAME, new BasicDBObject("$in", fileNames))),
+        new BasicDBObject("$project", project),
+        new BasicDBObject("$facet", facet));
+
+    try (Cursor cursor = datastore.getCollection(FileStatus.class)
+        .aggregate(pipeline, AggregationOptions.builder().build())) {
+      final DBObject result = cursor.next();
+      final DBObject totals = getSingleGroup(result, TOTALS);
+      final DBObject throughput = getSingleGroup(result, THROUGHPUT);
+      final DBObject names = getSingleGroup(result, FILE_NAMES);
+      final Set<String> fileNamesWithStatus = new HashSet<>();
+      ((List<?>) names.get(FILE_NAMES)).forEach(name -> fileNamesWithStatus.add((String) name));
+      return new FileStatusProgress(getLong(totals, COUNTED_LINES),
+          getLong(totals, PROCESSED_LINES),
+          getDouble(throughput, URLS_PER_SECOND),
+          (int) getLong(throughput, ACTIVE_FILES), fileNamesWithStatus,
+          toFileStatuses((BasicDBList) result.get(UNFINISHED)),
+          toFileStatuses((BasicDBList) result.get(UNCOUNTED)));
+    }
+  }
+
+  private static DBObject getSingleGroup(DBObject facetResult, String facetName) {
+    final BasicDBList groups = (BasicDBList) facetResult.get(facetName);
+    return groups.isEmpty() ? new BasicDBObject() : (DBObject) groups.get(0);
+  }
+
+  private static long getLong(DBObject group, String field) {
+    final Number value = (Number) group.get(field);
+    return value == null ? 0 : value.longValue();
+  }
+
+  private static double getDouble(DBObject group, String field) {
+    final Number value = (Number) group.get(field);
+    return value == null ? 0 : value.doubleValue();
+  }
+
+  /**
+   * The end of file reached flag of the returned file statuses contains whether the file is
+   * finished.
+   */
+  private static List<FileStatus> toFileStatuses(BasicDBList documents) {
+    final List<FileStatus> fileStatuses = new ArrayList<>(documents.size());
+    for (Object document : documents) {
+      final DBObject dbObject = (DBObject) document;
+      final FileStatus fileStatus = new FileStatus((String) dbObject.get(FILE_NAME),
+          ((Number) dbObject.get(LINE_REACHED)).intValue());
+      final int lineCount = ((Number) dbObject.get(LINE_COUNT)).intValue();
+      fileStatus.setLineCount(lineCount == UNKNOWN_LINE_COUNT ? null : lineCount);
+      fileStatus.setEndOfFileReached((Boolean) dbObject.get(FINISHED));
+      fileStatuses.add(fileStatus);
+    }
+    return fileStatuses;
+  }
+
   TechnicalMetadataWrapper getTechnicalMetadataWrapperFieldProjection(String resourceUrl) {
     return datastore.find(TechnicalMetadataWrapper.class)
         .filter(RESOURCE_URL, resourceUrl).project(ID, true).project(SUCCESS_EXTRACTION, true)
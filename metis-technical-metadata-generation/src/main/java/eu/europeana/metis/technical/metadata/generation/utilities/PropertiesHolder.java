@@ -7,6 +7,7 @@ import java.io.IOException;
 import java.net.URL;
 import java.util.Arrays;
 import java.util.Properties;
+import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.Marker;
@@ -24,11 +25,14 @@ public class PropertiesHolder {
   private static final Logger LOGGER = LoggerFactory.getLogger(PropertiesHolder.class);
   public static final Marker EXECUTION_LOGS_MARKER = MarkerFactory.getMarker("EXECUTION_LOGS");
   public static final Marker STATISTICS_LOGS_MARKER = MarkerFactory.getMarker("STATISTICS_LOGS");
+  private static final String DEFAULT_REQUESTS_PER_SECOND_PER_HOST = "0";
 
   public final File directoryWithResourcesPerDatasetPath;
   public final Mode mode;
   public final int maxParallelThreads;
   public final int parallelThreadsPerFile;
+  public final int maxParallelThreadsPerHost;
+  public final double requestsPerSecondPerHost;
   public final int startFromFileIndexInDirectory;
   public final int endAtFileIndexInDirectory;
   public final int resourceConnectTimeout;
@@ -75,6 +79,10 @@ public class PropertiesHolder {
     mode = Mode.getModeFromEnumName(properties.getProperty("mode"));
     maxParallelThreads = Integer.parseInt(properties.getProperty("max.parallel.threads"));
     parallelThreadsPerFile = Integer.parseInt(properties.getProperty("parallel.threads.per.file"));
+    maxParallelThreadsPerHost = Integer.parseInt(getPropertyOrDefault(properties,
+        "max.parallel.threads.per.host", Integer.toString(parallelThreadsPerFile)));
+    requestsPerSecondPerHost = Double.parseDouble(getPropertyOrDefault(properties,
+        "requests.per.second.per.host", DEFAULT_REQUESTS_PER_SECOND_PER_HOST));
     startFromFileIndexInDirectory = Integer.parseInt(properties.getProperty("start.from.file.index.in.directory"));
     endAtFileIndexInDirectory = Integer.parseInt(properties.getProperty("end.at.file.index.in.directory"));
     resourceConnectTimeout = Integer.parseInt(properties.getProperty("resource.connect.timeout"));
@@ -96,4 +104,10 @@ public class PropertiesHolder {
     s3Endpoint = properties.getProperty("s3.endpoint");
     s3Bucket = properties.getProperty("s3.bucket");
   }
+
+  private static String getPropertyOrDefault(Properties properties, String key,
+      String defaultValue) {
+    final String value = properties.getProperty(key);
+    return StringUtils.isBlank(value) ? defaultValue : value;
+  }
 }